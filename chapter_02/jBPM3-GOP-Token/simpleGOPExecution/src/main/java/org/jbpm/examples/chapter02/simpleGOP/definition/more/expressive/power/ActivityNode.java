@@ -1,20 +1,48 @@
 package org.jbpm.examples.chapter02.simpleGOP.definition.more.expressive.power;
 
 import java.util.Iterator;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.jbpm.examples.chapter02.simpleGOP.definition.Node;
 import org.jbpm.examples.chapter02.simpleGOP.definition.Transition;
+import org.jbpm.examples.chapter02.simpleGOP.execution.Execution;
 import org.jbpm.examples.chapter02.simpleGOP.execution.Token;
 
 /**
- *
+ * Simulates an activity that takes some time. By default the thread
+ * executing the token sleeps for the duration of the activity. An
+ * asynchronous activity parks the token instead and hands the completion
+ * to a ScheduledExecutorService, which signals the token when the activity
+ * finishes, so the thread that reached the node is free and a single
+ * scheduler thread can drive thousands of activities in flight. The rest of
+ * the path is then executed by the scheduler thread.
  * @author salaboy
  */
 public class ActivityNode extends Node {
 
+    private final long duration;
+    private final TimeUnit unit;
+    private final ScheduledExecutorService scheduler;
+
     public ActivityNode(String name) {
+        this(name, 5000, TimeUnit.MILLISECONDS);
+    }
+
+    public ActivityNode(String name, long duration, TimeUnit unit) {
+        this(name, duration, unit, null);
+    }
+
+    /**
+     * @param scheduler completes the activity asynchronously, null to block
+     * the executing thread
+     */
+    public ActivityNode(String name, long duration, TimeUnit unit, ScheduledExecutorService scheduler) {
         super(name);
+        this.duration = duration;
+        this.unit = unit;
+        this.scheduler = scheduler;
     }
 
     @Override
@@ -37,10 +65,22 @@ public class ActivityNode extends Node {
     }
 
     @Override
-    public void execute(Token token) {
+    public void execute(final Token token) {
         System.out.println("Executing the activity... this could take a while...");
+        if (scheduler != null) {
+            token.park();
+            Runnable completion = new Runnable() {
+                public void run() {
+                    System.out.println("Activity Finished");
+                    token.signal();
+                }
+            };
+            Execution execution = token.getExecution();
+            scheduler.schedule(execution == null ? completion : execution.track(completion), duration, unit);
+            return;
+        }
         try {
-            Thread.currentThread().sleep(5000);
+            unit.sleep(duration);
         } catch (InterruptedException ex) {
             Logger.getLogger(ActivityNode.class.getName()).log(Level.SEVERE, null, ex);
         }
@@ -48,4 +88,16 @@ public class ActivityNode extends Node {
         leave(token);
     }
 
+    public boolean isAsync() {
+        return scheduler != null;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public TimeUnit getUnit() {
+        return unit;
+    }
+
 }
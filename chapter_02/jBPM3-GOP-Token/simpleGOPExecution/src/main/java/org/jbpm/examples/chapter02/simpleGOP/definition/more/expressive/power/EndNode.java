@@ -40,6 +40,7 @@ public class EndNode extends Node {
     @Override
     public void execute(Token token) {
         System.out.println("Ending process at "+new Date());
+        token.end();
     }
     @Override
     public void addTransition(String event, Node destination) {
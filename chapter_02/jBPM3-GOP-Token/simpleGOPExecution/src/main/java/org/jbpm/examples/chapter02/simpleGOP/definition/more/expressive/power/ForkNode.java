@@ -0,0 +1,68 @@
+package org.jbpm.examples.chapter02.simpleGOP.definition.more.expressive.power;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jbpm.examples.chapter02.simpleGOP.definition.Node;
+import org.jbpm.examples.chapter02.simpleGOP.definition.Transition;
+import org.jbpm.examples.chapter02.simpleGOP.execution.Execution;
+import org.jbpm.examples.chapter02.simpleGOP.execution.Token;
+
+/**
+ * Leaves through all its transitions at the same time: it creates a child
+ * token for each one, named as the transition, and the parent token stays
+ * in the fork until a JoinNode merges the children. The children are moved
+ * by the Executor of the Execution, so the branches run concurrently.
+ * @author salaboy
+ */
+public class ForkNode extends Node {
+
+    private static final Logger logger = Logger.getLogger(ForkNode.class.getName());
+
+    public ForkNode(String name) {
+        super(name);
+    }
+
+    @Override
+    public void graph(){
+        String padding="";
+        String token="-";
+        for(int i=0; i < this.getName().length(); i++){
+            padding+=token;
+        }
+        System.out.println("+-----------.");
+        System.out.println("|<FORK NODE>|");
+        System.out.println("+---"+padding+"---.");
+        System.out.println("|   "+this.getName()+"   |");
+        System.out.println("+---"+padding+"---+");
+
+        Iterator<Transition> transitionIt =  getTransitions().values().iterator();
+        while(transitionIt.hasNext()){
+            transitionIt.next().graph();
+        }
+    }
+
+    @Override
+    public void leave(Token token) {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Forking " + this.getName());
+        }
+        // All the children exist before any of them moves, so a join never
+        // sees some of the branches ended before the others are created
+        List<Token> children = new ArrayList<Token>();
+        List<Transition> transitions = new ArrayList<Transition>(getLeavingTransitions().values());
+        for (Transition transition : transitions) {
+            children.add(token.createChild(transition.getLabel()));
+        }
+        Execution execution = token.getExecution();
+        for (int i = 0; i < transitions.size(); i++) {
+            if (execution == null) {
+                transitions.get(i).take(children.get(i));
+            } else {
+                execution.takeConcurrently(children.get(i), transitions.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.jbpm.examples.chapter02.simpleGOP.definition.more.expressive.power;
+
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jbpm.examples.chapter02.simpleGOP.definition.Node;
+import org.jbpm.examples.chapter02.simpleGOP.definition.Transition;
+import org.jbpm.examples.chapter02.simpleGOP.execution.Token;
+
+/**
+ * Merges the child tokens created by a ForkNode: each child that arrives
+ * ends, and the last one moves the parent token out of the join. A root
+ * token goes through the join without waiting.
+ * @author salaboy
+ */
+public class JoinNode extends Node {
+
+    private static final Logger logger = Logger.getLogger(JoinNode.class.getName());
+
+    public JoinNode(String name) {
+        super(name);
+    }
+
+    @Override
+    public void graph(){
+        String padding="";
+        String token="-";
+        for(int i=0; i < this.getName().length(); i++){
+            padding+=token;
+        }
+        System.out.println("+-----------.");
+        System.out.println("|<JOIN NODE>|");
+        System.out.println("+---"+padding+"---.");
+        System.out.println("|   "+this.getName()+"   |");
+        System.out.println("+---"+padding+"---+");
+
+        Iterator<Transition> transitionIt =  getTransitions().values().iterator();
+        while(transitionIt.hasNext()){
+            transitionIt.next().graph();
+        }
+    }
+
+    @Override
+    public void execute(Token token) {
+        Token parent = token.getParent();
+        if (parent == null) {
+            leave(token);
+            return;
+        }
+        boolean last;
+        // the children arriving at the same time end one after the other, so
+        // only one of them sees that there are no active children left
+        synchronized (parent) {
+            token.end();
+            last = !parent.hasActiveChildren();
+        }
+        if (last) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("All the branches arrived to " + this.getName());
+            }
+            parent.setCurrentNode(this);
+            leave(parent);
+        } else if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Branch " + token.getName() + " waiting in " + this.getName());
+        }
+    }
+}
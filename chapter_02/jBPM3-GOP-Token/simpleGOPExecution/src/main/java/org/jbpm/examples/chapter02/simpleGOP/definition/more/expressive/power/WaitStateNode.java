@@ -0,0 +1,43 @@
+package org.jbpm.examples.chapter02.simpleGOP.definition.more.expressive.power;
+
+import java.util.Iterator;
+import org.jbpm.examples.chapter02.simpleGOP.definition.Node;
+import org.jbpm.examples.chapter02.simpleGOP.definition.Transition;
+import org.jbpm.examples.chapter02.simpleGOP.execution.Token;
+
+/**
+ * Parks the token until someone outside the engine, like a person doing a
+ * human task, signals it.
+ * @author salaboy
+ */
+public class WaitStateNode extends Node {
+
+    public WaitStateNode(String name) {
+        super(name);
+    }
+
+    @Override
+    public void graph(){
+        String padding="";
+        String token="-";
+        for(int i=0; i < this.getName().length(); i++){
+            padding+=token;
+        }
+        System.out.println("+-----------------.");
+        System.out.println("|<WAIT STATE NODE>|");
+        System.out.println("+---"+padding+"---.");
+        System.out.println("|   "+this.getName()+"   |");
+        System.out.println("+---"+padding+"---+");
+
+        Iterator<Transition> transitionIt =  getTransitions().values().iterator();
+        while(transitionIt.hasNext()){
+            transitionIt.next().graph();
+        }
+    }
+
+    @Override
+    public void execute(Token token) {
+        System.out.println("Waiting in "+this.getName());
+        token.park();
+    }
+}
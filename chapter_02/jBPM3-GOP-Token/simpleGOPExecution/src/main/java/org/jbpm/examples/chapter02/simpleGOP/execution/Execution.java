@@ -1,21 +1,37 @@
 package org.jbpm.examples.chapter02.simpleGOP.execution;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import org.jbpm.examples.chapter02.simpleGOP.definition.Definition;
 import org.jbpm.examples.chapter02.simpleGOP.definition.Node;
+import org.jbpm.examples.chapter02.simpleGOP.definition.Transition;
 
 /**
- *
+ * Executes a definition with a main token. The child tokens created by a
+ * Fork are moved by the Executor of the execution, so independent branches
+ * run concurrently; without an Executor they are moved one after the other
+ * by the thread that reached the Fork. Asynchronous activities are tracked
+ * in the same way until their completion moves the token.
  * @author salaboy
  */
 public class Execution {
     private Definition definition;
     private Token mainToken;
+    private final Executor executor;
+    // branches and tracked work not finished yet, guarded by this
+    private int runningBranches;
+    private RuntimeException failure;
 
 
 
     public Execution(Definition definition) {
+        this(definition, null);
+    }
+
+    public Execution(Definition definition, Executor executor) {
         this.definition = definition;
-        this.mainToken = new Token();
+        this.executor = executor;
+        this.mainToken = new Token(this);
         //Setting the first Node as the current Node
 
         this.getMainToken().setCurrentNode(definition.getNodes().get(0));
@@ -29,6 +45,90 @@ public class Execution {
         this.getMainToken().getCurrentNode().leave(mainToken);
     }
 
+    /**
+     * Moves a child token through a transition, in a thread of the executor
+     * if there is one.
+     */
+    public void takeConcurrently(final Token token, final Transition transition) {
+        if (executor == null) {
+            transition.take(token);
+            return;
+        }
+        executor.execute(track(new Runnable() {
+            public void run() {
+                transition.take(token);
+            }
+        }));
+    }
+
+    /**
+     * Counts a piece of work that will move a token later, like the
+     * completion of an asynchronous activity, so {@link #awaitBranches}
+     * waits for it.
+     * @return the work to execute instead of the given one
+     */
+    public Runnable track(final Runnable work) {
+        synchronized (this) {
+            runningBranches++;
+        }
+        return new Runnable() {
+            public void run() {
+                RuntimeException branchFailure = null;
+                try {
+                    work.run();
+                } catch (RuntimeException e) {
+                    branchFailure = e;
+                } finally {
+                    branchFinished(branchFailure);
+                }
+            }
+        };
+    }
+
+    /**
+     * Waits until the branches running in the executor and the tracked work
+     * finish, or the tokens wait in a node.
+     * @return false if the timeout elapsed before
+     * @throws IllegalStateException if a branch failed, with the first
+     * failure as cause
+     */
+    public synchronized boolean awaitBranches(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (runningBranches > 0 && failure == null) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        if (failure != null) {
+            throw new IllegalStateException("A branch of the execution failed", failure);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if some branch or tracked work didn't finish yet
+     */
+    public synchronized boolean hasRunningBranches() {
+        return runningBranches > 0;
+    }
+
+    /**
+     * @return true once the main token reached an end node
+     */
+    public boolean hasEnded() {
+        return mainToken.hasEnded();
+    }
+
+    private synchronized void branchFinished(RuntimeException branchFailure) {
+        runningBranches--;
+        if (failure == null) {
+            failure = branchFailure;
+        }
+        notifyAll();
+    }
+
 
     /**
      * @return the definition
@@ -53,5 +153,13 @@ public class Execution {
         this.mainToken = mainToken;
     }
 
+    /**
+     * @return the executor of the child tokens, null if they are moved by
+     * the thread that forks them
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
 
 }
@@ -0,0 +1,278 @@
+package org.jbpm.examples.chapter02.simpleGOP.execution;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.jbpm.examples.chapter02.simpleGOP.definition.Definition;
+import org.jbpm.examples.chapter02.simpleGOP.definition.Node;
+
+/**
+ * Keeps a bounded number of executions on the heap and moves the idle ones
+ * to a memory mapped file. An execution is idle when its main token waits
+ * in a node for a signal, with no active children and no work in flight
+ * (an asynchronous activity keeps its token referenced by the scheduler, so
+ * it is not passivated until it completes). Executions with an Executor
+ * stay on the heap too, rebuilt executions don't have one. The tokens carry
+ * no data besides their position, so a passivated execution takes a
+ * record of {@value #RECORD_SIZE} bytes in the file and nothing on the heap:
+ * the definition, the position of the current node in it and whether the
+ * token waits. It is rebuilt when it is signalled or looked up.
+ * The executions on the heap are kept in least recently used order, and
+ * the least recently used idle ones are passivated when there are more
+ * than the limit. The id of an execution is the number of its record plus
+ * a generation, so ids of ended executions are never valid again.
+ * @author salaboy
+ */
+public class PassivationService {
+
+    static final int RECORD_SIZE = 16;
+    private static final byte FREE = 0;
+    private static final byte ACTIVE = 1;
+    private static final byte PASSIVATED = 2;
+    // record layout
+    private static final int STATE = 0;
+    private static final int WAITING = 1;
+    private static final int DEFINITION = 2;
+    private static final int NODE = 4;
+    private static final int GENERATION = 8;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer records;
+    private final int capacity;
+    private final int maxActive;
+    private final List<Definition> definitions = new ArrayList<Definition>();
+    // access ordered, the eldest entry is the least recently used execution
+    private final LinkedHashMap<Long, Execution> active = new LinkedHashMap<Long, Execution>(16, 0.75f, true);
+    // executions being signalled, never passivated
+    private final Set<Long> pinned = new HashSet<Long>();
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int nextSlot;
+    private int passivatedCount;
+
+    /**
+     * @param file replaced by the store of the records
+     * @param capacity maximum number of executions, active or passivated
+     * @param maxActive number of executions kept on the heap
+     */
+    public PassivationService(File file, int capacity, int maxActive) throws IOException {
+        if (capacity < 1 || maxActive < 0) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.maxActive = maxActive;
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        this.records = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * RECORD_SIZE);
+    }
+
+    /**
+     * Registers a definition so its executions can be passivated.
+     */
+    public synchronized void addDefinition(Definition definition) {
+        if (!definitions.contains(definition)) {
+            if (definitions.size() == Short.MAX_VALUE) {
+                throw new IllegalStateException("Too many definitions");
+            }
+            definitions.add(definition);
+        }
+    }
+
+    /**
+     * Starts tracking an execution, usually after starting it.
+     * @return the id of the execution in the service
+     * @throws IllegalStateException if the store is full
+     */
+    public synchronized long register(Execution execution) {
+        int definition = definitions.indexOf(execution.getDefinition());
+        if (definition < 0) {
+            throw new IllegalArgumentException("The definition " + execution.getDefinition().getName() + " was not added");
+        }
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else if (nextSlot < capacity) {
+            slot = nextSlot++;
+        } else {
+            throw new IllegalStateException("There is no space for more than " + capacity + " executions");
+        }
+        int offset = slot * RECORD_SIZE;
+        int generation = records.getInt(offset + GENERATION) + 1;
+        records.putInt(offset + GENERATION, generation);
+        records.putShort(offset + DEFINITION, (short) definition);
+        records.put(offset + STATE, ACTIVE);
+        long id = ((long) generation << 32) | slot;
+        active.put(id, execution);
+        update(id, execution);
+        return id;
+    }
+
+    /**
+     * Returns the execution, rebuilding it if it was passivated.
+     * @throws IllegalArgumentException if there is no execution with the id,
+     * or it ended
+     */
+    public synchronized Execution getExecution(long id) {
+        Execution execution = load(id);
+        evict();
+        return execution;
+    }
+
+    /**
+     * Signals the main token of an execution, rebuilding it if it was
+     * passivated. The execution is pinned before the others are evicted, so
+     * it is not passivated while it moves.
+     */
+    public void signal(long id) {
+        Execution execution;
+        synchronized (this) {
+            execution = load(id);
+            pinned.add(id);
+            evict();
+        }
+        try {
+            execution.getMainToken().signal();
+        } finally {
+            synchronized (this) {
+                pinned.remove(id);
+                update(id, execution);
+            }
+        }
+    }
+
+    /**
+     * Returns the execution, rebuilding it if it was passivated, without
+     * passivating any other.
+     */
+    private Execution load(long id) {
+        Execution execution = active.get(id);
+        if (execution != null) {
+            return execution;
+        }
+        int offset = offset(id);
+        Definition definition = definitions.get(records.getShort(offset + DEFINITION));
+        execution = new Execution(definition);
+        Token token = execution.getMainToken();
+        token.setCurrentNode(definition.getNodes().get(records.getInt(offset + NODE)));
+        if (records.get(offset + WAITING) != 0) {
+            token.park();
+        }
+        records.put(offset + STATE, ACTIVE);
+        passivatedCount--;
+        active.put(id, execution);
+        return execution;
+    }
+
+    /**
+     * Passivates an execution now, if it is idle.
+     * @return false if the execution is not idle
+     */
+    public synchronized boolean passivate(long id) {
+        Execution execution = active.get(id);
+        if (execution == null) {
+            offset(id);
+            return true;
+        }
+        if (pinned.contains(id) || !isIdle(execution)) {
+            return false;
+        }
+        active.remove(id);
+        write(id, execution, PASSIVATED);
+        passivatedCount++;
+        return true;
+    }
+
+    public synchronized int getActiveCount() {
+        return active.size();
+    }
+
+    public synchronized int getPassivatedCount() {
+        return passivatedCount;
+    }
+
+    public synchronized void close() throws IOException {
+        records.force();
+        file.close();
+    }
+
+    /**
+     * Writes the state of an execution that may have moved, frees its
+     * record if it ended and passivates the executions over the limit. An
+     * execution passivated while it moved (looked up with getExecution()
+     * and signalled directly) is put back on the heap, its record has the
+     * node it left.
+     */
+    private void update(long id, Execution execution) {
+        Execution current = active.get(id);
+        if (current != execution) {
+            if (current == null) {
+                records.put((int) id * RECORD_SIZE + STATE, ACTIVE);
+                passivatedCount--;
+            }
+            active.put(id, execution);
+        }
+        if (execution.hasEnded()) {
+            active.remove(id);
+            int slot = (int) id;
+            records.put(slot * RECORD_SIZE + STATE, FREE);
+            if (freeCount == freeSlots.length) {
+                int[] grown = new int[freeCount * 2];
+                System.arraycopy(freeSlots, 0, grown, 0, freeCount);
+                freeSlots = grown;
+            }
+            freeSlots[freeCount++] = slot;
+            return;
+        }
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Long, Execution>> it = active.entrySet().iterator();
+        while (active.size() > maxActive && it.hasNext()) {
+            Map.Entry<Long, Execution> entry = it.next();
+            if (!pinned.contains(entry.getKey()) && isIdle(entry.getValue())) {
+                it.remove();
+                write(entry.getKey(), entry.getValue(), PASSIVATED);
+                passivatedCount++;
+            }
+        }
+    }
+
+    private void write(long id, Execution execution, byte state) {
+        int offset = (int) id * RECORD_SIZE;
+        Token token = execution.getMainToken();
+        records.putInt(offset + NODE, execution.getDefinition().getNodes().indexOf(token.getCurrentNode()));
+        records.put(offset + WAITING, token.isWaiting() ? (byte) 1 : (byte) 0);
+        records.put(offset + STATE, state);
+    }
+
+    private static boolean isIdle(Execution execution) {
+        Token token = execution.getMainToken();
+        return token.isWaiting() && !token.hasActiveChildren() && !execution.hasRunningBranches()
+                && execution.getExecutor() == null;
+    }
+
+    /**
+     * @return the offset of the record of a passivated or active execution
+     */
+    private int offset(long id) {
+        int slot = (int) id;
+        if (slot < 0 || slot >= nextSlot) {
+            throw new IllegalArgumentException("There is no execution with id " + id);
+        }
+        int offset = slot * RECORD_SIZE;
+        if (records.get(offset + STATE) == FREE || records.getInt(offset + GENERATION) != (int) (id >>> 32)) {
+            throw new IllegalArgumentException("There is no execution with id " + id + ", it ended");
+        }
+        return offset;
+    }
+}
@@ -1,13 +1,43 @@
 package org.jbpm.examples.chapter02.simpleGOP.execution;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import org.jbpm.examples.chapter02.simpleGOP.definition.Node;
 
 /**
- *
+ * Points to the node where a path of the execution is. A token can be parked
+ * in a node, waiting for a signal to leave it. A Fork creates one
+ * child token per leaving transition, which can move concurrently, and a
+ * Join ends the children and moves the parent token again once all of them
+ * arrived.
  * @author salaboy
  */
 public class Token {
-    private Node currentNode;
+    private final String name;
+    private final Token parent;
+    private final Execution execution;
+    // guarded by this
+    private final Map<String, Token> children = new LinkedHashMap<String, Token>();
+    private volatile Node currentNode;
+    private volatile boolean ended;
+    // guarded by this
+    private boolean waiting;
+
+    public Token() {
+        this(null, null, null);
+    }
+
+    public Token(Execution execution) {
+        this(null, null, execution);
+    }
+
+    private Token(String name, Token parent, Execution execution) {
+        this.name = name;
+        this.parent = parent;
+        this.execution = execution;
+    }
 
     public Node getCurrentNode() {
         return currentNode;
@@ -16,5 +46,95 @@ public class Token {
     public void setCurrentNode(Node currentNode) {
         this.currentNode = currentNode;
     }
-    
+
+    /**
+     * Creates a child token in the same node as this one. An ended child
+     * with the same name, from a previous fork, is replaced.
+     * @throws IllegalStateException if there is already an active child with
+     * the same name
+     */
+    public synchronized Token createChild(String name) {
+        Token existing = children.get(name);
+        if (existing != null && !existing.hasEnded()) {
+            throw new IllegalStateException("The token already has a child called " + name);
+        }
+        Token child = new Token(name, this, execution);
+        child.setCurrentNode(currentNode);
+        children.put(name, child);
+        return child;
+    }
+
+    public synchronized Token getChild(String name) {
+        return children.get(name);
+    }
+
+    public synchronized List<Token> getChildren() {
+        return new ArrayList<Token>(children.values());
+    }
+
+    /**
+     * @return true if some child token didn't end yet
+     */
+    public synchronized boolean hasActiveChildren() {
+        for (Token child : children.values()) {
+            if (!child.hasEnded()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Leaves the token waiting in its current node until it is signalled.
+     */
+    public synchronized void park() {
+        waiting = true;
+    }
+
+    public synchronized boolean isWaiting() {
+        return waiting;
+    }
+
+    /**
+     * Moves a waiting token out of its current node, in the calling thread.
+     * @throws IllegalStateException if the token is not waiting
+     */
+    public void signal() {
+        synchronized (this) {
+            if (!waiting) {
+                throw new IllegalStateException("The token " + name + " is not waiting in " + currentNode.getName());
+            }
+            waiting = false;
+        }
+        currentNode.leave(this);
+    }
+
+    public void end() {
+        ended = true;
+    }
+
+    public boolean hasEnded() {
+        return ended;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Token getParent() {
+        return parent;
+    }
+
+    public boolean isRoot() {
+        return parent == null;
+    }
+
+    /**
+     * @return the execution of the token, null for tokens created outside an
+     * Execution
+     */
+    public Execution getExecution() {
+        return execution;
+    }
+
 }
@@ -1,13 +1,31 @@
 package org.jbpm.examples.chapter02.simpleGOP;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import junit.framework.TestCase;
 import org.jbpm.examples.chapter02.simpleGOP.definition.Definition;
 import org.jbpm.examples.chapter02.simpleGOP.definition.Node;
 import org.jbpm.examples.chapter02.simpleGOP.definition.more.expressive.power.ActivityNode;
 import org.jbpm.examples.chapter02.simpleGOP.definition.more.expressive.power.CustomAction;
 import org.jbpm.examples.chapter02.simpleGOP.definition.more.expressive.power.EndNode;
+import org.jbpm.examples.chapter02.simpleGOP.definition.more.expressive.power.ForkNode;
+import org.jbpm.examples.chapter02.simpleGOP.definition.more.expressive.power.JoinNode;
 import org.jbpm.examples.chapter02.simpleGOP.definition.more.expressive.power.StartNode;
+import org.jbpm.examples.chapter02.simpleGOP.definition.more.expressive.power.WaitStateNode;
+import org.jbpm.examples.chapter02.simpleGOP.execution.Action;
 import org.jbpm.examples.chapter02.simpleGOP.execution.Execution;
+import org.jbpm.examples.chapter02.simpleGOP.execution.PassivationService;
+import org.jbpm.examples.chapter02.simpleGOP.execution.Token;
 
 /**
  *
@@ -90,4 +108,264 @@ public class TestExecution extends TestCase{
         //The execution leave the third node
         assertEquals("Process End", execution.getMainToken().getCurrentNode().getName());
     }
+
+    /**
+     * This test will create a Process Definition with a ForkNode that starts
+     * three branches and a JoinNode that waits for them. Without an Executor
+     * the branches are executed one after the other by the thread that
+     * started the execution.
+     */
+    public void testForkAndJoinProcessExecution(){
+        final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+        Definition definition = createForkJoinDefinition(3, new Action() {
+            public String getName() {
+                return "record";
+            }
+
+            public void execute(Token token) {
+                executed.add(token.getName());
+            }
+        });
+
+        Execution execution = new Execution (definition);
+        execution.start();
+        assertEquals(3, executed.size());
+        //The main token left the join and ended
+        assertEquals("Process End", execution.getMainToken().getCurrentNode().getName());
+        assertTrue(execution.hasEnded());
+        //One child token per branch, named as the transition
+        assertEquals(3, execution.getMainToken().getChildren().size());
+        for (Token child : execution.getMainToken().getChildren()) {
+            assertTrue(child.hasEnded());
+            assertSame(execution.getMainToken(), child.getParent());
+            assertEquals("Join", child.getCurrentNode().getName());
+            assertTrue(executed.contains(child.getName()));
+        }
+    }
+
+    /**
+     * Same as the previous test, but the branches are moved by the threads
+     * of an Executor. Each branch waits for the others in a barrier, so the
+     * test only finishes if the branches run at the same time.
+     */
+    public void testConcurrentForkAndJoinProcessExecution() throws InterruptedException{
+        final int branches = 4;
+        final CyclicBarrier barrier = new CyclicBarrier(branches);
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        Definition definition = createForkJoinDefinition(branches, new Action() {
+            public String getName() {
+                return "meet";
+            }
+
+            public void execute(Token token) {
+                threads.add(Thread.currentThread().getName());
+                try {
+                    barrier.await(10, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new IllegalStateException("The branches didn't run concurrently", e);
+                }
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(branches);
+        try {
+            Execution execution = new Execution (definition, executor);
+            execution.start();
+            assertTrue(execution.awaitBranches(20, TimeUnit.SECONDS));
+            assertTrue(execution.hasEnded());
+            assertEquals("Process End", execution.getMainToken().getCurrentNode().getName());
+            assertEquals(branches, threads.size());
+            assertFalse(execution.getMainToken().hasActiveChildren());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * This test will create executions with an asynchronous ActivityNode.
+     * start() returns as soon as the token is parked in the activity, and a
+     * single scheduler thread completes all the activities, which run at the
+     * same time instead of one after the other.
+     */
+    public void testAsynchronousActivityExecution() throws InterruptedException{
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            Definition definition = new Definition("myAsynchronousProcess");
+            StartNode startNode = new StartNode("Process Start");
+            ActivityNode activityNode = new ActivityNode("My Activity", 200, TimeUnit.MILLISECONDS, scheduler);
+            EndNode endNode = new EndNode("Process End");
+            startNode.addTransition("do the activity", activityNode);
+            activityNode.addTransition("ending", endNode);
+            definition.addNode(startNode);
+            definition.addNode(activityNode);
+            definition.addNode(endNode);
+
+            long start = System.nanoTime();
+            List<Execution> executions = new ArrayList<Execution>();
+            for (int i = 0; i < 100; i++) {
+                Execution execution = new Execution (definition);
+                execution.start();
+                //The token waits in the activity
+                assertTrue(execution.getMainToken().isWaiting());
+                assertEquals("My Activity", execution.getMainToken().getCurrentNode().getName());
+                assertFalse(execution.hasEnded());
+                executions.add(execution);
+            }
+            for (Execution execution : executions) {
+                assertTrue(execution.awaitBranches(10, TimeUnit.SECONDS));
+                assertTrue(execution.hasEnded());
+                assertEquals("Process End", execution.getMainToken().getCurrentNode().getName());
+            }
+            //100 activities of 200ms completed in much less than 20 seconds
+            assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 10);
+
+            try {
+                executions.get(0).getMainToken().signal();
+                fail("The token is not waiting");
+            } catch (IllegalStateException e) {
+                //expected
+            }
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * This test will create many executions waiting in WaitStateNodes. The
+     * PassivationService keeps only the recently used ones on the heap and
+     * writes the others to a memory mapped file, rebuilding them when they
+     * are signalled.
+     */
+    public void testPassivatedExecutions() throws IOException{
+        Definition definition = new Definition("myHumanProcess");
+        StartNode startNode = new StartNode("Process Start");
+        WaitStateNode approve = new WaitStateNode("Approve");
+        WaitStateNode review = new WaitStateNode("Review");
+        EndNode endNode = new EndNode("Process End");
+        startNode.addTransition("to approve", approve);
+        approve.addTransition("to review", review);
+        review.addTransition("to end", endNode);
+        definition.addNode(startNode);
+        definition.addNode(approve);
+        definition.addNode(review);
+        definition.addNode(endNode);
+
+        File store = File.createTempFile("tokens", ".store");
+        store.deleteOnExit();
+        PassivationService passivation = new PassivationService(store, 1000, 10);
+        passivation.addDefinition(definition);
+        try {
+            List<Long> ids = new ArrayList<Long>();
+            for (int i = 0; i < 500; i++) {
+                Execution execution = new Execution (definition);
+                execution.start();
+                ids.add(passivation.register(execution));
+            }
+            //Only the 10 most recently used executions are on the heap
+            assertEquals(10, passivation.getActiveCount());
+            assertEquals(490, passivation.getPassivatedCount());
+
+            //A passivated execution is rebuilt waiting in the same node
+            Execution first = passivation.getExecution(ids.get(0));
+            assertEquals("Approve", first.getMainToken().getCurrentNode().getName());
+            assertTrue(first.getMainToken().isWaiting());
+            assertSame(first, passivation.getExecution(ids.get(0)));
+
+            for (Long id : ids) {
+                passivation.signal(id);
+            }
+            assertEquals("Review", passivation.getExecution(ids.get(250)).getMainToken().getCurrentNode().getName());
+            for (Long id : ids) {
+                passivation.signal(id);
+            }
+            assertEquals(0, passivation.getActiveCount());
+            assertEquals(0, passivation.getPassivatedCount());
+            try {
+                passivation.getExecution(ids.get(0));
+                fail("The execution ended");
+            } catch (IllegalArgumentException e) {
+                //expected
+            }
+
+            //The records of the ended executions are reused with new ids
+            Execution execution = new Execution (definition);
+            execution.start();
+            long id = passivation.register(execution);
+            assertFalse(ids.contains(id));
+            assertTrue(passivation.passivate(id));
+            assertEquals(1, passivation.getPassivatedCount());
+        } finally {
+            passivation.close();
+        }
+    }
+
+    /**
+     * Without room on the heap every execution is passivated as soon as it
+     * waits again, the signals are not lost in a rebuilt execution that was
+     * passivated before it moved.
+     */
+    public void testSignalledExecutionsWithoutActiveOnes() throws IOException{
+        Definition definition = new Definition("myHumanProcess");
+        StartNode startNode = new StartNode("Process Start");
+        WaitStateNode approve = new WaitStateNode("Approve");
+        WaitStateNode review = new WaitStateNode("Review");
+        EndNode endNode = new EndNode("Process End");
+        startNode.addTransition("to approve", approve);
+        approve.addTransition("to review", review);
+        review.addTransition("to end", endNode);
+        definition.addNode(startNode);
+        definition.addNode(approve);
+        definition.addNode(review);
+        definition.addNode(endNode);
+
+        File store = File.createTempFile("tokens", ".store");
+        store.deleteOnExit();
+        PassivationService passivation = new PassivationService(store, 10, 0);
+        passivation.addDefinition(definition);
+        try {
+            Execution execution = new Execution (definition);
+            execution.start();
+            long id = passivation.register(execution);
+            assertEquals(0, passivation.getActiveCount());
+            assertEquals(1, passivation.getPassivatedCount());
+
+            passivation.signal(id);
+            assertEquals(0, passivation.getActiveCount());
+            assertEquals(1, passivation.getPassivatedCount());
+            assertEquals("Review", passivation.getExecution(id).getMainToken().getCurrentNode().getName());
+
+            passivation.signal(id);
+            assertEquals(0, passivation.getPassivatedCount());
+            try {
+                passivation.getExecution(id);
+                fail("The execution ended");
+            } catch (IllegalArgumentException e) {
+                //expected
+            }
+        } finally {
+            passivation.close();
+        }
+    }
+
+    private Definition createForkJoinDefinition(int branches, Action action){
+        Definition definition = new Definition("myForkJoinProcess");
+        StartNode startNode = new StartNode("Process Start");
+        ForkNode fork = new ForkNode("Fork");
+        JoinNode join = new JoinNode("Join");
+        EndNode endNode = new EndNode("Process End");
+        definition.addNode(startNode);
+        definition.addNode(fork);
+        startNode.addTransition("to fork", fork);
+        for (int i = 1; i <= branches; i++) {
+            Node branch = new Node("Branch " + i);
+            branch.addAction(action);
+            definition.addNode(branch);
+            fork.addTransition("branch " + i, branch);
+            branch.addTransition("to join", join);
+        }
+        join.addTransition("to end", endNode);
+        definition.addNode(join);
+        definition.addNode(endNode);
+        return definition;
+    }
 }
@@ -0,0 +1,34 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.gop.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, which reports the bytes
+ * allocated per operation next to the time:
+ * <pre>
+ *   mvn -Pbenchmarks package
+ *   java -jar jBPM5-GOP-Benchmarks/target/benchmarks.jar [regexp]
+ * </pre>
+ * The optional argument selects the benchmarks to run, all of them by
+ * default. To use any other JMH option run org.openjdk.jmh.Main from the
+ * same jar and add -prof gc.
+ * @author salaboy
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : "com\\.salaboy\\.gop\\.benchmarks\\..*")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
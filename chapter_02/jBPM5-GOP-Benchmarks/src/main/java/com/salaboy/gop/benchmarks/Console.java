@@ -0,0 +1,43 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.gop.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Both engines print to the console while they execute, which would be most
+ * of what the benchmarks measure. The benchmarks discard System.out during
+ * each trial.
+ * @author salaboy
+ */
+public class Console {
+
+    private static final PrintStream NULL = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    });
+
+    private static PrintStream original;
+
+    public static synchronized void silence() {
+        if (original == null) {
+            original = System.out;
+            System.setOut(NULL);
+        }
+    }
+
+    public static synchronized void restore() {
+        if (original != null) {
+            System.setOut(original);
+            original = null;
+        }
+    }
+}
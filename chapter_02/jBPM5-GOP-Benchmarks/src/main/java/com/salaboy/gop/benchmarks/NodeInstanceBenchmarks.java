@@ -0,0 +1,275 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.gop.benchmarks;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import com.salaboy.process.engine.factories.ProcessInstanceFactory;
+import com.salaboy.process.engine.metrics.NodeTimingService;
+import com.salaboy.process.engine.services.ProcessEventBus;
+import com.salaboy.process.engine.services.Service;
+import com.salaboy.process.engine.structures.Action;
+import com.salaboy.process.engine.structures.ProcessDefinition;
+import com.salaboy.process.engine.structures.ProcessInstance;
+import com.salaboy.process.engine.structures.SequenceFlow;
+import com.salaboy.process.engine.structures.Task;
+import com.salaboy.process.engine.structures.impl.CompiledProcessDefinition;
+import com.salaboy.process.engine.structures.impl.ProcessDefinitionImpl;
+import com.salaboy.process.engine.structures.impl.VariableSchema;
+import com.salaboy.process.engine.tasks.impl.EndTask;
+import com.salaboy.process.engine.tasks.impl.ScriptTask;
+import com.salaboy.process.engine.tasks.impl.SequenceFlowImpl;
+import com.salaboy.process.engine.tasks.impl.StartTask;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the jBPM5 NodeInstance engine. Each process definition is
+ * measured as built (map based) and compiled into a
+ * {@link CompiledProcessDefinition}. The event service is an empty
+ * {@link ProcessEventBus}, like the one installed by ProcessInstanceFactory.
+ * {@link #walkChain()} measures the graph traversal alone, without creating
+ * node instances. The timed benchmarks add a {@link NodeTimingService} to measure the cost
+ * of recording the latency of each node.
+ * @author salaboy
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NodeInstanceBenchmarks {
+
+    private static final Action NO_OP = new Action() {
+        public void execute() {
+        }
+    };
+
+    @Param({"map", "compiled"})
+    public String definition;
+
+    @Param({"1000"})
+    public int chainLength;
+
+    @Param({"1000"})
+    public int fanOut;
+
+    @Param({"50"})
+    public int variables;
+
+    private Map<String, Service> services;
+    private Map<String, Service> timedServices;
+    private ProcessDefinition scriptProcess;
+    private ProcessDefinition chainProcess;
+    private ProcessDefinition fanOutProcess;
+    private ProcessDefinition schemaProcess;
+    private Map<String, Object> variableValues;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Console.silence();
+        services = new HashMap<String, Service>();
+        services.put("event-service", new ProcessEventBus());
+        timedServices = new HashMap<String, Service>(services);
+        timedServices.put("timing-service", new NodeTimingService());
+        scriptProcess = prepare(createChain(1));
+        chainProcess = prepare(createChain(chainLength));
+        fanOutProcess = prepare(createFanOut(fanOut));
+
+        VariableSchema schema = new VariableSchema();
+        variableValues = new HashMap<String, Object>();
+        for (int i = 0; i < variables; i++) {
+            if (i % 2 == 0) {
+                schema.addVariable("variable-" + i, VariableSchema.Type.LONG);
+                variableValues.put("variable-" + i, (long) i);
+            } else {
+                schema.addVariable("variable-" + i, VariableSchema.Type.OBJECT);
+                variableValues.put("variable-" + i, "value " + i);
+            }
+        }
+        ProcessDefinition withSchema = createChain(1);
+        withSchema.setVariableSchema(schema);
+        schemaProcess = prepare(withSchema);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Console.restore();
+    }
+
+    @Benchmark
+    public ProcessInstance createInstance() {
+        return ProcessInstanceFactory.newProcessInstance(scriptProcess, services);
+    }
+
+    /**
+     * start -> script -> end
+     */
+    @Benchmark
+    public ProcessInstance startScriptEnd() {
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(scriptProcess, services);
+        processInstance.start();
+        return processInstance;
+    }
+
+    /**
+     * Same as {@link #startScriptEnd()}, recording the latency of the nodes.
+     */
+    @Benchmark
+    public ProcessInstance startScriptEndTimed() {
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(scriptProcess, timedServices);
+        processInstance.start();
+        return processInstance;
+    }
+
+    /**
+     * start -> chainLength script tasks -> end
+     */
+    @Benchmark
+    public ProcessInstance longChain() {
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(chainProcess, services);
+        processInstance.start();
+        return processInstance;
+    }
+
+    /**
+     * Same as {@link #longChain()}, recording the latency of the nodes.
+     */
+    @Benchmark
+    public ProcessInstance longChainTimed() {
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(chainProcess, timedServices);
+        processInstance.start();
+        return processInstance;
+    }
+
+    /**
+     * Follows the first outgoing flow of each task of the long chain, from the
+     * start task to the end task, like the node instances do when they leave.
+     */
+    @Benchmark
+    public long walkChain() {
+        if (chainProcess instanceof CompiledProcessDefinition) {
+            return walkCompiled((CompiledProcessDefinition) chainProcess);
+        }
+        return walkMaps(chainProcess.getTasks().get(0L));
+    }
+
+    /**
+     * start -> fanOut branches of script -> end
+     */
+    @Benchmark
+    public ProcessInstance wideFanOut() {
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(fanOutProcess, services);
+        processInstance.start();
+        return processInstance;
+    }
+
+    /**
+     * Starts start -> script -> end with a number of variables and reads
+     * them all, using the map based context.
+     */
+    @Benchmark
+    public void variableHeavyMap(Blackhole blackhole) {
+        runWithVariables(scriptProcess, blackhole);
+    }
+
+    /**
+     * Same as {@link #variableHeavyMap(Blackhole)}, with the variables
+     * declared in a VariableSchema.
+     */
+    @Benchmark
+    public void variableHeavySchema(Blackhole blackhole) {
+        runWithVariables(schemaProcess, blackhole);
+    }
+
+    private void runWithVariables(ProcessDefinition process, Blackhole blackhole) {
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(process, services);
+        processInstance.start(variableValues);
+        for (String name : variableValues.keySet()) {
+            blackhole.consume(processInstance.getContextInstance().getVariable(name));
+        }
+    }
+
+    private static long walkMaps(Task task) {
+        long visited = 0;
+        String type = SequenceFlow.FLOW_DEFAULT_TYPE;
+        while (true) {
+            List<SequenceFlow> flows = task.getOutgoingFlows(type);
+            if (flows == null || flows.isEmpty()) {
+                return visited;
+            }
+            visited += flows.size();
+            SequenceFlow flow = flows.get(0);
+            type = flow.getToType();
+            task = flow.getTo();
+        }
+    }
+
+    private static long walkCompiled(CompiledProcessDefinition process) {
+        long visited = 0;
+        int node = process.getStartNodeId();
+        int typeId = process.getFlowTypeId(SequenceFlow.FLOW_DEFAULT_TYPE);
+        while (true) {
+            int start = process.getOutgoingStart(typeId, node);
+            int end = process.getOutgoingEnd(typeId, node);
+            if (start == end) {
+                return visited;
+            }
+            visited += end - start;
+            node = process.getEdgeTarget(typeId, start);
+            typeId = process.getEdgeTargetType(typeId, start);
+        }
+    }
+
+    private ProcessDefinition prepare(ProcessDefinition process) {
+        return "compiled".equals(definition) ? CompiledProcessDefinition.compile(process) : process;
+    }
+
+    private static ProcessDefinition createChain(int length) {
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        Task previous = new StartTask();
+        process.addTask(0L, previous);
+        for (int i = 1; i <= length; i++) {
+            ScriptTask scriptTask = new ScriptTask("java", NO_OP);
+            process.addTask((long) i, scriptTask);
+            previous.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, scriptTask));
+            previous = scriptTask;
+        }
+        EndTask endTask = new EndTask();
+        process.addTask((long) length + 1, endTask);
+        previous.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+        return process;
+    }
+
+    private static ProcessDefinition createFanOut(int width) {
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        StartTask startTask = new StartTask();
+        process.addTask(0L, startTask);
+        EndTask endTask = new EndTask();
+        process.addTask(1L, endTask);
+        for (int i = 0; i < width; i++) {
+            ScriptTask scriptTask = new ScriptTask("java", NO_OP);
+            process.addTask(i + 2L, scriptTask);
+            startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, scriptTask));
+            scriptTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+        }
+        return process;
+    }
+}
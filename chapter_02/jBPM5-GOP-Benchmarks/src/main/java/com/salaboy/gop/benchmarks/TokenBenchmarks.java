@@ -0,0 +1,153 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.gop.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.jbpm.examples.chapter02.simpleGOP.definition.Definition;
+import org.jbpm.examples.chapter02.simpleGOP.definition.Node;
+import org.jbpm.examples.chapter02.simpleGOP.definition.more.expressive.power.EndNode;
+import org.jbpm.examples.chapter02.simpleGOP.definition.more.expressive.power.ForkNode;
+import org.jbpm.examples.chapter02.simpleGOP.definition.more.expressive.power.JoinNode;
+import org.jbpm.examples.chapter02.simpleGOP.execution.Action;
+import org.jbpm.examples.chapter02.simpleGOP.execution.Execution;
+import org.jbpm.examples.chapter02.simpleGOP.execution.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the jBPM3 token engine (simpleGOPExecution), with the same
+ * shapes as {@link NodeInstanceBenchmarks} where the engine supports them.
+ * The token engine calls the next node from the current one, so the chain is
+ * kept short enough for the stack. The fan out goes through a fork and a
+ * join, with the branches moved by the thread that started the execution
+ * like in the NodeInstance engine. It has no process variables, there is no
+ * benchmark for those.
+ * @author salaboy
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TokenBenchmarks {
+
+    private static final Action NO_OP = new Action() {
+        public String getName() {
+            return "no-op";
+        }
+
+        public void execute(Token token) {
+        }
+    };
+
+    @Param({"200"})
+    public int chainLength;
+
+    @Param({"1000"})
+    public int fanOut;
+
+    private Definition scriptDefinition;
+    private Definition chainDefinition;
+    private Definition fanOutDefinition;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Console.silence();
+        scriptDefinition = createChain(1);
+        chainDefinition = createChain(chainLength);
+        fanOutDefinition = createFanOut(fanOut);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Console.restore();
+    }
+
+    @Benchmark
+    public Execution createExecution() {
+        return new Execution(scriptDefinition);
+    }
+
+    /**
+     * start -> node with an action -> end
+     */
+    @Benchmark
+    public Node startScriptEnd() {
+        Execution execution = new Execution(scriptDefinition);
+        execution.start();
+        return execution.getMainToken().getCurrentNode();
+    }
+
+    /**
+     * start -> chainLength nodes with an action -> end
+     */
+    @Benchmark
+    public Node longChain() {
+        Execution execution = new Execution(chainDefinition);
+        execution.start();
+        return execution.getMainToken().getCurrentNode();
+    }
+
+    /**
+     * start -> fork -> fanOut nodes with an action -> join -> end
+     */
+    @Benchmark
+    public Node wideFanOut() {
+        Execution execution = new Execution(fanOutDefinition);
+        execution.start();
+        return execution.getMainToken().getCurrentNode();
+    }
+
+    private static Definition createFanOut(int width) {
+        Definition definition = new Definition("fan-out-" + width);
+        Node start = new Node("start");
+        ForkNode fork = new ForkNode("fork");
+        JoinNode join = new JoinNode("join");
+        EndNode end = new EndNode("end");
+        definition.addNode(start);
+        definition.addNode(fork);
+        start.addTransition("to fork", fork);
+        for (int i = 0; i < width; i++) {
+            Node node = new Node("script-" + i);
+            node.addAction(NO_OP);
+            definition.addNode(node);
+            fork.addTransition("branch " + i, node);
+            node.addTransition("to join", join);
+        }
+        join.addTransition("to end", end);
+        definition.addNode(join);
+        definition.addNode(end);
+        return definition;
+    }
+
+    private static Definition createChain(int length) {
+        Definition definition = new Definition("chain-" + length);
+        Node previous = new Node("start");
+        definition.addNode(previous);
+        for (int i = 1; i <= length; i++) {
+            Node node = new Node("script-" + i);
+            node.addAction(NO_OP);
+            definition.addNode(node);
+            previous.addTransition("to script-" + i, node);
+            previous = node;
+        }
+        EndNode end = new EndNode("end");
+        definition.addNode(end);
+        previous.addTransition("to end", end);
+        return definition;
+    }
+}
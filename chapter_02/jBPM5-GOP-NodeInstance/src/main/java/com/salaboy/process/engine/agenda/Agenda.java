@@ -0,0 +1,96 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.agenda;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Node activations pending in a process instance. Instead of triggering the
+ * next node from inside the node that has just completed, node instances
+ * schedule the activation here and the process instance (or a
+ * {@link ProcessInstanceScheduler}) executes them one by one, so the stack
+ * doesn't grow with the length of the process.
+ * The activations scheduled while executing one activation are executed
+ * before the older ones, in the order they were scheduled. This keeps the
+ * depth first order of the recursive execution.
+ * An agenda is not thread safe: it is only used by one thread at a time. The
+ * process instance executes its agenda from the thread that started or
+ * resumed it, and every parallel branch gets its own agenda in the thread
+ * executing the branch (see
+ * {@link com.salaboy.process.engine.structures.impl.InternalProcessInstance#executeBranch(NodeActivation)}).
+ * @author salaboy
+ */
+public class Agenda {
+
+    private final Deque<NodeActivation> pending = new ArrayDeque<NodeActivation>();
+    private final List<NodeActivation> scheduledByCurrent = new ArrayList<NodeActivation>();
+    private boolean executing;
+
+    public void schedule(NodeActivation activation) {
+        if (executing) {
+            scheduledByCurrent.add(activation);
+        } else {
+            pending.addLast(activation);
+        }
+    }
+
+    /**
+     * Executes the next activation.
+     * @return false if there was nothing to execute
+     */
+    public boolean executeNext() {
+        if (executing) {
+            throw new IllegalStateException("The agenda is already executing an activation");
+        }
+        NodeActivation activation = pending.pollFirst();
+        if (activation == null) {
+            return false;
+        }
+        executing = true;
+        try {
+            activation.execute();
+        } finally {
+            executing = false;
+            for (int i = scheduledByCurrent.size() - 1; i >= 0; i--) {
+                pending.addFirst(scheduledByCurrent.get(i));
+            }
+            scheduledByCurrent.clear();
+        }
+        return true;
+    }
+
+    /**
+     * Executes activations until the agenda is empty. Does nothing if it is
+     * called from inside an activation: the outer loop will execute the
+     * new activations.
+     * @return the number of activations executed
+     */
+    public int executeAll() {
+        if (executing) {
+            return 0;
+        }
+        int executed = 0;
+        while (executeNext()) {
+            executed++;
+        }
+        return executed;
+    }
+
+    public boolean isEmpty() {
+        return pending.isEmpty() && scheduledByCurrent.isEmpty();
+    }
+
+    public int size() {
+        return pending.size() + scheduledByCurrent.size();
+    }
+
+    public void clear() {
+        pending.clear();
+        scheduledByCurrent.clear();
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.agenda;
+
+import com.salaboy.process.engine.structures.NodeInstance;
+
+/**
+ * A node instance waiting in the {@link Agenda} to be triggered.
+ * @author salaboy
+ */
+public class NodeActivation {
+
+    private final NodeInstance nodeInstance;
+    private final NodeInstance from;
+    private final String type;
+
+    public NodeActivation(NodeInstance nodeInstance, NodeInstance from, String type) {
+        this.nodeInstance = nodeInstance;
+        this.from = from;
+        this.type = type;
+    }
+
+    public void execute() {
+        nodeInstance.trigger(from, type);
+    }
+
+    public NodeInstance getNodeInstance() {
+        return nodeInstance;
+    }
+
+    public NodeInstance getFrom() {
+        return from;
+    }
+
+    public String getType() {
+        return type;
+    }
+}
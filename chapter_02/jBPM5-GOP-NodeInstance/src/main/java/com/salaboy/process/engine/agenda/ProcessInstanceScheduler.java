@@ -0,0 +1,95 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.agenda;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import com.salaboy.process.engine.structures.ProcessInstance;
+import com.salaboy.process.engine.structures.impl.InternalProcessInstance;
+
+/**
+ * Executes the agendas of many process instances on the calling thread,
+ * interleaving them: each instance executes up to <i>quantum</i> activations
+ * and then leaves its turn to the next one. Process instances added to a
+ * scheduler don't execute anything when they are started, the scheduler does
+ * it when {@link #run()} is called.
+ * @author salaboy
+ */
+public class ProcessInstanceScheduler {
+
+    private final int quantum;
+    private final List<ProcessInstance> processInstances = new ArrayList<ProcessInstance>();
+
+    public ProcessInstanceScheduler() {
+        this(1);
+    }
+
+    /**
+     * @param quantum activations executed by each instance in its turn
+     */
+    public ProcessInstanceScheduler(int quantum) {
+        if (quantum < 1) {
+            throw new IllegalArgumentException("The quantum must be at least 1");
+        }
+        this.quantum = quantum;
+    }
+
+    public void add(ProcessInstance processInstance) {
+        ((InternalProcessInstance) processInstance).setScheduler(this);
+        if (!processInstances.contains(processInstance)) {
+            processInstances.add(processInstance);
+        }
+    }
+
+    public void remove(ProcessInstance processInstance) {
+        processInstances.remove(processInstance);
+        ((InternalProcessInstance) processInstance).setScheduler(null);
+    }
+
+    /**
+     * Gives turns to the process instances until none of them has pending
+     * activations.
+     * @return the number of activations executed
+     */
+    public int run() {
+        int executed = 0;
+        boolean pending = true;
+        while (pending) {
+            pending = false;
+            for (int i = 0; i < processInstances.size(); i++) {
+                InternalProcessInstance processInstance = (InternalProcessInstance) processInstances.get(i);
+                Lock lock = processInstance.getExecutionLock();
+                lock.lock();
+                try {
+                    Agenda agenda = processInstance.getAgenda();
+                    for (int step = 0; step < quantum && agenda.executeNext(); step++) {
+                        executed++;
+                    }
+                    pending |= !agenda.isEmpty();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        removeEnded();
+        return executed;
+    }
+
+    public List<ProcessInstance> getProcessInstances() {
+        return processInstances;
+    }
+
+    private void removeEnded() {
+        for (Iterator<ProcessInstance> it = processInstances.iterator(); it.hasNext();) {
+            ProcessInstance processInstance = it.next();
+            if (processInstance.getStatus() == ProcessInstance.STATUS.ENDED) {
+                it.remove();
+                ((InternalProcessInstance) processInstance).setScheduler(null);
+            }
+        }
+    }
+}
@@ -0,0 +1,481 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.bpmn;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import com.salaboy.process.engine.structures.ProcessDefinition;
+import com.salaboy.process.engine.structures.SequenceFlow;
+import com.salaboy.process.engine.structures.Task;
+import com.salaboy.process.engine.structures.impl.ProcessDefinitionImpl;
+import com.salaboy.process.engine.structures.impl.VariableSchema;
+import com.salaboy.process.engine.tasks.impl.EndTask;
+import com.salaboy.process.engine.tasks.impl.ParallelJoinTask;
+import com.salaboy.process.engine.tasks.impl.ParallelSplitTask;
+import com.salaboy.process.engine.tasks.impl.PassThroughTask;
+import com.salaboy.process.engine.tasks.impl.ScriptTask;
+import com.salaboy.process.engine.tasks.impl.SequenceFlowImpl;
+import com.salaboy.process.engine.tasks.impl.StartTask;
+import com.salaboy.process.engine.tasks.impl.TimerTask;
+import com.salaboy.process.engine.tasks.impl.WaitStateTask;
+
+/**
+ * Reads a BPMN2 file with a StAX reader, without building a DOM, into a
+ * {@link ProcessDefinitionImpl}. The diagram and the elements the engine
+ * doesn't use (data associations, resources, lanes...) are skipped.
+ * <ul>
+ *  <li>The start event without trigger is the task 0, the other nodes get
+ *  the following ids in the order of the file.</li>
+ *  <li>Start events with a trigger become StartTasks that are never
+ *  started, end events become EndTasks.</li>
+ *  <li>Script tasks become ScriptTasks with an MVEL or Java script.</li>
+ *  <li>Tasks done outside the engine (user, manual, service, business rule,
+ *  send and receive tasks) and catch events without timer become
+ *  WaitStateTasks.</li>
+ *  <li>Catch events with a timer duration become TimerTasks.</li>
+ *  <li>Parallel gateways become a ParallelSplitTask or a ParallelJoinTask
+ *  waiting for all the incoming flows. Converging exclusive gateways and
+ *  throw events without a trigger become PassThroughTasks, which let every
+ *  branch through.</li>
+ *  <li>The properties of the process become a VariableSchema: Long, Double
+ *  and Boolean properties are kept as primitives.</li>
+ * </ul>
+ * The engine has no conditional flows, events thrown by the process or
+ * sub-processes, so a process using diverging exclusive or inclusive
+ * gateways, event based gateways, sub-processes, call activities or
+ * boundary events is rejected, as well as a process with broken flows.
+ * @author salaboy
+ */
+public class BpmnProcessLoader {
+
+    public static final String BPMN2_NAMESPACE = "http://www.omg.org/spec/BPMN/20100524/MODEL";
+    public static final String DROOLS_NAMESPACE = "http://www.jboss.org/drools";
+
+    private static final Set<String> WAIT_STATES = new HashSet<String>(Arrays.asList(
+            "task", "userTask", "manualTask", "serviceTask", "businessRuleTask", "sendTask", "receiveTask"));
+    private static final Set<String> FLOW_NODES = new HashSet<String>(Arrays.asList(
+            "startEvent", "endEvent", "scriptTask", "intermediateCatchEvent", "intermediateThrowEvent",
+            "parallelGateway", "exclusiveGateway", "inclusiveGateway", "eventBasedGateway", "complexGateway",
+            "subProcess", "adHocSubProcess", "transaction", "callActivity", "boundaryEvent"));
+    private static final Pattern ISO_DURATION = Pattern.compile(
+            "P(?:(\\d+)D)?(?:T(?:(\\d+)H)?(?:(\\d+)M)?(?:(\\d+(?:\\.\\d+)?)S)?)?");
+    private static final Pattern JBPM_DURATION = Pattern.compile("(\\d+)(ms|s|m|h|d)");
+
+    private final XMLInputFactory inputFactory;
+
+    public BpmnProcessLoader() {
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    }
+
+    /**
+     * Reads the first process of a BPMN2 file. The stream is not closed.
+     * @throws IllegalArgumentException if the file is not valid BPMN2 or
+     * the process can't be executed by the engine, with all the problems
+     * found
+     */
+    public ProcessDefinition load(InputStream in) throws IOException {
+        ParsedProcess parsed;
+        try {
+            XMLStreamReader reader;
+            synchronized (inputFactory) {
+                reader = inputFactory.createXMLStreamReader(in);
+            }
+            try {
+                parsed = parse(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("The BPMN2 file can't be read: " + e.getMessage(), e);
+        }
+        return build(parsed);
+    }
+
+    private ParsedProcess parse(XMLStreamReader reader) throws XMLStreamException {
+        ParsedProcess process = null;
+        Map<String, String> itemDefinitions = new HashMap<String, String>();
+        while (reader.hasNext()) {
+            if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            String name = reader.getLocalName();
+            if (!BPMN2_NAMESPACE.equals(reader.getNamespaceURI()) || "definitions".equals(name)) {
+                if (!"definitions".equals(name)) {
+                    skip(reader);
+                }
+            } else if ("itemDefinition".equals(name)) {
+                itemDefinitions.put(reader.getAttributeValue(null, "id"), reader.getAttributeValue(null, "structureRef"));
+                skip(reader);
+            } else if ("process".equals(name) && process == null) {
+                process = parseProcess(reader, itemDefinitions);
+            } else {
+                skip(reader);
+            }
+        }
+        if (process == null) {
+            throw new IllegalArgumentException("The BPMN2 file doesn't contain a process");
+        }
+        return process;
+    }
+
+    private ParsedProcess parseProcess(XMLStreamReader reader, Map<String, String> itemDefinitions) throws XMLStreamException {
+        ParsedProcess process = new ParsedProcess();
+        process.id = reader.getAttributeValue(null, "id");
+        process.version = reader.getAttributeValue(DROOLS_NAMESPACE, "version");
+        while (nextChild(reader)) {
+            String name = reader.getLocalName();
+            if (!BPMN2_NAMESPACE.equals(reader.getNamespaceURI())) {
+                skip(reader);
+            } else if ("sequenceFlow".equals(name)) {
+                ParsedFlow flow = new ParsedFlow();
+                flow.id = reader.getAttributeValue(null, "id");
+                flow.source = reader.getAttributeValue(null, "sourceRef");
+                flow.target = reader.getAttributeValue(null, "targetRef");
+                skip(reader);
+                process.flows.add(flow);
+            } else if ("property".equals(name)) {
+                String structure = itemDefinitions.get(reader.getAttributeValue(null, "itemSubjectRef"));
+                process.properties.put(reader.getAttributeValue(null, "id"), structure);
+                skip(reader);
+            } else if (WAIT_STATES.contains(name) || FLOW_NODES.contains(name)) {
+                process.nodes.add(parseNode(reader, name));
+            } else {
+                skip(reader);
+            }
+        }
+        return process;
+    }
+
+    private ParsedNode parseNode(XMLStreamReader reader, String element) throws XMLStreamException {
+        ParsedNode node = new ParsedNode();
+        node.element = element;
+        node.id = reader.getAttributeValue(null, "id");
+        node.name = reader.getAttributeValue(null, "name");
+        node.scriptFormat = reader.getAttributeValue(null, "scriptFormat");
+        node.direction = reader.getAttributeValue(null, "gatewayDirection");
+        if ("subProcess".equals(element) || "adHocSubProcess".equals(element) || "transaction".equals(element)) {
+            // the nodes inside are not part of this process
+            skip(reader);
+            return node;
+        }
+        while (nextChild(reader)) {
+            String name = reader.getLocalName();
+            if ("script".equals(name)) {
+                node.script = reader.getElementText();
+            } else if (name.endsWith("EventDefinition")) {
+                node.eventDefinition = name.substring(0, name.length() - "EventDefinition".length());
+                while (nextChild(reader)) {
+                    if ("timeDuration".equals(reader.getLocalName())) {
+                        node.timeDuration = reader.getElementText().trim();
+                    } else {
+                        node.timeOther |= reader.getLocalName().startsWith("time");
+                        skip(reader);
+                    }
+                }
+            } else {
+                skip(reader);
+            }
+        }
+        return node;
+    }
+
+    private ProcessDefinition build(ParsedProcess parsed) {
+        List<String> problems = new ArrayList<String>();
+        Map<String, ParsedNode> nodes = new LinkedHashMap<String, ParsedNode>();
+        for (ParsedNode node : parsed.nodes) {
+            if (nodes.put(node.id, node) != null) {
+                problems.add("there are two nodes with id " + node.id);
+            }
+        }
+        for (ParsedFlow flow : parsed.flows) {
+            ParsedNode source = nodes.get(flow.source);
+            ParsedNode target = nodes.get(flow.target);
+            if (source == null || target == null) {
+                problems.add("the sequence flow " + flow.id + " connects " + flow.source + " to " + flow.target
+                        + ", which are not nodes of the process");
+                continue;
+            }
+            source.outgoing.add(flow);
+            target.incoming++;
+        }
+
+        ParsedNode start = null;
+        for (ParsedNode node : nodes.values()) {
+            if ("startEvent".equals(node.element) && node.eventDefinition == null) {
+                if (start != null) {
+                    problems.add("only one start event without trigger is supported, " + start.id + " and " + node.id + " were found");
+                }
+                start = node;
+            }
+        }
+        if (start == null) {
+            problems.add("there is no start event without trigger");
+        }
+
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        process.setId(parsed.id);
+        if (parsed.version != null) {
+            try {
+                process.setVersion(Integer.parseInt(parsed.version.trim()));
+            } catch (NumberFormatException e) {
+                problems.add("the version " + parsed.version + " is not a number");
+            }
+        }
+        Map<String, Task> tasks = new HashMap<String, Task>();
+        long nextId = 1;
+        for (ParsedNode node : nodes.values()) {
+            Task task = createTask(node, problems);
+            if (task == null) {
+                continue;
+            }
+            if (node.name != null) {
+                task.setName(node.name.trim());
+            }
+            tasks.put(node.id, task);
+            process.addTask(node == start ? 0L : nextId++, task);
+        }
+        for (ParsedNode node : nodes.values()) {
+            Task source = tasks.get(node.id);
+            for (ParsedFlow flow : node.outgoing) {
+                Task target = tasks.get(flow.target);
+                if (source != null && target != null) {
+                    source.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, target));
+                }
+            }
+        }
+        if (!parsed.properties.isEmpty()) {
+            process.setVariableSchema(createSchema(parsed.properties));
+        }
+        if (!problems.isEmpty()) {
+            StringBuilder message = new StringBuilder("The process " + parsed.id + " can't be executed by the engine:");
+            for (String problem : problems) {
+                message.append("\n - ").append(problem);
+            }
+            throw new IllegalArgumentException(message.toString());
+        }
+        return process;
+    }
+
+    private Task createTask(ParsedNode node, List<String> problems) {
+        String element = node.element;
+        if ("startEvent".equals(element)) {
+            return new StartTask();
+        }
+        if ("endEvent".equals(element)) {
+            return new EndTask();
+        }
+        if (WAIT_STATES.contains(element)) {
+            return new WaitStateTask();
+        }
+        if ("scriptTask".equals(element)) {
+            String dialect = getDialect(node.scriptFormat);
+            if (dialect == null) {
+                problems.add("the script task " + node.id + " uses the script format " + node.scriptFormat
+                        + ", only MVEL and Java are supported");
+                return null;
+            }
+            if (node.script == null || node.script.trim().length() == 0) {
+                problems.add("the script task " + node.id + " has no script");
+                return null;
+            }
+            return ScriptTask.fromScript(dialect, node.script);
+        }
+        if ("intermediateCatchEvent".equals(element)) {
+            if (!"timer".equals(node.eventDefinition)) {
+                return new WaitStateTask();
+            }
+            if (node.timeOther) {
+                problems.add("the timer " + node.id + " uses a date or a cycle, only durations are supported");
+                return null;
+            }
+            long millis = node.timeDuration == null ? 0 : parseDuration(node.timeDuration);
+            if (millis < 0) {
+                problems.add("the timer " + node.id + " has an invalid duration: " + node.timeDuration);
+                return null;
+            }
+            return new TimerTask(millis, TimeUnit.MILLISECONDS);
+        }
+        if ("intermediateThrowEvent".equals(element) && node.eventDefinition == null) {
+            // an event without trigger only marks a state the process went through
+            return new PassThroughTask();
+        }
+        if ("parallelGateway".equals(element)) {
+            boolean diverging = node.direction == null ? node.outgoing.size() > 1 : "Diverging".equals(node.direction);
+            if (diverging && node.incoming <= 1) {
+                return new ParallelSplitTask();
+            }
+            if (!diverging && node.outgoing.size() <= 1) {
+                return new ParallelJoinTask(Math.max(1, node.incoming));
+            }
+        }
+        if ("exclusiveGateway".equals(element) && node.outgoing.size() <= 1) {
+            return new PassThroughTask();
+        }
+        problems.add("the " + element + " " + node.id + describe(node) + " is not supported");
+        return null;
+    }
+
+    private static String describe(ParsedNode node) {
+        StringBuilder description = new StringBuilder();
+        if (node.name != null && node.name.trim().length() > 0) {
+            description.append(" (").append(node.name.trim()).append(')');
+        }
+        if (node.eventDefinition != null) {
+            description.append(" with a ").append(node.eventDefinition).append(" event");
+        }
+        if (node.element.endsWith("Gateway") && node.outgoing.size() > 1) {
+            description.append(" with ").append(node.outgoing.size()).append(" outgoing flows");
+        }
+        return description.toString();
+    }
+
+    private static VariableSchema createSchema(Map<String, String> properties) {
+        VariableSchema schema = new VariableSchema();
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            String structure = property.getValue();
+            VariableSchema.Type type = VariableSchema.Type.OBJECT;
+            if ("java.lang.Long".equals(structure) || "long".equals(structure)) {
+                type = VariableSchema.Type.LONG;
+            } else if ("java.lang.Double".equals(structure) || "double".equals(structure)) {
+                type = VariableSchema.Type.DOUBLE;
+            } else if ("java.lang.Boolean".equals(structure) || "boolean".equals(structure)) {
+                type = VariableSchema.Type.BOOLEAN;
+            }
+            schema.addVariable(property.getKey(), type);
+        }
+        return schema;
+    }
+
+    private static String getDialect(String scriptFormat) {
+        if (scriptFormat == null || scriptFormat.indexOf("mvel") >= 0) {
+            return "mvel";
+        }
+        if (scriptFormat.indexOf("java.com/java") >= 0) {
+            return "java";
+        }
+        return null;
+    }
+
+    /**
+     * Parses an ISO 8601 duration (P1DT2H30M), a jBPM duration (1h30m) or a
+     * number of milliseconds.
+     * @return the milliseconds, -1 if the duration is not valid
+     */
+    static long parseDuration(String duration) {
+        if (duration.matches("\\d+")) {
+            return Long.parseLong(duration);
+        }
+        Matcher iso = ISO_DURATION.matcher(duration);
+        if (iso.matches() && duration.length() > 1 && !duration.endsWith("T")) {
+            long millis = 0;
+            millis += iso.group(1) == null ? 0 : TimeUnit.DAYS.toMillis(Long.parseLong(iso.group(1)));
+            millis += iso.group(2) == null ? 0 : TimeUnit.HOURS.toMillis(Long.parseLong(iso.group(2)));
+            millis += iso.group(3) == null ? 0 : TimeUnit.MINUTES.toMillis(Long.parseLong(iso.group(3)));
+            millis += iso.group(4) == null ? 0 : Math.round(Double.parseDouble(iso.group(4)) * 1000);
+            return millis;
+        }
+        Matcher jbpm = JBPM_DURATION.matcher(duration);
+        long millis = 0;
+        int end = 0;
+        while (jbpm.find() && jbpm.start() == end) {
+            long value = Long.parseLong(jbpm.group(1));
+            String unit = jbpm.group(2);
+            if ("ms".equals(unit)) {
+                millis += value;
+            } else if ("s".equals(unit)) {
+                millis += TimeUnit.SECONDS.toMillis(value);
+            } else if ("m".equals(unit)) {
+                millis += TimeUnit.MINUTES.toMillis(value);
+            } else if ("h".equals(unit)) {
+                millis += TimeUnit.HOURS.toMillis(value);
+            } else {
+                millis += TimeUnit.DAYS.toMillis(value);
+            }
+            end = jbpm.end();
+        }
+        return end > 0 && end == duration.length() ? millis : -1;
+    }
+
+    /**
+     * Moves to the next child element of the current element.
+     * @return false when the end of the current element is reached
+     */
+    private static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Skips the current element and everything inside it.
+     */
+    private static void skip(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static class ParsedProcess {
+
+        String id;
+        String version;
+        final List<ParsedNode> nodes = new ArrayList<ParsedNode>();
+        final List<ParsedFlow> flows = new ArrayList<ParsedFlow>();
+        // property id -> structure of its item definition
+        final Map<String, String> properties = new LinkedHashMap<String, String>();
+    }
+
+    private static class ParsedNode {
+
+        String element;
+        String id;
+        String name;
+        String scriptFormat;
+        String direction;
+        String script;
+        String eventDefinition;
+        String timeDuration;
+        boolean timeOther;
+        int incoming;
+        final List<ParsedFlow> outgoing = new ArrayList<ParsedFlow>();
+    }
+
+    private static class ParsedFlow {
+
+        String id;
+        String source;
+        String target;
+    }
+}
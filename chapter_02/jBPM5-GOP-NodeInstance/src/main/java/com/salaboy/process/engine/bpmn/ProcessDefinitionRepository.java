@@ -0,0 +1,187 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.bpmn;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.salaboy.process.engine.structures.ProcessDefinition;
+import com.salaboy.process.engine.util.Checksums;
+
+/**
+ * Keeps the process definitions loaded from BPMN2 files in a cache keyed by
+ * the checksum of the file content, so a file is parsed and validated once
+ * no matter how many times, or from how many paths, it is loaded. For files
+ * the size and the modification time are remembered too: a file that didn't
+ * change is not even read again, a file touched without changes is read and
+ * hashed but not parsed. When the content of a file or URL changes, the
+ * definition of the old content is dropped unless another file or URL still
+ * has it.
+ * The definitions are shared by all the callers, they shouldn't be changed
+ * once loaded.
+ * @author salaboy
+ */
+public class ProcessDefinitionRepository {
+
+    private final BpmnProcessLoader loader;
+    private final ConcurrentHashMap<String, ProcessDefinition> definitions = new ConcurrentHashMap<String, ProcessDefinition>();
+    // by canonical path of the file or external form of the URL
+    private final ConcurrentHashMap<String, FileState> files = new ConcurrentHashMap<String, FileState>();
+    private final AtomicInteger parseCount = new AtomicInteger();
+
+    public ProcessDefinitionRepository() {
+        this(new BpmnProcessLoader());
+    }
+
+    public ProcessDefinitionRepository(BpmnProcessLoader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the file is not valid BPMN2 or
+     * the process can't be executed by the engine
+     */
+    public ProcessDefinition getProcessDefinition(File file) throws IOException {
+        String path = file.getCanonicalPath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+        FileState state = files.get(path);
+        if (state != null && state.lastModified == lastModified && state.length == length) {
+            ProcessDefinition definition = definitions.get(state.checksum);
+            if (definition != null) {
+                return definition;
+            }
+        }
+        InputStream in = new FileInputStream(file);
+        byte[] content;
+        try {
+            content = read(in);
+        } finally {
+            in.close();
+        }
+        String checksum = Checksums.sha1(content);
+        ProcessDefinition definition = getProcessDefinition(checksum, content);
+        update(path, new FileState(lastModified, length, checksum));
+        return definition;
+    }
+
+    /**
+     * Resources behind a URL are always read and hashed, they are only
+     * parsed when their content changed.
+     */
+    public ProcessDefinition getProcessDefinition(URL url) throws IOException {
+        InputStream in = url.openStream();
+        byte[] content;
+        try {
+            content = read(in);
+        } finally {
+            in.close();
+        }
+        String checksum = Checksums.sha1(content);
+        ProcessDefinition definition = getProcessDefinition(checksum, content);
+        update(url.toExternalForm(), new FileState(-1, -1, checksum));
+        return definition;
+    }
+
+    /**
+     * Loads the .bpmn and .bpmn2 files of a directory, sorted by name.
+     */
+    public List<ProcessDefinition> getProcessDefinitions(File directory) throws IOException {
+        File[] bpmnFiles = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile() && (file.getName().endsWith(".bpmn") || file.getName().endsWith(".bpmn2"));
+            }
+        });
+        if (bpmnFiles == null) {
+            throw new IOException(directory + " is not a directory");
+        }
+        Arrays.sort(bpmnFiles);
+        List<ProcessDefinition> loaded = new ArrayList<ProcessDefinition>(bpmnFiles.length);
+        for (File file : bpmnFiles) {
+            loaded.add(getProcessDefinition(file));
+        }
+        return loaded;
+    }
+
+    /**
+     * @return how many times a file was parsed, files served from the cache
+     * are not counted
+     */
+    public int getParseCount() {
+        return parseCount.get();
+    }
+
+    public int size() {
+        return definitions.size();
+    }
+
+    public void clear() {
+        definitions.clear();
+        files.clear();
+    }
+
+    private ProcessDefinition getProcessDefinition(String checksum, byte[] content) throws IOException {
+        ProcessDefinition definition = definitions.get(checksum);
+        if (definition == null) {
+            parseCount.incrementAndGet();
+            definition = loader.load(new ByteArrayInputStream(content));
+            ProcessDefinition previous = definitions.putIfAbsent(checksum, definition);
+            if (previous != null) {
+                definition = previous;
+            }
+        }
+        return definition;
+    }
+
+    /**
+     * Remembers the content of a source and drops the definition of its
+     * previous content when no other source has it.
+     */
+    private synchronized void update(String source, FileState state) {
+        FileState previous = files.put(source, state);
+        if (previous == null || previous.checksum.equals(state.checksum)) {
+            return;
+        }
+        for (FileState other : files.values()) {
+            if (other.checksum.equals(previous.checksum)) {
+                return;
+            }
+        }
+        definitions.remove(previous.checksum);
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            content.write(buffer, 0, read);
+        }
+        return content.toByteArray();
+    }
+
+    private static class FileState {
+
+        final long lastModified;
+        final long length;
+        final String checksum;
+
+        FileState(long lastModified, long length, String checksum) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.checksum = checksum;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.factories;
+
+import com.salaboy.process.engine.structures.NodeInstance;
+import com.salaboy.process.engine.structures.ProcessInstance;
+import com.salaboy.process.engine.structures.Task;
+
+/**
+ * Creates the node instances of one type of task. Creators are registered in
+ * {@link NodeInstanceFactory}.
+ * @author salaboy
+ */
+public interface NodeInstanceCreator {
+
+    public NodeInstance create(ProcessInstance processInstance, Task task);
+
+    /**
+     * Stateless node instances keep nothing between activations, so a process
+     * instance can reuse the same instance every time the node is reached
+     * instead of creating a new one.
+     */
+    public boolean isStateless();
+}
@@ -4,38 +4,180 @@
  */
 package com.salaboy.process.engine.factories;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import com.salaboy.process.engine.structures.Task;
 import com.salaboy.process.engine.structures.NodeInstance;
 import com.salaboy.process.engine.structures.ProcessInstance;
+import com.salaboy.process.engine.structures.impl.CompiledProcessDefinition;
+import com.salaboy.process.engine.structures.impl.InternalProcessInstance;
+import com.salaboy.process.engine.taskinstances.impl.AbstractNodeInstance;
 import com.salaboy.process.engine.taskinstances.impl.EndTaskNodeInstance;
+import com.salaboy.process.engine.taskinstances.impl.ParallelJoinTaskNodeInstance;
+import com.salaboy.process.engine.taskinstances.impl.ParallelSplitTaskNodeInstance;
+import com.salaboy.process.engine.taskinstances.impl.PassThroughTaskNodeInstance;
 import com.salaboy.process.engine.taskinstances.impl.ScriptTaskNodeInstance;
 import com.salaboy.process.engine.taskinstances.impl.StartTaskNodeInstance;
+import com.salaboy.process.engine.taskinstances.impl.TimerTaskNodeInstance;
+import com.salaboy.process.engine.taskinstances.impl.WaitStateTaskNodeInstance;
 import com.salaboy.process.engine.tasks.impl.EndTask;
+import com.salaboy.process.engine.tasks.impl.ParallelJoinTask;
+import com.salaboy.process.engine.tasks.impl.ParallelSplitTask;
+import com.salaboy.process.engine.tasks.impl.PassThroughTask;
 import com.salaboy.process.engine.tasks.impl.ScriptTask;
 import com.salaboy.process.engine.tasks.impl.StartTask;
+import com.salaboy.process.engine.tasks.impl.TimerTask;
+import com.salaboy.process.engine.tasks.impl.WaitStateTask;
 
 /**
- *
+ * Creates node instances using the {@link NodeInstanceCreator} registered for
+ * the class of the task. A task without its own creator uses the creator of
+ * its closest superclass, so new types of tasks can extend the existing
+ * ones or register their own creator.
  * @author salaboy
  */
 public class NodeInstanceFactory {
+
+    private static final Map<Class<?>, NodeInstanceCreator> creators = new ConcurrentHashMap<Class<?>, NodeInstanceCreator>();
+    // creators found walking up the class hierarchy, cleared on every registration
+    private static final Map<Class<?>, NodeInstanceCreator> resolved = new ConcurrentHashMap<Class<?>, NodeInstanceCreator>();
+
+    static {
+        register(StartTask.class, new NodeInstanceCreator() {
+            public NodeInstance create(ProcessInstance processInstance, Task task) {
+                return new StartTaskNodeInstance(processInstance, task);
+            }
+
+            public boolean isStateless() {
+                return true;
+            }
+        });
+        register(ScriptTask.class, new NodeInstanceCreator() {
+            public NodeInstance create(ProcessInstance processInstance, Task task) {
+                return new ScriptTaskNodeInstance(processInstance, task, ((ScriptTask) task).getAction());
+            }
+
+            public boolean isStateless() {
+                return false;
+            }
+        });
+        register(EndTask.class, new NodeInstanceCreator() {
+            public NodeInstance create(ProcessInstance processInstance, Task task) {
+                return new EndTaskNodeInstance(processInstance, task);
+            }
+
+            public boolean isStateless() {
+                return true;
+            }
+        });
+        register(ParallelSplitTask.class, new NodeInstanceCreator() {
+            public NodeInstance create(ProcessInstance processInstance, Task task) {
+                return new ParallelSplitTaskNodeInstance(processInstance, task);
+            }
+
+            public boolean isStateless() {
+                return false;
+            }
+        });
+        register(ParallelJoinTask.class, new NodeInstanceCreator() {
+            // every branch gets the same active instance
+            public NodeInstance create(ProcessInstance processInstance, Task task) {
+                return ParallelJoinTaskNodeInstance.getOrCreate(processInstance, task);
+            }
+
+            public boolean isStateless() {
+                return false;
+            }
+        });
+        register(PassThroughTask.class, new NodeInstanceCreator() {
+            public NodeInstance create(ProcessInstance processInstance, Task task) {
+                return new PassThroughTaskNodeInstance(processInstance, task);
+            }
+
+            public boolean isStateless() {
+                return true;
+            }
+        });
+        register(WaitStateTask.class, new NodeInstanceCreator() {
+            public NodeInstance create(ProcessInstance processInstance, Task task) {
+                return new WaitStateTaskNodeInstance(processInstance, task);
+            }
+
+            public boolean isStateless() {
+                return false;
+            }
+        });
+        register(TimerTask.class, new NodeInstanceCreator() {
+            public NodeInstance create(ProcessInstance processInstance, Task task) {
+                return new TimerTaskNodeInstance(processInstance, task);
+            }
+
+            public boolean isStateless() {
+                return false;
+            }
+        });
+    }
+
+    public static void register(Class<? extends Task> taskType, NodeInstanceCreator creator) {
+        creators.put(taskType, creator);
+        resolved.clear();
+    }
+
+    public static void unregister(Class<? extends Task> taskType) {
+        creators.remove(taskType);
+        resolved.clear();
+    }
+
+    /**
+     * @throws IllegalArgumentException if there is no creator for the task
+     * class or any of its superclasses
+     */
+    public static NodeInstanceCreator getCreator(Class<?> taskType) {
+        NodeInstanceCreator creator = resolved.get(taskType);
+        if (creator == null) {
+            for (Class<?> type = taskType; type != null && creator == null; type = type.getSuperclass()) {
+                creator = creators.get(type);
+            }
+            if (creator == null) {
+                throw new IllegalArgumentException("There is no NodeInstanceCreator registered for " + taskType.getName());
+            }
+            resolved.put(taskType, creator);
+        }
+        return creator;
+    }
+
+    /**
+     * @throws IllegalArgumentException if there is no creator for the class
+     * of the task; older versions of the factory returned null
+     */
     public static NodeInstance newNodeInstance(ProcessInstance processInstance, Task task){
-       
-        if(task instanceof StartTask){
-            StartTaskNodeInstance startTask = new StartTaskNodeInstance(processInstance, task);
-            return startTask;
+        return getCreator(task.getClass()).create(processInstance, task);
+    }
+
+    /**
+     * Creates the instance of a node of a compiled definition, using the
+     * creator resolved when the definition was compiled. The instance knows
+     * its node id, so it can follow the compiled flows. Stateless instances
+     * are created once per process instance and reused.
+     */
+    public static NodeInstance newNodeInstance(ProcessInstance processInstance, CompiledProcessDefinition process, int nodeId){
+        NodeInstanceCreator creator = process.getCreator(nodeId);
+        NodeInstance nodeInstance = null;
+        if(creator.isStateless()){
+            nodeInstance = ((InternalProcessInstance) processInstance).getFlyweight(nodeId);
+            if(nodeInstance != null){
+                return nodeInstance;
+            }
         }
-        if(task instanceof ScriptTask){
-            ScriptTaskNodeInstance actionTask = new ScriptTaskNodeInstance(processInstance, task,((ScriptTask)task).getAction());
-            
-            return actionTask;
+        nodeInstance = creator.create(processInstance, process.getTask(nodeId));
+        if(nodeInstance instanceof AbstractNodeInstance){
+            ((AbstractNodeInstance)nodeInstance).setNodeId(nodeId);
         }
-        
-        if(task instanceof EndTask){
-            EndTaskNodeInstance endTask = new EndTaskNodeInstance(processInstance, task);
-            return endTask;
+        if(creator.isStateless()){
+            // another branch may have stored its own instance in the meantime
+            ((InternalProcessInstance) processInstance).putFlyweight(nodeId, nodeInstance);
+            return ((InternalProcessInstance) processInstance).getFlyweight(nodeId);
         }
-        
-        return null;
+        return nodeInstance;
     }
 }
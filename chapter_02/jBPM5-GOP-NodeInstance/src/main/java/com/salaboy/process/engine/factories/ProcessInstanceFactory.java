@@ -8,7 +8,7 @@ import java.util.Map;
 import com.salaboy.process.engine.structures.ProcessDefinition;
 import com.salaboy.process.engine.structures.ProcessInstance;
 import com.salaboy.process.engine.structures.impl.ProcessInstanceImpl;
-import com.salaboy.process.engine.services.DefaultProcessEventSupportService;
+import com.salaboy.process.engine.services.ProcessEventBus;
 import com.salaboy.process.engine.services.Service;
 
 /**
@@ -16,9 +16,14 @@ import com.salaboy.process.engine.services.Service;
  * @author salaboy
  */
 public class ProcessInstanceFactory {
+    /**
+     * Creates a process instance with an event bus without listeners. Use
+     * a DefaultProcessEventSupportService as "event-service" to print the
+     * events to the console.
+     */
     public static ProcessInstance newProcessInstance(ProcessDefinition process){
         ProcessInstance instance = new ProcessInstanceImpl(process);
-        instance.addService("event-service", new DefaultProcessEventSupportService());
+        instance.addService("event-service", new ProcessEventBus());
         return instance;
     }
     
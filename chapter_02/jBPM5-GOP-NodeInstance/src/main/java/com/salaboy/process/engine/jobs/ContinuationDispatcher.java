@@ -0,0 +1,134 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.jobs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of worker threads that take the jobs from a {@link JobQueue} and
+ * execute them. A job that fails is counted and the process instance stays
+ * in the node that failed.
+ * When the process instances are owned by a
+ * {@link com.salaboy.process.engine.runtime.ProcessRuntime} the jobs must be
+ * given to it, as their {@link JobHandler}, so they are executed in the shard
+ * of their instance and the instances that end are removed from the runtime.
+ * The runtime reports the jobs that fail.
+ * @author salaboy
+ */
+public class ContinuationDispatcher {
+
+    private static final Logger logger = Logger.getLogger(ContinuationDispatcher.class.getName());
+
+    private static final long POLL_MILLIS = 100;
+
+    private final JobQueue jobQueue;
+    // null to execute the jobs in the workers
+    private final JobHandler handler;
+    private final Thread[] workers;
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile boolean running;
+
+    /**
+     * @param workers number of threads executing jobs
+     */
+    public ContinuationDispatcher(JobQueue jobQueue, int workers) {
+        this(jobQueue, workers, null);
+    }
+
+    /**
+     * @param handler receives the jobs instead of the workers executing them
+     */
+    public ContinuationDispatcher(JobQueue jobQueue, int workers, JobHandler handler) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("The dispatcher needs at least one worker");
+        }
+        this.jobQueue = jobQueue;
+        this.handler = handler;
+        this.workers = new Thread[workers];
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Runnable() {
+                public void run() {
+                    work();
+                }
+            }, "process-continuation-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Stops the workers once they finish the jobs they are executing. The
+     * jobs still in the queue are kept there.
+     * @return false if the timeout elapsed before
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        synchronized (this) {
+            running = false;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread worker : workers) {
+            if (worker == null) {
+                continue;
+            }
+            long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (left <= 0) {
+                return !worker.isAlive();
+            }
+            worker.join(left);
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the jobs executed, or given to the handler
+     */
+    public long getExecutedJobs() {
+        return executed.get();
+    }
+
+    public long getFailedJobs() {
+        return failed.get();
+    }
+
+    private void work() {
+        while (running) {
+            Job job;
+            try {
+                job = jobQueue.take(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (job == null) {
+                continue;
+            }
+            try {
+                if (handler == null) {
+                    job.execute();
+                } else {
+                    handler.handle(job);
+                }
+                executed.incrementAndGet();
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                // a failing job must not stop the worker
+                logger.log(Level.SEVERE, "The job of the process instance " + job.getProcessInstanceId() + " failed", e);
+            }
+        }
+    }
+}
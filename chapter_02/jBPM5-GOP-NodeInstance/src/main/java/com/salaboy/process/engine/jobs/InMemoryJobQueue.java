@@ -0,0 +1,41 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.jobs;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link JobQueue} that keeps the jobs in memory, in the order they were
+ * added. The jobs are lost if the JVM stops.
+ * @author salaboy
+ */
+public class InMemoryJobQueue implements JobQueue {
+
+    private final BlockingQueue<Job> jobs;
+
+    public InMemoryJobQueue() {
+        this(Integer.MAX_VALUE);
+    }
+
+    public InMemoryJobQueue(int capacity) {
+        this.jobs = new LinkedBlockingQueue<Job>(capacity);
+    }
+
+    public void add(Job job) {
+        if (!jobs.offer(job)) {
+            throw new IllegalStateException("The job queue is full (" + jobs.size() + " jobs)");
+        }
+    }
+
+    public Job take(long timeout, TimeUnit unit) throws InterruptedException {
+        return jobs.poll(timeout, unit);
+    }
+
+    public int size() {
+        return jobs.size();
+    }
+}
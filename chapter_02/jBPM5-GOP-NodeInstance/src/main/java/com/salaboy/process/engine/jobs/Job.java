@@ -0,0 +1,169 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.jobs;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import com.salaboy.process.engine.agenda.NodeActivation;
+import com.salaboy.process.engine.structures.NodeInstance;
+import com.salaboy.process.engine.structures.ProcessDefinition;
+import com.salaboy.process.engine.structures.ProcessInstance;
+import com.salaboy.process.engine.structures.Task;
+import com.salaboy.process.engine.structures.impl.CompiledProcessDefinition;
+import com.salaboy.process.engine.structures.impl.InternalProcessInstance;
+import com.salaboy.process.engine.taskinstances.impl.AbstractNodeInstance;
+
+/**
+ * The continuation of a process instance that stopped in an asynchronous
+ * node. Jobs are added to a {@link JobQueue} by the node instance and
+ * executed later, usually by a {@link ContinuationDispatcher}.
+ * A job only stores the id of the process instance, the id of the task and
+ * the id of the node instance (see {@link AbstractNodeInstance#getId()}), so
+ * it can be persisted. The node instance is looked up when the job is
+ * executed, a job whose node instance is no longer active does nothing.
+ * @author salaboy
+ */
+public class Job implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long processInstanceId;
+    private final long taskId;
+    // 0 if unknown, the oldest active instance of the task is resumed
+    private final long nodeInstanceId;
+    private final long created;
+    // the instance that created the job, lost when the job is persisted
+    private transient ProcessInstance processInstance;
+
+    public Job(long processInstanceId, long taskId) {
+        this(processInstanceId, taskId, 0);
+    }
+
+    public Job(long processInstanceId, long taskId, long nodeInstanceId) {
+        this.processInstanceId = processInstanceId;
+        this.taskId = taskId;
+        this.nodeInstanceId = nodeInstanceId;
+        this.created = System.currentTimeMillis();
+    }
+
+    public Job(ProcessInstance processInstance, ResumableNodeInstance nodeInstance) {
+        this(processInstance.getId(), getTaskId(processInstance, nodeInstance),
+                nodeInstance instanceof AbstractNodeInstance ? ((AbstractNodeInstance) nodeInstance).getId() : 0);
+        this.processInstance = processInstance;
+    }
+
+    /**
+     * Executes the job on the process instance that created it.
+     * @throws IllegalStateException if the job was persisted and restored,
+     * the process instance must be given with {@link #execute(ProcessInstance)}
+     */
+    public void execute() {
+        if (processInstance == null) {
+            throw new IllegalStateException("The job of the process instance " + processInstanceId
+                    + " was restored, its process instance must be looked up");
+        }
+        execute(processInstance);
+    }
+
+    /**
+     * Resumes the node instance and executes the process instance until it
+     * ends or reaches the next wait state. The continuation uses its own
+     * agenda (see {@link InternalProcessInstance#executeBranch(NodeActivation)}) and
+     * holds the execution lock of the process instance, so two jobs of the
+     * same instance, or a job and the start of the instance, are never
+     * executed at the same time.
+     */
+    public void execute(ProcessInstance processInstance) {
+        if (processInstance.getId() != processInstanceId) {
+            throw new IllegalArgumentException("The job belongs to the process instance " + processInstanceId
+                    + ", not to " + processInstance.getId());
+        }
+        Lock lock = ((InternalProcessInstance) processInstance).getExecutionLock();
+        lock.lock();
+        try {
+            ResumableNodeInstance nodeInstance = findNodeInstance(processInstance);
+            // the node instance may have been removed since the job was added
+            if (nodeInstance != null) {
+                resume(processInstance, nodeInstance);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Resumes a node instance the same way a job does, holding the execution
+     * lock of the process instance.
+     */
+    public static void resume(ProcessInstance processInstance, final ResumableNodeInstance nodeInstance) {
+        Lock lock = ((InternalProcessInstance) processInstance).getExecutionLock();
+        lock.lock();
+        try {
+            ((InternalProcessInstance) processInstance).executeBranch(new NodeActivation(nodeInstance, null, null) {
+                @Override
+                public void execute() {
+                    nodeInstance.resume();
+                }
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called with the execution lock held, so no branch is changing the node
+     * instances.
+     */
+    private ResumableNodeInstance findNodeInstance(ProcessInstance processInstance) {
+        Task task = processInstance.getProcessDefinition().getTasks().get(taskId);
+        if (task == null) {
+            return null;
+        }
+        NodeInstance nodeInstance = null;
+        if (nodeInstanceId == 0) {
+            nodeInstance = processInstance.getNodeInstance(task);
+        } else {
+            for (NodeInstance candidate : processInstance.getNodeInstances()) {
+                if (candidate.getTask() == task && candidate instanceof AbstractNodeInstance
+                        && ((AbstractNodeInstance) candidate).getId() == nodeInstanceId) {
+                    nodeInstance = candidate;
+                    break;
+                }
+            }
+        }
+        return nodeInstance instanceof ResumableNodeInstance ? (ResumableNodeInstance) nodeInstance : null;
+    }
+
+    private static long getTaskId(ProcessInstance processInstance, NodeInstance nodeInstance) {
+        ProcessDefinition process = processInstance.getProcessDefinition();
+        if (process instanceof CompiledProcessDefinition && nodeInstance instanceof AbstractNodeInstance
+                && ((AbstractNodeInstance) nodeInstance).getNodeId() >= 0) {
+            return ((CompiledProcessDefinition) process).getTaskId(((AbstractNodeInstance) nodeInstance).getNodeId());
+        }
+        for (Map.Entry<Long, Task> task : process.getTasks().entrySet()) {
+            if (task.getValue() == nodeInstance.getTask()) {
+                return task.getKey();
+            }
+        }
+        throw new IllegalArgumentException("The task " + nodeInstance.getTask() + " is not part of the process definition");
+    }
+
+    public long getProcessInstanceId() {
+        return processInstanceId;
+    }
+
+    public long getTaskId() {
+        return taskId;
+    }
+
+    public long getNodeInstanceId() {
+        return nodeInstanceId;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+}
@@ -0,0 +1,16 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.jobs;
+
+/**
+ * Receives the jobs that are ready to be executed, for example the timers
+ * that expired in a TimingWheel. It can execute them, queue them or send
+ * them to the thread that owns the process instance.
+ * @author salaboy
+ */
+public interface JobHandler {
+
+    public void handle(Job job);
+}
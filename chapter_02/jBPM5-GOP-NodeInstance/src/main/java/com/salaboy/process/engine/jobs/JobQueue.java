@@ -0,0 +1,31 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.jobs;
+
+import java.util.concurrent.TimeUnit;
+import com.salaboy.process.engine.services.Service;
+
+/**
+ * Where asynchronous node instances leave their continuations. It is found
+ * in the services of the process instance under the name "job-queue".
+ * {@link InMemoryJobQueue} keeps the jobs in memory, other implementations
+ * can store them so they survive a restart.
+ * @author salaboy
+ */
+public interface JobQueue extends Service {
+
+    /**
+     * @throws IllegalStateException if the queue can't accept more jobs
+     */
+    public void add(Job job);
+
+    /**
+     * Removes the next job, waiting until there is one.
+     * @return the job, null if the timeout elapsed
+     */
+    public Job take(long timeout, TimeUnit unit) throws InterruptedException;
+
+    public int size();
+}
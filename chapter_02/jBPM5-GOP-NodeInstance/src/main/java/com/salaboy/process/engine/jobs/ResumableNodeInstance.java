@@ -0,0 +1,27 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.jobs;
+
+import com.salaboy.process.engine.structures.NodeInstance;
+
+/**
+ * Node instance that can stop after being triggered and continue later, from
+ * a {@link Job}.
+ * @author salaboy
+ */
+public interface ResumableNodeInstance extends NodeInstance {
+
+    /**
+     * Continues the execution of the node where
+     * {@link NodeInstance#trigger(NodeInstance, String)} left it.
+     */
+    public void resume();
+
+    /**
+     * Schedules again the job or timer that resumes the node instance, after
+     * it was restored from a snapshot.
+     */
+    public void rearm();
+}
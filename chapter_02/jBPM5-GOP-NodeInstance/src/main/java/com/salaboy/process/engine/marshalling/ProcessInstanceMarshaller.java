@@ -0,0 +1,608 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.marshalling;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import com.salaboy.process.engine.factories.NodeInstanceFactory;
+import com.salaboy.process.engine.factories.ProcessInstanceFactory;
+import com.salaboy.process.engine.jobs.ResumableNodeInstance;
+import com.salaboy.process.engine.services.Service;
+import com.salaboy.process.engine.structures.NodeInstance;
+import com.salaboy.process.engine.structures.ProcessInstance;
+import com.salaboy.process.engine.structures.impl.CompiledProcessDefinition;
+import com.salaboy.process.engine.structures.impl.InternalProcessInstance;
+import com.salaboy.process.engine.taskinstances.impl.AbstractNodeInstance;
+import com.salaboy.process.engine.taskinstances.impl.ParallelJoinTaskNodeInstance;
+import com.salaboy.process.engine.taskinstances.impl.TimerTaskNodeInstance;
+
+/**
+ * Writes process instances of compiled definitions into a compact binary
+ * snapshot and restores them. A snapshot contains:
+ * <ul>
+ *  <li>a header: format version, kind (full or delta) and the sequence
+ *  number of the snapshot,</li>
+ *  <li>the id and version of the process definition and the id of the
+ *  process instance,</li>
+ *  <li>the status of the process instance,</li>
+ *  <li>the ids of the active node instances with their node ids, so jobs
+ *  find the same node instances once restored,</li>
+ *  <li>the number of branches that arrived to each active parallel join,</li>
+ *  <li>the process variables. Strings, numbers and booleans have their own
+ *  encoding, other values must be Serializable.</li>
+ * </ul>
+ * Numbers and counts are written as variable length ints, so small values
+ * take one byte.
+ * The marshaller remembers the last snapshot of each process instance.
+ * {@link #marshalDelta(ProcessInstance)} writes only what changed since
+ * then, and {@link #applyDelta(ProcessInstance, byte[])} applies the deltas,
+ * in order, to a restored instance. Variables are compared with equals(), a
+ * mutable value changed in place must be set again to be part of a delta.
+ * Apart from the join counters, the internal state of the node instances is
+ * not stored. When a node instance that waits for a job or a timer is
+ * restored it is re-armed (see {@link ResumableNodeInstance#rearm()}), so
+ * timers start again with their whole delay. The agenda must be empty:
+ * snapshots are taken when the process instance is waiting.
+ * The last snapshots are held weakly by process instance and dropped when
+ * the process instance ends.
+ * @author salaboy
+ */
+public class ProcessInstanceMarshaller {
+
+    public static final int FORMAT_VERSION = 3;
+
+    private static final short MAGIC = 0x4750;
+    private static final byte FULL = 0;
+    private static final byte DELTA = 1;
+
+    private static final byte STRING = 0;
+    private static final byte LONG = 1;
+    private static final byte INTEGER = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte TRUE = 4;
+    private static final byte FALSE = 5;
+    private static final byte SERIALIZED = 6;
+
+    private final Map<String, CompiledProcessDefinition> definitions = new ConcurrentHashMap<String, CompiledProcessDefinition>();
+    // last snapshot written or applied for each process instance
+    private final Map<ProcessInstance, Snapshot> snapshots = Collections.synchronizedMap(new WeakHashMap<ProcessInstance, Snapshot>());
+
+    /**
+     * Registers a definition used to restore process instances.
+     */
+    public void addProcessDefinition(CompiledProcessDefinition process) {
+        if (process.getId() == null) {
+            throw new IllegalArgumentException("Only process definitions with an id can be restored");
+        }
+        definitions.put(key(process.getId(), process.getVersion()), process);
+    }
+
+    /**
+     * Forgets the last snapshot of a process instance, the next snapshot
+     * must be a full one.
+     */
+    public void forget(long processInstanceId) {
+        synchronized (snapshots) {
+            Iterator<Snapshot> iterator = snapshots.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().processInstanceId == processInstanceId) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    public byte[] marshal(ProcessInstance processInstance) {
+        Snapshot snapshot = takeSnapshot(processInstance, 0);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            writeHeader(out, FULL, snapshot);
+            out.writeByte(snapshot.status.ordinal());
+            writeNodeInstances(out, snapshot.nodeInstances);
+            writeJoins(out, snapshot.joins);
+            writeVarInt(out, snapshot.variables.size());
+            for (Map.Entry<String, Object> variable : snapshot.variables.entrySet()) {
+                writeString(out, variable.getKey());
+                writeValue(out, variable.getValue());
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("The process instance " + processInstance.getId() + " can't be marshalled", e);
+        }
+        remember(processInstance, snapshot);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the changes since the last snapshot of the process instance:
+     * the status, the node instances that were removed and added, the join
+     * counters that changed, the variables that were removed and the ones
+     * with a new value.
+     * @throws IllegalStateException if there is no previous snapshot
+     */
+    public byte[] marshalDelta(ProcessInstance processInstance) {
+        Snapshot previous = snapshots.get(processInstance);
+        if (previous == null) {
+            throw new IllegalStateException("There is no previous snapshot of the process instance " + processInstance.getId());
+        }
+        Snapshot snapshot = takeSnapshot(processInstance, previous.sequence + 1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            writeHeader(out, DELTA, snapshot);
+            out.writeByte(snapshot.status.ordinal());
+            // only the ids of the removed node instances
+            SortedMap<Long, Integer> removedNodeInstances = difference(previous.nodeInstances, snapshot.nodeInstances);
+            writeVarInt(out, removedNodeInstances.size());
+            long previousId = 0;
+            for (long nodeInstanceId : removedNodeInstances.keySet()) {
+                writeVarLong(out, nodeInstanceId - previousId);
+                previousId = nodeInstanceId;
+            }
+            writeNodeInstances(out, difference(snapshot.nodeInstances, previous.nodeInstances));
+            SortedMap<Integer, Integer> joins = new TreeMap<Integer, Integer>();
+            for (Map.Entry<Integer, Integer> join : snapshot.joins.entrySet()) {
+                if (!join.getValue().equals(previous.joins.get(join.getKey()))) {
+                    joins.put(join.getKey(), join.getValue());
+                }
+            }
+            writeJoins(out, joins);
+            int removed = 0;
+            for (String name : previous.variables.keySet()) {
+                if (!snapshot.variables.containsKey(name)) {
+                    removed++;
+                }
+            }
+            writeVarInt(out, removed);
+            for (String name : previous.variables.keySet()) {
+                if (!snapshot.variables.containsKey(name)) {
+                    writeString(out, name);
+                }
+            }
+            int changed = 0;
+            for (Map.Entry<String, Object> variable : snapshot.variables.entrySet()) {
+                if (!variable.getValue().equals(previous.variables.get(variable.getKey()))) {
+                    changed++;
+                }
+            }
+            writeVarInt(out, changed);
+            for (Map.Entry<String, Object> variable : snapshot.variables.entrySet()) {
+                if (!variable.getValue().equals(previous.variables.get(variable.getKey()))) {
+                    writeString(out, variable.getKey());
+                    writeValue(out, variable.getValue());
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("The process instance " + processInstance.getId() + " can't be marshalled", e);
+        }
+        remember(processInstance, snapshot);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Restores a process instance from a full snapshot. The instance is not
+     * started again, its active node instances wait to be triggered, or for
+     * the job or timer that was scheduled again when they were restored.
+     * @throws IllegalArgumentException if the data is not a full snapshot or
+     * its process definition was not registered
+     */
+    public ProcessInstance unmarshal(byte[] data, Map<String, Service> services) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            Header header = readHeader(in, FULL);
+            ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(header.process, services);
+            processInstance.setId(header.processInstanceId);
+            processInstance.setStatus(ProcessInstance.STATUS.values()[in.readUnsignedByte()]);
+            List<NodeInstance> restored = readNodeInstances(in, processInstance, header.process);
+            readJoins(in, processInstance);
+            int variables = readVarInt(in);
+            for (int i = 0; i < variables; i++) {
+                processInstance.getContextInstance().setVariable(readString(in), readValue(in));
+            }
+            remember(processInstance, takeSnapshot(processInstance, header.sequence));
+            rearm(restored);
+            return processInstance;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("The data is not a valid process instance snapshot", e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("The class of a process variable can't be found", e);
+        }
+    }
+
+    /**
+     * Applies a delta to a process instance restored with
+     * {@link #unmarshal(byte[], Map)}. The timers of the node instances that
+     * are removed are cancelled and the added node instances are re-armed.
+     * @throws IllegalArgumentException if the delta is not the next one of
+     * the process instance
+     */
+    public void applyDelta(ProcessInstance processInstance, byte[] data) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            Header header = readHeader(in, DELTA);
+            Snapshot previous = snapshots.get(processInstance);
+            if (header.processInstanceId != processInstance.getId() || previous == null
+                    || header.sequence != previous.sequence + 1) {
+                throw new IllegalArgumentException("The delta " + header.sequence + " of the process instance "
+                        + header.processInstanceId + " doesn't follow the last snapshot of the process instance "
+                        + processInstance.getId());
+            }
+            processInstance.setStatus(ProcessInstance.STATUS.values()[in.readUnsignedByte()]);
+            int removed = readVarInt(in);
+            long nodeInstanceId = 0;
+            for (int i = 0; i < removed; i++) {
+                nodeInstanceId += readVarLong(in);
+                NodeInstance nodeInstance = findNodeInstance(processInstance, nodeInstanceId);
+                if (nodeInstance instanceof TimerTaskNodeInstance) {
+                    ((TimerTaskNodeInstance) nodeInstance).cancel();
+                }
+                if (nodeInstance != null) {
+                    processInstance.removeNodeInstance(nodeInstance);
+                }
+            }
+            List<NodeInstance> restored = readNodeInstances(in, processInstance, header.process);
+            readJoins(in, processInstance);
+            int removedVariables = readVarInt(in);
+            for (int i = 0; i < removedVariables; i++) {
+                processInstance.getContextInstance().setVariable(readString(in), null);
+            }
+            int changed = readVarInt(in);
+            for (int i = 0; i < changed; i++) {
+                processInstance.getContextInstance().setVariable(readString(in), readValue(in));
+            }
+            remember(processInstance, takeSnapshot(processInstance, header.sequence));
+            rearm(restored);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("The data is not a valid process instance delta", e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("The class of a process variable can't be found", e);
+        }
+    }
+
+    private Snapshot takeSnapshot(ProcessInstance processInstance, int sequence) {
+        if (!(processInstance.getProcessDefinition() instanceof CompiledProcessDefinition)) {
+            throw new IllegalArgumentException("Only process instances of compiled definitions can be marshalled");
+        }
+        CompiledProcessDefinition process = (CompiledProcessDefinition) processInstance.getProcessDefinition();
+        if (process.getId() == null) {
+            throw new IllegalArgumentException("Only process instances of definitions with an id can be marshalled");
+        }
+        if (!((InternalProcessInstance) processInstance).getAgenda().isEmpty()) {
+            throw new IllegalStateException("The process instance " + processInstance.getId() + " is executing");
+        }
+        SortedMap<Long, Integer> nodeInstances = new TreeMap<Long, Integer>();
+        SortedMap<Integer, Integer> joins = new TreeMap<Integer, Integer>();
+        for (NodeInstance nodeInstance : processInstance.getNodeInstances()) {
+            if (!(nodeInstance instanceof AbstractNodeInstance) || ((AbstractNodeInstance) nodeInstance).getNodeId() < 0) {
+                throw new IllegalArgumentException("The node instance of " + nodeInstance.getTask() + " has no node id");
+            }
+            int nodeId = ((AbstractNodeInstance) nodeInstance).getNodeId();
+            nodeInstances.put(((AbstractNodeInstance) nodeInstance).getId(), nodeId);
+            if (nodeInstance instanceof ParallelJoinTaskNodeInstance) {
+                joins.put(nodeId, ((ParallelJoinTaskNodeInstance) nodeInstance).getArrived());
+            }
+        }
+        Map<String, Object> variables = new HashMap<String, Object>();
+        for (Map.Entry<String, Object> variable : processInstance.getContextInstance().getVariables().entrySet()) {
+            if (variable.getValue() != null) {
+                variables.put(variable.getKey(), variable.getValue());
+            }
+        }
+        return new Snapshot(process, processInstance.getId(), sequence, processInstance.getStatus(), nodeInstances, joins, variables);
+    }
+
+    /**
+     * Keeps the snapshot for the next delta, unless the process instance
+     * ended and there will be no more deltas.
+     */
+    private void remember(ProcessInstance processInstance, Snapshot snapshot) {
+        if (snapshot.status == ProcessInstance.STATUS.ENDED) {
+            snapshots.remove(processInstance);
+        } else {
+            snapshots.put(processInstance, snapshot);
+        }
+    }
+
+    /**
+     * Creates the instance of a node with its saved id and adds it to the
+     * process instance, joins are added by the factory itself.
+     */
+    private static NodeInstance restoreNodeInstance(ProcessInstance processInstance, CompiledProcessDefinition process,
+            long nodeInstanceId, int nodeId) {
+        NodeInstance nodeInstance = NodeInstanceFactory.newNodeInstance(processInstance, process, nodeId);
+        ((AbstractNodeInstance) nodeInstance).setId(nodeInstanceId);
+        processInstance.addNodeInstance(nodeInstance);
+        return nodeInstance;
+    }
+
+    /**
+     * Schedules again the jobs and timers of the restored node instances,
+     * once the variables of the process instance are in place.
+     */
+    private static void rearm(List<NodeInstance> restored) {
+        for (NodeInstance nodeInstance : restored) {
+            if (nodeInstance instanceof ResumableNodeInstance) {
+                ((ResumableNodeInstance) nodeInstance).rearm();
+            }
+        }
+    }
+
+    private static NodeInstance findNodeInstance(ProcessInstance processInstance, long nodeInstanceId) {
+        for (NodeInstance nodeInstance : processInstance.getNodeInstances()) {
+            if (nodeInstance instanceof AbstractNodeInstance && ((AbstractNodeInstance) nodeInstance).getId() == nodeInstanceId) {
+                return nodeInstance;
+            }
+        }
+        return null;
+    }
+
+    private static NodeInstance findJoin(ProcessInstance processInstance, int nodeId) {
+        for (NodeInstance nodeInstance : processInstance.getNodeInstances()) {
+            if (nodeInstance instanceof ParallelJoinTaskNodeInstance && ((AbstractNodeInstance) nodeInstance).getNodeId() == nodeId) {
+                return nodeInstance;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the node instances of a that are not in b
+     */
+    private static SortedMap<Long, Integer> difference(SortedMap<Long, Integer> a, SortedMap<Long, Integer> b) {
+        SortedMap<Long, Integer> result = new TreeMap<Long, Integer>();
+        for (Map.Entry<Long, Integer> nodeInstance : a.entrySet()) {
+            if (!b.containsKey(nodeInstance.getKey())) {
+                result.put(nodeInstance.getKey(), nodeInstance.getValue());
+            }
+        }
+        return result;
+    }
+
+    private void writeHeader(DataOutputStream out, byte kind, Snapshot snapshot) throws IOException {
+        out.writeShort(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeByte(kind);
+        writeVarInt(out, snapshot.sequence);
+        writeString(out, snapshot.process.getId());
+        writeVarInt(out, snapshot.process.getVersion());
+        out.writeLong(snapshot.processInstanceId);
+    }
+
+    private Header readHeader(DataInputStream in, byte expectedKind) throws IOException {
+        if (in.readShort() != MAGIC) {
+            throw new IllegalArgumentException("The data is not a process instance snapshot");
+        }
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported snapshot format version " + version);
+        }
+        if (in.readByte() != expectedKind) {
+            throw new IllegalArgumentException(expectedKind == FULL ? "The data is a delta, not a full snapshot"
+                    : "The data is a full snapshot, not a delta");
+        }
+        int sequence = readVarInt(in);
+        String processId = readString(in);
+        int processVersion = readVarInt(in);
+        CompiledProcessDefinition process = definitions.get(key(processId, processVersion));
+        if (process == null) {
+            throw new IllegalArgumentException("The process definition " + processId + " version " + processVersion + " is not registered");
+        }
+        return new Header(process, in.readLong(), sequence);
+    }
+
+    private static void writeNodeInstances(DataOutputStream out, SortedMap<Long, Integer> nodeInstances) throws IOException {
+        // sorted, so each id is written as the difference with the previous one
+        writeVarInt(out, nodeInstances.size());
+        long previous = 0;
+        for (Map.Entry<Long, Integer> nodeInstance : nodeInstances.entrySet()) {
+            writeVarLong(out, nodeInstance.getKey() - previous);
+            writeVarInt(out, nodeInstance.getValue());
+            previous = nodeInstance.getKey();
+        }
+    }
+
+    private static List<NodeInstance> readNodeInstances(DataInputStream in, ProcessInstance processInstance,
+            CompiledProcessDefinition process) throws IOException {
+        int count = readVarInt(in);
+        List<NodeInstance> restored = new ArrayList<NodeInstance>(count);
+        long nodeInstanceId = 0;
+        for (int i = 0; i < count; i++) {
+            nodeInstanceId += readVarLong(in);
+            restored.add(restoreNodeInstance(processInstance, process, nodeInstanceId, readVarInt(in)));
+        }
+        return restored;
+    }
+
+    private static void writeJoins(DataOutputStream out, SortedMap<Integer, Integer> joins) throws IOException {
+        writeVarInt(out, joins.size());
+        int previous = 0;
+        for (Map.Entry<Integer, Integer> join : joins.entrySet()) {
+            writeVarInt(out, join.getKey() - previous);
+            writeVarInt(out, join.getValue());
+            previous = join.getKey();
+        }
+    }
+
+    private static void readJoins(DataInputStream in, ProcessInstance processInstance) throws IOException {
+        int joins = readVarInt(in);
+        int previous = 0;
+        for (int i = 0; i < joins; i++) {
+            int nodeId = previous + readVarInt(in);
+            int arrived = readVarInt(in);
+            NodeInstance nodeInstance = findJoin(processInstance, nodeId);
+            if (nodeInstance == null) {
+                throw new IOException("The node " + nodeId + " is not an active parallel join");
+            }
+            ((ParallelJoinTaskNodeInstance) nodeInstance).setArrived(arrived);
+            previous = nodeId;
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            writeVarLong(out, zigZag((Long) value));
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            writeVarLong(out, zigZag((Integer) value));
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(((Boolean) value).booleanValue() ? TRUE : FALSE);
+        } else if (value instanceof Serializable) {
+            out.writeByte(SERIALIZED);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+            objectOut.writeObject(value);
+            objectOut.close();
+            writeVarInt(out, bytes.size());
+            bytes.writeTo(out);
+        } else {
+            throw new IOException("The value " + value + " is not Serializable");
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException, ClassNotFoundException {
+        byte type = in.readByte();
+        switch (type) {
+            case STRING:
+                return readString(in);
+            case LONG:
+                return unZigZag(readVarLong(in));
+            case INTEGER:
+                return (int) unZigZag(readVarLong(in));
+            case DOUBLE:
+                return in.readDouble();
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case SERIALIZED:
+                byte[] bytes = new byte[readVarInt(in)];
+                in.readFully(bytes);
+                ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                try {
+                    return objectIn.readObject();
+                } finally {
+                    objectIn.close();
+                }
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        return (int) readVarLong(in);
+    }
+
+    // 7 bits per byte, the high bit tells if more bytes follow
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length number");
+    }
+
+    // small negative numbers also take few bytes
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static String key(String processId, int version) {
+        return processId + ":" + version;
+    }
+
+    private static class Header {
+
+        private final CompiledProcessDefinition process;
+        private final long processInstanceId;
+        private final int sequence;
+
+        Header(CompiledProcessDefinition process, long processInstanceId, int sequence) {
+            this.process = process;
+            this.processInstanceId = processInstanceId;
+            this.sequence = sequence;
+        }
+    }
+
+    private static class Snapshot {
+
+        private final CompiledProcessDefinition process;
+        private final long processInstanceId;
+        private final int sequence;
+        private final ProcessInstance.STATUS status;
+        // node id by id of the active node instances
+        private final SortedMap<Long, Integer> nodeInstances;
+        // arrived branches by node id of the active joins
+        private final SortedMap<Integer, Integer> joins;
+        private final Map<String, Object> variables;
+
+        Snapshot(CompiledProcessDefinition process, long processInstanceId, int sequence, ProcessInstance.STATUS status,
+                SortedMap<Long, Integer> nodeInstances, SortedMap<Integer, Integer> joins, Map<String, Object> variables) {
+            this.process = process;
+            this.processInstanceId = processInstanceId;
+            this.sequence = sequence;
+            this.status = status;
+            this.nodeInstances = nodeInstances;
+            this.joins = joins;
+            this.variables = variables;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies in nanoseconds. Values under 16 have a
+ * bucket each, bigger values are kept in 8 buckets for each power of two,
+ * so a value is known with an error under 12.5% using a few hundred
+ * counters. Each thread records in one of several stripes, chosen by its
+ * id, so threads recording at the same time rarely update the same
+ * counters; the stripes are added up when a snapshot is taken. A stripe
+ * takes about 4KB.
+ * @author salaboy
+ */
+public class LatencyHistogram {
+
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = LINEAR_BUCKETS + (63 - 4) * SUB_BUCKETS;
+    // after the buckets each stripe keeps the sum and the maximum
+    private static final int SUM = BUCKETS;
+    private static final int MAX = BUCKETS + 1;
+
+    private final int mask;
+    private final AtomicLongArray[] stripes;
+
+    /**
+     * Creates a stripe for each processor, up to 8.
+     */
+    public LatencyHistogram() {
+        this(Math.min(8, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param stripes rounded up to the next power of two
+     */
+    public LatencyHistogram(int stripes) {
+        int size = 1;
+        while (size < stripes && size < 64) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.stripes = new AtomicLongArray[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new AtomicLongArray(BUCKETS + 2);
+        }
+    }
+
+    /**
+     * Negative values, from clocks going backwards, are recorded as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & mask];
+        stripe.incrementAndGet(bucket(value));
+        stripe.addAndGet(SUM, value);
+        long max = stripe.get(MAX);
+        while (value > max && !stripe.compareAndSet(MAX, max, value)) {
+            max = stripe.get(MAX);
+        }
+    }
+
+    /**
+     * Adds up the stripes. Values recorded while the snapshot is taken may
+     * be partially included.
+     */
+    public LatencySnapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long sum = 0;
+        long max = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += stripe.get(i);
+            }
+            sum += stripe.get(SUM);
+            max = Math.max(max, stripe.get(MAX));
+        }
+        long count = 0;
+        for (long bucketCount : counts) {
+            count += bucketCount;
+        }
+        if (count == 0) {
+            return new LatencySnapshot(0, 0, 0, 0, 0, 0, 0, 0);
+        }
+        long min = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] > 0) {
+                min = lowestValue(i);
+                break;
+            }
+        }
+        return new LatencySnapshot(count, sum, min, max,
+                percentile(counts, count, max, 0.5), percentile(counts, count, max, 0.9),
+                percentile(counts, count, max, 0.99), percentile(counts, count, max, 0.999));
+    }
+
+    public void reset() {
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < stripe.length(); i++) {
+                stripe.set(i, 0);
+            }
+        }
+    }
+
+    /**
+     * @return the highest value of the bucket holding the percentile, never
+     * more than the maximum recorded
+     */
+    private static long percentile(long[] counts, long count, long max, double percentile) {
+        long rank = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, highestValue(i));
+            }
+        }
+        return max;
+    }
+
+    static int bucket(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+    }
+
+    static long lowestValue(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+        int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    static long highestValue(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+        return lowestValue(bucket) + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
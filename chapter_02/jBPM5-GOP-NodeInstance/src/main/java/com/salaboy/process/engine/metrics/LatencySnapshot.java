@@ -0,0 +1,80 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Latencies recorded by a {@link LatencyHistogram}, in nanoseconds. Through
+ * JMX it is seen as a CompositeData. The minimum and the percentiles are
+ * known with the precision of the histogram, the maximum is exact.
+ * @author salaboy
+ */
+public class LatencySnapshot {
+
+    private final long count;
+    private final long totalNanos;
+    private final long minNanos;
+    private final long maxNanos;
+    private final long p50Nanos;
+    private final long p90Nanos;
+    private final long p99Nanos;
+    private final long p999Nanos;
+
+    @ConstructorProperties({"count", "totalNanos", "minNanos", "maxNanos", "p50Nanos", "p90Nanos", "p99Nanos", "p999Nanos"})
+    public LatencySnapshot(long count, long totalNanos, long minNanos, long maxNanos,
+            long p50Nanos, long p90Nanos, long p99Nanos, long p999Nanos) {
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.minNanos = minNanos;
+        this.maxNanos = maxNanos;
+        this.p50Nanos = p50Nanos;
+        this.p90Nanos = p90Nanos;
+        this.p99Nanos = p99Nanos;
+        this.p999Nanos = p999Nanos;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getMeanNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    public long getMinNanos() {
+        return minNanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    public long getP90Nanos() {
+        return p90Nanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public long getP999Nanos() {
+        return p999Nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + " mean=" + getMeanNanos() + "ns min=" + minNanos + "ns p50=" + p50Nanos
+                + "ns p90=" + p90Nanos + "ns p99=" + p99Nanos + "ns p99.9=" + p999Nanos + "ns max=" + maxNanos + "ns";
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link NodeTimingService}. The maps are
+ * keyed by the type of task (its class name) or by the name of the task.
+ * @author salaboy
+ */
+public interface NodeTimingMXBean {
+
+    /**
+     * Time spent executing the nodes when they are triggered, by type.
+     */
+    public Map<String, LatencySnapshot> getExecutionByType();
+
+    /**
+     * Time spent executing the nodes when they are triggered, by name.
+     */
+    public Map<String, LatencySnapshot> getExecutionByName();
+
+    /**
+     * Time from the trigger to the completion of the nodes that complete
+     * later, like wait states, timers and asynchronous tasks, by type.
+     */
+    public Map<String, LatencySnapshot> getActiveByType();
+
+    /**
+     * Same as {@link #getActiveByType()}, by name.
+     */
+    public Map<String, LatencySnapshot> getActiveByName();
+
+    public void reset();
+}
@@ -0,0 +1,135 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import com.salaboy.process.engine.services.Service;
+import com.salaboy.process.engine.structures.Task;
+
+/**
+ * Records how long the nodes take, by type of task and by task name, in
+ * {@link LatencyHistogram}s. Timing is enabled by registering the service
+ * in the process instances under the name "timing-service"; without it the
+ * node instances don't read the clock. Recording a value costs two map
+ * lookups and a few atomic additions.
+ * The snapshots can be read through JMX once the service is registered as
+ * an MBean.
+ * @author salaboy
+ */
+public class NodeTimingService implements Service, NodeTimingMXBean {
+
+    private final Timings execution = new Timings();
+    private final Timings active = new Timings();
+    private ObjectName objectName;
+
+    /**
+     * Records the time spent in the trigger of a node.
+     */
+    public void recordExecution(Task task, long nanos) {
+        execution.record(task, nanos);
+    }
+
+    /**
+     * Records the time from the trigger of a node until it completes, for
+     * nodes that don't complete when they are triggered.
+     */
+    public void recordActive(Task task, long nanos) {
+        active.record(task, nanos);
+    }
+
+    public Map<String, LatencySnapshot> getExecutionByType() {
+        return snapshot(execution.byType);
+    }
+
+    public Map<String, LatencySnapshot> getExecutionByName() {
+        return snapshot(execution.byName);
+    }
+
+    public Map<String, LatencySnapshot> getActiveByType() {
+        return snapshot(active.byType);
+    }
+
+    public Map<String, LatencySnapshot> getActiveByName() {
+        return snapshot(active.byName);
+    }
+
+    public void reset() {
+        execution.reset();
+        active.reset();
+    }
+
+    /**
+     * Registers the service in the platform MBean server as
+     * com.salaboy.process.engine:type=NodeTiming,name=&lt;name&gt;.
+     */
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+        if (objectName != null) {
+            throw new IllegalStateException("The service is already registered as " + objectName);
+        }
+        ObjectName registered = new ObjectName("com.salaboy.process.engine:type=NodeTiming,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, registered);
+        objectName = registered;
+        return registered;
+    }
+
+    public synchronized void unregisterMBean() throws JMException {
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.unregisterMBean(objectName);
+            objectName = null;
+        }
+    }
+
+    private static <K> Map<String, LatencySnapshot> snapshot(ConcurrentMap<K, LatencyHistogram> histograms) {
+        Map<String, LatencySnapshot> snapshots = new TreeMap<String, LatencySnapshot>();
+        for (Map.Entry<K, LatencyHistogram> entry : histograms.entrySet()) {
+            String key = entry.getKey() instanceof Class ? ((Class<?>) entry.getKey()).getSimpleName() : entry.getKey().toString();
+            snapshots.put(key, entry.getValue().snapshot());
+        }
+        return snapshots;
+    }
+
+    private static class Timings {
+
+        // keyed by class to avoid building a name for each value
+        final ConcurrentHashMap<Class<?>, LatencyHistogram> byType = new ConcurrentHashMap<Class<?>, LatencyHistogram>();
+        final ConcurrentHashMap<String, LatencyHistogram> byName = new ConcurrentHashMap<String, LatencyHistogram>();
+
+        void record(Task task, long nanos) {
+            getHistogram(byType, task.getClass()).record(nanos);
+            if (task.getName() != null) {
+                getHistogram(byName, task.getName()).record(nanos);
+            }
+        }
+
+        void reset() {
+            for (LatencyHistogram histogram : byType.values()) {
+                histogram.reset();
+            }
+            for (LatencyHistogram histogram : byName.values()) {
+                histogram.reset();
+            }
+        }
+
+        private static <K> LatencyHistogram getHistogram(ConcurrentHashMap<K, LatencyHistogram> histograms, K key) {
+            LatencyHistogram histogram = histograms.get(key);
+            if (histogram == null) {
+                histogram = new LatencyHistogram();
+                LatencyHistogram previous = histograms.putIfAbsent(key, histogram);
+                if (previous != null) {
+                    histogram = previous;
+                }
+            }
+            return histogram;
+        }
+    }
+}
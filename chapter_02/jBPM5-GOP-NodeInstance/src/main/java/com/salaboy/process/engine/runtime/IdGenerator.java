@@ -0,0 +1,53 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates increasing process instance ids without collisions. Ids of
+ * instances created elsewhere (for example restored from a snapshot) can be
+ * reserved with {@link #reserve(long)}, so they are never generated again.
+ * @author salaboy
+ */
+public class IdGenerator {
+
+    private static final IdGenerator DEFAULT = new IdGenerator();
+
+    private final AtomicLong last;
+
+    public IdGenerator() {
+        this(0);
+    }
+
+    /**
+     * @param last the first generated id will be last + 1
+     */
+    public IdGenerator(long last) {
+        this.last = new AtomicLong(last);
+    }
+
+    /**
+     * The generator shared by the process instances created without a
+     * {@link ProcessRuntime} and by the runtimes without their own generator.
+     */
+    public static IdGenerator getDefault() {
+        return DEFAULT;
+    }
+
+    public long nextId() {
+        return last.incrementAndGet();
+    }
+
+    /**
+     * Makes sure the id is never generated.
+     */
+    public void reserve(long id) {
+        long current;
+        do {
+            current = last.get();
+        } while (current < id && !last.compareAndSet(current, id));
+    }
+}
@@ -0,0 +1,15 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.runtime;
+
+import com.salaboy.process.engine.structures.ProcessInstance;
+
+/**
+ * Work done on a process instance by the shard that owns it.
+ * @author salaboy
+ */
+public interface ProcessCommand<T> {
+    public T execute(ProcessInstance processInstance);
+}
@@ -0,0 +1,234 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.runtime;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.salaboy.process.engine.factories.ProcessInstanceFactory;
+import com.salaboy.process.engine.jobs.Job;
+import com.salaboy.process.engine.jobs.JobHandler;
+import com.salaboy.process.engine.services.Service;
+import com.salaboy.process.engine.structures.ProcessDefinition;
+import com.salaboy.process.engine.structures.ProcessInstance;
+
+/**
+ * Owns the process instances that are not ended and executes them on a fixed
+ * number of shards. Each shard is a single thread and each process instance
+ * belongs to the shard chosen by its id, so all the work on an instance is
+ * done by the same thread, one command after the other, and the structures
+ * of the instance are never used concurrently. Different instances progress
+ * in parallel on different shards.
+ * The instances are kept in a registry until they end or are cancelled. Ids
+ * are generated by an {@link IdGenerator}, so they don't collide.
+ * As a {@link JobHandler} the runtime executes jobs, like expired timers or
+ * the jobs taken by a {@link com.salaboy.process.engine.jobs.ContinuationDispatcher},
+ * in the shard of their process instance. Jobs that fail are logged.
+ * @author salaboy
+ */
+public class ProcessRuntime implements JobHandler {
+
+    private static final Logger logger = Logger.getLogger(ProcessRuntime.class.getName());
+
+    private final IdGenerator idGenerator;
+    private final Map<String, Service> services;
+    private final ExecutorService[] shards;
+    private final ConcurrentHashMap<Long, ProcessInstance> processInstances = new ConcurrentHashMap<Long, ProcessInstance>();
+
+    /**
+     * @param shards number of threads executing process instances, usually
+     * the number of cores
+     * @param services the services shared by all the process instances,
+     * each instance gets a copy of the map when it is created
+     * @throws IllegalArgumentException if there is no "event-service"
+     */
+    public ProcessRuntime(int shards, Map<String, Service> services) {
+        this(shards, services, IdGenerator.getDefault());
+    }
+
+    public ProcessRuntime(int shards, Map<String, Service> services, IdGenerator idGenerator) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("The runtime needs at least one shard");
+        }
+        if (services == null || services.get("event-service") == null) {
+            throw new IllegalArgumentException("The runtime needs an event-service");
+        }
+        this.idGenerator = idGenerator;
+        this.services = services;
+        this.shards = new ExecutorService[shards];
+        for (int i = 0; i < shards; i++) {
+            final String name = "process-shard-" + i;
+            this.shards[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, name);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /**
+     * Creates and registers a process instance, without starting it. The
+     * instance gets its own copy of the services map, services added to it
+     * are not seen by the other instances.
+     */
+    public ProcessInstance createProcessInstance(ProcessDefinition process) {
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(process, new HashMap<String, Service>(services));
+        processInstance.setId(idGenerator.nextId());
+        processInstances.put(processInstance.getId(), processInstance);
+        return processInstance;
+    }
+
+    /**
+     * Registers a process instance created outside the runtime, for example
+     * one restored from a snapshot.
+     * @throws IllegalStateException if another instance with the same id is
+     * already registered
+     */
+    public void register(ProcessInstance processInstance) {
+        idGenerator.reserve(processInstance.getId());
+        ProcessInstance previous = processInstances.putIfAbsent(processInstance.getId(), processInstance);
+        if (previous != null && previous != processInstance) {
+            throw new IllegalStateException("There is already a process instance with id " + processInstance.getId());
+        }
+    }
+
+    /**
+     * Creates a process instance and starts it in its shard.
+     * @return the started process instance, available once the shard has
+     * executed it until it ends or waits
+     */
+    public Future<ProcessInstance> startProcess(ProcessDefinition process, final Map<String, Object> variables) {
+        ProcessInstance processInstance = createProcessInstance(process);
+        return execute(processInstance.getId(), new ProcessCommand<ProcessInstance>() {
+            public ProcessInstance execute(ProcessInstance processInstance) {
+                if (variables == null) {
+                    processInstance.start();
+                } else {
+                    processInstance.start(variables);
+                }
+                return processInstance;
+            }
+        });
+    }
+
+    /**
+     * Executes a command in the shard of a process instance. Instances that
+     * end or are cancelled are removed from the runtime.
+     * @return the result of the command. It fails with an
+     * IllegalArgumentException if there is no active instance with the id
+     */
+    public <T> Future<T> execute(final long processInstanceId, final ProcessCommand<T> command) {
+        return shards[getShard(processInstanceId)].submit(new Callable<T>() {
+            public T call() {
+                return run(processInstanceId, command);
+            }
+        });
+    }
+
+    /**
+     * Resumes the node instance of a job in the shard of its process
+     * instance.
+     * @return completes when the process instance ended or reached the next
+     * wait state, with the exception if the job failed
+     */
+    public Future<Object> resume(Job job) {
+        return execute(job.getProcessInstanceId(), new JobCommand(job));
+    }
+
+    /**
+     * Executes a job in the shard of its process instance. Nobody waits for
+     * the result, so a job that fails is logged.
+     */
+    public void handle(final Job job) {
+        final long processInstanceId = job.getProcessInstanceId();
+        shards[getShard(processInstanceId)].execute(new Runnable() {
+            public void run() {
+                try {
+                    ProcessRuntime.this.run(processInstanceId, new JobCommand(job));
+                } catch (RuntimeException e) {
+                    logger.log(Level.SEVERE, "The job of the process instance " + processInstanceId + " failed", e);
+                }
+            }
+        });
+    }
+
+    private <T> T run(long processInstanceId, ProcessCommand<T> command) {
+        ProcessInstance processInstance = processInstances.get(processInstanceId);
+        if (processInstance == null) {
+            throw new IllegalArgumentException("There is no active process instance with id " + processInstanceId);
+        }
+        try {
+            return command.execute(processInstance);
+        } finally {
+            if (processInstance.getStatus() == ProcessInstance.STATUS.ENDED
+                    || processInstance.getStatus() == ProcessInstance.STATUS.CANCELLED) {
+                processInstances.remove(processInstanceId);
+            }
+        }
+    }
+
+    /**
+     * @return the process instance, null if it ended or doesn't exist. It
+     * should only be changed through {@link #execute(long, ProcessCommand)}
+     */
+    public ProcessInstance getProcessInstance(long processInstanceId) {
+        return processInstances.get(processInstanceId);
+    }
+
+    public int getProcessInstanceCount() {
+        return processInstances.size();
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public int getShard(long processInstanceId) {
+        // mixes the bits, consecutive ids go to different shards
+        long hash = processInstanceId * 0x9E3779B97F4A7C15L;
+        return (int) ((hash >>> 33) % shards.length);
+    }
+
+    /**
+     * Stops the shards after the commands already submitted.
+     * @return false if the timeout elapsed before
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        for (ExecutorService shard : shards) {
+            shard.shutdown();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ExecutorService shard : shards) {
+            if (!shard.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class JobCommand implements ProcessCommand<Object> {
+
+        private final Job job;
+
+        JobCommand(Job job) {
+            this.job = job;
+        }
+
+        public Object execute(ProcessInstance processInstance) {
+            job.execute(processInstance);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.scripts;
+
+import com.salaboy.process.engine.structures.ContextInstance;
+
+/**
+ * A script compiled by the {@link ScriptCompilationService}, ready to be
+ * executed against the variables of any process instance of its definition.
+ * @author salaboy
+ */
+public interface CompiledScript {
+
+    public void execute(ContextInstance context);
+}
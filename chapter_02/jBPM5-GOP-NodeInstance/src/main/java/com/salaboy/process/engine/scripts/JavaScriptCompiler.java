@@ -0,0 +1,218 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.scripts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import com.salaboy.process.engine.structures.ContextInstance;
+import com.salaboy.process.engine.structures.impl.SlotContextInstance;
+import com.salaboy.process.engine.structures.impl.VariableSchema;
+
+/**
+ * Compiles Java scripts into classes, in memory, with the compiler of the
+ * JDK. The script is the body of a method that receives the
+ * <i>context</i>. When the definition has a variable schema, the declared
+ * variables used by the script are local variables of their declared type
+ * (long, double, boolean or Object), read from their slots before the script
+ * and written back after it if they changed.
+ * @author salaboy
+ */
+class JavaScriptCompiler {
+
+    private static final String PACKAGE = "com.salaboy.process.engine.scripts.generated";
+
+    CompiledScript compile(String script, VariableSchema schema, String hash) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("Java scripts need the compiler of a JDK, it is not available in this JVM");
+        }
+        String simpleName = "JavaScript_" + hash;
+        String className = PACKAGE + "." + simpleName;
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager standardManager = compiler.getStandardFileManager(diagnostics, null, null);
+        final Map<String, ByteArrayOutputStream> classes = new HashMap<String, ByteArrayOutputStream>();
+        JavaFileManager fileManager = new ForwardingJavaFileManager<StandardJavaFileManager>(standardManager) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, final String name, JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        classes.put(name, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+        final String source = generateSource(simpleName, script, schema);
+        JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + ".java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        List<String> options = Arrays.asList("-classpath", getClassPath());
+        boolean compiled = compiler.getTask(null, fileManager, diagnostics, options, null, Arrays.asList(sourceFile)).call();
+        try {
+            fileManager.close();
+        } catch (IOException e) {
+            // nothing was written to disk
+        }
+        if (!compiled) {
+            StringBuilder errors = new StringBuilder("The java script can't be compiled:");
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                errors.append('\n').append(diagnostic.getMessage(null));
+            }
+            throw new IllegalArgumentException(errors.toString());
+        }
+        try {
+            Class<?> scriptClass = new ScriptClassLoader(classes).loadClass(className);
+            return (CompiledScript) scriptClass.getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            throw new IllegalStateException("The compiled java script can't be loaded", e);
+        }
+    }
+
+    private String generateSource(String simpleName, String script, VariableSchema schema) {
+        String context = ContextInstance.class.getName();
+        String slotContext = SlotContextInstance.class.getName();
+        StringBuilder read = new StringBuilder();
+        StringBuilder write = new StringBuilder();
+        if (schema != null) {
+            for (int index = 0; index < schema.getVariableCount(); index++) {
+                String name = schema.getName(index);
+                if (!isIdentifier(name) || name.equals("context")
+                        || !Pattern.compile("(?<![\\w$.])" + Pattern.quote(name) + "(?![\\w$])").matcher(script).find()) {
+                    continue;
+                }
+                String type;
+                String getter;
+                String setter;
+                switch (schema.getType(index)) {
+                    case LONG:
+                        type = "long";
+                        getter = "getLong";
+                        setter = "setLong";
+                        break;
+                    case DOUBLE:
+                        type = "double";
+                        getter = "getDouble";
+                        setter = "setDouble";
+                        break;
+                    case BOOLEAN:
+                        type = "boolean";
+                        getter = "getBoolean";
+                        setter = "setBoolean";
+                        break;
+                    default:
+                        type = "Object";
+                        getter = "getVariable";
+                        setter = "setVariable";
+                }
+                read.append("        ").append(type).append(' ').append(name).append(" = slots$.").append(getter).append('(').append(index).append(");\n");
+                read.append("        final ").append(type).append(' ').append(name).append("$in = ").append(name).append(";\n");
+                write.append("            if (").append(name).append(" != ").append(name).append("$in) {\n");
+                write.append("                slots$.").append(setter).append('(').append(index).append(", ").append(name).append(");\n");
+                write.append("            }\n");
+            }
+        }
+        StringBuilder source = new StringBuilder();
+        source.append("package ").append(PACKAGE).append(";\n\n");
+        source.append("public final class ").append(simpleName).append(" implements ").append(CompiledScript.class.getName()).append(" {\n");
+        source.append("    public void execute(").append(context).append(" context) {\n");
+        if (read.length() > 0) {
+            source.append("        ").append(slotContext).append(" slots$ = (").append(slotContext).append(") context;\n");
+            source.append(read);
+        }
+        source.append("        try {\n");
+        source.append(script).append('\n');
+        source.append("        } finally {\n");
+        source.append(write);
+        source.append("        }\n");
+        source.append("    }\n");
+        source.append("}\n");
+        return source.toString();
+    }
+
+    private static boolean isIdentifier(String name) {
+        if (name.length() == 0 || !Character.isJavaIdentifierStart(name.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < name.length(); i++) {
+            if (!Character.isJavaIdentifierPart(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The class path of the JVM plus the location of the engine classes,
+     * which is not in the class path when they are loaded by another class
+     * loader.
+     */
+    private static String getClassPath() {
+        List<String> entries = new ArrayList<String>();
+        entries.add(System.getProperty("java.class.path"));
+        CodeSource codeSource = CompiledScript.class.getProtectionDomain().getCodeSource();
+        if (codeSource != null) {
+            try {
+                entries.add(new File(codeSource.getLocation().toURI()).getPath());
+            } catch (URISyntaxException e) {
+                // the class path of the JVM has to be enough
+            }
+        }
+        StringBuilder classPath = new StringBuilder();
+        for (String entry : entries) {
+            if (classPath.length() > 0) {
+                classPath.append(File.pathSeparatorChar);
+            }
+            classPath.append(entry);
+        }
+        return classPath.toString();
+    }
+
+    private static class ScriptClassLoader extends ClassLoader {
+
+        private final Map<String, ByteArrayOutputStream> classes;
+
+        ScriptClassLoader(Map<String, ByteArrayOutputStream> classes) {
+            super(CompiledScript.class.getClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            ByteArrayOutputStream bytes = classes.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            byte[] code = bytes.toByteArray();
+            return defineClass(name, code, 0, code.length);
+        }
+    }
+}
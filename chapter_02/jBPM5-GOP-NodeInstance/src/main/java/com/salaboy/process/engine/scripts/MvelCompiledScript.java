@@ -0,0 +1,74 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.scripts;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import com.salaboy.process.engine.structures.ContextInstance;
+import com.salaboy.process.engine.structures.impl.SlotContextInstance;
+import com.salaboy.process.engine.structures.impl.VariableSchema;
+import org.mvel2.MVEL;
+import org.mvel2.ParserContext;
+import org.mvel2.integration.impl.MapVariableResolverFactory;
+
+/**
+ * MVEL script compiled once. The variables it reads or assigns are found
+ * when it is compiled, and the ones declared in the variable schema are
+ * bound through their slots. Only process variables are written back, and
+ * only when the script changed them: the ones declared in the schema and the
+ * ones the context already had. Variables local to the script (like
+ * <i>int total = 0</i>) stay in the script; a script creates a new process
+ * variable through the context itself, available to the script as
+ * <i>context</i>.
+ * @author salaboy
+ */
+class MvelCompiledScript implements CompiledScript {
+
+    private final Serializable expression;
+    private final String[] names;
+    // index of each variable in the schema, -1 if it is not declared
+    private final int[] indexes;
+
+    MvelCompiledScript(String script, VariableSchema schema) {
+        ParserContext parserContext = new ParserContext();
+        this.expression = MVEL.compileExpression(script, parserContext);
+        Set<String> bound = new LinkedHashSet<String>(parserContext.getInputs().keySet());
+        bound.addAll(parserContext.getVariables().keySet());
+        bound.remove("context");
+        this.names = bound.toArray(new String[bound.size()]);
+        this.indexes = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            indexes[i] = schema == null ? -1 : schema.getVariableIndex(names[i]);
+        }
+    }
+
+    public void execute(ContextInstance context) {
+        SlotContextInstance slots = context instanceof SlotContextInstance ? (SlotContextInstance) context : null;
+        Object[] values = new Object[names.length];
+        Map<String, Object> variables = new HashMap<String, Object>(names.length * 2 + 2);
+        for (int i = 0; i < names.length; i++) {
+            values[i] = slots != null && indexes[i] >= 0 ? slots.getVariable(indexes[i]) : context.getVariable(names[i]);
+            if (values[i] != null || indexes[i] >= 0) {
+                variables.put(names[i], values[i]);
+            }
+        }
+        variables.put("context", context);
+        MVEL.executeExpression(expression, new MapVariableResolverFactory(variables));
+        for (int i = 0; i < names.length; i++) {
+            Object value = variables.get(names[i]);
+            // a name that is not a process variable is local to the script
+            if (value != values[i] && (values[i] != null || indexes[i] >= 0)) {
+                if (slots != null && indexes[i] >= 0) {
+                    slots.setVariable(indexes[i], value);
+                } else {
+                    context.setVariable(names[i], value);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.scripts;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.ConcurrentHashMap;
+import com.salaboy.process.engine.services.Service;
+import com.salaboy.process.engine.structures.impl.VariableSchema;
+import com.salaboy.process.engine.util.Checksums;
+
+/**
+ * Compiles the scripts of the script tasks and keeps them in a cache keyed by
+ * the hash of their content (dialect, script and the variables of the
+ * schema), so the same script is compiled once no matter how many tasks or
+ * definitions use it. The supported dialects are "mvel" and "java" (which
+ * needs the compiler of a JDK). It is found in the services of the process
+ * instance under the name "script-service"; without it the default service
+ * is used.
+ * @author salaboy
+ */
+public class ScriptCompilationService implements Service {
+
+    private static final ScriptCompilationService DEFAULT = new ScriptCompilationService();
+
+    private final ConcurrentHashMap<String, CompiledScript> cache = new ConcurrentHashMap<String, CompiledScript>();
+    private final JavaScriptCompiler javaCompiler = new JavaScriptCompiler();
+
+    public static ScriptCompilationService getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param schema the variable schema of the definition, null if it has
+     * none
+     * @throws IllegalArgumentException if the dialect is not supported or
+     * the script can't be compiled
+     */
+    public CompiledScript compile(String dialect, String script, VariableSchema schema) {
+        String hash = hash(dialect, script, schema);
+        CompiledScript compiled = cache.get(hash);
+        if (compiled == null) {
+            if ("mvel".equals(dialect)) {
+                compiled = new MvelCompiledScript(script, schema);
+            } else if ("java".equals(dialect)) {
+                compiled = javaCompiler.compile(script, schema, hash);
+            } else {
+                throw new IllegalArgumentException("The dialect " + dialect + " is not supported");
+            }
+            CompiledScript previous = cache.putIfAbsent(hash, compiled);
+            if (previous != null) {
+                compiled = previous;
+            }
+        }
+        return compiled;
+    }
+
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    private static String hash(String dialect, String script, VariableSchema schema) {
+        StringBuilder content = new StringBuilder(dialect).append('\0').append(script);
+        if (schema != null) {
+            for (int i = 0; i < schema.getVariableCount(); i++) {
+                content.append('\0').append(schema.getName(i)).append(':').append(schema.getType(i));
+            }
+        }
+        try {
+            return Checksums.sha1(content.toString().getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.services;
+
+import com.salaboy.process.engine.structures.Task;
+
+/**
+ * Immutable record of something that happened to a node instance. It keeps
+ * only the values needed to identify the node, not the node instance, so
+ * it can be delivered later to asynchronous listeners even if the node
+ * instance is reused or has already completed.
+ * @author salaboy
+ */
+public final class ProcessEvent {
+
+    public enum Type {
+
+        BEFORE_TASK_TRIGGERED, AFTER_TASK_TRIGGERED, BEFORE_TASK_LEFT, AFTER_TASK_LEFT
+    };
+
+    private final Type type;
+    private final long processInstanceId;
+    private final int nodeId;
+    private final Task task;
+    private final long timestamp;
+
+    public ProcessEvent(Type type, long processInstanceId, int nodeId, Task task, long timestamp) {
+        this.type = type;
+        this.processInstanceId = processInstanceId;
+        this.nodeId = nodeId;
+        this.task = task;
+        this.timestamp = timestamp;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getProcessInstanceId() {
+        return processInstanceId;
+    }
+
+    /**
+     * @return the node id in a compiled definition, -1 if the process
+     * definition is not compiled
+     */
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    public Task getTask() {
+        return task;
+    }
+
+    /**
+     * @return the System.nanoTime() value when the event was fired
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return type + ": " + task;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.salaboy.process.engine.structures.NodeInstance;
+import com.salaboy.process.engine.taskinstances.impl.AbstractNodeInstance;
+
+/**
+ * Event service that delivers {@link ProcessEvent}s to registered listeners.
+ * Without listeners firing an event is a single volatile read: no event is
+ * created and the node instance is not touched.
+ * <ul>
+ *  <li>Synchronous listeners are called in the thread executing the node,
+ *  before the engine continues.</li>
+ *  <li>Asynchronous listeners are called by a daemon dispatcher thread. The
+ *  events reach it through a {@link ProcessEventRingBuffer}, allocated with
+ *  the first asynchronous listener; when the buffer is full the event is
+ *  dropped (and counted) instead of slowing down the engine.</li>
+ * </ul>
+ * One bus can be shared by many process instances.
+ * @author salaboy
+ */
+public class ProcessEventBus implements ProcessEventSupportService {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final Logger logger = Logger.getLogger(ProcessEventBus.class.getName());
+
+    private static final ProcessEventListener[] NO_LISTENERS = new ProcessEventListener[0];
+    private static final long IDLE_NANOS = 100000L;
+
+    // copied on every change, so firing doesn't need a lock
+    private volatile ProcessEventListener[] listeners = NO_LISTENERS;
+    private volatile ProcessEventListener[] asyncListeners = NO_LISTENERS;
+    private volatile boolean active;
+    private final int capacity;
+    // created with the first asynchronous listener, before it is published
+    private volatile ProcessEventRingBuffer buffer;
+    private final AtomicLong dropped = new AtomicLong();
+    private Thread dispatcher;
+    private volatile boolean closed;
+
+    public ProcessEventBus() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ProcessEventBus(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    public synchronized void addListener(ProcessEventListener listener) {
+        listeners = add(listeners, listener);
+        updateActive();
+    }
+
+    /**
+     * Registers a listener called from the dispatcher thread, which is
+     * started with the first asynchronous listener.
+     */
+    public synchronized void addAsyncListener(ProcessEventListener listener) {
+        if (closed) {
+            throw new IllegalStateException("The event bus is closed");
+        }
+        if (buffer == null) {
+            buffer = new ProcessEventRingBuffer(capacity);
+        }
+        asyncListeners = add(asyncListeners, listener);
+        if (dispatcher == null) {
+            dispatcher = new Thread(new Runnable() {
+                public void run() {
+                    dispatch();
+                }
+            }, "process-event-dispatcher");
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+        }
+        updateActive();
+    }
+
+    public synchronized void removeListener(ProcessEventListener listener) {
+        listeners = remove(listeners, listener);
+        asyncListeners = remove(asyncListeners, listener);
+        updateActive();
+    }
+
+    /**
+     * Delivers the events already in the buffer to the asynchronous listeners
+     * and stops the dispatcher thread. Events fired afterwards only reach the
+     * synchronous listeners.
+     */
+    public void close() throws InterruptedException {
+        Thread toJoin;
+        synchronized (this) {
+            closed = true;
+            updateActive();
+            toJoin = dispatcher;
+        }
+        if (toJoin != null) {
+            toJoin.join();
+        }
+    }
+
+    /**
+     * @return the events that didn't reach the asynchronous listeners because
+     * the buffer was full
+     */
+    public long getDroppedEvents() {
+        return dropped.get();
+    }
+
+    public void fireBeforeTaskTriggered(NodeInstance node) {
+        if (active) {
+            publish(ProcessEvent.Type.BEFORE_TASK_TRIGGERED, node);
+        }
+    }
+
+    public void fireAfterTaskTriggered(NodeInstance node) {
+        if (active) {
+            publish(ProcessEvent.Type.AFTER_TASK_TRIGGERED, node);
+        }
+    }
+
+    public void fireBeforeTaskLeft(NodeInstance node) {
+        if (active) {
+            publish(ProcessEvent.Type.BEFORE_TASK_LEFT, node);
+        }
+    }
+
+    public void fireAfterTaskLeft(NodeInstance node) {
+        if (active) {
+            publish(ProcessEvent.Type.AFTER_TASK_LEFT, node);
+        }
+    }
+
+    private void publish(ProcessEvent.Type type, NodeInstance node) {
+        int nodeId = node instanceof AbstractNodeInstance ? ((AbstractNodeInstance) node).getNodeId() : -1;
+        long processInstanceId = node.getProcessInstance() == null ? 0 : node.getProcessInstance().getId();
+        ProcessEvent event = new ProcessEvent(type, processInstanceId, nodeId, node.getTask(), System.nanoTime());
+        ProcessEventListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            current[i].onEvent(event);
+        }
+        if (asyncListeners.length > 0 && !closed && !buffer.offer(event)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void dispatch() {
+        ProcessEventRingBuffer buffer = this.buffer;
+        while (true) {
+            ProcessEvent event = buffer.poll();
+            if (event == null) {
+                if (closed) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_NANOS);
+                continue;
+            }
+            ProcessEventListener[] current = asyncListeners;
+            for (int i = 0; i < current.length; i++) {
+                try {
+                    current[i].onEvent(event);
+                } catch (RuntimeException e) {
+                    // a failing listener must not stop the delivery to the others
+                    logger.log(Level.SEVERE, "Process event listener failed on " + event, e);
+                }
+            }
+        }
+    }
+
+    private void updateActive() {
+        active = listeners.length > 0 || (asyncListeners.length > 0 && !closed);
+    }
+
+    private static ProcessEventListener[] add(ProcessEventListener[] array, ProcessEventListener listener) {
+        ProcessEventListener[] result = new ProcessEventListener[array.length + 1];
+        System.arraycopy(array, 0, result, 0, array.length);
+        result[array.length] = listener;
+        return result;
+    }
+
+    private static ProcessEventListener[] remove(ProcessEventListener[] array, ProcessEventListener listener) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == listener) {
+                if (array.length == 1) {
+                    return NO_LISTENERS;
+                }
+                ProcessEventListener[] result = new ProcessEventListener[array.length - 1];
+                System.arraycopy(array, 0, result, 0, i);
+                System.arraycopy(array, i + 1, result, i, array.length - i - 1);
+                return result;
+            }
+        }
+        return array;
+    }
+}
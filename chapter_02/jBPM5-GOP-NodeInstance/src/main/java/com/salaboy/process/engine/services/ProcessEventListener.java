@@ -0,0 +1,13 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.services;
+
+/**
+ * Listener registered in a {@link ProcessEventBus}.
+ * @author salaboy
+ */
+public interface ProcessEventListener {
+    public void onEvent(ProcessEvent event);
+}
@@ -0,0 +1,91 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, lock free queue of events with many producers (the threads
+ * executing process instances) and a single consumer (the dispatcher of the
+ * {@link ProcessEventBus}). Each slot has a sequence number that tells
+ * whether it is free for the producer claiming a position or already
+ * published for the consumer. A full buffer rejects the event instead of
+ * making the engine wait.
+ * @author salaboy
+ */
+public class ProcessEventRingBuffer {
+
+    private final int mask;
+    private final ProcessEvent[] events;
+    // events[i] can be written at position p when sequences[i] == p and read when it is p + 1
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    // only used by the consumer thread
+    private long head;
+
+    /**
+     * @param capacity rounded up to the next power of two
+     */
+    public ProcessEventRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.events = new ProcessEvent[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false if the buffer is full
+     */
+    public boolean offer(ProcessEvent event) {
+        long position;
+        while (true) {
+            position = tail.get();
+            long available = sequences.get((int) position & mask) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (available < 0) {
+                return false;
+            }
+        }
+        int slot = (int) position & mask;
+        events[slot] = event;
+        // publishes the event to the consumer
+        sequences.set(slot, position + 1);
+        return true;
+    }
+
+    /**
+     * Must be called always from the same thread.
+     * @return the oldest event, null if there is none
+     */
+    public ProcessEvent poll() {
+        int slot = (int) head & mask;
+        if (sequences.get(slot) != head + 1) {
+            return null;
+        }
+        ProcessEvent event = events[slot];
+        events[slot] = null;
+        // frees the slot for the producers of the next lap
+        sequences.set(slot, head + events.length);
+        head++;
+        return event;
+    }
+
+    public int getCapacity() {
+        return events.length;
+    }
+}
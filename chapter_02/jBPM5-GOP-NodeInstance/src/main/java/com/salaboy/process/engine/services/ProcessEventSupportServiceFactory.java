@@ -5,11 +5,15 @@
 package com.salaboy.process.engine.services;
 
 /**
- *
+ * Hands out the event service used by node instances whose process instance
+ * has no "event-service". Nobody can register listeners on it, so a single
+ * bus is shared.
  * @author salaboy
  */
 public class ProcessEventSupportServiceFactory {
+    private static final ProcessEventSupportService SERVICE = new ProcessEventBus();
+
     public static ProcessEventSupportService getService(){
-        return new DefaultProcessEventSupportService();
+        return SERVICE;
     }
 }
@@ -5,13 +5,29 @@
 package com.salaboy.process.engine.structures;
 
 import java.util.Map;
+import com.salaboy.process.engine.structures.impl.VariableSchema;
 
 /**
  *
  * @author salaboy
  */
 public interface ProcessDefinition {
+    /**
+     * Identifies the definition, together with its version, when a process
+     * instance is restored from a snapshot.
+     */
+    public String getId();
+    public void setId(String id);
+    public int getVersion();
+    public void setVersion(int version);
     public Map<Long, Task> getTasks();
     public void setTasks(Map<Long, Task> tasks);
     public void addTask(Long id, Task task);
+    /**
+     * The variables declared by the process, null if the process doesn't
+     * declare them. Process instances of a process with a schema keep the
+     * declared variables in slots instead of a map.
+     */
+    public VariableSchema getVariableSchema();
+    public void setVariableSchema(VariableSchema schema);
 }
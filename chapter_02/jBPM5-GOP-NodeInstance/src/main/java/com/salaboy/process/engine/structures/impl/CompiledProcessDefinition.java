@@ -0,0 +1,293 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.structures.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import com.salaboy.process.engine.factories.NodeInstanceCreator;
+import com.salaboy.process.engine.factories.NodeInstanceFactory;
+import com.salaboy.process.engine.structures.ProcessDefinition;
+import com.salaboy.process.engine.structures.SequenceFlow;
+import com.salaboy.process.engine.structures.Task;
+
+/**
+ * Read only version of a {@link ProcessDefinition} prepared for execution.
+ * It is built once, using {@link #compile(ProcessDefinition)}, and can be
+ * shared by all the process instances of the definition:
+ * <ul>
+ *  <li>Tasks get an int node id, their position in the node array (tasks
+ *  are ordered by their id in the original definition).</li>
+ *  <li>Flow types are interned into int ids. {@link SequenceFlow#FLOW_DEFAULT_TYPE}
+ *  is always {@link #DEFAULT_FLOW_TYPE_ID}.</li>
+ *  <li>The outgoing flows of each flow type are flattened into adjacency
+ *  arrays (offsets, target nodes and target flow types), so the flows
+ *  leaving a node are a range in an int array.</li>
+ * </ul>
+ * The {@link NodeInstanceCreator} of each task is also resolved at compile
+ * time. Node instances of a compiled definition move to the next nodes
+ * without any map lookup.
+ * @author salaboy
+ */
+public class CompiledProcessDefinition implements ProcessDefinition {
+
+    public static final int DEFAULT_FLOW_TYPE_ID = 0;
+
+    private final String id;
+    private final int version;
+    private final Map<Long, Task> tasks;
+    private final Task[] nodes;
+    // [node] -> id of the task in the definition
+    private final long[] taskIds;
+    private final NodeInstanceCreator[] creators;
+    private final int startNodeId;
+    private final String[] flowTypes;
+    private final Map<String, Integer> flowTypeIds;
+    // [flow type][node] -> first edge of the node, the node edges end at [flow type][node + 1]
+    private final int[][] outgoingOffsets;
+    // [flow type][edge] -> target node
+    private final int[][] outgoingTargets;
+    // [flow type][edge] -> flow type used to trigger the target node
+    private final int[][] outgoingTargetTypes;
+    private final VariableSchema variableSchema;
+
+    private CompiledProcessDefinition(String id, int version, Map<Long, Task> tasks, Task[] nodes, long[] taskIds, NodeInstanceCreator[] creators, int startNodeId, String[] flowTypes,
+            Map<String, Integer> flowTypeIds, int[][] outgoingOffsets, int[][] outgoingTargets, int[][] outgoingTargetTypes,
+            VariableSchema variableSchema) {
+        this.id = id;
+        this.version = version;
+        this.tasks = tasks;
+        this.nodes = nodes;
+        this.taskIds = taskIds;
+        this.creators = creators;
+        this.startNodeId = startNodeId;
+        this.flowTypes = flowTypes;
+        this.flowTypeIds = flowTypeIds;
+        this.outgoingOffsets = outgoingOffsets;
+        this.outgoingTargets = outgoingTargets;
+        this.outgoingTargetTypes = outgoingTargetTypes;
+        this.variableSchema = variableSchema;
+    }
+
+    /**
+     * Compiles the current state of a definition. Changes made to the
+     * definition or to its tasks afterwards are not seen by the compiled one.
+     * @throws IllegalArgumentException if a flow points to a task that is not
+     * part of the definition or if there is no NodeInstanceCreator for a task
+     */
+    public static CompiledProcessDefinition compile(ProcessDefinition process) {
+        if (process instanceof CompiledProcessDefinition) {
+            return (CompiledProcessDefinition) process;
+        }
+        Long[] ids = process.getTasks().keySet().toArray(new Long[process.getTasks().size()]);
+        Arrays.sort(ids);
+        Task[] nodes = new Task[ids.length];
+        long[] taskIds = new long[ids.length];
+        NodeInstanceCreator[] creators = new NodeInstanceCreator[ids.length];
+        Map<Long, Task> tasks = new LinkedHashMap<Long, Task>();
+        Map<Task, Integer> nodeIds = new IdentityHashMap<Task, Integer>();
+        int startNodeId = -1;
+        for (int i = 0; i < ids.length; i++) {
+            nodes[i] = process.getTasks().get(ids[i]);
+            taskIds[i] = ids[i];
+            creators[i] = NodeInstanceFactory.getCreator(nodes[i].getClass());
+            tasks.put(ids[i], nodes[i]);
+            nodeIds.put(nodes[i], i);
+            if (ids[i].longValue() == 0L) {
+                startNodeId = i;
+            }
+        }
+
+        // Intern every flow type, the outgoing ones and the ones used to reach a task
+        List<String> flowTypes = new ArrayList<String>();
+        Map<String, Integer> flowTypeIds = new HashMap<String, Integer>();
+        intern(SequenceFlow.FLOW_DEFAULT_TYPE, flowTypes, flowTypeIds);
+        for (Task node : nodes) {
+            if (node.getOutgoingFlows() != null) {
+                for (Map.Entry<String, List<SequenceFlow>> entry : node.getOutgoingFlows().entrySet()) {
+                    intern(entry.getKey(), flowTypes, flowTypeIds);
+                    for (SequenceFlow flow : entry.getValue()) {
+                        intern(flow.getToType(), flowTypes, flowTypeIds);
+                    }
+                }
+            }
+        }
+
+        int typeCount = flowTypes.size();
+        int[][] offsets = new int[typeCount][];
+        int[][] targets = new int[typeCount][];
+        int[][] targetTypes = new int[typeCount][];
+        for (int type = 0; type < typeCount; type++) {
+            String flowType = flowTypes.get(type);
+            offsets[type] = new int[nodes.length + 1];
+            int edges = 0;
+            for (int node = 0; node < nodes.length; node++) {
+                offsets[type][node] = edges;
+                List<SequenceFlow> flows = nodes[node].getOutgoingFlows(flowType);
+                edges += flows == null ? 0 : flows.size();
+            }
+            offsets[type][nodes.length] = edges;
+            targets[type] = new int[edges];
+            targetTypes[type] = new int[edges];
+            int edge = 0;
+            for (int node = 0; node < nodes.length; node++) {
+                List<SequenceFlow> flows = nodes[node].getOutgoingFlows(flowType);
+                if (flows == null) {
+                    continue;
+                }
+                for (SequenceFlow flow : flows) {
+                    Integer target = nodeIds.get(flow.getTo());
+                    if (target == null) {
+                        throw new IllegalArgumentException("The flow '" + flowType + "' leaving task "
+                                + nodes[node].getName() + " goes to a task outside the process definition");
+                    }
+                    targets[type][edge] = target;
+                    targetTypes[type][edge] = flow.getToType() == null ? -1 : flowTypeIds.get(flow.getToType());
+                    edge++;
+                }
+            }
+        }
+        return new CompiledProcessDefinition(process.getId(), process.getVersion(), Collections.unmodifiableMap(tasks), nodes, taskIds, creators, startNodeId,
+                flowTypes.toArray(new String[typeCount]), flowTypeIds, offsets, targets, targetTypes, process.getVariableSchema());
+    }
+
+    private static void intern(String flowType, List<String> flowTypes, Map<String, Integer> flowTypeIds) {
+        if (flowType != null && !flowTypeIds.containsKey(flowType)) {
+            flowTypeIds.put(flowType, flowTypes.size());
+            flowTypes.add(flowType);
+        }
+    }
+
+    public int getNodeCount() {
+        return nodes.length;
+    }
+
+    public Task getTask(int nodeId) {
+        return nodes[nodeId];
+    }
+
+    /**
+     * @return the id of the task of the node in the original definition
+     */
+    public long getTaskId(int nodeId) {
+        return taskIds[nodeId];
+    }
+
+    /**
+     * The creator of the node instances of a task, resolved when the
+     * definition was compiled.
+     */
+    public NodeInstanceCreator getCreator(int nodeId) {
+        return creators[nodeId];
+    }
+
+    /**
+     * @return the node id of the task with id 0, -1 if there isn't one
+     */
+    public int getStartNodeId() {
+        return startNodeId;
+    }
+
+    /**
+     * @return the interned id of a flow type, -1 if no flow of the definition
+     * uses it
+     */
+    public int getFlowTypeId(String flowType) {
+        if (flowType == SequenceFlow.FLOW_DEFAULT_TYPE) {
+            return DEFAULT_FLOW_TYPE_ID;
+        }
+        Integer id = flowType == null ? null : flowTypeIds.get(flowType);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return the flow type of an interned id, null for -1
+     */
+    public String getFlowType(int flowTypeId) {
+        return flowTypeId < 0 ? null : flowTypes[flowTypeId];
+    }
+
+    public int getFlowTypeCount() {
+        return flowTypes.length;
+    }
+
+    /**
+     * First edge leaving a node with a flow type. The edges of the node go
+     * from this position (inclusive) to {@link #getOutgoingEnd(int, int)}
+     * (exclusive).
+     */
+    public int getOutgoingStart(int flowTypeId, int nodeId) {
+        return outgoingOffsets[flowTypeId][nodeId];
+    }
+
+    public int getOutgoingEnd(int flowTypeId, int nodeId) {
+        return outgoingOffsets[flowTypeId][nodeId + 1];
+    }
+
+    public int getEdgeTarget(int flowTypeId, int edge) {
+        return outgoingTargets[flowTypeId][edge];
+    }
+
+    /**
+     * @return the interned flow type used to trigger the target of an edge,
+     * -1 if the flow has no type
+     */
+    public int getEdgeTargetType(int flowTypeId, int edge) {
+        return outgoingTargetTypes[flowTypeId][edge];
+    }
+
+    @Override
+    public Map<Long, Task> getTasks() {
+        return tasks;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public void setId(String id) {
+        throw new UnsupportedOperationException("A compiled process definition can't be modified");
+    }
+
+    @Override
+    public int getVersion() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(int version) {
+        throw new UnsupportedOperationException("A compiled process definition can't be modified");
+    }
+
+    /**
+     * The schema of the original definition, shared with it.
+     */
+    @Override
+    public VariableSchema getVariableSchema() {
+        return variableSchema;
+    }
+
+    @Override
+    public void setVariableSchema(VariableSchema schema) {
+        throw new UnsupportedOperationException("A compiled process definition can't be modified");
+    }
+
+    @Override
+    public void setTasks(Map<Long, Task> tasks) {
+        throw new UnsupportedOperationException("A compiled process definition can't be modified");
+    }
+
+    @Override
+    public void addTask(Long id, Task task) {
+        throw new UnsupportedOperationException("A compiled process definition can't be modified");
+    }
+}
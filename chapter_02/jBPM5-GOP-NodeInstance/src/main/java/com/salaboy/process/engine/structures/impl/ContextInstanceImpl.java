@@ -4,16 +4,18 @@
  */
 package com.salaboy.process.engine.structures.impl;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import com.salaboy.process.engine.structures.ContextInstance;
 
 /**
- *
+ * Process variables, safe to use from parallel branches. The variables are
+ * kept in a ConcurrentHashMap, which doesn't accept null values: setting a
+ * variable to null removes it.
  * @author salaboy
  */
 public class ContextInstanceImpl implements ContextInstance {
-    private Map<String, Object> variables = new HashMap<String, Object>();
+    private final Map<String, Object> variables = new ConcurrentHashMap<String, Object>();
 
     public ContextInstanceImpl() {
     }
@@ -23,9 +25,17 @@ public class ContextInstanceImpl implements ContextInstance {
         return variables;
     }
 
+    /**
+     * Replaces the variables with a copy of the given ones.
+     */
     @Override
     public void setVariables(Map<String, Object> variables) {
-        this.variables = variables;
+        this.variables.clear();
+        if (variables != null) {
+            for (Map.Entry<String, Object> entry : variables.entrySet()) {
+                setVariable(entry.getKey(), entry.getValue());
+            }
+        }
     }
 
     public Object getVariable(String key) {
@@ -33,7 +43,11 @@ public class ContextInstanceImpl implements ContextInstance {
     }
 
     public void setVariable(String key, Object value) {
-        this.variables.put(key, value);
+        if (value == null) {
+            this.variables.remove(key);
+        } else {
+            this.variables.put(key, value);
+        }
     }
     
     
@@ -0,0 +1,64 @@
+/*
+ * To change this template, choose Tools | Templates and open the template in
+ * the editor.
+ */
+package com.salaboy.process.engine.structures.impl;
+
+import java.util.concurrent.locks.Lock;
+import com.salaboy.process.engine.agenda.Agenda;
+import com.salaboy.process.engine.agenda.NodeActivation;
+import com.salaboy.process.engine.agenda.ProcessInstanceScheduler;
+import com.salaboy.process.engine.structures.NodeInstance;
+import com.salaboy.process.engine.structures.ProcessInstance;
+
+/**
+ * The part of a process instance used by the engine itself: node instances,
+ * schedulers, the marshaller and the factories. Code using the engine only
+ * needs {@link ProcessInstance}.
+ * @author salaboy
+ */
+public interface InternalProcessInstance extends ProcessInstance {
+
+    /**
+     * The agenda where node instances schedule the next activations. Inside
+     * {@link #executeBranch(NodeActivation)} it is the agenda of the branch.
+     */
+    public Agenda getAgenda();
+
+    /**
+     * Executes a parallel branch in the current thread, using its own agenda
+     * until there is nothing left to execute in the branch.
+     */
+    public void executeBranch(NodeActivation activation);
+
+    /**
+     * Held by the thread executing the agenda of the process instance:
+     * start(), the jobs that resume its node instances and the schedulers.
+     * The threads of the parallel branches don't take it, they work for the
+     * thread that holds it.
+     */
+    public Lock getExecutionLock();
+
+    public void setScheduler(ProcessInstanceScheduler scheduler);
+
+    public ProcessInstanceScheduler getScheduler();
+
+    /**
+     * Stateless node instance reused every time the node of a compiled
+     * definition is reached, null if it wasn't created yet.
+     */
+    public NodeInstance getFlyweight(int nodeId);
+
+    public void putFlyweight(int nodeId, NodeInstance nodeInstance);
+
+    /**
+     * @return a new id for a node instance, unique in the process instance
+     */
+    public long newNodeInstanceId();
+
+    /**
+     * Makes the ids of the next node instances greater than the id of a
+     * restored one.
+     */
+    public void reserveNodeInstanceId(long nodeInstanceId);
+}
@@ -5,58 +5,106 @@
 package com.salaboy.process.engine.structures.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import com.salaboy.process.engine.structures.Task;
 import com.salaboy.process.engine.structures.NodeInstanceContainer;
 import com.salaboy.process.engine.structures.NodeInstance;
 import com.salaboy.process.engine.taskinstances.impl.EndTaskNodeInstance;
 
 /**
- *
+ * Keeps the active node instances indexed by identity: adding, removing and
+ * looking up the instance of a task don't depend on the number of active
+ * instances. Removing swaps the last instance into the removed position, so
+ * the order of {@link #getNodeInstances()} is not the order in which the
+ * instances were added. The container is synchronized, parallel branches
+ * add and remove their instances from different threads.
  * @author salaboy
  */
 public class NodeContainerImpl implements NodeInstanceContainer {
 
     private List<NodeInstance> nodeInstances;
+    // position of each active instance in nodeInstances
+    private Map<NodeInstance, Integer> positions;
+    // active instances of each task, oldest first
+    private Map<Task, List<NodeInstance>> instancesByTask;
 
     public NodeContainerImpl() {
         this.nodeInstances = new ArrayList<NodeInstance>();
+        this.positions = new IdentityHashMap<NodeInstance, Integer>();
+        this.instancesByTask = new IdentityHashMap<Task, List<NodeInstance>>();
     }
 
-    public List<NodeInstance> getNodeInstances() {
-        return nodeInstances;
+    /**
+     * @return a read only view of the active node instances, it shouldn't be
+     * iterated while parallel branches are running
+     */
+    public synchronized List<NodeInstance> getNodeInstances() {
+        return Collections.unmodifiableList(nodeInstances);
     }
 
-    public void setNodeInstances(List<NodeInstance> nodeInstances) {
-        this.nodeInstances = nodeInstances;
+    public synchronized void setNodeInstances(List<NodeInstance> nodeInstances) {
+        this.nodeInstances = new ArrayList<NodeInstance>();
+        this.positions.clear();
+        this.instancesByTask.clear();
+        if (nodeInstances != null) {
+            for (NodeInstance nodeInstance : nodeInstances) {
+                addNodeInstance(nodeInstance);
+            }
+        }
     }
 
     @Override
-    public void addNodeInstance(NodeInstance nodeInstance) {
-        if (this.nodeInstances == null) {
-            this.nodeInstances = new ArrayList<NodeInstance>();
+    public synchronized void addNodeInstance(NodeInstance nodeInstance) {
+        if (positions.containsKey(nodeInstance)) {
+            return;
         }
+        positions.put(nodeInstance, nodeInstances.size());
         nodeInstances.add(nodeInstance);
+        List<NodeInstance> sameTask = instancesByTask.get(nodeInstance.getTask());
+        if (sameTask == null) {
+            sameTask = new ArrayList<NodeInstance>(1);
+            instancesByTask.put(nodeInstance.getTask(), sameTask);
+        }
+        sameTask.add(nodeInstance);
     }
 
     @Override
-    public void removeNodeInstance(NodeInstance nodeInstance) {
-        nodeInstances.remove(nodeInstance);
-    }
-
-    @Override
-    public NodeInstance getNodeInstance(Task node) {
-        for (NodeInstance nodeInstance : this.nodeInstances) {
-            if (nodeInstance.getTask() == node) {
-                return nodeInstance;
+    public synchronized void removeNodeInstance(NodeInstance nodeInstance) {
+        Integer position = positions.remove(nodeInstance);
+        if (position == null) {
+            return;
+        }
+        NodeInstance last = nodeInstances.remove(nodeInstances.size() - 1);
+        if (last != nodeInstance) {
+            nodeInstances.set(position, last);
+            positions.put(last, position);
+        }
+        List<NodeInstance> sameTask = instancesByTask.get(nodeInstance.getTask());
+        for (int i = 0; i < sameTask.size(); i++) {
+            if (sameTask.get(i) == nodeInstance) {
+                sameTask.remove(i);
+                break;
             }
         }
-        return null;
+        if (sameTask.isEmpty()) {
+            instancesByTask.remove(nodeInstance.getTask());
+        }
+    }
 
+    /**
+     * @return the oldest active instance of the task
+     */
+    @Override
+    public synchronized NodeInstance getNodeInstance(Task node) {
+        List<NodeInstance> sameTask = instancesByTask.get(node);
+        return sameTask == null ? null : sameTask.get(0);
     }
 
     @Override
-    public void nodeInstanceCompleted(NodeInstance nodeInstance, String outType) {
+    public synchronized void nodeInstanceCompleted(NodeInstance nodeInstance, String outType) {
         if (nodeInstance instanceof EndTaskNodeInstance) {
 
             if (nodeInstances.isEmpty()) {
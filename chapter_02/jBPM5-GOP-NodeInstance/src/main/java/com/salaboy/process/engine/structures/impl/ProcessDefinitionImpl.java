@@ -14,13 +14,36 @@ import com.salaboy.process.engine.structures.ProcessDefinition;
  * @author salaboy
  */
 public class ProcessDefinitionImpl implements ProcessDefinition{
+    private String id;
+    private int version;
     private Map<Long, Task> tasks;
+    private VariableSchema variableSchema;
     
     public ProcessDefinitionImpl() {
         this.tasks = new HashMap<Long, Task>();
     }
     
     
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    @Override
+    public int getVersion() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
     @Override
     public Map<Long, Task> getTasks() {
         return this.tasks;
@@ -39,6 +62,16 @@ public class ProcessDefinitionImpl implements ProcessDefinition{
         this.tasks.put(id, task);
     }
 
+    @Override
+    public VariableSchema getVariableSchema() {
+        return variableSchema;
+    }
+
+    @Override
+    public void setVariableSchema(VariableSchema variableSchema) {
+        this.variableSchema = variableSchema;
+    }
+
     
     
     
@@ -4,19 +4,26 @@
  */
 package com.salaboy.process.engine.structures.impl;
 
+import com.salaboy.process.engine.agenda.Agenda;
+import com.salaboy.process.engine.agenda.NodeActivation;
+import com.salaboy.process.engine.agenda.ProcessInstanceScheduler;
 import com.salaboy.process.engine.factories.NodeInstanceFactory;
+import com.salaboy.process.engine.runtime.IdGenerator;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Random;
 import com.salaboy.process.engine.services.Service;
 import com.salaboy.process.engine.structures.*;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  *
  * @author salaboy
  */
-public class ProcessInstanceImpl implements ProcessInstance {
+public class ProcessInstanceImpl implements InternalProcessInstance {
 
     
 
@@ -25,7 +32,16 @@ public class ProcessInstanceImpl implements ProcessInstance {
     private ProcessDefinition process;
     private ContextInstance context;
     private NodeInstanceContainer nodeContainer;
-    private STATUS status;
+    private volatile STATUS status;
+    private Agenda agenda = new Agenda();
+    // agenda of the parallel branch executed by the current thread, if any
+    private final ThreadLocal<Agenda> branchAgendas = new ThreadLocal<Agenda>();
+    private final ReentrantLock executionLock = new ReentrantLock();
+    private ProcessInstanceScheduler scheduler;
+    // one slot per node of a compiled definition, filled by the parallel
+    // branches too
+    private AtomicReferenceArray<NodeInstance> flyweights;
+    private final AtomicLong lastNodeInstanceId = new AtomicLong();
     
     private Map<String, Service> services = new HashMap<String, Service>();
 
@@ -33,11 +49,13 @@ public class ProcessInstanceImpl implements ProcessInstance {
     }
 
     public ProcessInstanceImpl(ProcessDefinition process) {
-        this.id = new Random().nextLong();
+        this.id = IdGenerator.getDefault().nextId();
         this.process = process;
-        this.context = new ContextInstanceImpl();
+        this.context = process != null && process.getVariableSchema() != null
+                ? new SlotContextInstance(process.getVariableSchema()) : new ContextInstanceImpl();
         this.nodeContainer = new NodeContainerImpl();
         this.status = STATUS.CREATED;
+        this.flyweights = createFlyweights(process);
     }
 
     public long getId() {
@@ -61,11 +79,34 @@ public class ProcessInstanceImpl implements ProcessInstance {
 
     @Override
     public void start() {
+        // the jobs left by the start may be taken before it returns
+        executionLock.lock();
+        try {
+            startWithLock();
+        } finally {
+            executionLock.unlock();
+        }
+    }
+
+    private void startWithLock() {
         // We should check that the first task inside the process.tasks is a startTask
-        NodeInstance startTask = NodeInstanceFactory.newNodeInstance(this, process.getTasks().get(0L));
+        NodeInstance startTask;
+        if (process instanceof CompiledProcessDefinition) {
+            CompiledProcessDefinition compiled = (CompiledProcessDefinition) process;
+            if (compiled.getStartNodeId() < 0) {
+                throw new IllegalStateException("The process definition doesn't contain a task with id 0");
+            }
+            startTask = NodeInstanceFactory.newNodeInstance(this, compiled, compiled.getStartNodeId());
+        } else {
+            startTask = NodeInstanceFactory.newNodeInstance(this, process.getTasks().get(0L));
+        }
         this.nodeContainer.addNodeInstance(startTask);
         this.status = STATUS.ACTIVE;
-        startTask.trigger(null, null);
+        this.agenda.schedule(new NodeActivation(startTask, null, null));
+        // When a scheduler is set it decides when the instance is executed
+        if (this.scheduler == null) {
+            this.agenda.executeAll();
+        }
 
     }
     
@@ -80,6 +121,7 @@ public class ProcessInstanceImpl implements ProcessInstance {
     @Override
     public void setProcessDefinition(ProcessDefinition process) {
         this.process = process;
+        this.flyweights = createFlyweights(process);
     }
 
     @Override
@@ -93,6 +135,72 @@ public class ProcessInstanceImpl implements ProcessInstance {
         this.status = STATUS.ENDED;
     }
 
+    public Agenda getAgenda() {
+        Agenda branchAgenda = branchAgendas.get();
+        return branchAgenda == null ? agenda : branchAgenda;
+    }
+
+    public void executeBranch(NodeActivation activation) {
+        Agenda previous = branchAgendas.get();
+        Agenda branchAgenda = new Agenda();
+        branchAgendas.set(branchAgenda);
+        try {
+            branchAgenda.schedule(activation);
+            branchAgenda.executeAll();
+        } finally {
+            if (previous == null) {
+                branchAgendas.remove();
+            } else {
+                branchAgendas.set(previous);
+            }
+        }
+    }
+
+    public Lock getExecutionLock() {
+        return executionLock;
+    }
+
+    public void setScheduler(ProcessInstanceScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public ProcessInstanceScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public NodeInstance getFlyweight(int nodeId) {
+        return flyweights == null ? null : flyweights.get(nodeId);
+    }
+
+    /**
+     * Keeps the first flyweight stored for the node if two branches created
+     * one at the same time.
+     */
+    public void putFlyweight(int nodeId, NodeInstance nodeInstance) {
+        if (flyweights == null) {
+            throw new IllegalStateException("Flyweights are only kept for compiled process definitions");
+        }
+        flyweights.compareAndSet(nodeId, null, nodeInstance);
+    }
+
+    public long newNodeInstanceId() {
+        return lastNodeInstanceId.incrementAndGet();
+    }
+
+    public void reserveNodeInstanceId(long nodeInstanceId) {
+        long last = lastNodeInstanceId.get();
+        while (last < nodeInstanceId && !lastNodeInstanceId.compareAndSet(last, nodeInstanceId)) {
+            last = lastNodeInstanceId.get();
+        }
+    }
+
+    private static AtomicReferenceArray<NodeInstance> createFlyweights(ProcessDefinition process) {
+        if (process instanceof CompiledProcessDefinition) {
+            return new AtomicReferenceArray<NodeInstance>(((CompiledProcessDefinition) process).getNodeCount());
+        }
+        return null;
+    }
+
     public void setStatus(STATUS status) {
         this.status = status;
     }
@@ -0,0 +1,199 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.structures.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import com.salaboy.process.engine.structures.ContextInstance;
+
+/**
+ * Process variables stored in the slots of a {@link VariableSchema}: one
+ * object array and one long array for the primitive variables (doubles are
+ * stored as their raw long bits and booleans as 0 or 1). Variables that are
+ * not declared in the schema are kept in a map, created the first time one
+ * is set.
+ * As in {@link ContextInstanceImpl}, setting a variable to null removes it.
+ * The methods are synchronized, so the variables can be used from parallel
+ * branches.
+ * @author salaboy
+ */
+public class SlotContextInstance implements ContextInstance {
+
+    private final VariableSchema schema;
+    private final Object[] objects;
+    private final long[] primitives;
+    // bit i is set when the primitive slot i has a value
+    private final long[] assigned;
+    private Map<String, Object> undeclared;
+
+    public SlotContextInstance(VariableSchema schema) {
+        schema.freeze();
+        this.schema = schema;
+        this.objects = new Object[schema.getObjectSlotCount()];
+        this.primitives = new long[schema.getPrimitiveSlotCount()];
+        this.assigned = new long[(schema.getPrimitiveSlotCount() + 63) >>> 6];
+    }
+
+    public VariableSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return a copy of the current variables, changes to the map are not
+     * seen by the process instance
+     */
+    @Override
+    public synchronized Map<String, Object> getVariables() {
+        Map<String, Object> variables = undeclared == null
+                ? new HashMap<String, Object>() : new HashMap<String, Object>(undeclared);
+        for (int i = 0; i < schema.getVariableCount(); i++) {
+            Object value = getVariable(i);
+            if (value != null) {
+                variables.put(schema.getName(i), value);
+            }
+        }
+        return variables;
+    }
+
+    /**
+     * Replaces the variables with the given ones.
+     */
+    @Override
+    public synchronized void setVariables(Map<String, Object> variables) {
+        Arrays.fill(objects, null);
+        Arrays.fill(primitives, 0L);
+        Arrays.fill(assigned, 0L);
+        undeclared = null;
+        if (variables != null) {
+            for (Map.Entry<String, Object> entry : variables.entrySet()) {
+                setVariable(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public synchronized Object getVariable(String key) {
+        int index = schema.getVariableIndex(key);
+        if (index < 0) {
+            return undeclared == null ? null : undeclared.get(key);
+        }
+        return getVariable(index);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value doesn't match the type
+     * of a declared variable
+     */
+    @Override
+    public synchronized void setVariable(String key, Object value) {
+        int index = schema.getVariableIndex(key);
+        if (index >= 0) {
+            setVariable(index, value);
+        } else if (value == null) {
+            if (undeclared != null) {
+                undeclared.remove(key);
+            }
+        } else {
+            if (undeclared == null) {
+                undeclared = new HashMap<String, Object>();
+            }
+            undeclared.put(key, value);
+        }
+    }
+
+    /**
+     * @param index the index of the variable in the schema
+     */
+    public synchronized Object getVariable(int index) {
+        int slot = schema.getSlot(index);
+        switch (schema.getType(index)) {
+            case OBJECT:
+                return objects[slot];
+            case LONG:
+                return isAssigned(slot) ? Long.valueOf(primitives[slot]) : null;
+            case DOUBLE:
+                return isAssigned(slot) ? Double.valueOf(Double.longBitsToDouble(primitives[slot])) : null;
+            default:
+                return isAssigned(slot) ? Boolean.valueOf(primitives[slot] != 0) : null;
+        }
+    }
+
+    public synchronized void setVariable(int index, Object value) {
+        int slot = schema.getSlot(index);
+        VariableSchema.Type type = schema.getType(index);
+        if (type == VariableSchema.Type.OBJECT) {
+            objects[slot] = value;
+        } else if (value == null) {
+            primitives[slot] = 0L;
+            assigned[slot >>> 6] &= ~(1L << slot);
+        } else if (type == VariableSchema.Type.LONG && (value instanceof Long || value instanceof Integer
+                || value instanceof Short || value instanceof Byte)) {
+            setPrimitive(slot, ((Number) value).longValue());
+        } else if (type == VariableSchema.Type.DOUBLE && value instanceof Number) {
+            setPrimitive(slot, Double.doubleToRawLongBits(((Number) value).doubleValue()));
+        } else if (type == VariableSchema.Type.BOOLEAN && value instanceof Boolean) {
+            setPrimitive(slot, ((Boolean) value).booleanValue() ? 1L : 0L);
+        } else {
+            throw new IllegalArgumentException("The variable " + schema.getName(index) + " is declared as "
+                    + type + ", it can't hold a " + value.getClass().getName());
+        }
+    }
+
+    /**
+     * @return the value of a long variable, 0 if it has no value
+     */
+    public synchronized long getLong(int index) {
+        checkType(index, VariableSchema.Type.LONG);
+        return primitives[schema.getSlot(index)];
+    }
+
+    public synchronized void setLong(int index, long value) {
+        checkType(index, VariableSchema.Type.LONG);
+        setPrimitive(schema.getSlot(index), value);
+    }
+
+    /**
+     * @return the value of a double variable, 0 if it has no value
+     */
+    public synchronized double getDouble(int index) {
+        checkType(index, VariableSchema.Type.DOUBLE);
+        return Double.longBitsToDouble(primitives[schema.getSlot(index)]);
+    }
+
+    public synchronized void setDouble(int index, double value) {
+        checkType(index, VariableSchema.Type.DOUBLE);
+        setPrimitive(schema.getSlot(index), Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * @return the value of a boolean variable, false if it has no value
+     */
+    public synchronized boolean getBoolean(int index) {
+        checkType(index, VariableSchema.Type.BOOLEAN);
+        return primitives[schema.getSlot(index)] != 0;
+    }
+
+    public synchronized void setBoolean(int index, boolean value) {
+        checkType(index, VariableSchema.Type.BOOLEAN);
+        setPrimitive(schema.getSlot(index), value ? 1L : 0L);
+    }
+
+    private void checkType(int index, VariableSchema.Type type) {
+        if (schema.getType(index) != type) {
+            throw new IllegalArgumentException("The variable " + schema.getName(index) + " is declared as "
+                    + schema.getType(index) + ", not as " + type);
+        }
+    }
+
+    private boolean isAssigned(int slot) {
+        return (assigned[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    private void setPrimitive(int slot, long value) {
+        primitives[slot] = value;
+        assigned[slot >>> 6] |= 1L << slot;
+    }
+}
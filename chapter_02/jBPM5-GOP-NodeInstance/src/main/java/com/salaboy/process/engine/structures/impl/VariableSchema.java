@@ -0,0 +1,101 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.structures.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Variables declared by a process definition. Each variable gets a slot: an
+ * index in the object array or in the primitive array of a
+ * {@link SlotContextInstance}. Long, double and boolean variables are kept as
+ * primitives, without boxing. The schema can't be changed once a process
+ * instance uses it.
+ * @author salaboy
+ */
+public class VariableSchema {
+
+    public enum Type {
+
+        OBJECT, LONG, DOUBLE, BOOLEAN
+    };
+
+    private String[] names = new String[4];
+    private Type[] types = new Type[4];
+    private int[] slots = new int[4];
+    private int count;
+    private final Map<String, Integer> variables = new HashMap<String, Integer>();
+    private int objectSlots;
+    private int primitiveSlots;
+    private volatile boolean frozen;
+
+    /**
+     * Declares a variable.
+     * @return this schema, to declare several variables in a row
+     * @throws IllegalArgumentException if the variable was already declared
+     * @throws IllegalStateException if a process instance already uses the
+     * schema
+     */
+    public synchronized VariableSchema addVariable(String name, Type type) {
+        if (frozen) {
+            throw new IllegalStateException("The schema is already used by process instances");
+        }
+        if (variables.containsKey(name)) {
+            throw new IllegalArgumentException("The variable " + name + " is already declared");
+        }
+        if (count == names.length) {
+            names = Arrays.copyOf(names, count * 2);
+            types = Arrays.copyOf(types, count * 2);
+            slots = Arrays.copyOf(slots, count * 2);
+        }
+        variables.put(name, count);
+        names[count] = name;
+        types[count] = type;
+        slots[count] = type == Type.OBJECT ? objectSlots++ : primitiveSlots++;
+        count++;
+        return this;
+    }
+
+    synchronized void freeze() {
+        frozen = true;
+    }
+
+    /**
+     * @return the index of a declared variable, -1 if it wasn't declared
+     */
+    public int getVariableIndex(String name) {
+        Integer index = variables.get(name);
+        return index == null ? -1 : index;
+    }
+
+    public int getVariableCount() {
+        return count;
+    }
+
+    public String getName(int variableIndex) {
+        return names[variableIndex];
+    }
+
+    public Type getType(int variableIndex) {
+        return types[variableIndex];
+    }
+
+    /**
+     * @return the position of the variable in the object or primitive array,
+     * depending on its type
+     */
+    public int getSlot(int variableIndex) {
+        return slots[variableIndex];
+    }
+
+    public int getObjectSlotCount() {
+        return objectSlots;
+    }
+
+    public int getPrimitiveSlotCount() {
+        return primitiveSlots;
+    }
+}
@@ -4,12 +4,20 @@
  */
 package com.salaboy.process.engine.taskinstances.impl;
 
+import com.salaboy.process.engine.agenda.NodeActivation;
 import com.salaboy.process.engine.factories.NodeInstanceFactory;
+import com.salaboy.process.engine.jobs.Job;
+import com.salaboy.process.engine.jobs.JobQueue;
+import com.salaboy.process.engine.jobs.ResumableNodeInstance;
+import com.salaboy.process.engine.metrics.NodeTimingService;
+import java.util.ArrayList;
 import java.util.List;
 import com.salaboy.process.engine.structures.Task;
 import com.salaboy.process.engine.structures.NodeInstance;
 import com.salaboy.process.engine.structures.ProcessInstance;
 import com.salaboy.process.engine.structures.SequenceFlow;
+import com.salaboy.process.engine.structures.impl.CompiledProcessDefinition;
+import com.salaboy.process.engine.structures.impl.InternalProcessInstance;
 import com.salaboy.process.engine.services.ProcessEventSupportService;
 import com.salaboy.process.engine.services.ProcessEventSupportServiceFactory;
 
@@ -22,11 +30,21 @@ public abstract class AbstractNodeInstance implements NodeInstance {
     protected ProcessInstance processInstance;
     protected Task task;
     protected ProcessEventSupportService eventService;
+    // Position of the task in a CompiledProcessDefinition, -1 if not compiled
+    protected int nodeId = -1;
+    // unique in the process instance, kept in the jobs and the snapshots
+    private long id;
+    // null unless the process instance has a "timing-service"
+    protected NodeTimingService timingService;
 
     public AbstractNodeInstance(ProcessInstance processInstance, Task task) {
         this.processInstance = processInstance;
         this.task = task;
         eventService = (ProcessEventSupportService)processInstance.getService("event-service");
+        timingService = (NodeTimingService)processInstance.getService("timing-service");
+        if (processInstance instanceof InternalProcessInstance) {
+            id = ((InternalProcessInstance) processInstance).newNodeInstanceId();
+        }
     }
     
     
@@ -38,7 +56,11 @@ public abstract class AbstractNodeInstance implements NodeInstance {
 
         eventService.fireBeforeTaskTriggered(this);
 
-        internalTrigger(from, type);
+        if (timingService == null) {
+            internalTrigger(from, type);
+        } else {
+            timedTrigger(from, type);
+        }
 
         //Fire after TASK Triggered
         eventService.fireAfterTaskTriggered(this);
@@ -56,6 +78,42 @@ public abstract class AbstractNodeInstance implements NodeInstance {
 
     public abstract void internalTrigger(NodeInstance from, String type);
 
+    /**
+     * Records the time spent in internalTrigger(). The nodes that complete
+     * later keep their own trigger time (see {@link #timestamp()}) and record
+     * the time until they complete with {@link #recordActive(long)}. The
+     * start is not kept in a field: stateless nodes and joins are shared by
+     * the branches of a process instance.
+     */
+    private void timedTrigger(NodeInstance from, String type) {
+        long start = System.nanoTime();
+        try {
+            internalTrigger(from, type);
+        } finally {
+            timingService.recordExecution(task, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return System.nanoTime(), or 0 if the process instance has no
+     * timing-service
+     */
+    protected long timestamp() {
+        return timingService == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Records the time since the node instance was triggered, for the nodes
+     * that complete after their trigger returned.
+     * @param triggeredAt the {@link #timestamp()} of the trigger, 0 if the
+     * node instance wasn't timed (or was restored)
+     */
+    protected void recordActive(long triggeredAt) {
+        if (timingService != null && triggeredAt != 0) {
+            timingService.recordActive(task, System.nanoTime() - triggeredAt);
+        }
+    }
+
     private ProcessEventSupportService getProcessEventSupportService() {
         return ProcessEventSupportServiceFactory.getService();
     }
@@ -65,6 +123,10 @@ public abstract class AbstractNodeInstance implements NodeInstance {
 
             processInstance.removeNodeInstance(this);
         }
+        if (nodeId >= 0 && processInstance.getProcessDefinition() instanceof CompiledProcessDefinition) {
+            triggerCompiled((CompiledProcessDefinition) processInstance.getProcessDefinition(), type);
+            return;
+        }
         Task task = getTask();
         List<SequenceFlow> flows = null;
         if (task != null) {
@@ -82,14 +144,112 @@ public abstract class AbstractNodeInstance implements NodeInstance {
     protected void triggerConnection(SequenceFlow flow) {
 
         eventService.fireBeforeTaskLeft(this);
-        this.processInstance.addNodeInstance(NodeInstanceFactory.newNodeInstance(this.processInstance, flow.getTo()));
-        // trigger next TASK
-        this.processInstance.getNodeInstance(flow.getTo()).trigger(this, flow.getToType());
+        // schedule next TASK, the process instance agenda will trigger it
+        ((InternalProcessInstance) this.processInstance).getAgenda().schedule(connect(flow));
 
         eventService.fireAfterTaskLeft(this);
 
     }
 
+    /**
+     * Creates the instance of the task at the end of the flow and adds it to
+     * the process instance, without triggering it.
+     */
+    protected NodeActivation connect(SequenceFlow flow) {
+        NodeInstance next = NodeInstanceFactory.newNodeInstance(this.processInstance, flow.getTo());
+        this.processInstance.addNodeInstance(next);
+        return new NodeActivation(next, this, flow.getToType());
+    }
+
+    protected NodeActivation connect(CompiledProcessDefinition process, int typeId, int edge) {
+        NodeInstance next = NodeInstanceFactory.newNodeInstance(this.processInstance, process, process.getEdgeTarget(typeId, edge));
+        this.processInstance.addNodeInstance(next);
+        return new NodeActivation(next, this, process.getFlowType(process.getEdgeTargetType(typeId, edge)));
+    }
+
+    /**
+     * Leaves the node through all its outgoing flows of a type, returning the
+     * activations of the next nodes instead of scheduling them.
+     */
+    protected List<NodeActivation> leave(String type) {
+        List<NodeActivation> activations = new ArrayList<NodeActivation>();
+        if (nodeId >= 0 && processInstance.getProcessDefinition() instanceof CompiledProcessDefinition) {
+            CompiledProcessDefinition process = (CompiledProcessDefinition) processInstance.getProcessDefinition();
+            int typeId = process.getFlowTypeId(type);
+            if (typeId >= 0) {
+                for (int edge = process.getOutgoingStart(typeId, nodeId); edge < process.getOutgoingEnd(typeId, nodeId); edge++) {
+                    eventService.fireBeforeTaskLeft(this);
+                    activations.add(connect(process, typeId, edge));
+                    eventService.fireAfterTaskLeft(this);
+                }
+            }
+        } else if (task != null && task.getOutgoingFlows(type) != null) {
+            for (SequenceFlow flow : task.getOutgoingFlows(type)) {
+                eventService.fireBeforeTaskLeft(this);
+                activations.add(connect(flow));
+                eventService.fireAfterTaskLeft(this);
+            }
+        }
+        return activations;
+    }
+
+    /**
+     * Leaves a job for this node instance in the "job-queue" service of the
+     * process instance. The node instance stays active and the execution of
+     * the caller goes on with the rest of its agenda.
+     * @throws IllegalStateException if the process instance has no job queue
+     */
+    protected void continueAsync() {
+        JobQueue jobQueue = (JobQueue) processInstance.getService("job-queue");
+        if (jobQueue == null) {
+            throw new IllegalStateException("The task " + task + " is asynchronous and there is no job-queue service");
+        }
+        jobQueue.add(new Job(processInstance, (ResumableNodeInstance) this));
+    }
+
+    /**
+     * Same as triggerCompleted() but following the adjacency arrays of the
+     * compiled definition.
+     */
+    private void triggerCompiled(CompiledProcessDefinition process, String type) {
+        int typeId = process.getFlowTypeId(type);
+        int start = typeId < 0 ? 0 : process.getOutgoingStart(typeId, nodeId);
+        int end = typeId < 0 ? 0 : process.getOutgoingEnd(typeId, nodeId);
+        if (start == end) {
+            processInstance.nodeInstanceCompleted(this, type);
+            return;
+        }
+        for (int edge = start; edge < end; edge++) {
+            eventService.fireBeforeTaskLeft(this);
+            // schedule next TASK
+            ((InternalProcessInstance) this.processInstance).getAgenda().schedule(connect(process, typeId, edge));
+
+            eventService.fireAfterTaskLeft(this);
+        }
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Sets the id of a node instance restored from a snapshot.
+     */
+    public void setId(long id) {
+        this.id = id;
+        if (processInstance instanceof InternalProcessInstance) {
+            ((InternalProcessInstance) processInstance).reserveNodeInstanceId(id);
+        }
+    }
+
+    public void setNodeId(int nodeId) {
+        this.nodeId = nodeId;
+    }
+
     @Override
     public void setTask(Task task) {
         this.task = task;
@@ -0,0 +1,62 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.taskinstances.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import com.salaboy.process.engine.structures.NodeInstance;
+import com.salaboy.process.engine.structures.ProcessInstance;
+import com.salaboy.process.engine.structures.SequenceFlow;
+import com.salaboy.process.engine.structures.Task;
+import com.salaboy.process.engine.tasks.impl.ParallelJoinTask;
+
+/**
+ * Instance of a {@link ParallelJoinTask}. All the branches arriving to the
+ * join share the same instance (see {@link #getOrCreate(ProcessInstance, Task)})
+ * and the branch that completes the count is the one that continues the
+ * execution, the others just end.
+ * @author salaboy
+ */
+public class ParallelJoinTaskNodeInstance extends AbstractNodeInstance {
+
+    private final AtomicInteger arrived = new AtomicInteger();
+
+    public ParallelJoinTaskNodeInstance(ProcessInstance pI, Task task) {
+        super(pI, task);
+    }
+
+    /**
+     * Returns the active instance of the join, creating and adding it to the
+     * process instance if this is the first branch to arrive.
+     */
+    public static NodeInstance getOrCreate(ProcessInstance processInstance, Task task) {
+        synchronized (processInstance) {
+            NodeInstance nodeInstance = processInstance.getNodeInstance(task);
+            if (nodeInstance == null) {
+                nodeInstance = new ParallelJoinTaskNodeInstance(processInstance, task);
+                processInstance.addNodeInstance(nodeInstance);
+            }
+            return nodeInstance;
+        }
+    }
+
+    @Override
+    public void internalTrigger(NodeInstance from, String type) {
+        if (arrived.incrementAndGet() == ((ParallelJoinTask) this.task).getIncomingBranches()) {
+            triggerCompleted(SequenceFlow.FLOW_DEFAULT_TYPE, true);
+        }
+    }
+
+    public int getArrived() {
+        return arrived.get();
+    }
+
+    /**
+     * Sets the number of branches that arrived, when the instance is
+     * restored from a snapshot.
+     */
+    public void setArrived(int arrived) {
+        this.arrived.set(arrived);
+    }
+}
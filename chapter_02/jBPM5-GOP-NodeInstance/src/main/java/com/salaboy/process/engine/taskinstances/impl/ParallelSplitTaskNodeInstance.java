@@ -0,0 +1,86 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.taskinstances.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import com.salaboy.process.engine.agenda.NodeActivation;
+import com.salaboy.process.engine.structures.NodeInstance;
+import com.salaboy.process.engine.structures.ProcessInstance;
+import com.salaboy.process.engine.structures.SequenceFlow;
+import com.salaboy.process.engine.structures.Task;
+import com.salaboy.process.engine.structures.impl.InternalProcessInstance;
+import com.salaboy.process.engine.tasks.impl.ParallelSplitTask;
+
+/**
+ * Instance of a {@link ParallelSplitTask}. When the task has an executor each
+ * branch is executed with its own agenda (see
+ * {@link InternalProcessInstance#executeBranch(NodeActivation)}) and the split waits
+ * until all the branches are done, so the process instance behaves the same
+ * way for the code that started it. The first failure of a branch is thrown
+ * once all the branches have finished.
+ * A split inside a branch also waits for its own branches while holding a
+ * thread of the executor, nested splits need an executor with enough
+ * threads for all of them.
+ * @author salaboy
+ */
+public class ParallelSplitTaskNodeInstance extends AbstractNodeInstance {
+
+    public ParallelSplitTaskNodeInstance(ProcessInstance pI, Task task) {
+        super(pI, task);
+    }
+
+    @Override
+    public void internalTrigger(NodeInstance from, String type) {
+        ExecutorService executor = ((ParallelSplitTask) this.task).getExecutor();
+        if (executor == null) {
+            triggerCompleted(SequenceFlow.FLOW_DEFAULT_TYPE, true);
+            return;
+        }
+        this.processInstance.removeNodeInstance(this);
+        List<NodeActivation> branches = leave(SequenceFlow.FLOW_DEFAULT_TYPE);
+        if (branches.isEmpty()) {
+            this.processInstance.nodeInstanceCompleted(this, SequenceFlow.FLOW_DEFAULT_TYPE);
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<Future<?>>(branches.size() - 1);
+        for (int i = 1; i < branches.size(); i++) {
+            final NodeActivation branch = branches.get(i);
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    ((InternalProcessInstance) processInstance).executeBranch(branch);
+                }
+            }));
+        }
+        RuntimeException failure = null;
+        try {
+            ((InternalProcessInstance) this.processInstance).executeBranch(branches.get(0));
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause()
+                            : new RuntimeException("A parallel branch failed", e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = new IllegalStateException("Interrupted while waiting for the parallel branches", e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
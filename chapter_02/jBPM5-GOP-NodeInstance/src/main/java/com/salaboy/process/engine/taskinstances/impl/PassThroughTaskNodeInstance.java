@@ -0,0 +1,28 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.taskinstances.impl;
+
+import com.salaboy.process.engine.structures.NodeInstance;
+import com.salaboy.process.engine.structures.ProcessInstance;
+import com.salaboy.process.engine.structures.SequenceFlow;
+import com.salaboy.process.engine.structures.Task;
+import com.salaboy.process.engine.tasks.impl.PassThroughTask;
+
+/**
+ * Instance of a {@link PassThroughTask}. It keeps no state, every trigger
+ * leaves the node right away.
+ * @author salaboy
+ */
+public class PassThroughTaskNodeInstance extends AbstractNodeInstance {
+
+    public PassThroughTaskNodeInstance(ProcessInstance pI, Task task) {
+        super(pI, task);
+    }
+
+    @Override
+    public void internalTrigger(NodeInstance from, String type) {
+        triggerCompleted(SequenceFlow.FLOW_DEFAULT_TYPE, true);
+    }
+}
@@ -4,6 +4,9 @@
  */
 package com.salaboy.process.engine.taskinstances.impl;
 
+import com.salaboy.process.engine.jobs.ResumableNodeInstance;
+import com.salaboy.process.engine.scripts.CompiledScript;
+import com.salaboy.process.engine.scripts.ScriptCompilationService;
 import com.salaboy.process.engine.structures.Action;
 import com.salaboy.process.engine.structures.ProcessInstance;
 import com.salaboy.process.engine.structures.NodeInstance;
@@ -15,9 +18,11 @@ import com.salaboy.process.engine.tasks.impl.ScriptTask;
  *
  * @author salaboy
  */
-public class ScriptTaskNodeInstance extends AbstractNodeInstance {
+public class ScriptTaskNodeInstance extends AbstractNodeInstance implements ResumableNodeInstance {
 
     private Action action;
+    // set only for asynchronous scripts, which complete in their job
+    private long triggeredAt;
 
     public ScriptTaskNodeInstance(ProcessInstance pI, Task task, Action action) {
         super(pI, task);
@@ -28,11 +33,57 @@ public class ScriptTaskNodeInstance extends AbstractNodeInstance {
 
     @Override
     public void internalTrigger(NodeInstance from, String type) {
+        if (((ScriptTask) this.task).isAsync()) {
+            triggeredAt = timestamp();
+            continueAsync();
+            return;
+        }
+        execute();
+    }
+
+    /**
+     * Executes the action of an asynchronous script task, from its job.
+     */
+    public void resume() {
+        execute();
+    }
+
+    public void rearm() {
+        if (((ScriptTask) this.task).isAsync()) {
+            continueAsync();
+        }
+    }
+
+    private void execute() {
         System.out.println("Executing Script Task ("+((ScriptTask)this.task).getDialect()+") !");
-        action.execute();
+        if (action != null) {
+            action.execute();
+        } else {
+            getCompiledScript().execute(this.processInstance.getContextInstance());
+        }
+        recordActive(triggeredAt);
         triggerCompleted(SequenceFlow.FLOW_DEFAULT_TYPE, true);
     }
 
+    /**
+     * The script of the task, compiled by the script-service of the process
+     * instance (or the default one) the first time it is executed.
+     */
+    private CompiledScript getCompiledScript() {
+        ScriptTask scriptTask = (ScriptTask) this.task;
+        CompiledScript compiledScript = scriptTask.getCompiledScript();
+        if (compiledScript == null) {
+            ScriptCompilationService compilationService = (ScriptCompilationService) this.processInstance.getService("script-service");
+            if (compilationService == null) {
+                compilationService = ScriptCompilationService.getDefault();
+            }
+            compiledScript = compilationService.compile(scriptTask.getDialect(), scriptTask.getScript(),
+                    this.processInstance.getProcessDefinition().getVariableSchema());
+            scriptTask.setCompiledScript(compiledScript);
+        }
+        return compiledScript;
+    }
+
     public Action getAction() {
         return action;
     }
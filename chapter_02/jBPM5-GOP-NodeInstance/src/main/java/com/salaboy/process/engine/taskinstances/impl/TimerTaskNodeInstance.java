@@ -0,0 +1,78 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.taskinstances.impl;
+
+import com.salaboy.process.engine.jobs.Job;
+import com.salaboy.process.engine.jobs.ResumableNodeInstance;
+import com.salaboy.process.engine.structures.NodeInstance;
+import com.salaboy.process.engine.structures.ProcessInstance;
+import com.salaboy.process.engine.structures.SequenceFlow;
+import com.salaboy.process.engine.structures.Task;
+import com.salaboy.process.engine.tasks.impl.TimerTask;
+import com.salaboy.process.engine.timers.Timer;
+import com.salaboy.process.engine.timers.TimingWheel;
+
+/**
+ * Instance of a {@link TimerTask}. It schedules a timer and stays active in
+ * the process instance; when the timer expires the job resumes it and the
+ * process continues.
+ * @author salaboy
+ */
+public class TimerTaskNodeInstance extends AbstractNodeInstance implements ResumableNodeInstance {
+
+    private TimingWheel timingWheel;
+    private Timer timer;
+    private long triggeredAt;
+
+    public TimerTaskNodeInstance(ProcessInstance pI, Task task) {
+        super(pI, task);
+    }
+
+    /**
+     * @throws IllegalStateException if the process instance has no
+     * timer-service
+     */
+    @Override
+    public void internalTrigger(NodeInstance from, String type) {
+        triggeredAt = timestamp();
+        rearm();
+    }
+
+    /**
+     * Schedules the timer with the whole delay of the task.
+     * @throws IllegalStateException if the process instance has no
+     * timer-service
+     */
+    public void rearm() {
+        timingWheel = (TimingWheel) this.processInstance.getService("timer-service");
+        if (timingWheel == null) {
+            throw new IllegalStateException("The process instance has a timer and there is no timer-service");
+        }
+        TimerTask timerTask = (TimerTask) this.task;
+        timer = timingWheel.schedule(timerTask.getDelay(), timerTask.getUnit(), new Job(this.processInstance, this));
+    }
+
+    public void resume() {
+        recordActive(triggeredAt);
+        triggerCompleted(SequenceFlow.FLOW_DEFAULT_TYPE, true);
+    }
+
+    /**
+     * Cancels the timer and removes the node instance from the process
+     * instance, the branch doesn't continue.
+     * @return false if the timer already expired or was cancelled
+     */
+    public boolean cancel() {
+        boolean cancelled = timer != null && timingWheel.cancel(timer);
+        if (cancelled) {
+            this.processInstance.removeNodeInstance(this);
+        }
+        return cancelled;
+    }
+
+    public Timer getTimer() {
+        return timer;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.taskinstances.impl;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import com.salaboy.process.engine.jobs.Job;
+import com.salaboy.process.engine.jobs.ResumableNodeInstance;
+import com.salaboy.process.engine.structures.NodeInstance;
+import com.salaboy.process.engine.structures.ProcessInstance;
+import com.salaboy.process.engine.structures.SequenceFlow;
+import com.salaboy.process.engine.structures.Task;
+import com.salaboy.process.engine.tasks.impl.WaitStateTask;
+
+/**
+ * Instance of a {@link WaitStateTask}. It stays active in the process
+ * instance until it is resumed, by its job or by {@link #signal()}, and
+ * then leaves through its default flows.
+ * @author salaboy
+ */
+public class WaitStateTaskNodeInstance extends AbstractNodeInstance implements ResumableNodeInstance {
+
+    private final AtomicBoolean resumed = new AtomicBoolean();
+    private long triggeredAt;
+
+    public WaitStateTaskNodeInstance(ProcessInstance pI, Task task) {
+        super(pI, task);
+    }
+
+    @Override
+    public void internalTrigger(NodeInstance from, String type) {
+        triggeredAt = timestamp();
+        rearm();
+    }
+
+    public void rearm() {
+        if (this.processInstance.getService("job-queue") != null) {
+            continueAsync();
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the node instance was already resumed
+     */
+    public void resume() {
+        if (!resumed.compareAndSet(false, true)) {
+            throw new IllegalStateException("The wait state " + task + " was already resumed");
+        }
+        recordActive(triggeredAt);
+        triggerCompleted(SequenceFlow.FLOW_DEFAULT_TYPE, true);
+    }
+
+    /**
+     * Continues the process instance in the calling thread, until it ends or
+     * reaches the next wait state. This node instance is resumed, even if
+     * other instances of the same task are waiting.
+     * @throws IllegalStateException if the node instance was already resumed
+     */
+    public void signal() {
+        if (resumed.get()) {
+            throw new IllegalStateException("The wait state " + task + " was already resumed");
+        }
+        Job.resume(this.processInstance, this);
+    }
+
+    public boolean isResumed() {
+        return resumed.get();
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.tasks.impl;
+
+/**
+ * Waits for a number of incoming branches before leaving through its
+ * outgoing default flows. Tasks don't know their incoming flows, so the
+ * number of branches is set when the task is created.
+ * @author salaboy
+ */
+public class ParallelJoinTask extends AbstractBaseTask {
+
+    private int incomingBranches;
+
+    public ParallelJoinTask(int incomingBranches) {
+        if (incomingBranches < 1) {
+            throw new IllegalArgumentException("A join needs at least one incoming branch");
+        }
+        this.incomingBranches = incomingBranches;
+    }
+
+    public int getIncomingBranches() {
+        return incomingBranches;
+    }
+}
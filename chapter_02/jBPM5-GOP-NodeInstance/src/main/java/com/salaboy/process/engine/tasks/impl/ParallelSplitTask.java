@@ -0,0 +1,32 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.tasks.impl;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Starts one branch for each outgoing default flow. Without an executor the
+ * branches are executed one after the other by the agenda of the process
+ * instance. With an executor they are executed concurrently: the first
+ * branch runs in the thread that reached the split and the rest are
+ * submitted to the executor. On Java 7 or newer a ForkJoinPool can be used
+ * as the executor.
+ * @author salaboy
+ */
+public class ParallelSplitTask extends AbstractBaseTask {
+
+    private ExecutorService executor;
+
+    public ParallelSplitTask() {
+    }
+
+    public ParallelSplitTask(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+}
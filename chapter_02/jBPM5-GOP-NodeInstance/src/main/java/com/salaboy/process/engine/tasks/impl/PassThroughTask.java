@@ -0,0 +1,15 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.tasks.impl;
+
+/**
+ * Leaves through its outgoing default flows every time it is reached, one
+ * branch after the other. It is used for the converging exclusive gateways
+ * and the events without a trigger of BPMN2 files.
+ * @author salaboy
+ */
+public class PassThroughTask extends AbstractBaseTask {
+
+}
@@ -4,19 +4,45 @@
  */
 package com.salaboy.process.engine.tasks.impl;
 
+import com.salaboy.process.engine.scripts.CompiledScript;
 import com.salaboy.process.engine.structures.Action;
 
 /**
- *
+ * Executes an action, or a script in the dialect of the task ("mvel" or
+ * "java", see {@link #fromScript(String, String)}). The script is compiled
+ * the first time the task is executed and the compiled form is kept in the
+ * task.
+ * An asynchronous script task doesn't execute the action when it is
+ * reached: it leaves a job in the job queue of the process instance and the
+ * caller returns, the action and the rest of the process are executed by
+ * whoever takes the job.
  * @author salaboy
  */
 public class ScriptTask extends AbstractBaseTask {
     private Action action;
     private String dialect;
+    private boolean async;
+    private String script;
+    private volatile CompiledScript compiledScript;
 
     public ScriptTask(String dialect, Action action) {
+        this(dialect, action, false);
+    }
+
+    public ScriptTask(String dialect, Action action, boolean async) {
         this.dialect = dialect;
         this.action = action;
+        this.async = async;
+    }
+
+    public static ScriptTask fromScript(String dialect, String script) {
+        return fromScript(dialect, script, false);
+    }
+
+    public static ScriptTask fromScript(String dialect, String script, boolean async) {
+        ScriptTask scriptTask = new ScriptTask(dialect, null, async);
+        scriptTask.script = script;
+        return scriptTask;
     }
 
     public Action getAction() {
@@ -26,6 +52,25 @@ public class ScriptTask extends AbstractBaseTask {
     public String getDialect() {
         return dialect;
     }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * @return the text of the script, null if the task executes an action
+     */
+    public String getScript() {
+        return script;
+    }
+
+    public CompiledScript getCompiledScript() {
+        return compiledScript;
+    }
+
+    public void setCompiledScript(CompiledScript compiledScript) {
+        this.compiledScript = compiledScript;
+    }
     
     
     
@@ -0,0 +1,35 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.tasks.impl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for a delay before leaving through its outgoing default flows. No
+ * thread waits: the timer is kept by the TimingWheel registered as the
+ * "timer-service" of the process instance.
+ * @author salaboy
+ */
+public class TimerTask extends AbstractBaseTask {
+
+    private final long delay;
+    private final TimeUnit unit;
+
+    public TimerTask(long delay, TimeUnit unit) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("The delay can't be negative");
+        }
+        this.delay = delay;
+        this.unit = unit;
+    }
+
+    public long getDelay() {
+        return delay;
+    }
+
+    public TimeUnit getUnit() {
+        return unit;
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.tasks.impl;
+
+/**
+ * Stops the process instance until it is told to continue. If the process
+ * instance has a job queue the continuation is left there as a job, so the
+ * caller returns and the rest of the process is executed by whoever takes
+ * the job. Without a job queue the instance waits until the node instance
+ * is signalled.
+ * @author salaboy
+ */
+public class WaitStateTask extends AbstractBaseTask {
+
+    public WaitStateTask() {
+    }
+
+    public WaitStateTask(String name) {
+        setName(name);
+    }
+}
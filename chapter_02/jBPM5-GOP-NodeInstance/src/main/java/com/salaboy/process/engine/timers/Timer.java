@@ -0,0 +1,38 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.timers;
+
+import com.salaboy.process.engine.jobs.Job;
+
+/**
+ * A timer pending in a {@link TimingWheel}. It is an entry of the doubly
+ * linked list of its bucket, so it can be removed without searching it.
+ * @author salaboy
+ */
+public class Timer {
+
+    final Job job;
+    // tick of the wheel when the timer expires
+    final long deadline;
+    Timer previous;
+    Timer next;
+    volatile boolean pending;
+
+    Timer(Job job, long deadline) {
+        this.job = job;
+        this.deadline = deadline;
+    }
+
+    public Job getJob() {
+        return job;
+    }
+
+    /**
+     * @return false if the timer already expired or was cancelled
+     */
+    public boolean isPending() {
+        return pending;
+    }
+}
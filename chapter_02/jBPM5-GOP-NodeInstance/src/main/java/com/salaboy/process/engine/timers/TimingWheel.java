@@ -0,0 +1,295 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.salaboy.process.engine.timers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.salaboy.process.engine.jobs.Job;
+import com.salaboy.process.engine.jobs.JobHandler;
+import com.salaboy.process.engine.services.Service;
+
+/**
+ * Hierarchical timing wheel holding the timers of the process instances. It
+ * is found in the services of the process instance under the name
+ * "timer-service".
+ * The first level has <i>wheelSize</i> buckets of one tick each, every
+ * following level has buckets as long as the whole previous level. A timer
+ * goes to the lowest level that reaches its deadline and moves down (is
+ * cascaded) when the bucket of its level becomes the current one, so
+ * scheduling and cancelling a timer take the same time no matter how many
+ * timers are pending, and the timers are not ordered until they are close
+ * to expire. Levels are added when a timer doesn't fit in the existing ones.
+ * Expired timers are given to a {@link JobHandler}, outside the lock of the
+ * wheel. The clock is advanced by {@link #start()}, a daemon thread that
+ * wakes up every tick, or by calling {@link #advanceClock(long)}. Deadlines
+ * are computed from System.nanoTime() and rounded up to a tick, so timers
+ * expire up to one tick late, never early, even when the clock of the wheel
+ * is behind. A wheel created with its own start time has its clock advanced
+ * by hand, its deadlines count from its current tick.
+ * @author salaboy
+ */
+public class TimingWheel implements Service {
+
+    private static final Logger logger = Logger.getLogger(TimingWheel.class.getName());
+
+    public static final long DEFAULT_TICK_MILLIS = 1;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final long tickMillis;
+    private final int wheelSize;
+    private final JobHandler handler;
+    private final long startTime;
+    // false when the clock is only advanced by hand
+    private final boolean systemClock;
+    // buckets of each level, each bucket is the sentinel of a circular list
+    private final List<Timer[]> levels = new ArrayList<Timer[]>();
+    // ticks covered by a bucket of each level
+    private final List<Long> spans = new ArrayList<Long>();
+    private long currentTick;
+    private int size;
+    private Thread ticker;
+    private volatile boolean running;
+
+    public TimingWheel(JobHandler handler) {
+        this(DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE, handler);
+    }
+
+    public TimingWheel(long tickMillis, int wheelSize, JobHandler handler) {
+        this(tickMillis, wheelSize, handler, now(), true);
+    }
+
+    /**
+     * Creates a wheel whose clock is advanced by hand.
+     * @param startTime time of the clock, in milliseconds, when the wheel is
+     * at its first tick
+     */
+    public TimingWheel(long tickMillis, int wheelSize, JobHandler handler, long startTime) {
+        this(tickMillis, wheelSize, handler, startTime, false);
+    }
+
+    private TimingWheel(long tickMillis, int wheelSize, JobHandler handler, long startTime, boolean systemClock) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("The tick must be at least one millisecond");
+        }
+        if (wheelSize < 2) {
+            throw new IllegalArgumentException("The wheel needs at least two buckets");
+        }
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.handler = handler;
+        this.startTime = startTime;
+        this.systemClock = systemClock;
+        addLevel(1);
+    }
+
+    /**
+     * Schedules a job to be handled after a delay. A delay shorter than a
+     * tick, even a delay of zero, is handled at the next tick, never in the
+     * calling thread.
+     */
+    public Timer schedule(long delay, TimeUnit unit, Job job) {
+        long tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        synchronized (this) {
+            long elapsed = systemClock
+                    ? System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(startTime)
+                    : currentTick * tickNanos;
+            long deadline = (elapsed + unit.toNanos(delay) + tickNanos - 1) / tickNanos;
+            Timer timer = new Timer(job, Math.max(deadline, currentTick + 1));
+            insert(timer);
+            return timer;
+        }
+    }
+
+    /**
+     * @return false if the timer already expired or was cancelled
+     */
+    public synchronized boolean cancel(Timer timer) {
+        if (!timer.pending) {
+            return false;
+        }
+        unlink(timer);
+        size--;
+        return true;
+    }
+
+    /**
+     * Moves the clock to a time, in milliseconds of the same clock used for
+     * the start time, and handles the timers that expired.
+     */
+    public void advanceClock(long time) {
+        List<Job> expired = new ArrayList<Job>();
+        synchronized (this) {
+            long target = (time - startTime) / tickMillis;
+            while (currentTick < target) {
+                if (size == 0) {
+                    // nothing to cascade or expire on the way
+                    currentTick = target;
+                    break;
+                }
+                currentTick++;
+                tick(expired);
+            }
+        }
+        for (Job job : expired) {
+            try {
+                handler.handle(job);
+            } catch (RuntimeException e) {
+                // a failing job must not stop the other timers
+                logger.log(Level.SEVERE, "The timer of the process instance " + job.getProcessInstanceId() + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * Starts the daemon thread that advances the clock every tick.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        ticker = new Thread(new Runnable() {
+            public void run() {
+                while (running) {
+                    try {
+                        Thread.sleep(tickMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    advanceClock(now());
+                }
+            }
+        }, "process-timer");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    public void stop() throws InterruptedException {
+        Thread toJoin;
+        synchronized (this) {
+            running = false;
+            toJoin = ticker;
+            ticker = null;
+        }
+        if (toJoin != null) {
+            toJoin.interrupt();
+            toJoin.join();
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int getLevels() {
+        return levels.size();
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    private void tick(List<Job> expired) {
+        for (int level = levels.size() - 1; level > 0; level--) {
+            long span = spans.get(level);
+            if (currentTick % span == 0) {
+                Timer head = levels.get(level)[(int) ((currentTick / span) % wheelSize)];
+                Timer timer = detach(head);
+                while (timer != null) {
+                    Timer next = timer.next;
+                    if (!insert(timer)) {
+                        expire(timer, expired);
+                    }
+                    timer = next;
+                }
+            }
+        }
+        Timer timer = detach(levels.get(0)[(int) (currentTick % wheelSize)]);
+        while (timer != null) {
+            Timer next = timer.next;
+            expire(timer, expired);
+            timer = next;
+        }
+    }
+
+    /**
+     * Adds a timer to the lowest level that reaches its deadline.
+     * @return false if the deadline already passed
+     */
+    private boolean insert(Timer timer) {
+        if (timer.deadline <= currentTick) {
+            timer.pending = false;
+            return false;
+        }
+        int level = 0;
+        long span = 1;
+        while (timer.deadline / span - currentTick / span >= wheelSize) {
+            level++;
+            if (level == levels.size()) {
+                addLevel(span * wheelSize);
+            }
+            span = spans.get(level);
+        }
+        Timer head = levels.get(level)[(int) ((timer.deadline / span) % wheelSize)];
+        timer.previous = head.previous;
+        timer.next = head;
+        head.previous.next = timer;
+        head.previous = timer;
+        if (!timer.pending) {
+            timer.pending = true;
+            size++;
+        }
+        return true;
+    }
+
+    private void expire(Timer timer, List<Job> expired) {
+        timer.pending = false;
+        size--;
+        expired.add(timer.job);
+    }
+
+    private void unlink(Timer timer) {
+        timer.previous.next = timer.next;
+        timer.next.previous = timer.previous;
+        timer.previous = null;
+        timer.next = null;
+        timer.pending = false;
+    }
+
+    /**
+     * Empties a bucket.
+     * @return the first timer of the bucket, the rest linked by next and
+     * ending with null
+     */
+    private Timer detach(Timer head) {
+        if (head.next == head) {
+            return null;
+        }
+        Timer first = head.next;
+        head.previous.next = null;
+        head.next = head;
+        head.previous = head;
+        return first;
+    }
+
+    private void addLevel(long span) {
+        Timer[] buckets = new Timer[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            Timer head = new Timer(null, 0);
+            head.previous = head;
+            head.next = head;
+            buckets[i] = head;
+        }
+        levels.add(buckets);
+        spans.add(span);
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
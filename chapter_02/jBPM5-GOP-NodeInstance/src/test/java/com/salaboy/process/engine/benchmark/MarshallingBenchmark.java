@@ -0,0 +1,140 @@
+/*
+ * To change this template, choose Tools | Templates and open the template in
+ * the editor.
+ */
+package com.salaboy.process.engine.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import com.salaboy.process.engine.factories.ProcessInstanceFactory;
+import com.salaboy.process.engine.marshalling.ProcessInstanceMarshaller;
+import com.salaboy.process.engine.services.ProcessEventBus;
+import com.salaboy.process.engine.services.Service;
+import com.salaboy.process.engine.structures.*;
+import com.salaboy.process.engine.structures.impl.CompiledProcessDefinition;
+import com.salaboy.process.engine.structures.impl.ProcessDefinitionImpl;
+import com.salaboy.process.engine.tasks.impl.EndTask;
+import com.salaboy.process.engine.tasks.impl.SequenceFlowImpl;
+import com.salaboy.process.engine.tasks.impl.StartTask;
+import com.salaboy.process.engine.tasks.impl.WaitStateTask;
+
+/**
+ * Measures the size and the time of the snapshots written by
+ * {@link ProcessInstanceMarshaller}. It is not executed as part of the build,
+ * run it with:
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test
+ *       -Dexec.mainClass=com.salaboy.process.engine.benchmark.MarshallingBenchmark
+ * </pre>
+ * The process instance waits in a wait state and has a configurable number
+ * of variables (numbers, strings and booleans). Each round reports the size of a full snapshot, of
+ * a delta after changing one variable and, as a reference, of the variables
+ * written with Java serialization, plus the time to marshal and unmarshal a
+ * full snapshot and a delta.
+ * @author salaboy
+ */
+public class MarshallingBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    private static volatile long sink;
+
+    public static void main(String[] args) throws IOException {
+        int variables = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        CompiledProcessDefinition process = CompiledProcessDefinition.compile(createProcess());
+        Map<String, Service> services = new HashMap<String, Service>();
+        services.put("event-service", new ProcessEventBus());
+        ProcessInstanceMarshaller marshaller = new ProcessInstanceMarshaller();
+        marshaller.addProcessDefinition(process);
+
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(process, services);
+        processInstance.start(createVariables(variables));
+
+        byte[] full = marshaller.marshal(processInstance);
+        processInstance.getContextInstance().setVariable("counter-0", -1L);
+        byte[] delta = marshaller.marshalDelta(processInstance);
+        System.out.println(variables + " variables: full snapshot=" + full.length + " bytes, delta=" + delta.length
+                + " bytes, serialized variables=" + serializedSize(processInstance.getContextInstance().getVariables()) + " bytes");
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += marshaller.marshal(processInstance).length;
+            }
+            long marshalTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                processInstance.getContextInstance().setVariable("counter-0", (long) i);
+                sink += marshaller.marshalDelta(processInstance).length;
+            }
+            long deltaTime = System.nanoTime() - start;
+
+            full = marshaller.marshal(processInstance);
+            ProcessInstanceMarshaller restoring = new ProcessInstanceMarshaller();
+            restoring.addProcessDefinition(process);
+            start = System.nanoTime();
+            ProcessInstance restored = null;
+            for (int i = 0; i < iterations; i++) {
+                restored = restoring.unmarshal(full, services);
+            }
+            long unmarshalTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                processInstance.getContextInstance().setVariable("counter-0", (long) i);
+                restoring.applyDelta(restored, marshaller.marshalDelta(processInstance));
+            }
+            long applyTime = System.nanoTime() - start - deltaTime;
+
+            System.out.println("round " + round + (round == 1 ? " (warm up)" : "") + ":"
+                    + " marshal=" + marshalTime / iterations + "ns delta=" + deltaTime / iterations + "ns"
+                    + " unmarshal=" + unmarshalTime / iterations + "ns apply delta=" + Math.max(0, applyTime) / iterations + "ns");
+        }
+    }
+
+    private static int serializedSize(Map<String, Object> variables) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+        objectOut.writeObject(new HashMap<String, Object>(variables));
+        objectOut.close();
+        return bytes.size();
+    }
+
+    private static Map<String, Object> createVariables(int count) {
+        Map<String, Object> variables = new HashMap<String, Object>();
+        for (int i = 0; i < count; i++) {
+            switch (i % 3) {
+                case 0:
+                    variables.put("counter-" + i, (long) i * 1000);
+                    break;
+                case 1:
+                    variables.put("name-" + i, "value " + i);
+                    break;
+                default:
+                    variables.put("flag-" + i, i % 2 == 0);
+            }
+        }
+        return variables;
+    }
+
+    private static ProcessDefinition createProcess() {
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        process.setId("com.salaboy.benchmark");
+        process.setVersion(1);
+        StartTask startTask = new StartTask();
+        process.addTask(0L, startTask);
+        WaitStateTask waitState = new WaitStateTask("wait");
+        process.addTask(1L, waitState);
+        EndTask endTask = new EndTask();
+        process.addTask(2L, endTask);
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, waitState));
+        waitState.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+        return process;
+    }
+}
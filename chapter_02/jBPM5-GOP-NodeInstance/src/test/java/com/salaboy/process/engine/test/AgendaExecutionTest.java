@@ -0,0 +1,140 @@
+/*
+ * To change this template, choose Tools | Templates and open the template in
+ * the editor.
+ */
+package com.salaboy.process.engine.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.salaboy.process.engine.agenda.ProcessInstanceScheduler;
+import com.salaboy.process.engine.factories.ProcessInstanceFactory;
+import com.salaboy.process.engine.services.ProcessEventSupportService;
+import com.salaboy.process.engine.services.Service;
+import com.salaboy.process.engine.structures.*;
+import com.salaboy.process.engine.structures.ProcessInstance.STATUS;
+import com.salaboy.process.engine.structures.impl.CompiledProcessDefinition;
+import com.salaboy.process.engine.structures.impl.ProcessDefinitionImpl;
+import com.salaboy.process.engine.structures.impl.InternalProcessInstance;
+import com.salaboy.process.engine.tasks.impl.EndTask;
+import com.salaboy.process.engine.tasks.impl.ScriptTask;
+import com.salaboy.process.engine.tasks.impl.SequenceFlowImpl;
+import com.salaboy.process.engine.tasks.impl.StartTask;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the agenda based execution: long processes don't grow the stack
+ * and a scheduler can interleave several process instances.
+ * @author salaboy
+ */
+public class AgendaExecutionTest {
+
+    /**
+     * A chain of 20000 script tasks would overflow the stack if each task
+     * triggered the next one.
+     */
+    @Test
+    public void longProcessExecution() {
+        final int[] executed = new int[1];
+        ProcessDefinition process = createChainProcess(20000, new Action() {
+            public void execute() {
+                executed[0]++;
+            }
+        });
+
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(process, createServices());
+        processInstance.start();
+        assertEquals(STATUS.ENDED, processInstance.getStatus());
+        assertEquals(20000, executed[0]);
+
+        ProcessInstance compiledInstance = ProcessInstanceFactory.newProcessInstance(
+                CompiledProcessDefinition.compile(process), createServices());
+        compiledInstance.start();
+        assertEquals(STATUS.ENDED, compiledInstance.getStatus());
+        assertEquals(40000, executed[0]);
+        assertTrue(((InternalProcessInstance) compiledInstance).getAgenda().isEmpty());
+    }
+
+    @Test
+    public void interleavedProcessInstances() {
+        final List<String> executed = new ArrayList<String>();
+        ProcessInstanceScheduler scheduler = new ProcessInstanceScheduler();
+        List<ProcessInstance> processInstances = new ArrayList<ProcessInstance>();
+        for (final String name : new String[]{"A", "B"}) {
+            ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(createChainProcess(3, new Action() {
+                public void execute() {
+                    executed.add(name);
+                }
+            }), createServices());
+            scheduler.add(processInstance);
+            processInstance.start();
+            processInstances.add(processInstance);
+        }
+        // Started, but waiting for the scheduler
+        assertTrue(executed.isEmpty());
+        assertEquals(STATUS.ACTIVE, processInstances.get(0).getStatus());
+
+        // Start, 3 script tasks and end for each instance
+        assertEquals(10, scheduler.run());
+        assertEquals("[A, B, A, B, A, B]", executed.toString());
+        for (ProcessInstance processInstance : processInstances) {
+            assertEquals(STATUS.ENDED, processInstance.getStatus());
+            assertNull(((InternalProcessInstance) processInstance).getScheduler());
+        }
+        assertTrue(scheduler.getProcessInstances().isEmpty());
+    }
+
+    @Test
+    public void schedulerQuantum() {
+        final List<String> executed = new ArrayList<String>();
+        ProcessInstanceScheduler scheduler = new ProcessInstanceScheduler(3);
+        for (final String name : new String[]{"A", "B"}) {
+            ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(createChainProcess(4, new Action() {
+                public void execute() {
+                    executed.add(name);
+                }
+            }), createServices());
+            scheduler.add(processInstance);
+            processInstance.start();
+        }
+        scheduler.run();
+        // The first turn of each instance executes the start task and 2 script tasks
+        assertEquals("[A, A, B, B, A, A, B, B]", executed.toString());
+    }
+
+    private Map<String, Service> createServices() {
+        Map<String, Service> services = new HashMap<String, Service>();
+        services.put("event-service", new ProcessEventSupportService() {
+            public void fireBeforeTaskTriggered(NodeInstance node) {
+            }
+
+            public void fireAfterTaskTriggered(NodeInstance node) {
+            }
+
+            public void fireBeforeTaskLeft(NodeInstance node) {
+            }
+
+            public void fireAfterTaskLeft(NodeInstance node) {
+            }
+        });
+        return services;
+    }
+
+    private ProcessDefinition createChainProcess(int length, Action action) {
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        Task previous = new StartTask();
+        process.addTask(0L, previous);
+        for (int i = 1; i <= length; i++) {
+            ScriptTask scriptTask = new ScriptTask("java", action);
+            process.addTask((long) i, scriptTask);
+            previous.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, scriptTask));
+            previous = scriptTask;
+        }
+        EndTask endTask = new EndTask();
+        process.addTask((long) length + 1, endTask);
+        previous.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+        return process;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * To change this template, choose Tools | Templates and open the template in
+ * the editor.
+ */
+package com.salaboy.process.engine.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.salaboy.process.engine.factories.ProcessInstanceFactory;
+import com.salaboy.process.engine.jobs.ContinuationDispatcher;
+import com.salaboy.process.engine.jobs.InMemoryJobQueue;
+import com.salaboy.process.engine.jobs.Job;
+import com.salaboy.process.engine.services.ProcessEventBus;
+import com.salaboy.process.engine.services.Service;
+import com.salaboy.process.engine.structures.*;
+import com.salaboy.process.engine.structures.ProcessInstance.STATUS;
+import com.salaboy.process.engine.structures.impl.CompiledProcessDefinition;
+import com.salaboy.process.engine.structures.impl.ProcessDefinitionImpl;
+import com.salaboy.process.engine.taskinstances.impl.WaitStateTaskNodeInstance;
+import com.salaboy.process.engine.tasks.impl.EndTask;
+import com.salaboy.process.engine.tasks.impl.ParallelJoinTask;
+import com.salaboy.process.engine.tasks.impl.ParallelSplitTask;
+import com.salaboy.process.engine.tasks.impl.ScriptTask;
+import com.salaboy.process.engine.tasks.impl.SequenceFlowImpl;
+import com.salaboy.process.engine.tasks.impl.StartTask;
+import com.salaboy.process.engine.tasks.impl.WaitStateTask;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for asynchronous script tasks and wait states, continued by a
+ * {@link ContinuationDispatcher}.
+ * @author salaboy
+ */
+public class AsyncContinuationTest {
+
+    private volatile String executedBy;
+
+    @Test
+    public void asyncScriptTaskReturnsToTheCaller() throws InterruptedException {
+        InMemoryJobQueue jobQueue = new InMemoryJobQueue();
+        Map<String, Service> services = createServices(jobQueue);
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(createAsyncProcess(), services);
+        processInstance.start();
+
+        // The action was not executed, the continuation is waiting in the queue
+        assertEquals(STATUS.ACTIVE, processInstance.getStatus());
+        assertNull(executedBy);
+        assertEquals(1, jobQueue.size());
+        assertEquals(1, processInstance.getNodeInstances().size());
+
+        ContinuationDispatcher dispatcher = new ContinuationDispatcher(jobQueue, 1);
+        dispatcher.start();
+        try {
+            waitForJobs(dispatcher, 1);
+        } finally {
+            assertTrue(dispatcher.shutdown(10, TimeUnit.SECONDS));
+        }
+        assertEquals(STATUS.ENDED, processInstance.getStatus());
+        assertEquals("process-continuation-0", executedBy);
+        assertEquals(0, dispatcher.getFailedJobs());
+
+        // Without a job queue an asynchronous task can't be executed
+        try {
+            ProcessInstanceFactory.newProcessInstance(createAsyncProcess(), createServices(null)).start();
+            fail("There is no job queue");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void waitStateWaitsForASignal() {
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        StartTask startTask = new StartTask();
+        process.addTask(0L, startTask);
+        WaitStateTask waitState = new WaitStateTask("wait");
+        process.addTask(1L, waitState);
+        EndTask endTask = new EndTask();
+        process.addTask(2L, endTask);
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, waitState));
+        waitState.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(process, createServices(null));
+        processInstance.start();
+        assertEquals(STATUS.ACTIVE, processInstance.getStatus());
+        WaitStateTaskNodeInstance waiting = (WaitStateTaskNodeInstance) processInstance.getNodeInstance(waitState);
+        assertNotNull(waiting);
+        assertFalse(waiting.isResumed());
+
+        waiting.signal();
+        assertTrue(waiting.isResumed());
+        assertEquals(STATUS.ENDED, processInstance.getStatus());
+        assertNull(processInstance.getNodeInstance(waitState));
+        try {
+            waiting.signal();
+            fail("The wait state was already resumed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void eachInstanceOfAWaitStateIsResumedOnItsOwn() throws InterruptedException {
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        StartTask startTask = new StartTask();
+        process.addTask(0L, startTask);
+        ParallelSplitTask split = new ParallelSplitTask();
+        process.addTask(1L, split);
+        WaitStateTask waitState = new WaitStateTask("review");
+        process.addTask(2L, waitState);
+        ParallelJoinTask join = new ParallelJoinTask(2);
+        process.addTask(3L, join);
+        EndTask endTask = new EndTask();
+        process.addTask(4L, endTask);
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, split));
+        // two branches waiting in the same task
+        split.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, waitState));
+        split.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, waitState));
+        waitState.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, join));
+        join.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+        ProcessDefinition compiled = CompiledProcessDefinition.compile(process);
+
+        // Signalled directly, the newest one first
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(compiled, createServices(null));
+        processInstance.start();
+        List<NodeInstance> waiting = new ArrayList<NodeInstance>(processInstance.getNodeInstances());
+        assertEquals(2, waiting.size());
+        WaitStateTaskNodeInstance first = (WaitStateTaskNodeInstance) processInstance.getNodeInstance(waitState);
+        WaitStateTaskNodeInstance second = (WaitStateTaskNodeInstance) (waiting.get(0) == first ? waiting.get(1) : waiting.get(0));
+        second.signal();
+        assertTrue(second.isResumed());
+        assertFalse(first.isResumed());
+        assertSame(first, processInstance.getNodeInstance(waitState));
+        assertEquals(STATUS.ACTIVE, processInstance.getStatus());
+        first.signal();
+        assertEquals(STATUS.ENDED, processInstance.getStatus());
+
+        // Continued by their jobs, the newest one first
+        InMemoryJobQueue jobQueue = new InMemoryJobQueue();
+        processInstance = ProcessInstanceFactory.newProcessInstance(compiled, createServices(jobQueue));
+        processInstance.start();
+        Job firstJob = jobQueue.take(0, TimeUnit.SECONDS);
+        Job secondJob = jobQueue.take(0, TimeUnit.SECONDS);
+        assertFalse(firstJob.getNodeInstanceId() == secondJob.getNodeInstanceId());
+        first = (WaitStateTaskNodeInstance) processInstance.getNodeInstance(waitState);
+        secondJob.execute();
+        assertFalse(first.isResumed());
+        assertSame(first, processInstance.getNodeInstance(waitState));
+        // a job of a node instance already resumed does nothing
+        secondJob.execute();
+        assertEquals(STATUS.ACTIVE, processInstance.getStatus());
+        firstJob.execute();
+        assertTrue(first.isResumed());
+        assertEquals(STATUS.ENDED, processInstance.getStatus());
+    }
+
+    @Test
+    public void manyInstancesContinuedByWorkers() throws InterruptedException {
+        final AtomicInteger executions = new AtomicInteger();
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        StartTask startTask = new StartTask();
+        process.addTask(0L, startTask);
+        WaitStateTask waitState = new WaitStateTask("boundary");
+        process.addTask(1L, waitState);
+        ScriptTask scriptTask = new ScriptTask("java", new Action() {
+            public void execute() {
+                executions.incrementAndGet();
+            }
+        }, true);
+        process.addTask(2L, scriptTask);
+        EndTask endTask = new EndTask();
+        process.addTask(3L, endTask);
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, waitState));
+        waitState.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, scriptTask));
+        scriptTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+        ProcessDefinition compiled = CompiledProcessDefinition.compile(process);
+
+        InMemoryJobQueue jobQueue = new InMemoryJobQueue();
+        Map<String, Service> services = createServices(jobQueue);
+        ContinuationDispatcher dispatcher = new ContinuationDispatcher(jobQueue, 4);
+        dispatcher.start();
+        List<ProcessInstance> processInstances = new ArrayList<ProcessInstance>();
+        try {
+            for (int i = 0; i < 500; i++) {
+                ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(compiled, services);
+                processInstance.start();
+                processInstances.add(processInstance);
+            }
+            // each instance leaves a job in the wait state and another one in the script task
+            waitForJobs(dispatcher, 1000);
+        } finally {
+            assertTrue(dispatcher.shutdown(10, TimeUnit.SECONDS));
+        }
+        assertEquals(0, dispatcher.getFailedJobs());
+        assertEquals(500, executions.get());
+        for (ProcessInstance processInstance : processInstances) {
+            assertEquals(STATUS.ENDED, processInstance.getStatus());
+        }
+    }
+
+    @Test
+    public void jobsOnlyStoreIds() throws Exception {
+        InMemoryJobQueue jobQueue = new InMemoryJobQueue();
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(
+                CompiledProcessDefinition.compile(createAsyncProcess()), createServices(jobQueue));
+        processInstance.setId(7);
+        processInstance.start();
+        Job job = jobQueue.take(0, TimeUnit.SECONDS);
+        assertEquals(7, job.getProcessInstanceId());
+        assertEquals(1, job.getTaskId());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(job);
+        out.close();
+        Job restored = (Job) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        try {
+            restored.execute();
+            fail("The restored job doesn't know its process instance");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        restored.execute(processInstance);
+        assertEquals(STATUS.ENDED, processInstance.getStatus());
+        // The node instance is gone, executing the job again does nothing
+        job.execute();
+        assertEquals(STATUS.ENDED, processInstance.getStatus());
+    }
+
+    private void waitForJobs(ContinuationDispatcher dispatcher, long jobs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (dispatcher.getExecutedJobs() + dispatcher.getFailedJobs() < jobs && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(jobs, dispatcher.getExecutedJobs());
+    }
+
+    private Map<String, Service> createServices(InMemoryJobQueue jobQueue) {
+        Map<String, Service> services = new HashMap<String, Service>();
+        services.put("event-service", new ProcessEventBus());
+        if (jobQueue != null) {
+            services.put("job-queue", jobQueue);
+        }
+        return services;
+    }
+
+    private ProcessDefinition createAsyncProcess() {
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        StartTask startTask = new StartTask();
+        process.addTask(0L, startTask);
+        ScriptTask scriptTask = new ScriptTask("java", new Action() {
+            public void execute() {
+                executedBy = Thread.currentThread().getName();
+            }
+        }, true);
+        process.addTask(1L, scriptTask);
+        EndTask endTask = new EndTask();
+        process.addTask(2L, endTask);
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, scriptTask));
+        scriptTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+        return process;
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * To change this template, choose Tools | Templates and open the template in
+ * the editor.
+ */
+package com.salaboy.process.engine.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import com.salaboy.process.engine.bpmn.BpmnProcessLoader;
+import com.salaboy.process.engine.bpmn.ProcessDefinitionRepository;
+import com.salaboy.process.engine.factories.ProcessInstanceFactory;
+import com.salaboy.process.engine.services.ProcessEventBus;
+import com.salaboy.process.engine.services.Service;
+import com.salaboy.process.engine.structures.*;
+import com.salaboy.process.engine.structures.ProcessInstance.STATUS;
+import com.salaboy.process.engine.structures.impl.CompiledProcessDefinition;
+import com.salaboy.process.engine.structures.impl.VariableSchema;
+import com.salaboy.process.engine.taskinstances.impl.WaitStateTaskNodeInstance;
+import com.salaboy.process.engine.tasks.impl.ParallelJoinTask;
+import com.salaboy.process.engine.tasks.impl.ParallelSplitTask;
+import com.salaboy.process.engine.tasks.impl.PassThroughTask;
+import com.salaboy.process.engine.tasks.impl.ScriptTask;
+import com.salaboy.process.engine.tasks.impl.StartTask;
+import com.salaboy.process.engine.tasks.impl.TimerTask;
+import com.salaboy.process.engine.tasks.impl.WaitStateTask;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the BPMN2 files loaded by the {@link BpmnProcessLoader} and kept
+ * by the {@link ProcessDefinitionRepository}. Uses copies of the process
+ * definitions of chapter 3.
+ * @author salaboy
+ */
+public class BpmnProcessLoaderTest {
+
+    private BpmnProcessLoader loader;
+    private Map<String, Service> services;
+
+    @Before
+    public void setUp() {
+        loader = new BpmnProcessLoader();
+        services = new HashMap<String, Service>();
+        services.put("event-service", new ProcessEventBus());
+    }
+
+    @Test
+    public void hospitalEmergencyScenario() throws IOException {
+        ProcessDefinition process = load("/chapter_03/HospitalEmergencyScenarioV1.bpmn");
+        assertEquals("hospitalEmergencyV1", process.getId());
+        // start, 4 tasks and the end
+        assertEquals(6, process.getTasks().size());
+        assertTrue(process.getTasks().get(0L) instanceof StartTask);
+        assertEquals("Coordinate Staff", process.getTasks().get(2L).getName());
+        assertTrue(process.getTasks().get(2L) instanceof WaitStateTask);
+        assertNull(process.getVariableSchema());
+
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(CompiledProcessDefinition.compile(process), services);
+        processInstance.start();
+        assertEquals(4, signalUntilEnded(processInstance));
+
+        // The same process with data: the properties are declared in a schema
+        process = load("/chapter_03/HospitalEmergencyScenarioV1-data.bpmn");
+        assertEquals(11, process.getVariableSchema().getVariableCount());
+        assertEquals(VariableSchema.Type.OBJECT, process.getVariableSchema().getType(0));
+        processInstance = ProcessInstanceFactory.newProcessInstance(process, services);
+        processInstance.start();
+        assertEquals(4, signalUntilEnded(processInstance));
+    }
+
+    @Test
+    public void scriptsAndGateways() throws IOException {
+        ProcessDefinition process = load("/parallelScripts.bpmn");
+        assertEquals("com.salaboy.parallelScripts", process.getId());
+        assertEquals(2, process.getVersion());
+        assertTrue(process.getTasks().get(2L) instanceof ParallelSplitTask);
+        assertTrue(process.getTasks().get(5L) instanceof ParallelJoinTask);
+        assertEquals("java", ((ScriptTask) process.getTasks().get(3L)).getDialect());
+        VariableSchema schema = process.getVariableSchema();
+        assertEquals(VariableSchema.Type.LONG, schema.getType(schema.getVariableIndex("total")));
+        assertEquals(VariableSchema.Type.OBJECT, schema.getType(schema.getVariableIndex("message")));
+
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(CompiledProcessDefinition.compile(process), services);
+        Map<String, Object> variables = new HashMap<String, Object>();
+        variables.put("branches", 0L);
+        processInstance.start(variables);
+        // Both branches were joined before the user task
+        assertEquals(111L, processInstance.getContextInstance().getVariable("total"));
+        assertEquals(2L, processInstance.getContextInstance().getVariable("branches"));
+        assertEquals("started", processInstance.getContextInstance().getVariable("message"));
+        assertEquals(1, signalUntilEnded(processInstance));
+
+        process = loader.load(stream(createTimerProcess("PT1H30M")));
+        TimerTask timer = (TimerTask) process.getTasks().get(1L);
+        assertEquals(TimeUnit.MINUTES.toMillis(90), timer.getUnit().toMillis(timer.getDelay()));
+        process = loader.load(stream(createTimerProcess("1h30m")));
+        timer = (TimerTask) process.getTasks().get(1L);
+        assertEquals(TimeUnit.MINUTES.toMillis(90), timer.getUnit().toMillis(timer.getDelay()));
+    }
+
+    @Test
+    public void convergingExclusiveGatewayLetsEveryBranchThrough() throws IOException {
+        ProcessDefinition process = loader.load(stream(createMergeProcess()));
+        assertTrue(process.getTasks().get(3L) instanceof PassThroughTask);
+
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(CompiledProcessDefinition.compile(process), services);
+        Map<String, Object> variables = new HashMap<String, Object>();
+        variables.put("count", 0L);
+        processInstance.start(variables);
+        // Both branches went through the gateway and ran the script after it,
+        // even if the gateway was reached by the second one before the first
+        // one left
+        assertEquals(2L, ((Number) processInstance.getContextInstance().getVariable("count")).longValue());
+        assertEquals(STATUS.ENDED, processInstance.getStatus());
+    }
+
+    @Test
+    public void unsupportedProcessesAreRejected() throws IOException {
+        // A diverging exclusive gateway needs conditions in the flows
+        assertRejected("/chapter_03/HospitalEmergencyScenarioV2.bpmn", "exclusiveGateway _D62DECF6-47F1-4C88-8E41-B0C27CBFA3FC");
+        assertRejected("/chapter_03/HospitalEmergencyScenarioV3.bpmn", "exclusiveGateway");
+        assertRejected("/chapter_03/residentsHiringV1.bpmn", "subProcess");
+        try {
+            loader.load(stream(createTimerProcess("soon")));
+            fail("The duration is not valid");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("invalid duration: soon"));
+        }
+    }
+
+    @Test
+    public void definitionsAreCachedByChecksum() throws IOException, InterruptedException {
+        ProcessDefinitionRepository repository = new ProcessDefinitionRepository();
+        File file = File.createTempFile("process", ".bpmn");
+        file.deleteOnExit();
+        write(file, createTimerProcess("PT1S"));
+
+        ProcessDefinition process = repository.getProcessDefinition(file);
+        assertSame(process, repository.getProcessDefinition(file));
+        assertEquals(1, repository.getParseCount());
+
+        // Touched without changes: read again but not parsed
+        assertTrue(file.setLastModified(file.lastModified() - 10000));
+        write(file, createTimerProcess("PT1S"));
+        assertSame(process, repository.getProcessDefinition(file));
+        // The same content from another place
+        assertSame(process, repository.getProcessDefinition(file.toURI().toURL()));
+        assertEquals(1, repository.getParseCount());
+
+        write(file, createTimerProcess("PT2S"));
+        assertTrue(file.setLastModified(file.lastModified() + 10000));
+        ProcessDefinition changed = repository.getProcessDefinition(file);
+        assertNotSame(process, changed);
+        assertEquals(2, repository.getParseCount());
+        // The URL still has the old content
+        assertEquals(2, repository.size());
+        assertSame(changed, repository.getProcessDefinition(file.toURI().toURL()));
+        // Nothing has the old content anymore
+        assertEquals(1, repository.size());
+        assertEquals(2, repository.getParseCount());
+
+        List<ProcessDefinition> loaded = repository.getProcessDefinitions(new File("src/test/resources"));
+        assertEquals(1, loaded.size());
+        assertEquals(3, repository.getParseCount());
+    }
+
+    private ProcessDefinition load(String resource) throws IOException {
+        InputStream in = getClass().getResourceAsStream(resource);
+        assertNotNull(resource, in);
+        try {
+            return loader.load(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void assertRejected(String resource, String expected) throws IOException {
+        try {
+            load(resource);
+            fail(resource + " can't be executed");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(expected));
+        }
+    }
+
+    /**
+     * Signals the waiting node instances until the process instance ends.
+     * @return the number of signals
+     */
+    private static int signalUntilEnded(ProcessInstance processInstance) {
+        int signals = 0;
+        while (processInstance.getStatus() != STATUS.ENDED) {
+            List<NodeInstance> waiting = new ArrayList<NodeInstance>(processInstance.getNodeInstances());
+            assertEquals(1, waiting.size());
+            ((WaitStateTaskNodeInstance) waiting.get(0)).signal();
+            signals++;
+        }
+        return signals;
+    }
+
+    private static String createTimerProcess(String duration) {
+        return "<definitions xmlns=\"" + BpmnProcessLoader.BPMN2_NAMESPACE + "\">"
+                + "<process id=\"timer\">"
+                + "<startEvent id=\"start\"/>"
+                + "<intermediateCatchEvent id=\"timer\"><timerEventDefinition>"
+                + "<timeDuration>" + duration + "</timeDuration>"
+                + "</timerEventDefinition></intermediateCatchEvent>"
+                + "<endEvent id=\"end\"/>"
+                + "<sequenceFlow id=\"f1\" sourceRef=\"start\" targetRef=\"timer\"/>"
+                + "<sequenceFlow id=\"f2\" sourceRef=\"timer\" targetRef=\"end\"/>"
+                + "</process></definitions>";
+    }
+
+    /**
+     * start -> split -> a script and a direct flow -> converging exclusive
+     * gateway -> script counting the branches -> end
+     */
+    private static String createMergeProcess() {
+        return "<definitions xmlns=\"" + BpmnProcessLoader.BPMN2_NAMESPACE + "\">"
+                + "<process id=\"merge\">"
+                + "<startEvent id=\"start\"/>"
+                + "<parallelGateway id=\"split\" gatewayDirection=\"Diverging\"/>"
+                + "<scriptTask id=\"a\" scriptFormat=\"http://www.mvel.org/2.0\"><script>a = 1</script></scriptTask>"
+                + "<exclusiveGateway id=\"merge\" gatewayDirection=\"Converging\"/>"
+                + "<scriptTask id=\"count\" scriptFormat=\"http://www.mvel.org/2.0\"><script>count = count + 1</script></scriptTask>"
+                + "<endEvent id=\"end\"/>"
+                + "<sequenceFlow id=\"f1\" sourceRef=\"start\" targetRef=\"split\"/>"
+                + "<sequenceFlow id=\"f2\" sourceRef=\"split\" targetRef=\"a\"/>"
+                + "<sequenceFlow id=\"f3\" sourceRef=\"split\" targetRef=\"merge\"/>"
+                + "<sequenceFlow id=\"f4\" sourceRef=\"a\" targetRef=\"merge\"/>"
+                + "<sequenceFlow id=\"f5\" sourceRef=\"merge\" targetRef=\"count\"/>"
+                + "<sequenceFlow id=\"f6\" sourceRef=\"count\" targetRef=\"end\"/>"
+                + "</process></definitions>";
+    }
+
+    private static InputStream stream(String content) throws IOException {
+        return new ByteArrayInputStream(content.getBytes("UTF-8"));
+    }
+
+    private static void write(File file, String content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * To change this template, choose Tools | Templates and open the template in
+ * the editor.
+ */
+package com.salaboy.process.engine.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.salaboy.process.engine.factories.ProcessInstanceFactory;
+import com.salaboy.process.engine.services.ProcessEventSupportService;
+import com.salaboy.process.engine.services.Service;
+import com.salaboy.process.engine.structures.*;
+import com.salaboy.process.engine.structures.ProcessInstance.STATUS;
+import com.salaboy.process.engine.structures.impl.CompiledProcessDefinition;
+import com.salaboy.process.engine.structures.impl.ProcessDefinitionImpl;
+import com.salaboy.process.engine.tasks.impl.EndTask;
+import com.salaboy.process.engine.tasks.impl.ScriptTask;
+import com.salaboy.process.engine.tasks.impl.SequenceFlowImpl;
+import com.salaboy.process.engine.tasks.impl.StartTask;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CompiledProcessDefinition}: the compiled structures and the
+ * execution of process instances using them.
+ * @author salaboy
+ */
+public class CompiledProcessDefinitionTest {
+
+    @Test
+    public void compiledStructures() {
+        ProcessDefinition process = createProcessDefinition(new ArrayList<String>());
+        CompiledProcessDefinition compiled = CompiledProcessDefinition.compile(process);
+
+        assertEquals(5, compiled.getNodeCount());
+        assertEquals(0, compiled.getStartNodeId());
+        assertSame(process.getTasks().get(3L), compiled.getTask(3));
+        assertEquals(CompiledProcessDefinition.DEFAULT_FLOW_TYPE_ID, compiled.getFlowTypeId(SequenceFlow.FLOW_DEFAULT_TYPE));
+        assertEquals(-1, compiled.getFlowTypeId("UNKNOWN_FLOW"));
+
+        // The start task splits into the two script tasks
+        int type = CompiledProcessDefinition.DEFAULT_FLOW_TYPE_ID;
+        assertEquals(2, compiled.getOutgoingEnd(type, 0) - compiled.getOutgoingStart(type, 0));
+        assertEquals(1, compiled.getEdgeTarget(type, compiled.getOutgoingStart(type, 0)));
+        assertEquals(2, compiled.getEdgeTarget(type, compiled.getOutgoingStart(type, 0) + 1));
+        // The end tasks have no outgoing flows
+        assertEquals(compiled.getOutgoingStart(type, 3), compiled.getOutgoingEnd(type, 3));
+
+        // Compiling twice returns the same definition
+        assertSame(compiled, CompiledProcessDefinition.compile(compiled));
+        try {
+            compiled.addTask(5L, new EndTask());
+            fail("A compiled definition can't be modified");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    /**
+     * The compiled definition executes the same tasks, in the same order,
+     * than the original one.
+     */
+    @Test
+    public void compiledProcessExecution() {
+        List<String> executed = new ArrayList<String>();
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(
+                createProcessDefinition(executed), createServices(executed));
+        processInstance.start();
+        assertEquals(STATUS.ENDED, processInstance.getStatus());
+
+        List<String> compiledExecuted = new ArrayList<String>();
+        ProcessInstance compiledInstance = ProcessInstanceFactory.newProcessInstance(
+                CompiledProcessDefinition.compile(createProcessDefinition(compiledExecuted)), createServices(compiledExecuted));
+        assertEquals(STATUS.CREATED, compiledInstance.getStatus());
+        compiledInstance.start();
+        assertEquals(STATUS.ENDED, compiledInstance.getStatus());
+
+        assertEquals(7, executed.size());
+        assertEquals(executed, compiledExecuted);
+    }
+
+    @Test
+    public void flowToUnknownTask() {
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        StartTask startTask = new StartTask();
+        process.addTask(0L, startTask);
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, new EndTask()));
+        try {
+            CompiledProcessDefinition.compile(process);
+            fail("The end task is not part of the definition");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private Map<String, Service> createServices(final List<String> executed) {
+        Map<String, Service> services = new HashMap<String, Service>();
+        services.put("event-service", new ProcessEventSupportService() {
+            public void fireBeforeTaskTriggered(NodeInstance node) {
+                executed.add("triggered " + node.getTask().getName());
+            }
+
+            public void fireAfterTaskTriggered(NodeInstance node) {
+            }
+
+            public void fireBeforeTaskLeft(NodeInstance node) {
+            }
+
+            public void fireAfterTaskLeft(NodeInstance node) {
+            }
+        });
+        return services;
+    }
+
+    /**
+     * Start -> (Script A -> End A, Script B -> End B)
+     */
+    private ProcessDefinition createProcessDefinition(final List<String> executed) {
+        ProcessDefinition process = new ProcessDefinitionImpl();
+
+        StartTask startTask = new StartTask();
+        startTask.setName("Start");
+        process.addTask(0L, startTask);
+
+        ScriptTask scriptA = new ScriptTask("java", new Action() {
+            public void execute() {
+                executed.add("action A");
+            }
+        });
+        scriptA.setName("Script A");
+        process.addTask(1L, scriptA);
+
+        ScriptTask scriptB = new ScriptTask("java", new Action() {
+            public void execute() {
+                executed.add("action B");
+            }
+        });
+        scriptB.setName("Script B");
+        process.addTask(2L, scriptB);
+
+        EndTask endA = new EndTask();
+        endA.setName("End A");
+        process.addTask(3L, endA);
+        EndTask endB = new EndTask();
+        endB.setName("End B");
+        process.addTask(4L, endB);
+
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, scriptA));
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, scriptB));
+        scriptA.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endA));
+        scriptB.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endB));
+        return process;
+    }
+}
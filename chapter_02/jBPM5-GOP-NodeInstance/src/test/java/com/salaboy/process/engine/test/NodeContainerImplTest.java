@@ -0,0 +1,146 @@
+/*
+ * To change this template, choose Tools | Templates and open the template in
+ * the editor.
+ */
+package com.salaboy.process.engine.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.salaboy.process.engine.factories.ProcessInstanceFactory;
+import com.salaboy.process.engine.services.ProcessEventSupportService;
+import com.salaboy.process.engine.services.Service;
+import com.salaboy.process.engine.structures.*;
+import com.salaboy.process.engine.structures.ProcessInstance.STATUS;
+import com.salaboy.process.engine.structures.impl.NodeContainerImpl;
+import com.salaboy.process.engine.structures.impl.ProcessDefinitionImpl;
+import com.salaboy.process.engine.tasks.impl.EndTask;
+import com.salaboy.process.engine.tasks.impl.ScriptTask;
+import com.salaboy.process.engine.tasks.impl.SequenceFlowImpl;
+import com.salaboy.process.engine.tasks.impl.StartTask;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the bookkeeping of active node instances in {@link NodeContainerImpl}.
+ * @author salaboy
+ */
+public class NodeContainerImplTest {
+
+    @Test
+    public void addRemoveAndLookup() {
+        NodeContainerImpl container = new NodeContainerImpl();
+        Task first = new ScriptTask("java", null);
+        Task second = new ScriptTask("java", null);
+        NodeInstance a = new SimpleNodeInstance(first);
+        NodeInstance b = new SimpleNodeInstance(second);
+        NodeInstance c = new SimpleNodeInstance(first);
+
+        container.addNodeInstance(a);
+        container.addNodeInstance(b);
+        container.addNodeInstance(c);
+        // Adding the same instance twice does nothing
+        container.addNodeInstance(a);
+        assertEquals(3, container.getNodeInstances().size());
+
+        // The oldest instance of the task is returned
+        assertSame(a, container.getNodeInstance(first));
+        assertSame(b, container.getNodeInstance(second));
+
+        container.removeNodeInstance(a);
+        assertEquals(2, container.getNodeInstances().size());
+        assertTrue(container.getNodeInstances().contains(b));
+        assertTrue(container.getNodeInstances().contains(c));
+        assertSame(c, container.getNodeInstance(first));
+
+        container.removeNodeInstance(c);
+        container.removeNodeInstance(c);
+        assertNull(container.getNodeInstance(first));
+        assertEquals(1, container.getNodeInstances().size());
+
+        try {
+            container.getNodeInstances().clear();
+            fail("The active instances can't be changed through the list");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        List<NodeInstance> replacement = new ArrayList<NodeInstance>();
+        replacement.add(a);
+        container.setNodeInstances(replacement);
+        assertSame(a, container.getNodeInstance(first));
+        assertNull(container.getNodeInstance(second));
+    }
+
+    /**
+     * A start task with 5000 branches, each one with a script task and an
+     * end task.
+     */
+    @Test
+    public void wideProcessExecution() {
+        final int[] executed = new int[1];
+        Action action = new Action() {
+            public void execute() {
+                executed[0]++;
+            }
+        };
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        StartTask startTask = new StartTask();
+        process.addTask(0L, startTask);
+        for (int i = 0; i < 5000; i++) {
+            ScriptTask scriptTask = new ScriptTask("java", action);
+            process.addTask(2L * i + 1, scriptTask);
+            EndTask endTask = new EndTask();
+            process.addTask(2L * i + 2, endTask);
+            startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, scriptTask));
+            scriptTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+        }
+
+        Map<String, Service> services = new HashMap<String, Service>();
+        services.put("event-service", new ProcessEventSupportService() {
+            public void fireBeforeTaskTriggered(NodeInstance node) {
+            }
+
+            public void fireAfterTaskTriggered(NodeInstance node) {
+            }
+
+            public void fireBeforeTaskLeft(NodeInstance node) {
+            }
+
+            public void fireAfterTaskLeft(NodeInstance node) {
+            }
+        });
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(process, services);
+        processInstance.start();
+
+        assertEquals(STATUS.ENDED, processInstance.getStatus());
+        assertEquals(5000, executed[0]);
+        // The end tasks stay as active instances
+        assertEquals(5000, processInstance.getNodeInstances().size());
+    }
+
+    private static class SimpleNodeInstance implements NodeInstance {
+
+        private Task task;
+
+        SimpleNodeInstance(Task task) {
+            this.task = task;
+        }
+
+        public void setTask(Task task) {
+            this.task = task;
+        }
+
+        public Task getTask() {
+            return task;
+        }
+
+        public void trigger(NodeInstance from, String type) {
+        }
+
+        public ProcessInstance getProcessInstance() {
+            return null;
+        }
+    }
+}
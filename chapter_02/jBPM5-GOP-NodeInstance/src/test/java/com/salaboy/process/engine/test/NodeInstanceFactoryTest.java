@@ -0,0 +1,186 @@
+/*
+ * To change this template, choose Tools | Templates and open the template in
+ * the editor.
+ */
+package com.salaboy.process.engine.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.salaboy.process.engine.factories.NodeInstanceCreator;
+import com.salaboy.process.engine.factories.NodeInstanceFactory;
+import com.salaboy.process.engine.factories.ProcessInstanceFactory;
+import com.salaboy.process.engine.services.ProcessEventSupportService;
+import com.salaboy.process.engine.services.Service;
+import com.salaboy.process.engine.structures.*;
+import com.salaboy.process.engine.structures.ProcessInstance.STATUS;
+import com.salaboy.process.engine.structures.impl.CompiledProcessDefinition;
+import com.salaboy.process.engine.structures.impl.ProcessDefinitionImpl;
+import com.salaboy.process.engine.structures.impl.InternalProcessInstance;
+import com.salaboy.process.engine.taskinstances.impl.AbstractNodeInstance;
+import com.salaboy.process.engine.taskinstances.impl.ScriptTaskNodeInstance;
+import com.salaboy.process.engine.tasks.impl.AbstractBaseTask;
+import com.salaboy.process.engine.tasks.impl.EndTask;
+import com.salaboy.process.engine.tasks.impl.ScriptTask;
+import com.salaboy.process.engine.tasks.impl.SequenceFlowImpl;
+import com.salaboy.process.engine.tasks.impl.StartTask;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the creators registered in {@link NodeInstanceFactory}.
+ * @author salaboy
+ */
+public class NodeInstanceFactoryTest {
+
+    @After
+    public void tearDown() {
+        NodeInstanceFactory.unregister(LogTask.class);
+    }
+
+    /**
+     * A new type of task can be used once its creator is registered.
+     */
+    @Test
+    public void customTaskType() {
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        StartTask startTask = new StartTask();
+        process.addTask(0L, startTask);
+        LogTask logTask = new LogTask("Hello");
+        process.addTask(1L, logTask);
+        EndTask endTask = new EndTask();
+        process.addTask(2L, endTask);
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, logTask));
+        logTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+
+        try {
+            CompiledProcessDefinition.compile(process);
+            fail("There is no creator for LogTask yet");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        final List<String> log = new ArrayList<String>();
+        NodeInstanceFactory.register(LogTask.class, new NodeInstanceCreator() {
+            public NodeInstance create(ProcessInstance processInstance, Task task) {
+                return new LogTaskNodeInstance(processInstance, task, log);
+            }
+
+            public boolean isStateless() {
+                return false;
+            }
+        });
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(process, createServices());
+        processInstance.start();
+        assertEquals(STATUS.ENDED, processInstance.getStatus());
+
+        processInstance = ProcessInstanceFactory.newProcessInstance(CompiledProcessDefinition.compile(process), createServices());
+        processInstance.start();
+        assertEquals(STATUS.ENDED, processInstance.getStatus());
+        assertEquals("[Hello, Hello]", log.toString());
+    }
+
+    /**
+     * Subclasses of a task without their own creator use the creator of the
+     * superclass.
+     */
+    @Test
+    public void creatorOfSuperclass() {
+        ScriptTask task = new ScriptTask("java", null) {
+        };
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(new ProcessDefinitionImpl(), createServices());
+        assertTrue(NodeInstanceFactory.newNodeInstance(processInstance, task) instanceof ScriptTaskNodeInstance);
+    }
+
+    /**
+     * The end task reached by two branches is instantiated once, while each
+     * script task activation gets its own instance.
+     */
+    @Test
+    public void statelessInstancesAreReused() {
+        final List<NodeInstance> triggered = new ArrayList<NodeInstance>();
+        Map<String, Service> services = createServices();
+        services.put("event-service", new NoOpEventService() {
+            @Override
+            public void fireBeforeTaskTriggered(NodeInstance node) {
+                triggered.add(node);
+            }
+        });
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        StartTask startTask = new StartTask();
+        process.addTask(0L, startTask);
+        ScriptTask scriptTask = new ScriptTask("java", new Action() {
+            public void execute() {
+            }
+        });
+        process.addTask(1L, scriptTask);
+        EndTask endTask = new EndTask();
+        process.addTask(2L, endTask);
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, scriptTask));
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, scriptTask));
+        scriptTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(CompiledProcessDefinition.compile(process), services);
+        processInstance.start();
+        assertEquals(STATUS.ENDED, processInstance.getStatus());
+
+        // start, script, end, script, end
+        assertEquals(5, triggered.size());
+        assertNotSame(triggered.get(1), triggered.get(3));
+        assertSame(triggered.get(2), triggered.get(4));
+        assertSame(triggered.get(2), ((InternalProcessInstance) processInstance).getFlyweight(2));
+        assertEquals(2, ((AbstractNodeInstance) triggered.get(2)).getNodeId());
+    }
+
+    private Map<String, Service> createServices() {
+        Map<String, Service> services = new HashMap<String, Service>();
+        services.put("event-service", new NoOpEventService());
+        return services;
+    }
+
+    private static class NoOpEventService implements ProcessEventSupportService {
+
+        public void fireBeforeTaskTriggered(NodeInstance node) {
+        }
+
+        public void fireAfterTaskTriggered(NodeInstance node) {
+        }
+
+        public void fireBeforeTaskLeft(NodeInstance node) {
+        }
+
+        public void fireAfterTaskLeft(NodeInstance node) {
+        }
+    }
+
+    public static class LogTask extends AbstractBaseTask {
+
+        private final String message;
+
+        public LogTask(String message) {
+            this.message = message;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    private static class LogTaskNodeInstance extends AbstractNodeInstance {
+
+        private final List<String> log;
+
+        LogTaskNodeInstance(ProcessInstance processInstance, Task task, List<String> log) {
+            super(processInstance, task);
+            this.log = log;
+        }
+
+        @Override
+        public void internalTrigger(NodeInstance from, String type) {
+            log.add(((LogTask) task).getMessage());
+            triggerCompleted(SequenceFlow.FLOW_DEFAULT_TYPE, true);
+        }
+    }
+}
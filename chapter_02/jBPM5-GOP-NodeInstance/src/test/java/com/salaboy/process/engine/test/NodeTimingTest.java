@@ -0,0 +1,141 @@
+/*
+ * To change this template, choose Tools | Templates and open the template in
+ * the editor.
+ */
+package com.salaboy.process.engine.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import com.salaboy.process.engine.factories.ProcessInstanceFactory;
+import com.salaboy.process.engine.metrics.LatencyHistogram;
+import com.salaboy.process.engine.metrics.LatencySnapshot;
+import com.salaboy.process.engine.metrics.NodeTimingService;
+import com.salaboy.process.engine.services.ProcessEventBus;
+import com.salaboy.process.engine.services.Service;
+import com.salaboy.process.engine.structures.*;
+import com.salaboy.process.engine.structures.ProcessInstance.STATUS;
+import com.salaboy.process.engine.structures.impl.CompiledProcessDefinition;
+import com.salaboy.process.engine.structures.impl.ProcessDefinitionImpl;
+import com.salaboy.process.engine.taskinstances.impl.WaitStateTaskNodeInstance;
+import com.salaboy.process.engine.tasks.impl.EndTask;
+import com.salaboy.process.engine.tasks.impl.ScriptTask;
+import com.salaboy.process.engine.tasks.impl.SequenceFlowImpl;
+import com.salaboy.process.engine.tasks.impl.StartTask;
+import com.salaboy.process.engine.tasks.impl.WaitStateTask;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the latencies of the nodes recorded by the
+ * {@link NodeTimingService}.
+ * @author salaboy
+ */
+public class NodeTimingTest {
+
+    @Test
+    public void histogramPrecision() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram(4);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (long value = 1; value <= 100000; value++) {
+                        histogram.record(value * 10);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        LatencySnapshot snapshot = histogram.snapshot();
+        // No value is lost by the concurrent threads
+        assertEquals(400000, snapshot.getCount());
+        assertEquals(4 * 10 * (100000L * 100001 / 2), snapshot.getTotalNanos());
+        assertEquals(1000000, snapshot.getMaxNanos());
+        assertEquals(10, snapshot.getMinNanos());
+        // percentiles within the precision of the buckets
+        assertEquals(500000, snapshot.getP50Nanos(), 500000 * 0.125);
+        assertEquals(990000, snapshot.getP99Nanos(), 990000 * 0.125);
+        assertTrue(snapshot.getP999Nanos() <= snapshot.getMaxNanos());
+
+        histogram.record(-5);
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().getCount());
+    }
+
+    @Test
+    public void nodesAreTimedByTypeAndName() throws Exception {
+        NodeTimingService timingService = new NodeTimingService();
+        Map<String, Service> services = new HashMap<String, Service>();
+        services.put("event-service", new ProcessEventBus());
+        services.put("timing-service", timingService);
+        ProcessDefinition process = CompiledProcessDefinition.compile(createProcess());
+
+        for (int i = 0; i < 10; i++) {
+            ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(process, services);
+            processInstance.start();
+            Thread.sleep(1);
+            ((WaitStateTaskNodeInstance) processInstance.getNodeInstances().get(0)).signal();
+            assertEquals(STATUS.ENDED, processInstance.getStatus());
+        }
+
+        Map<String, LatencySnapshot> byType = timingService.getExecutionByType();
+        assertEquals(10, byType.get("StartTask").getCount());
+        assertEquals(10, byType.get("ScriptTask").getCount());
+        assertEquals(10, byType.get("WaitStateTask").getCount());
+        assertEquals(10, byType.get("EndTask").getCount());
+        // the script sleeps for at least 2ms
+        assertTrue(timingService.getExecutionByName().get("slow script").getMinNanos() >= 1800000);
+        // Only the wait state completes after it is triggered
+        assertEquals(1, timingService.getActiveByType().size());
+        assertTrue(timingService.getActiveByName().get("approve").getMinNanos() >= 900000);
+
+        ObjectName name = timingService.registerMBean("test");
+        try {
+            TabularData table = (TabularData) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ExecutionByType");
+            CompositeData row = table.get(new Object[]{"ScriptTask"});
+            CompositeData snapshot = (CompositeData) row.get("value");
+            assertEquals(10L, snapshot.get("count"));
+            ManagementFactory.getPlatformMBeanServer().invoke(name, "reset", null, null);
+            assertEquals(0, timingService.getExecutionByType().get("ScriptTask").getCount());
+        } finally {
+            timingService.unregisterMBean();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    private ProcessDefinition createProcess() {
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        StartTask startTask = new StartTask();
+        process.addTask(0L, startTask);
+        ScriptTask scriptTask = new ScriptTask("java", new Action() {
+            public void execute() {
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        scriptTask.setName("slow script");
+        process.addTask(1L, scriptTask);
+        WaitStateTask waitState = new WaitStateTask("approve");
+        process.addTask(2L, waitState);
+        EndTask endTask = new EndTask();
+        process.addTask(3L, endTask);
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, scriptTask));
+        scriptTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, waitState));
+        waitState.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+        return process;
+    }
+}
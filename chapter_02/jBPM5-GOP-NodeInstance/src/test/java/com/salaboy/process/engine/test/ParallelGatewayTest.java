@@ -0,0 +1,195 @@
+/*
+ * To change this template, choose Tools | Templates and open the template in
+ * the editor.
+ */
+package com.salaboy.process.engine.test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.salaboy.process.engine.factories.ProcessInstanceFactory;
+import com.salaboy.process.engine.services.ProcessEventSupportService;
+import com.salaboy.process.engine.services.Service;
+import com.salaboy.process.engine.structures.*;
+import com.salaboy.process.engine.structures.ProcessInstance.STATUS;
+import com.salaboy.process.engine.structures.impl.CompiledProcessDefinition;
+import com.salaboy.process.engine.structures.impl.ProcessDefinitionImpl;
+import com.salaboy.process.engine.tasks.impl.EndTask;
+import com.salaboy.process.engine.tasks.impl.ParallelJoinTask;
+import com.salaboy.process.engine.tasks.impl.ParallelSplitTask;
+import com.salaboy.process.engine.tasks.impl.ScriptTask;
+import com.salaboy.process.engine.tasks.impl.SequenceFlowImpl;
+import com.salaboy.process.engine.tasks.impl.StartTask;
+import org.junit.After;
+import org.junit.Before;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the parallel split and join tasks, with and without an executor
+ * running the branches.
+ * @author salaboy
+ */
+public class ParallelGatewayTest {
+
+    private static final int BRANCHES = 4;
+    private static final long BRANCH_MILLIS = 200;
+
+    private ExecutorService executor;
+    private Set<String> threads;
+    private AtomicInteger afterJoin;
+    // instance being executed, used by the branch actions
+    private volatile ProcessInstance processInstance;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(BRANCHES);
+        threads = Collections.synchronizedSet(new HashSet<String>());
+        afterJoin = new AtomicInteger();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentBranches() {
+        processInstance = ProcessInstanceFactory.newProcessInstance(
+                createParallelProcess(new ParallelSplitTask(executor), null), createServices());
+        long start = System.currentTimeMillis();
+        processInstance.start();
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(STATUS.ENDED, processInstance.getStatus());
+        assertTrue("The branches took " + elapsed + "ms", elapsed < BRANCHES * BRANCH_MILLIS);
+        assertTrue(threads.size() > 1);
+        assertEquals(1, afterJoin.get());
+        for (int i = 0; i < BRANCHES; i++) {
+            assertEquals(Boolean.TRUE, processInstance.getContextInstance().getVariable("branch-" + i));
+        }
+    }
+
+    @Test
+    public void concurrentBranchesCompiled() {
+        processInstance = ProcessInstanceFactory.newProcessInstance(
+                CompiledProcessDefinition.compile(createParallelProcess(new ParallelSplitTask(executor), null)), createServices());
+        processInstance.start();
+
+        assertEquals(STATUS.ENDED, processInstance.getStatus());
+        assertEquals(1, afterJoin.get());
+        assertEquals(BRANCHES, processInstance.getContextInstance().getVariables().size());
+    }
+
+    /**
+     * Without an executor the branches are executed one after the other in
+     * the thread that started the process instance.
+     */
+    @Test
+    public void sequentialBranches() {
+        processInstance = ProcessInstanceFactory.newProcessInstance(
+                createParallelProcess(new ParallelSplitTask(), null), createServices());
+        processInstance.start();
+
+        assertEquals(STATUS.ENDED, processInstance.getStatus());
+        assertEquals(Collections.singleton(Thread.currentThread().getName()), threads);
+        assertEquals(1, afterJoin.get());
+    }
+
+    @Test
+    public void failingBranch() {
+        processInstance = ProcessInstanceFactory.newProcessInstance(
+                createParallelProcess(new ParallelSplitTask(executor), new Action() {
+                    public void execute() {
+                        throw new IllegalStateException("Branch failure");
+                    }
+                }), createServices());
+        try {
+            processInstance.start();
+            fail("The failure of the branch should reach the caller");
+        } catch (IllegalStateException e) {
+            assertEquals("Branch failure", e.getMessage());
+        }
+        // The join never got all its branches
+        assertEquals(0, afterJoin.get());
+        assertEquals(STATUS.ACTIVE, processInstance.getStatus());
+    }
+
+    /**
+     * start -> split -> BRANCHES script tasks -> join -> script task -> end.
+     * The last branch executes the failing action, if there is one.
+     */
+    private ProcessDefinition createParallelProcess(ParallelSplitTask splitTask, Action failingAction) {
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        StartTask startTask = new StartTask();
+        process.addTask(0L, startTask);
+        process.addTask(1L, splitTask);
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, splitTask));
+        ParallelJoinTask joinTask = new ParallelJoinTask(BRANCHES);
+        process.addTask(2L, joinTask);
+        for (int i = 0; i < BRANCHES; i++) {
+            Action action = failingAction != null && i == BRANCHES - 1 ? failingAction : new BranchAction("branch-" + i);
+            ScriptTask scriptTask = new ScriptTask("java", action);
+            process.addTask(10L + i, scriptTask);
+            splitTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, scriptTask));
+            scriptTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, joinTask));
+        }
+        ScriptTask continueTask = new ScriptTask("java", new Action() {
+            public void execute() {
+                afterJoin.incrementAndGet();
+            }
+        });
+        process.addTask(3L, continueTask);
+        joinTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, continueTask));
+        EndTask endTask = new EndTask();
+        process.addTask(4L, endTask);
+        continueTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+        return process;
+    }
+
+    private Map<String, Service> createServices() {
+        Map<String, Service> services = new HashMap<String, Service>();
+        services.put("event-service", new ProcessEventSupportService() {
+            public void fireBeforeTaskTriggered(NodeInstance node) {
+            }
+
+            public void fireAfterTaskTriggered(NodeInstance node) {
+            }
+
+            public void fireBeforeTaskLeft(NodeInstance node) {
+            }
+
+            public void fireAfterTaskLeft(NodeInstance node) {
+            }
+        });
+        return services;
+    }
+
+    /**
+     * Sleeps like a long running script, records its thread and sets a
+     * process variable of the instance being executed.
+     */
+    private class BranchAction implements Action {
+
+        private final String variable;
+
+        BranchAction(String variable) {
+            this.variable = variable;
+        }
+
+        public void execute() {
+            threads.add(Thread.currentThread().getName());
+            try {
+                Thread.sleep(BRANCH_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            processInstance.getContextInstance().setVariable(variable, Boolean.TRUE);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * To change this template, choose Tools | Templates and open the template in
+ * the editor.
+ */
+package com.salaboy.process.engine.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import com.salaboy.process.engine.factories.ProcessInstanceFactory;
+import com.salaboy.process.engine.services.ProcessEvent;
+import com.salaboy.process.engine.services.ProcessEventBus;
+import com.salaboy.process.engine.services.ProcessEventListener;
+import com.salaboy.process.engine.services.ProcessEventRingBuffer;
+import com.salaboy.process.engine.services.Service;
+import com.salaboy.process.engine.structures.*;
+import com.salaboy.process.engine.structures.ProcessInstance.STATUS;
+import com.salaboy.process.engine.structures.impl.ProcessDefinitionImpl;
+import com.salaboy.process.engine.tasks.impl.EndTask;
+import com.salaboy.process.engine.tasks.impl.SequenceFlowImpl;
+import com.salaboy.process.engine.tasks.impl.StartTask;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the synchronous and asynchronous delivery of events by the
+ * {@link ProcessEventBus}.
+ * @author salaboy
+ */
+public class ProcessEventBusTest {
+
+    /**
+     * Without listeners the bus doesn't even look at the node instance.
+     */
+    @Test
+    public void noListeners() {
+        ProcessEventBus bus = new ProcessEventBus();
+        NodeInstance untouchable = new NodeInstance() {
+            public void setTask(Task task) {
+                fail();
+            }
+
+            public Task getTask() {
+                throw new AssertionError("The node instance shouldn't be used");
+            }
+
+            public void trigger(NodeInstance from, String type) {
+                fail();
+            }
+
+            public ProcessInstance getProcessInstance() {
+                throw new AssertionError("The node instance shouldn't be used");
+            }
+        };
+        bus.fireBeforeTaskTriggered(untouchable);
+        bus.fireAfterTaskTriggered(untouchable);
+        bus.fireBeforeTaskLeft(untouchable);
+        bus.fireAfterTaskLeft(untouchable);
+
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(createProcessDefinition());
+        assertTrue(processInstance.getService("event-service") instanceof ProcessEventBus);
+        processInstance.start();
+        assertEquals(STATUS.ENDED, processInstance.getStatus());
+    }
+
+    @Test
+    public void synchronousListener() {
+        final List<String> events = new ArrayList<String>();
+        ProcessEventBus bus = new ProcessEventBus();
+        ProcessEventListener listener = new ProcessEventListener() {
+            public void onEvent(ProcessEvent event) {
+                events.add(event.getType() + " " + event.getTask().getName());
+            }
+        };
+        bus.addListener(listener);
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(createProcessDefinition(), createServices(bus));
+        processInstance.start();
+
+        assertEquals("[BEFORE_TASK_TRIGGERED Start, BEFORE_TASK_LEFT Start, AFTER_TASK_LEFT Start, AFTER_TASK_TRIGGERED Start,"
+                + " BEFORE_TASK_TRIGGERED End, AFTER_TASK_TRIGGERED End]", events.toString());
+
+        bus.removeListener(listener);
+        processInstance = ProcessInstanceFactory.newProcessInstance(createProcessDefinition(), createServices(bus));
+        processInstance.start();
+        assertEquals(6, events.size());
+    }
+
+    @Test
+    public void asynchronousListener() throws InterruptedException {
+        final List<ProcessEvent> events = Collections.synchronizedList(new ArrayList<ProcessEvent>());
+        ProcessEventBus bus = new ProcessEventBus();
+        bus.addAsyncListener(new ProcessEventListener() {
+            public void onEvent(ProcessEvent event) {
+                events.add(event);
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(createProcessDefinition(), createServices(bus));
+            processInstance.setId(i);
+            processInstance.start();
+        }
+        bus.close();
+
+        assertEquals(60, events.size());
+        assertEquals(0, bus.getDroppedEvents());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(i / 6, events.get(i).getProcessInstanceId());
+        }
+    }
+
+    /**
+     * A slow asynchronous listener fills the buffer, the events that don't
+     * fit are dropped and the process instance isn't blocked.
+     */
+    @Test
+    public void fullBufferDropsEvents() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<ProcessEvent> events = Collections.synchronizedList(new ArrayList<ProcessEvent>());
+        ProcessEventBus bus = new ProcessEventBus(2);
+        bus.addAsyncListener(new ProcessEventListener() {
+            public void onEvent(ProcessEvent event) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                events.add(event);
+            }
+        });
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(createProcessDefinition(), createServices(bus));
+        processInstance.start();
+        assertEquals(STATUS.ENDED, processInstance.getStatus());
+
+        release.countDown();
+        bus.close();
+        // The dispatcher can hold one event outside the buffer
+        assertTrue(events.size() <= 3);
+        assertEquals(6, events.size() + bus.getDroppedEvents());
+    }
+
+    @Test
+    public void ringBufferWrapsAround() {
+        ProcessEventRingBuffer buffer = new ProcessEventRingBuffer(3);
+        assertEquals(4, buffer.getCapacity());
+        assertNull(buffer.poll());
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(buffer.offer(new ProcessEvent(ProcessEvent.Type.BEFORE_TASK_LEFT, i, -1, null, 0)));
+            }
+            assertFalse(buffer.offer(new ProcessEvent(ProcessEvent.Type.BEFORE_TASK_LEFT, 4, -1, null, 0)));
+            for (int i = 0; i < 4; i++) {
+                assertEquals(i, buffer.poll().getProcessInstanceId());
+            }
+            assertNull(buffer.poll());
+        }
+    }
+
+    private Map<String, Service> createServices(ProcessEventBus bus) {
+        Map<String, Service> services = new HashMap<String, Service>();
+        services.put("event-service", bus);
+        return services;
+    }
+
+    private ProcessDefinition createProcessDefinition() {
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        StartTask startTask = new StartTask();
+        startTask.setName("Start");
+        process.addTask(0L, startTask);
+        EndTask endTask = new EndTask();
+        endTask.setName("End");
+        process.addTask(1L, endTask);
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+        return process;
+    }
+}
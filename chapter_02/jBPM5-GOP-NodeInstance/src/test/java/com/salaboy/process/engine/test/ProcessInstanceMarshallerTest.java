@@ -0,0 +1,318 @@
+/*
+ * To change this template, choose Tools | Templates and open the template in
+ * the editor.
+ */
+package com.salaboy.process.engine.test;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import com.salaboy.process.engine.factories.ProcessInstanceFactory;
+import com.salaboy.process.engine.jobs.InMemoryJobQueue;
+import com.salaboy.process.engine.jobs.Job;
+import com.salaboy.process.engine.jobs.JobHandler;
+import com.salaboy.process.engine.marshalling.ProcessInstanceMarshaller;
+import com.salaboy.process.engine.services.ProcessEventBus;
+import com.salaboy.process.engine.services.Service;
+import com.salaboy.process.engine.structures.*;
+import com.salaboy.process.engine.structures.ProcessInstance.STATUS;
+import com.salaboy.process.engine.structures.impl.CompiledProcessDefinition;
+import com.salaboy.process.engine.structures.impl.ProcessDefinitionImpl;
+import com.salaboy.process.engine.taskinstances.impl.AbstractNodeInstance;
+import com.salaboy.process.engine.taskinstances.impl.ParallelJoinTaskNodeInstance;
+import com.salaboy.process.engine.taskinstances.impl.WaitStateTaskNodeInstance;
+import com.salaboy.process.engine.tasks.impl.EndTask;
+import com.salaboy.process.engine.tasks.impl.ParallelJoinTask;
+import com.salaboy.process.engine.tasks.impl.ParallelSplitTask;
+import com.salaboy.process.engine.tasks.impl.ScriptTask;
+import com.salaboy.process.engine.tasks.impl.SequenceFlowImpl;
+import com.salaboy.process.engine.tasks.impl.StartTask;
+import com.salaboy.process.engine.tasks.impl.TimerTask;
+import com.salaboy.process.engine.tasks.impl.WaitStateTask;
+import com.salaboy.process.engine.timers.TimingWheel;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the full and delta snapshots of {@link ProcessInstanceMarshaller}.
+ * @author salaboy
+ */
+public class ProcessInstanceMarshallerTest {
+
+    private CompiledProcessDefinition process;
+    private ProcessInstanceMarshaller marshaller;
+
+    @Before
+    public void setUp() {
+        process = CompiledProcessDefinition.compile(createProcessDefinition());
+        marshaller = new ProcessInstanceMarshaller();
+        marshaller.addProcessDefinition(process);
+    }
+
+    @Test
+    public void fullSnapshot() {
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(process, createServices());
+        processInstance.setId(42);
+        Map<String, Object> variables = new HashMap<String, Object>();
+        variables.put("name", "salaboy");
+        variables.put("amount", 1500L);
+        variables.put("count", -3);
+        variables.put("rate", 0.25d);
+        variables.put("approved", Boolean.TRUE);
+        variables.put("date", new Date(0));
+        processInstance.start(variables);
+
+        byte[] data = marshaller.marshal(processInstance);
+        ProcessInstanceMarshaller restoring = new ProcessInstanceMarshaller();
+        restoring.addProcessDefinition(process);
+        ProcessInstance restored = restoring.unmarshal(data, createServices());
+
+        assertEquals(42, restored.getId());
+        assertSame(process, restored.getProcessDefinition());
+        assertEquals(STATUS.ENDED, restored.getStatus());
+        assertEquals(variables, restored.getContextInstance().getVariables());
+        // The end task stays active
+        assertEquals(1, restored.getNodeInstances().size());
+        assertEquals(2, ((AbstractNodeInstance) restored.getNodeInstances().get(0)).getNodeId());
+    }
+
+    @Test
+    public void deltaSnapshots() {
+        CompiledProcessDefinition waiting = CompiledProcessDefinition.compile(createWaitingProcess(new WaitStateTask("wait")));
+        marshaller.addProcessDefinition(waiting);
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(waiting, createServices());
+        Map<String, Object> variables = new HashMap<String, Object>();
+        for (int i = 0; i < 20; i++) {
+            variables.put("variable-" + i, "value of the variable " + i);
+        }
+        processInstance.start(variables);
+        byte[] full = marshaller.marshal(processInstance);
+
+        ProcessInstanceMarshaller restoring = new ProcessInstanceMarshaller();
+        restoring.addProcessDefinition(waiting);
+        ProcessInstance restored = restoring.unmarshal(full, createServices());
+
+        processInstance.getContextInstance().setVariable("variable-0", "changed");
+        processInstance.getContextInstance().setVariable("variable-1", null);
+        processInstance.getContextInstance().setVariable("new", 7L);
+        byte[] first = marshaller.marshalDelta(processInstance);
+        assertTrue(first.length < full.length / 5);
+
+        WaitStateTaskNodeInstance waitState = (WaitStateTaskNodeInstance) processInstance.getNodeInstances().get(0);
+        waitState.signal();
+        byte[] second = marshaller.marshalDelta(processInstance);
+
+        try {
+            restoring.applyDelta(restored, second);
+            fail("The first delta wasn't applied yet");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        restoring.applyDelta(restored, first);
+        assertEquals("changed", restored.getContextInstance().getVariable("variable-0"));
+        assertNull(restored.getContextInstance().getVariable("variable-1"));
+        assertEquals(7L, restored.getContextInstance().getVariable("new"));
+        assertEquals(STATUS.ACTIVE, restored.getStatus());
+        assertTrue(restored.getNodeInstances().get(0) instanceof WaitStateTaskNodeInstance);
+        // The node instances keep their ids, so their jobs find them
+        assertEquals(waitState.getId(), ((AbstractNodeInstance) restored.getNodeInstances().get(0)).getId());
+
+        restoring.applyDelta(restored, second);
+        assertEquals(STATUS.ENDED, restored.getStatus());
+        assertEquals(1, restored.getNodeInstances().size());
+        assertEquals(2, ((AbstractNodeInstance) restored.getNodeInstances().get(0)).getNodeId());
+        assertEquals(processInstance.getContextInstance().getVariables(), restored.getContextInstance().getVariables());
+
+        // The snapshots of ended instances are not kept
+        try {
+            marshaller.marshalDelta(processInstance);
+            fail("The process instance ended");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void joinCounterIsRestored() {
+        CompiledProcessDefinition parallel = CompiledProcessDefinition.compile(createParallelProcess());
+        marshaller.addProcessDefinition(parallel);
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(parallel, createServices());
+        processInstance.start();
+        // The script branch arrived to the join, the other one waits
+        assertEquals(STATUS.ACTIVE, processInstance.getStatus());
+        assertEquals(2, processInstance.getNodeInstances().size());
+
+        ProcessInstance restored = marshaller.unmarshal(marshaller.marshal(processInstance), createServices());
+        ParallelJoinTaskNodeInstance join = null;
+        WaitStateTaskNodeInstance waiting = null;
+        for (NodeInstance nodeInstance : restored.getNodeInstances()) {
+            if (nodeInstance instanceof ParallelJoinTaskNodeInstance) {
+                join = (ParallelJoinTaskNodeInstance) nodeInstance;
+            } else {
+                waiting = (WaitStateTaskNodeInstance) nodeInstance;
+            }
+        }
+        assertEquals(1, join.getArrived());
+
+        waiting.signal();
+        assertEquals(STATUS.ENDED, restored.getStatus());
+    }
+
+    @Test
+    public void timersAndJobsAreRearmed() throws InterruptedException {
+        CompiledProcessDefinition timer = CompiledProcessDefinition.compile(createWaitingProcess(new TimerTask(30, TimeUnit.MINUTES)));
+        marshaller.addProcessDefinition(timer);
+        Map<String, Service> services = createServices();
+        services.put("timer-service", new TimingWheel(1, TimingWheel.DEFAULT_WHEEL_SIZE, new ExecutingHandler(), 0));
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(timer, services);
+        processInstance.start();
+
+        services = createServices();
+        TimingWheel wheel = new TimingWheel(1, TimingWheel.DEFAULT_WHEEL_SIZE, new ExecutingHandler(), 0);
+        services.put("timer-service", wheel);
+        ProcessInstance restored = marshaller.unmarshal(marshaller.marshal(processInstance), services);
+        assertEquals(1, wheel.size());
+        wheel.advanceClock(TimeUnit.MINUTES.toMillis(30));
+        assertEquals(STATUS.ENDED, restored.getStatus());
+
+        CompiledProcessDefinition waiting = CompiledProcessDefinition.compile(createWaitingProcess(new WaitStateTask("wait")));
+        marshaller.addProcessDefinition(waiting);
+        services = createServices();
+        services.put("job-queue", new InMemoryJobQueue());
+        processInstance = ProcessInstanceFactory.newProcessInstance(waiting, services);
+        processInstance.start();
+
+        services = createServices();
+        InMemoryJobQueue jobQueue = new InMemoryJobQueue();
+        services.put("job-queue", jobQueue);
+        restored = marshaller.unmarshal(marshaller.marshal(processInstance), services);
+        assertEquals(1, jobQueue.size());
+        new ExecutingHandler().handle(jobQueue.take(0, TimeUnit.SECONDS));
+        assertEquals(STATUS.ENDED, restored.getStatus());
+    }
+
+    @Test
+    public void invalidSnapshots() {
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(process, createServices());
+        processInstance.start();
+        byte[] data = marshaller.marshal(processInstance);
+
+        try {
+            new ProcessInstanceMarshaller().unmarshal(data, createServices());
+            fail("The process definition is not registered");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            marshaller.applyDelta(processInstance, data);
+            fail("A full snapshot is not a delta");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            marshaller.marshalDelta(ProcessInstanceFactory.newProcessInstance(process, createServices()));
+            fail("There is no previous snapshot");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        ProcessInstance notCompiled = ProcessInstanceFactory.newProcessInstance(createProcessDefinition(), createServices());
+        notCompiled.start();
+        try {
+            marshaller.marshal(notCompiled);
+            fail("Only instances of compiled definitions have node ids");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        processInstance.getContextInstance().setVariable("thread", new Object());
+        try {
+            marshaller.marshal(processInstance);
+            fail("The variable is not Serializable");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private Map<String, Service> createServices() {
+        Map<String, Service> services = new HashMap<String, Service>();
+        services.put("event-service", new ProcessEventBus());
+        return services;
+    }
+
+    /**
+     * Start, the waiting task and end.
+     */
+    private ProcessDefinition createWaitingProcess(Task waitingTask) {
+        ProcessDefinition definition = new ProcessDefinitionImpl();
+        definition.setId("com.salaboy.marshalling." + waitingTask.getClass().getSimpleName());
+        definition.setVersion(1);
+        StartTask startTask = new StartTask();
+        definition.addTask(0L, startTask);
+        definition.addTask(1L, waitingTask);
+        EndTask endTask = new EndTask();
+        definition.addTask(2L, endTask);
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, waitingTask));
+        waitingTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+        return definition;
+    }
+
+    /**
+     * A split with a script branch and a waiting branch, joined before the end.
+     */
+    private ProcessDefinition createParallelProcess() {
+        ProcessDefinition definition = new ProcessDefinitionImpl();
+        definition.setId("com.salaboy.marshalling.parallel");
+        definition.setVersion(1);
+        StartTask startTask = new StartTask();
+        definition.addTask(0L, startTask);
+        ParallelSplitTask splitTask = new ParallelSplitTask();
+        definition.addTask(1L, splitTask);
+        ScriptTask scriptTask = new ScriptTask("java", new Action() {
+            public void execute() {
+            }
+        });
+        definition.addTask(2L, scriptTask);
+        WaitStateTask waitState = new WaitStateTask("wait");
+        definition.addTask(3L, waitState);
+        ParallelJoinTask joinTask = new ParallelJoinTask(2);
+        definition.addTask(4L, joinTask);
+        EndTask endTask = new EndTask();
+        definition.addTask(5L, endTask);
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, splitTask));
+        splitTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, scriptTask));
+        splitTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, waitState));
+        scriptTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, joinTask));
+        waitState.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, joinTask));
+        joinTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+        return definition;
+    }
+
+    private ProcessDefinition createProcessDefinition() {
+        ProcessDefinition definition = new ProcessDefinitionImpl();
+        definition.setId("com.salaboy.marshalling");
+        definition.setVersion(1);
+        StartTask startTask = new StartTask();
+        definition.addTask(0L, startTask);
+        ScriptTask scriptTask = new ScriptTask("java", new Action() {
+            public void execute() {
+            }
+        });
+        definition.addTask(1L, scriptTask);
+        EndTask endTask = new EndTask();
+        definition.addTask(2L, endTask);
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, scriptTask));
+        scriptTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+        return definition;
+    }
+
+    /**
+     * Executes the jobs in the calling thread.
+     */
+    private static class ExecutingHandler implements JobHandler {
+
+        public void handle(Job job) {
+            job.execute();
+        }
+    }
+}
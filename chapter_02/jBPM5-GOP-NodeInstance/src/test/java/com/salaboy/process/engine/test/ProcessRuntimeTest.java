@@ -0,0 +1,224 @@
+/*
+ * To change this template, choose Tools | Templates and open the template in
+ * the editor.
+ */
+package com.salaboy.process.engine.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import com.salaboy.process.engine.factories.ProcessInstanceFactory;
+import com.salaboy.process.engine.jobs.ContinuationDispatcher;
+import com.salaboy.process.engine.jobs.InMemoryJobQueue;
+import com.salaboy.process.engine.runtime.IdGenerator;
+import com.salaboy.process.engine.runtime.ProcessCommand;
+import com.salaboy.process.engine.runtime.ProcessRuntime;
+import com.salaboy.process.engine.services.ProcessEvent;
+import com.salaboy.process.engine.services.ProcessEventBus;
+import com.salaboy.process.engine.services.ProcessEventListener;
+import com.salaboy.process.engine.services.Service;
+import com.salaboy.process.engine.structures.*;
+import com.salaboy.process.engine.structures.ProcessInstance.STATUS;
+import com.salaboy.process.engine.structures.impl.CompiledProcessDefinition;
+import com.salaboy.process.engine.structures.impl.ProcessDefinitionImpl;
+import com.salaboy.process.engine.tasks.impl.EndTask;
+import com.salaboy.process.engine.tasks.impl.ScriptTask;
+import com.salaboy.process.engine.tasks.impl.SequenceFlowImpl;
+import com.salaboy.process.engine.tasks.impl.StartTask;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the execution of process instances in the shards of a
+ * {@link ProcessRuntime}.
+ * @author salaboy
+ */
+public class ProcessRuntimeTest {
+
+    private static final int SHARDS = 4;
+
+    private ProcessRuntime runtime;
+    // thread that executed the nodes of each process instance
+    private Map<Long, Set<String>> threads;
+
+    @Before
+    public void setUp() {
+        threads = new ConcurrentHashMap<Long, Set<String>>();
+        ProcessEventBus bus = new ProcessEventBus();
+        bus.addListener(new ProcessEventListener() {
+            public void onEvent(ProcessEvent event) {
+                Set<String> names = threads.get(event.getProcessInstanceId());
+                if (names == null) {
+                    names = new HashSet<String>();
+                    threads.put(event.getProcessInstanceId(), names);
+                }
+                names.add(Thread.currentThread().getName());
+            }
+        });
+        Map<String, Service> services = new HashMap<String, Service>();
+        services.put("event-service", bus);
+        runtime = new ProcessRuntime(SHARDS, services, new IdGenerator());
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        assertTrue(runtime.shutdown(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void instancesRunInTheirShard() throws Exception {
+        ProcessDefinition process = CompiledProcessDefinition.compile(createProcessDefinition());
+        List<Future<ProcessInstance>> started = new ArrayList<Future<ProcessInstance>>();
+        for (int i = 0; i < 1000; i++) {
+            started.add(runtime.startProcess(process, null));
+        }
+        Set<Long> ids = new HashSet<Long>();
+        int[] perShard = new int[SHARDS];
+        for (Future<ProcessInstance> future : started) {
+            ProcessInstance processInstance = future.get();
+            assertEquals(STATUS.ENDED, processInstance.getStatus());
+            assertTrue(ids.add(processInstance.getId()));
+            int shard = runtime.getShard(processInstance.getId());
+            perShard[shard]++;
+            assertEquals(1, threads.get(processInstance.getId()).size());
+            assertTrue(threads.get(processInstance.getId()).contains("process-shard-" + shard));
+        }
+        for (int shard = 0; shard < SHARDS; shard++) {
+            assertTrue(perShard[shard] > 0);
+        }
+        // Ended instances are not kept
+        assertEquals(0, runtime.getProcessInstanceCount());
+    }
+
+    @Test
+    public void commandsAndRegistration() throws Exception {
+        ProcessInstance processInstance = runtime.createProcessInstance(createProcessDefinition());
+        assertSame(processInstance, runtime.getProcessInstance(processInstance.getId()));
+        Future<String> result = runtime.execute(processInstance.getId(), new ProcessCommand<String>() {
+            public String execute(ProcessInstance processInstance) {
+                processInstance.getContextInstance().setVariable("shard", Thread.currentThread().getName());
+                return "done";
+            }
+        });
+        assertEquals("done", result.get());
+        assertEquals("process-shard-" + runtime.getShard(processInstance.getId()),
+                processInstance.getContextInstance().getVariable("shard"));
+
+        try {
+            runtime.execute(-1, new ProcessCommand<Object>() {
+                public Object execute(ProcessInstance processInstance) {
+                    return null;
+                }
+            }).get();
+            fail("There is no process instance with that id");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+
+        // An instance restored with an id taken by another one
+        ProcessInstance duplicated = ProcessInstanceFactory.newProcessInstance(createProcessDefinition());
+        duplicated.setId(processInstance.getId());
+        try {
+            runtime.register(duplicated);
+            fail("The id is already used");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        ProcessInstance restored = ProcessInstanceFactory.newProcessInstance(createProcessDefinition());
+        restored.setId(1000);
+        runtime.register(restored);
+        // The ids of the registered instances are not generated again
+        assertEquals(1001, runtime.createProcessInstance(createProcessDefinition()).getId());
+
+        // Each instance has its own services
+        ProcessInstance other = runtime.createProcessInstance(createProcessDefinition());
+        processInstance.addService("job-queue", new InMemoryJobQueue());
+        assertNull(other.getService("job-queue"));
+        assertSame(processInstance.getService("event-service"), other.getService("event-service"));
+        try {
+            new ProcessRuntime(SHARDS, new HashMap<String, Service>());
+            fail("There is no event-service");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void jobsRunInTheShardOfTheInstance() throws Exception {
+        final Set<String> executedBy = Collections.synchronizedSet(new HashSet<String>());
+        InMemoryJobQueue jobQueue = new InMemoryJobQueue();
+        Map<String, Service> services = new HashMap<String, Service>();
+        services.put("event-service", new ProcessEventBus());
+        services.put("job-queue", jobQueue);
+        ProcessRuntime asyncRuntime = new ProcessRuntime(SHARDS, services, new IdGenerator());
+        ContinuationDispatcher dispatcher = new ContinuationDispatcher(jobQueue, 2, asyncRuntime);
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        StartTask startTask = new StartTask();
+        process.addTask(0L, startTask);
+        ScriptTask scriptTask = new ScriptTask("java", new Action() {
+            public void execute() {
+                executedBy.add(Thread.currentThread().getName());
+            }
+        }, true);
+        process.addTask(1L, scriptTask);
+        EndTask endTask = new EndTask();
+        process.addTask(2L, endTask);
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, scriptTask));
+        scriptTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+
+        dispatcher.start();
+        try {
+            List<Future<ProcessInstance>> started = new ArrayList<Future<ProcessInstance>>();
+            for (int i = 0; i < 100; i++) {
+                started.add(asyncRuntime.startProcess(CompiledProcessDefinition.compile(process), null));
+            }
+            for (Future<ProcessInstance> future : started) {
+                future.get();
+            }
+            long deadline = System.currentTimeMillis() + 10000;
+            while (asyncRuntime.getProcessInstanceCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            // The instances that ended in a job are removed as well
+            assertEquals(0, asyncRuntime.getProcessInstanceCount());
+            assertEquals(100, dispatcher.getExecutedJobs());
+            for (Future<ProcessInstance> future : started) {
+                assertEquals(STATUS.ENDED, future.get().getStatus());
+            }
+            // The actions were executed by the shards, not by the workers
+            assertFalse(executedBy.isEmpty());
+            for (String thread : executedBy) {
+                assertTrue(thread.startsWith("process-shard-"));
+            }
+        } finally {
+            assertTrue(dispatcher.shutdown(10, TimeUnit.SECONDS));
+            assertTrue(asyncRuntime.shutdown(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private ProcessDefinition createProcessDefinition() {
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        StartTask startTask = new StartTask();
+        process.addTask(0L, startTask);
+        ScriptTask scriptTask = new ScriptTask("java", new Action() {
+            public void execute() {
+            }
+        });
+        process.addTask(1L, scriptTask);
+        EndTask endTask = new EndTask();
+        process.addTask(2L, endTask);
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, scriptTask));
+        scriptTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+        return process;
+    }
+}
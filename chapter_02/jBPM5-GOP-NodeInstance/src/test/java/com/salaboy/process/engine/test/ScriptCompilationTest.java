@@ -0,0 +1,149 @@
+/*
+ * To change this template, choose Tools | Templates and open the template in
+ * the editor.
+ */
+package com.salaboy.process.engine.test;
+
+import java.util.HashMap;
+import java.util.Map;
+import com.salaboy.process.engine.factories.ProcessInstanceFactory;
+import com.salaboy.process.engine.scripts.ScriptCompilationService;
+import com.salaboy.process.engine.services.ProcessEventBus;
+import com.salaboy.process.engine.services.Service;
+import com.salaboy.process.engine.structures.*;
+import com.salaboy.process.engine.structures.ProcessInstance.STATUS;
+import com.salaboy.process.engine.structures.impl.CompiledProcessDefinition;
+import com.salaboy.process.engine.structures.impl.ProcessDefinitionImpl;
+import com.salaboy.process.engine.structures.impl.SlotContextInstance;
+import com.salaboy.process.engine.structures.impl.VariableSchema;
+import com.salaboy.process.engine.tasks.impl.EndTask;
+import com.salaboy.process.engine.tasks.impl.ScriptTask;
+import com.salaboy.process.engine.tasks.impl.SequenceFlowImpl;
+import com.salaboy.process.engine.tasks.impl.StartTask;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the script tasks with MVEL and Java scripts compiled by the
+ * {@link ScriptCompilationService}.
+ * @author salaboy
+ */
+public class ScriptCompilationTest {
+
+    private ScriptCompilationService compilationService;
+    private Map<String, Service> services;
+
+    @Before
+    public void setUp() {
+        compilationService = new ScriptCompilationService();
+        services = new HashMap<String, Service>();
+        services.put("event-service", new ProcessEventBus());
+        services.put("script-service", compilationService);
+    }
+
+    @Test
+    public void mvelScripts() {
+        String script = "int doubled = count * 2; count = count + 1; message = 'count is ' + count + ', doubled ' + doubled";
+
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(createProcess("mvel", script, null), services);
+        Map<String, Object> variables = new HashMap<String, Object>();
+        variables.put("count", 1L);
+        variables.put("message", "");
+        processInstance.start(variables);
+        assertEquals(STATUS.ENDED, processInstance.getStatus());
+        assertEquals(2L, ((Number) processInstance.getContextInstance().getVariable("count")).longValue());
+        assertEquals("count is 2, doubled 2", processInstance.getContextInstance().getVariable("message"));
+        // Variables declared in the script are not process variables
+        assertNull(processInstance.getContextInstance().getVariable("doubled"));
+
+        // The declared variables are read from and written to their slots
+        VariableSchema schema = new VariableSchema()
+                .addVariable("count", VariableSchema.Type.LONG)
+                .addVariable("message", VariableSchema.Type.OBJECT);
+        processInstance = ProcessInstanceFactory.newProcessInstance(createProcess("mvel", script, schema), services);
+        processInstance.start(variables);
+        SlotContextInstance slots = (SlotContextInstance) processInstance.getContextInstance();
+        assertEquals(2L, slots.getLong(schema.getVariableIndex("count")));
+        assertEquals("count is 2, doubled 2", slots.getVariable(schema.getVariableIndex("message")));
+        assertNull(slots.getVariable("doubled"));
+        // compiled once for each schema
+        assertEquals(2, compilationService.getCacheSize());
+    }
+
+    @Test
+    public void javaScriptsAreCompiledOnce() {
+        VariableSchema schema = new VariableSchema()
+                .addVariable("count", VariableSchema.Type.LONG)
+                .addVariable("total", VariableSchema.Type.DOUBLE)
+                .addVariable("done", VariableSchema.Type.BOOLEAN)
+                .addVariable("name", VariableSchema.Type.OBJECT)
+                .addVariable("unused", VariableSchema.Type.LONG);
+        String script = "count += 10; total = count * 1.5; done = true;"
+                + " context.setVariable(\"greeting\", \"hello \" + name);";
+        ProcessDefinition process = CompiledProcessDefinition.compile(createProcess("java", script, schema));
+
+        for (int i = 0; i < 100; i++) {
+            ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(process, services);
+            Map<String, Object> variables = new HashMap<String, Object>();
+            variables.put("count", (long) i);
+            variables.put("name", "salaboy");
+            processInstance.start(variables);
+            assertEquals(STATUS.ENDED, processInstance.getStatus());
+            SlotContextInstance slots = (SlotContextInstance) processInstance.getContextInstance();
+            assertEquals(i + 10L, slots.getLong(schema.getVariableIndex("count")));
+            assertEquals((i + 10) * 1.5, slots.getDouble(schema.getVariableIndex("total")), 0);
+            assertTrue(slots.getBoolean(schema.getVariableIndex("done")));
+            assertEquals("hello salaboy", slots.getVariable("greeting"));
+            // not touched by the script, it still has no value
+            assertNull(slots.getVariable("unused"));
+        }
+        assertEquals(1, compilationService.getCacheSize());
+
+        // The same script in another definition reuses the compiled class
+        ScriptTask first = (ScriptTask) process.getTasks().get(1L);
+        ProcessDefinition other = createProcess("java", script, schema);
+        ProcessInstanceFactory.newProcessInstance(other, services).start();
+        assertSame(first.getCompiledScript(), ((ScriptTask) other.getTasks().get(1L)).getCompiledScript());
+        assertEquals(1, compilationService.getCacheSize());
+
+        // Without a schema the variables are used through the context
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(
+                createProcess("java", "context.setVariable(\"size\", ((String) context.getVariable(\"name\")).length());", null), services);
+        Map<String, Object> variables = new HashMap<String, Object>();
+        variables.put("name", "salaboy");
+        processInstance.start(variables);
+        assertEquals(7, processInstance.getContextInstance().getVariable("size"));
+    }
+
+    @Test
+    public void invalidScripts() {
+        try {
+            ProcessInstanceFactory.newProcessInstance(createProcess("groovy", "println 'hi'", null), services).start();
+            fail("The dialect is not supported");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            ProcessInstanceFactory.newProcessInstance(createProcess("java", "this is not java", null), services).start();
+            fail("The script can't be compiled");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("The java script can't be compiled"));
+        }
+        assertEquals(0, compilationService.getCacheSize());
+    }
+
+    private ProcessDefinition createProcess(String dialect, String script, VariableSchema schema) {
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        process.setVariableSchema(schema);
+        StartTask startTask = new StartTask();
+        process.addTask(0L, startTask);
+        ScriptTask scriptTask = ScriptTask.fromScript(dialect, script);
+        process.addTask(1L, scriptTask);
+        EndTask endTask = new EndTask();
+        process.addTask(2L, endTask);
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, scriptTask));
+        scriptTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+        return process;
+    }
+}
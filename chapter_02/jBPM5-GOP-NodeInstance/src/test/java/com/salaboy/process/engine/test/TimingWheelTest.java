@@ -0,0 +1,196 @@
+/*
+ * To change this template, choose Tools | Templates and open the template in
+ * the editor.
+ */
+package com.salaboy.process.engine.test;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import com.salaboy.process.engine.factories.ProcessInstanceFactory;
+import com.salaboy.process.engine.jobs.Job;
+import com.salaboy.process.engine.jobs.JobHandler;
+import com.salaboy.process.engine.runtime.IdGenerator;
+import com.salaboy.process.engine.runtime.ProcessRuntime;
+import com.salaboy.process.engine.services.ProcessEvent;
+import com.salaboy.process.engine.services.ProcessEventBus;
+import com.salaboy.process.engine.services.ProcessEventListener;
+import com.salaboy.process.engine.services.Service;
+import com.salaboy.process.engine.structures.*;
+import com.salaboy.process.engine.structures.ProcessInstance.STATUS;
+import com.salaboy.process.engine.structures.impl.CompiledProcessDefinition;
+import com.salaboy.process.engine.structures.impl.ProcessDefinitionImpl;
+import com.salaboy.process.engine.taskinstances.impl.TimerTaskNodeInstance;
+import com.salaboy.process.engine.tasks.impl.EndTask;
+import com.salaboy.process.engine.tasks.impl.SequenceFlowImpl;
+import com.salaboy.process.engine.tasks.impl.StartTask;
+import com.salaboy.process.engine.tasks.impl.TimerTask;
+import com.salaboy.process.engine.timers.Timer;
+import com.salaboy.process.engine.timers.TimingWheel;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link TimingWheel} and the timer tasks of the process
+ * instances running in a {@link ProcessRuntime}.
+ * @author salaboy
+ */
+public class TimingWheelTest {
+
+    private long now;
+
+    @Test
+    public void timersExpireAtTheirDeadline() {
+        final Map<Job, Long> expired = new IdentityHashMap<Job, Long>();
+        // small wheels, so the timers are cascaded through a few levels
+        TimingWheel wheel = new TimingWheel(1, 8, new JobHandler() {
+            public void handle(Job job) {
+                assertNull(expired.put(job, now));
+            }
+        }, 0);
+        long[] delays = {1, 7, 8, 9, 63, 64, 100, 511, 512, 513, 4999};
+        Map<Job, Long> deadlines = new IdentityHashMap<Job, Long>();
+        for (long delay : delays) {
+            Job job = new Job(0, 0);
+            wheel.schedule(delay, TimeUnit.MILLISECONDS, job);
+            deadlines.put(job, delay);
+        }
+        Job cancelled = new Job(0, 0);
+        Timer timer = wheel.schedule(300, TimeUnit.MILLISECONDS, cancelled);
+        assertTrue(timer.isPending());
+        assertEquals(delays.length + 1, wheel.size());
+        assertTrue(wheel.getLevels() > 3);
+
+        for (now = 1; now <= 299; now++) {
+            wheel.advanceClock(now);
+        }
+        assertTrue(wheel.cancel(timer));
+        assertFalse(wheel.cancel(timer));
+        assertFalse(timer.isPending());
+        for (now = 300; now <= 6000; now++) {
+            wheel.advanceClock(now);
+        }
+        assertEquals(deadlines.size(), expired.size());
+        for (Map.Entry<Job, Long> deadline : deadlines.entrySet()) {
+            assertEquals(deadline.getValue(), expired.get(deadline.getKey()));
+        }
+        assertEquals(0, wheel.size());
+
+        // A timer without delay expires at the next tick, not in the caller
+        Job immediate = new Job(0, 0);
+        assertTrue(wheel.schedule(0, TimeUnit.MILLISECONDS, immediate).isPending());
+        assertNull(expired.get(immediate));
+        wheel.advanceClock(now);
+        assertEquals(Long.valueOf(now), expired.get(immediate));
+    }
+
+    @Test
+    public void timersNeverExpireEarly() throws InterruptedException {
+        final long[] handledAt = new long[1];
+        TimingWheel wheel = new TimingWheel(10, 8, new JobHandler() {
+            public void handle(Job job) {
+                synchronized (handledAt) {
+                    handledAt[0] = System.nanoTime();
+                    handledAt.notifyAll();
+                }
+            }
+        });
+        // The clock of the wheel is a few ticks behind when the timer is scheduled
+        Thread.sleep(35);
+        long scheduledAt = System.nanoTime();
+        wheel.schedule(30, TimeUnit.MILLISECONDS, new Job(0, 0));
+        wheel.start();
+        try {
+            synchronized (handledAt) {
+                long deadline = System.currentTimeMillis() + 10000;
+                while (handledAt[0] == 0 && System.currentTimeMillis() < deadline) {
+                    handledAt.wait(100);
+                }
+            }
+        } finally {
+            wheel.stop();
+        }
+        assertTrue(handledAt[0] != 0);
+        assertTrue(handledAt[0] - scheduledAt >= TimeUnit.MILLISECONDS.toNanos(30));
+    }
+
+    @Test
+    public void cancelledTimerTaskLeavesTheInstance() {
+        Map<String, Service> services = new HashMap<String, Service>();
+        services.put("event-service", new ProcessEventBus());
+        TimingWheel wheel = new TimingWheel(1, TimingWheel.DEFAULT_WHEEL_SIZE, new JobHandler() {
+            public void handle(Job job) {
+                job.execute();
+            }
+        }, 0);
+        services.put("timer-service", wheel);
+        ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(createTimerProcess(), services);
+        processInstance.start();
+        TimerTaskNodeInstance timer = (TimerTaskNodeInstance) processInstance.getNodeInstances().get(0);
+        assertTrue(timer.getTimer().isPending());
+
+        assertTrue(timer.cancel());
+        assertFalse(timer.cancel());
+        assertTrue(processInstance.getNodeInstances().isEmpty());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void timerTaskResumesInTheShardOfTheInstance() throws Exception {
+        final Map<Long, String> threads = new HashMap<Long, String>();
+        ProcessEventBus bus = new ProcessEventBus();
+        bus.addListener(new ProcessEventListener() {
+            public void onEvent(ProcessEvent event) {
+                synchronized (threads) {
+                    threads.put(event.getProcessInstanceId(), Thread.currentThread().getName());
+                }
+            }
+        });
+        Map<String, Service> services = new HashMap<String, Service>();
+        services.put("event-service", bus);
+        ProcessRuntime runtime = new ProcessRuntime(4, services, new IdGenerator());
+        TimingWheel wheel = new TimingWheel(1, TimingWheel.DEFAULT_WHEEL_SIZE, runtime, 0);
+        services.put("timer-service", wheel);
+
+        try {
+            ProcessInstance processInstance = runtime.startProcess(createTimerProcess(), null).get();
+            assertEquals(STATUS.ACTIVE, processInstance.getStatus());
+            assertTrue(processInstance.getNodeInstances().get(0) instanceof TimerTaskNodeInstance);
+            assertEquals(1, wheel.size());
+
+            wheel.advanceClock(TimeUnit.MINUTES.toMillis(30) - 1);
+            assertEquals(1, wheel.size());
+            assertEquals(STATUS.ACTIVE, processInstance.getStatus());
+
+            wheel.advanceClock(TimeUnit.MINUTES.toMillis(30));
+            assertEquals(0, wheel.size());
+            long deadline = System.currentTimeMillis() + 10000;
+            while (runtime.getProcessInstanceCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(STATUS.ENDED, processInstance.getStatus());
+            synchronized (threads) {
+                assertEquals("process-shard-" + runtime.getShard(processInstance.getId()), threads.get(processInstance.getId()));
+            }
+        } finally {
+            assertTrue(runtime.shutdown(10, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Start, a timer of 30 minutes and end.
+     */
+    private ProcessDefinition createTimerProcess() {
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        StartTask startTask = new StartTask();
+        process.addTask(0L, startTask);
+        TimerTask timerTask = new TimerTask(30, TimeUnit.MINUTES);
+        process.addTask(1L, timerTask);
+        EndTask endTask = new EndTask();
+        process.addTask(2L, endTask);
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, timerTask));
+        timerTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+        return CompiledProcessDefinition.compile(process);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * To change this template, choose Tools | Templates and open the template in
+ * the editor.
+ */
+package com.salaboy.process.engine.test;
+
+import java.util.HashMap;
+import java.util.Map;
+import com.salaboy.process.engine.factories.ProcessInstanceFactory;
+import com.salaboy.process.engine.structures.*;
+import com.salaboy.process.engine.structures.ProcessInstance.STATUS;
+import com.salaboy.process.engine.structures.impl.CompiledProcessDefinition;
+import com.salaboy.process.engine.structures.impl.ContextInstanceImpl;
+import com.salaboy.process.engine.structures.impl.ProcessDefinitionImpl;
+import com.salaboy.process.engine.structures.impl.SlotContextInstance;
+import com.salaboy.process.engine.structures.impl.VariableSchema;
+import com.salaboy.process.engine.tasks.impl.EndTask;
+import com.salaboy.process.engine.tasks.impl.SequenceFlowImpl;
+import com.salaboy.process.engine.tasks.impl.StartTask;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the process variables declared in a {@link VariableSchema} and
+ * stored by {@link SlotContextInstance}.
+ * @author salaboy
+ */
+public class VariableSchemaTest {
+
+    @Test
+    public void declaredVariables() {
+        VariableSchema schema = new VariableSchema()
+                .addVariable("customer", VariableSchema.Type.OBJECT)
+                .addVariable("amount", VariableSchema.Type.LONG)
+                .addVariable("rate", VariableSchema.Type.DOUBLE)
+                .addVariable("approved", VariableSchema.Type.BOOLEAN);
+        assertEquals(1, schema.getObjectSlotCount());
+        assertEquals(3, schema.getPrimitiveSlotCount());
+
+        SlotContextInstance context = new SlotContextInstance(schema);
+        assertNull(context.getVariable("amount"));
+        context.setVariable("customer", "salaboy");
+        context.setVariable("amount", 1500);
+        context.setVariable("rate", 0.25d);
+        context.setVariable("approved", Boolean.TRUE);
+        context.setVariable("comment", "not declared");
+
+        assertEquals("salaboy", context.getVariable("customer"));
+        assertEquals(Long.valueOf(1500), context.getVariable("amount"));
+        assertEquals(Double.valueOf(0.25d), context.getVariable("rate"));
+        assertEquals(Boolean.TRUE, context.getVariable("approved"));
+        assertEquals("not declared", context.getVariable("comment"));
+        assertEquals(5, context.getVariables().size());
+
+        int amount = schema.getVariableIndex("amount");
+        context.setLong(amount, context.getLong(amount) + 1);
+        assertEquals(Long.valueOf(1501), context.getVariable("amount"));
+        assertEquals(0.25d, context.getDouble(schema.getVariableIndex("rate")), 0);
+
+        context.setVariable("amount", null);
+        assertNull(context.getVariable("amount"));
+        assertEquals(0, context.getLong(amount));
+        assertFalse(context.getVariables().containsKey("amount"));
+
+        try {
+            context.setVariable("approved", "yes");
+            fail("approved is declared as a boolean");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            context.getDouble(amount);
+            fail("amount is declared as a long");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            schema.addVariable("late", VariableSchema.Type.OBJECT);
+            fail("The schema is already used by a context");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void processInstanceWithSchema() {
+        ProcessDefinition process = new ProcessDefinitionImpl();
+        StartTask startTask = new StartTask();
+        process.addTask(0L, startTask);
+        EndTask endTask = new EndTask();
+        process.addTask(1L, endTask);
+        startTask.addOutgoingFlow(SequenceFlow.FLOW_DEFAULT_TYPE, new SequenceFlowImpl(SequenceFlow.FLOW_DEFAULT_TYPE, endTask));
+
+        assertTrue(ProcessInstanceFactory.newProcessInstance(process).getContextInstance() instanceof ContextInstanceImpl);
+
+        process.setVariableSchema(new VariableSchema().addVariable("count", VariableSchema.Type.LONG));
+        for (ProcessDefinition definition : new ProcessDefinition[]{process, CompiledProcessDefinition.compile(process)}) {
+            ProcessInstance processInstance = ProcessInstanceFactory.newProcessInstance(definition);
+            assertTrue(processInstance.getContextInstance() instanceof SlotContextInstance);
+            Map<String, Object> variables = new HashMap<String, Object>();
+            variables.put("count", 3L);
+            variables.put("other", "value");
+            processInstance.start(variables);
+            assertEquals(STATUS.ENDED, processInstance.getStatus());
+            assertEquals(Long.valueOf(3), processInstance.getContextInstance().getVariable("count"));
+            assertEquals("value", processInstance.getContextInstance().getVariable("other"));
+            // The map given to start is copied
+            variables.put("count", 4L);
+            assertEquals(Long.valueOf(3), processInstance.getContextInstance().getVariable("count"));
+        }
+    }
+}
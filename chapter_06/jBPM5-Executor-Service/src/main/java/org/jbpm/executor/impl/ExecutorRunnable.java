@@ -29,6 +29,10 @@ import org.jbpm.executor.api.ExecutionResults;
 import org.jbpm.executor.entities.ErrorInfo;
 import org.jbpm.executor.entities.RequestInfo;
 import org.jbpm.executor.entities.STATUS;
+import org.jbpm.executor.resilience.CallNotPermittedException;
+import org.jbpm.executor.resilience.ResiliencePolicies;
+import org.jbpm.executor.resilience.ResiliencePolicy;
+import org.jbpm.executor.resilience.ResilientCommand;
 
 /**
  *
@@ -50,11 +54,11 @@ public class ExecutorRunnable implements Runnable {
         logger.log(Level.INFO, " >>> Executor Thread {0} Waking Up!!!", this.toString());
         List<?> resultList = em.createQuery("Select r from RequestInfo as r where r.status ='QUEUED' or r.status = 'RETRYING' ORDER BY r.time DESC").getResultList();
         logger.log(Level.INFO, " >>> Pending Requests = {0}", resultList.size());
-        if (resultList.size() > 0) {
-            RequestInfo r = null;
+        RequestInfo r = findRunnableRequest(resultList);
+        if (r != null) {
+            STATUS previousStatus = r.getStatus();
             Throwable exception = null;
             try {
-                r = (RequestInfo) resultList.get(0);
                 r.setStatus(STATUS.RUNNING);
                 em.merge(r);
                 logger.log(Level.INFO, " >> Processing Request Id: {0}", r.getId());
@@ -63,6 +67,10 @@ public class ExecutorRunnable implements Runnable {
 
 
                 Command cmd = this.findCommand(r.getCommandName());
+                ResiliencePolicy policy = ResiliencePolicies.get(r.getCommandName());
+                if (policy != null) {
+                    cmd = new ResilientCommand(policy, cmd);
+                }
 
                 CommandContext ctx = null;
                 byte[] reqData = r.getRequestData();
@@ -99,6 +107,13 @@ public class ExecutorRunnable implements Runnable {
                     }
                 }
 
+            } catch (CallNotPermittedException e) {
+                // The service is known to be down or saturated: the request
+                // goes back to the queue without using any of its retries
+                logger.log(Level.WARNING, " >>> Request {0} deferred: {1}", new Object[]{r.getId(), e.getMessage()});
+                r.setStatus(previousStatus);
+                em.merge(r);
+                return;
             } catch (Exception e) {
                 e.printStackTrace();
                 exception = e;
@@ -138,6 +153,23 @@ public class ExecutorRunnable implements Runnable {
         }
     }
 
+    /**
+     * Picks the first pending request whose command is not being rejected by
+     * its resilience policy. Requests for a service with an open circuit
+     * breaker or a full bulkhead stay in the queue until the service is
+     * available again.
+     */
+    private RequestInfo findRunnableRequest(List<?> pendingRequests) {
+        for (Object pending : pendingRequests) {
+            RequestInfo request = (RequestInfo) pending;
+            if (ResiliencePolicies.isCallPermitted(request.getCommandName())) {
+                return request;
+            }
+            logger.log(Level.INFO, " >>> Request {0} deferred, {1} calls are not permitted right now", new Object[]{request.getId(), request.getCommandName()});
+        }
+        return null;
+    }
+
     private Command findCommand(String name) {
 
         synchronized (commandCache) {
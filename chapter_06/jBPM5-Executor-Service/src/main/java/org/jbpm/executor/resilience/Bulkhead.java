@@ -0,0 +1,80 @@
+package org.jbpm.executor.resilience;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how many threads can be blocked on the same external service at
+ * the same time, so a slow service cannot take every engine thread with it.
+ * @author salaboy
+ */
+public class Bulkhead {
+
+    private final String name;
+    private final int maxConcurrentCalls;
+    private final long maxWaitMillis;
+    private final Semaphore permits;
+
+    public Bulkhead(String name, int maxConcurrentCalls) {
+        this(name, maxConcurrentCalls, 0);
+    }
+
+    /**
+     * @param maxWaitMillis how long a caller waits for a free slot before
+     * failing, 0 to fail right away
+     */
+    public Bulkhead(String name, int maxConcurrentCalls, long maxWaitMillis) {
+        if (maxConcurrentCalls < 1) {
+            throw new IllegalArgumentException("maxConcurrentCalls must be greater than 0");
+        }
+        this.name = name;
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.maxWaitMillis = maxWaitMillis;
+        this.permits = new Semaphore(maxConcurrentCalls, true);
+    }
+
+    /**
+     * Takes a slot. Every successful acquisition must be followed by
+     * {@link #release()}.
+     * @throws CallNotPermittedException if no slot got free in time
+     */
+    public void acquirePermission() {
+        boolean acquired;
+        try {
+            acquired = maxWaitMillis > 0
+                    ? permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)
+                    : permits.tryAcquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            throw new CallNotPermittedException(name, "bulkhead is full (" + maxConcurrentCalls + " concurrent calls)");
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public boolean isFull() {
+        return permits.availablePermits() == 0;
+    }
+
+    public int getAvailableSlots() {
+        return permits.availablePermits();
+    }
+
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return "Bulkhead{" + "name=" + name + ", maxConcurrentCalls=" + maxConcurrentCalls + ", availableSlots=" + permits.availablePermits() + '}';
+    }
+}
@@ -0,0 +1,21 @@
+package org.jbpm.executor.resilience;
+
+/**
+ * Thrown when a {@link CircuitBreaker} or a {@link Bulkhead} rejects a call
+ * before it reaches the external service. The executor does not consider it
+ * a failed execution: the request is deferred and its retries are kept.
+ * @author salaboy
+ */
+public class CallNotPermittedException extends RuntimeException {
+
+    private final String name;
+
+    public CallNotPermittedException(String name, String reason) {
+        super("Call to '" + name + "' not permitted: " + reason);
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
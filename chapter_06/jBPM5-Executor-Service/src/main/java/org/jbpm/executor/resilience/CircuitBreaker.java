@@ -0,0 +1,187 @@
+package org.jbpm.executor.resilience;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stops calling an external service after too many consecutive failures.
+ * While the breaker is OPEN every call fails fast. Once the open period is
+ * over the breaker moves to HALF_OPEN and lets a limited number of probe
+ * calls through: if all of them succeed the breaker is CLOSED again, if any
+ * of them fails it is OPEN for another period.
+ * @author salaboy
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final Logger logger = Logger.getLogger(CircuitBreaker.class.getName());
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final int halfOpenProbes;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private int probesInFlight;
+    private int probesSucceeded;
+
+    private long successfulCalls;
+    private long failedCalls;
+    private long rejectedCalls;
+
+    public CircuitBreaker(String name) {
+        this(name, 5, 30000, 1);
+    }
+
+    /**
+     * @param failureThreshold consecutive failures needed to open the breaker
+     * @param openMillis how long calls fail fast before probing the service
+     * @param halfOpenProbes successful probes needed to close the breaker
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis, int halfOpenProbes) {
+        if (failureThreshold < 1 || halfOpenProbes < 1) {
+            throw new IllegalArgumentException("failureThreshold and halfOpenProbes must be greater than 0");
+        }
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    /**
+     * Reserves a call. Every successful acquisition must be followed by
+     * {@link #onSuccess()} or {@link #onFailure(Throwable)}.
+     * @throws CallNotPermittedException if the breaker is open or all the
+     * half-open probes are already in flight
+     */
+    public synchronized void acquirePermission() {
+        updateState();
+        if (state == State.OPEN) {
+            rejectedCalls++;
+            throw new CallNotPermittedException(name, "circuit breaker is OPEN for another " + getRemainingOpenMillis() + " ms");
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesInFlight + probesSucceeded >= halfOpenProbes) {
+                rejectedCalls++;
+                throw new CallNotPermittedException(name, "circuit breaker is HALF_OPEN and waiting for its probes");
+            }
+            probesInFlight++;
+        }
+    }
+
+    /**
+     * Tells if a call would be permitted right now, without reserving it.
+     * Used by the executor to decide whether a request is worth picking up.
+     */
+    public synchronized boolean isCallPermitted() {
+        updateState();
+        if (state == State.OPEN) {
+            return false;
+        }
+        if (state == State.HALF_OPEN) {
+            return probesInFlight + probesSucceeded < halfOpenProbes;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        successfulCalls++;
+        consecutiveFailures = 0;
+        if (state == State.HALF_OPEN) {
+            probesInFlight--;
+            probesSucceeded++;
+            if (probesSucceeded >= halfOpenProbes) {
+                logger.log(Level.INFO, " >>> Circuit breaker {0} CLOSED", name);
+                state = State.CLOSED;
+            }
+        }
+    }
+
+    public synchronized void onFailure(Throwable cause) {
+        failedCalls++;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            open();
+        }
+    }
+
+    public synchronized State getState() {
+        updateState();
+        return state;
+    }
+
+    /**
+     * @return milliseconds until the breaker lets probe calls through, 0 if
+     * the breaker is not open.
+     */
+    public synchronized long getRemainingOpenMillis() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openedAt + openMillis - System.currentTimeMillis());
+    }
+
+    /**
+     * Forces the breaker back to CLOSED, for example after fixing the
+     * external service by hand.
+     */
+    public synchronized void reset() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probesInFlight = 0;
+        probesSucceeded = 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public long getOpenMillis() {
+        return openMillis;
+    }
+
+    public int getHalfOpenProbes() {
+        return halfOpenProbes;
+    }
+
+    public synchronized long getSuccessfulCalls() {
+        return successfulCalls;
+    }
+
+    public synchronized long getFailedCalls() {
+        return failedCalls;
+    }
+
+    public synchronized long getRejectedCalls() {
+        return rejectedCalls;
+    }
+
+    private void open() {
+        logger.log(Level.WARNING, " >>> Circuit breaker {0} OPEN after {1} consecutive failures", new Object[]{name, consecutiveFailures});
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        probesInFlight = 0;
+        probesSucceeded = 0;
+    }
+
+    private void updateState() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            logger.log(Level.INFO, " >>> Circuit breaker {0} HALF_OPEN", name);
+            state = State.HALF_OPEN;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker{" + "name=" + name + ", state=" + state + ", consecutiveFailures=" + consecutiveFailures + ", successfulCalls=" + successfulCalls + ", failedCalls=" + failedCalls + ", rejectedCalls=" + rejectedCalls + '}';
+    }
+}
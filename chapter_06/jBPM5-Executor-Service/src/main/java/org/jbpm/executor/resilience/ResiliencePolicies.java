@@ -0,0 +1,48 @@
+package org.jbpm.executor.resilience;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Static registry of the {@link ResiliencePolicy}s in use. The executor looks
+ * up policies by command name, so registering a policy under the name of a
+ * command is enough to guard every request for that command. Work item
+ * handlers can share the same policy using the same name.
+ * @author salaboy
+ */
+public class ResiliencePolicies {
+
+    private static final Map<String, ResiliencePolicy> policies = new ConcurrentHashMap<String, ResiliencePolicy>();
+
+    public static void register(ResiliencePolicy policy) {
+        policies.put(policy.getName(), policy);
+    }
+
+    /**
+     * @return the policy registered with the given name or null if calls to
+     * it are not guarded.
+     */
+    public static ResiliencePolicy get(String name) {
+        if (name == null) {
+            return null;
+        }
+        return policies.get(name);
+    }
+
+    /**
+     * Tells if a call guarded by the given policy would be let through right
+     * now. Calls without a registered policy are always permitted.
+     */
+    public static boolean isCallPermitted(String name) {
+        ResiliencePolicy policy = get(name);
+        return policy == null || policy.isCallPermitted();
+    }
+
+    public static ResiliencePolicy remove(String name) {
+        return policies.remove(name);
+    }
+
+    public static void clear() {
+        policies.clear();
+    }
+}
@@ -0,0 +1,105 @@
+package org.jbpm.executor.resilience;
+
+import java.util.concurrent.Callable;
+
+/**
+ * A {@link CircuitBreaker} and a {@link Bulkhead} guarding the calls to the
+ * same external service. Any of them can be null.
+ * @author salaboy
+ */
+public class ResiliencePolicy {
+
+    private final String name;
+    private final CircuitBreaker circuitBreaker;
+    private final Bulkhead bulkhead;
+
+    public ResiliencePolicy(String name, CircuitBreaker circuitBreaker, Bulkhead bulkhead) {
+        this.name = name;
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+    }
+
+    /**
+     * Runs the call once both the bulkhead and the circuit breaker let it
+     * through, and records its outcome.
+     * @throws CallNotPermittedException if the call was rejected without
+     * reaching the service
+     */
+    public <T> T call(Callable<T> call) throws Exception {
+        acquirePermission();
+        try {
+            T result = call.call();
+            onSuccess();
+            return result;
+        } catch (Exception e) {
+            onFailure(e);
+            throw e;
+        } catch (Error e) {
+            onFailure(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Reserves a call. Every successful acquisition must be followed by
+     * {@link #onSuccess()} or {@link #onFailure(Throwable)}.
+     */
+    public void acquirePermission() {
+        if (bulkhead != null) {
+            bulkhead.acquirePermission();
+        }
+        if (circuitBreaker != null) {
+            try {
+                circuitBreaker.acquirePermission();
+            } catch (CallNotPermittedException e) {
+                if (bulkhead != null) {
+                    bulkhead.release();
+                }
+                throw e;
+            }
+        }
+    }
+
+    public void onSuccess() {
+        if (bulkhead != null) {
+            bulkhead.release();
+        }
+        if (circuitBreaker != null) {
+            circuitBreaker.onSuccess();
+        }
+    }
+
+    public void onFailure(Throwable cause) {
+        if (bulkhead != null) {
+            bulkhead.release();
+        }
+        if (circuitBreaker != null) {
+            circuitBreaker.onFailure(cause);
+        }
+    }
+
+    /**
+     * Tells if a call would be let through right now, without reserving it.
+     */
+    public boolean isCallPermitted() {
+        return (bulkhead == null || !bulkhead.isFull())
+                && (circuitBreaker == null || circuitBreaker.isCallPermitted());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public Bulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    @Override
+    public String toString() {
+        return "ResiliencePolicy{" + "name=" + name + ", circuitBreaker=" + circuitBreaker + ", bulkhead=" + bulkhead + '}';
+    }
+}
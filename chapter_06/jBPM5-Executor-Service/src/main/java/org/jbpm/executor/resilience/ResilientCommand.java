@@ -0,0 +1,39 @@
+package org.jbpm.executor.resilience;
+
+import java.util.concurrent.Callable;
+import org.jbpm.executor.api.Command;
+import org.jbpm.executor.api.CommandContext;
+import org.jbpm.executor.api.ExecutionResults;
+
+/**
+ * Executes a {@link Command} through a {@link ResiliencePolicy}. The executor
+ * wraps every command that has a policy registered in
+ * {@link ResiliencePolicies} under its name.
+ * @author salaboy
+ */
+public class ResilientCommand implements Command {
+
+    private final ResiliencePolicy policy;
+    private final Command delegate;
+
+    public ResilientCommand(ResiliencePolicy policy, Command delegate) {
+        this.policy = policy;
+        this.delegate = delegate;
+    }
+
+    public ExecutionResults execute(final CommandContext ctx) throws Exception {
+        return policy.call(new Callable<ExecutionResults>() {
+            public ExecutionResults call() throws Exception {
+                return delegate.execute(ctx);
+            }
+        });
+    }
+
+    public ResiliencePolicy getPolicy() {
+        return policy;
+    }
+
+    public Command getDelegate() {
+        return delegate;
+    }
+}
@@ -8,11 +8,15 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.inject.Inject;
 import org.jbpm.executor.api.CommandContext;
 import org.jbpm.executor.entities.ErrorInfo;
 import org.jbpm.executor.entities.RequestInfo;
+import org.jbpm.executor.resilience.CallNotPermittedException;
+import org.jbpm.executor.resilience.ResiliencePolicies;
+import org.jbpm.executor.resilience.ResiliencePolicy;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -191,4 +195,57 @@ public abstract class BasicExecutorBaseTest {
         assertEquals(1, cancelledRequests.size());
 
     }
+
+    /**
+     * Test showing that a request rejected by its resilience policy goes
+     * back to the queue without using any of its retries.
+     * @throws InterruptedException 
+     */
+    @Test
+    public void deferredRequestTest() throws InterruptedException {
+        //The policy lets the executor pick the request but rejects the first
+        //call, like a circuit breaker opening in between.
+        RejectingPolicy policy = new RejectingPolicy("PrintOutCmd", 1);
+        ResiliencePolicies.register(policy);
+        try {
+            CommandContext ctxCMD = new CommandContext();
+            ctxCMD.setData("businessKey", UUID.randomUUID().toString());
+            executor.scheduleRequest("PrintOutCmd", ctxCMD);
+
+            Thread.sleep(10000);
+
+            //The first attempt was deferred, the second one executed the
+            //command: no errors and all the retries are still available.
+            assertEquals(1, policy.rejected.get());
+            assertEquals(0, executor.getInErrorRequests().size());
+            assertEquals(0, executor.getAllErrors().size());
+            List<RequestInfo> executedRequests = executor.getExecutedRequests();
+            assertEquals(1, executedRequests.size());
+            assertEquals(3, executedRequests.get(0).getRetries());
+        } finally {
+            ResiliencePolicies.clear();
+        }
+    }
+
+    /**
+     * Permits every call when asked but rejects the first acquisitions.
+     */
+    private static class RejectingPolicy extends ResiliencePolicy {
+
+        private final AtomicInteger rejected = new AtomicInteger();
+        private final int rejections;
+
+        RejectingPolicy(String name, int rejections) {
+            super(name, null, null);
+            this.rejections = rejections;
+        }
+
+        @Override
+        public void acquirePermission() {
+            if (rejected.get() < rejections) {
+                rejected.incrementAndGet();
+                throw new CallNotPermittedException(getName(), "rejected by the test");
+            }
+        }
+    }
 }
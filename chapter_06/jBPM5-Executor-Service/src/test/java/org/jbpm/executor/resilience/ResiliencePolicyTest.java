@@ -0,0 +1,132 @@
+package org.jbpm.executor.resilience;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.jbpm.executor.api.Command;
+import org.jbpm.executor.api.CommandContext;
+import org.jbpm.executor.api.ExecutionResults;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CircuitBreaker}, {@link Bulkhead} and
+ * {@link ResilientCommand}. No executor is started: the commands are
+ * executed directly.
+ * @author salaboy
+ */
+public class ResiliencePolicyTest {
+
+    @After
+    public void tearDown() {
+        ResiliencePolicies.clear();
+    }
+
+    @Test
+    public void testBreakerOpensAfterConsecutiveFailures() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("InsuranceService", 3, 60000, 1);
+        ResilientCommand command = new ResilientCommand(new ResiliencePolicy("InsuranceService", breaker, null), new FailingCommand());
+        for (int i = 0; i < 3; i++) {
+            try {
+                command.execute(new CommandContext());
+                fail("The command should fail");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.isCallPermitted());
+        try {
+            command.execute(new CommandContext());
+            fail("The breaker should reject the call");
+        } catch (CallNotPermittedException e) {
+            // expected
+        }
+        assertEquals(3, breaker.getFailedCalls());
+        assertEquals(1, breaker.getRejectedCalls());
+    }
+
+    @Test
+    public void testHalfOpenProbesCloseTheBreaker() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("InsuranceService", 1, 50, 2);
+        breaker.acquirePermission();
+        breaker.onFailure(new IllegalStateException());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(100);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.acquirePermission();
+        breaker.acquirePermission();
+        // Only two probes are let through at a time
+        assertFalse(breaker.isCallPermitted());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.isCallPermitted());
+    }
+
+    @Test
+    public void testFailedProbeOpensTheBreakerAgain() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("InsuranceService", 1, 50, 1);
+        breaker.acquirePermission();
+        breaker.onFailure(new IllegalStateException());
+        Thread.sleep(100);
+        breaker.acquirePermission();
+        breaker.onFailure(new IllegalStateException());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.getRemainingOpenMillis() > 0);
+    }
+
+    @Test
+    public void testBulkheadLimitsConcurrentCalls() throws Exception {
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        Bulkhead bulkhead = new Bulkhead("SlowService", 2);
+        ResiliencePolicies.register(new ResiliencePolicy("SlowService", null, bulkhead));
+        final ResilientCommand command = new ResilientCommand(ResiliencePolicies.get("SlowService"), new Command() {
+            public ExecutionResults execute(CommandContext ctx) throws Exception {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return new ExecutionResults();
+            }
+        });
+        Thread[] callers = new Thread[2];
+        for (int i = 0; i < callers.length; i++) {
+            callers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        command.execute(new CommandContext());
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            callers[i].start();
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(bulkhead.isFull());
+        assertFalse(ResiliencePolicies.isCallPermitted("SlowService"));
+        try {
+            command.execute(new CommandContext());
+            fail("The bulkhead should reject the call");
+        } catch (CallNotPermittedException e) {
+            // expected
+        }
+        release.countDown();
+        for (Thread caller : callers) {
+            caller.join();
+        }
+        assertEquals(2, bulkhead.getAvailableSlots());
+        assertTrue(ResiliencePolicies.isCallPermitted("SlowService"));
+        assertTrue(ResiliencePolicies.isCallPermitted("NotGuardedCmd"));
+    }
+
+    private static class FailingCommand implements Command {
+
+        public ExecutionResults execute(CommandContext ctx) {
+            throw new IllegalStateException("Service unavailable");
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.salaboy.jbpm5.dev.guide.benchmark;
+
+import java.util.Arrays;
+
+/**
+ * Outcome of running the same number of process instances with one handler
+ * strategy.
+ * @author salaboy
+ */
+public class BenchmarkResult {
+
+    private final String strategy;
+    private final int threadPoolSize;
+    private final int instances;
+    private final long elapsedMillis;
+    private final long[] latencies;
+
+    /**
+     * @param latencies completion latency of every completed instance, in
+     * milliseconds
+     */
+    public BenchmarkResult(String strategy, int threadPoolSize, int instances, long elapsedMillis, long[] latencies) {
+        this.strategy = strategy;
+        this.threadPoolSize = threadPoolSize;
+        this.instances = instances;
+        this.elapsedMillis = elapsedMillis;
+        this.latencies = latencies.clone();
+        Arrays.sort(this.latencies);
+    }
+
+    public double getInstancesPerSecond() {
+        return elapsedMillis == 0 ? 0 : latencies.length * 1000.0 / elapsedMillis;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     */
+    public long getLatencyPercentile(double percentile) {
+        if (latencies.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * latencies.length) - 1;
+        return latencies[Math.max(0, Math.min(latencies.length - 1, index))];
+    }
+
+    public int getCompleted() {
+        return latencies.length;
+    }
+
+    public String getStrategy() {
+        return strategy;
+    }
+
+    public int getThreadPoolSize() {
+        return threadPoolSize;
+    }
+
+    public int getInstances() {
+        return instances;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public static String header() {
+        return String.format("%-16s %8s %10s %10s %12s %10s %10s",
+                "strategy", "threads", "instances", "completed", "inst/sec", "p50 (ms)", "p99 (ms)");
+    }
+
+    public String toRow() {
+        return String.format("%-16s %8s %10d %10d %12.2f %10d %10d",
+                strategy, threadPoolSize == 0 ? "-" : String.valueOf(threadPoolSize), instances, getCompleted(),
+                getInstancesPerSecond(), getLatencyPercentile(50), getLatencyPercentile(99));
+    }
+
+    @Override
+    public String toString() {
+        return "BenchmarkResult{" + "strategy=" + strategy + ", threadPoolSize=" + threadPoolSize + ", instances=" + instances + ", completed=" + getCompleted() + ", elapsedMillis=" + elapsedMillis + '}';
+    }
+}
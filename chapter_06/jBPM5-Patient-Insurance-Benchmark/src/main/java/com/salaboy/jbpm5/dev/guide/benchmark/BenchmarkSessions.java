@@ -0,0 +1,28 @@
+package com.salaboy.jbpm5.dev.guide.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.drools.runtime.StatefulKnowledgeSession;
+
+/**
+ * Sessions used by the benchmark, so the executor callbacks can find the
+ * session of the work item they have to complete. Sessions are stored using
+ * the "sessionId=&lt;id&gt;" section of the business key.
+ * @author salaboy
+ */
+public class BenchmarkSessions {
+
+    private static final Map<String, StatefulKnowledgeSession> sessions = new ConcurrentHashMap<String, StatefulKnowledgeSession>();
+
+    public static void register(StatefulKnowledgeSession session) {
+        sessions.put("sessionId=" + session.getId(), session);
+    }
+
+    public static StatefulKnowledgeSession get(String key) {
+        return sessions.get(key);
+    }
+
+    public static void unregister(StatefulKnowledgeSession session) {
+        sessions.remove("sessionId=" + session.getId());
+    }
+}
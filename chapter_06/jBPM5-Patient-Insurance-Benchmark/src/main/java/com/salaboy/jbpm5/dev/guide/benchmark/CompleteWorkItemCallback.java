@@ -0,0 +1,35 @@
+package com.salaboy.jbpm5.dev.guide.benchmark;
+
+import com.salaboy.jbpm5.dev.guide.completion.BusinessKey;
+import java.util.HashMap;
+import java.util.Map;
+import javax.inject.Named;
+import org.drools.runtime.StatefulKnowledgeSession;
+import org.jbpm.executor.api.CommandCallback;
+import org.jbpm.executor.api.CommandContext;
+import org.jbpm.executor.api.ExecutionResults;
+
+/**
+ * Completes the work item that scheduled a command, like the callback with the
+ * same name used by the tests of the Patient Insurance project. The session
+ * is locked while the work item is completed because the benchmark keeps
+ * starting process instances from its own thread.
+ * @author salaboy
+ */
+@Named("completeWorkItemCallback")
+public class CompleteWorkItemCallback implements CommandCallback {
+
+    public void onCommandDone(CommandContext ctx, ExecutionResults results) {
+        Map<String, Object> output = new HashMap<String, Object>();
+        if (results != null) {
+            output.putAll(results.getData());
+        }
+        String sWorkItemId = (String) ctx.getData("_workItemId");
+        BusinessKey key = BusinessKey.parse((String) ctx.getData("businessKey"));
+
+        StatefulKnowledgeSession session = BenchmarkSessions.get(key.getSessionKey());
+        synchronized (session) {
+            session.getWorkItemManager().completeWorkItem(Long.valueOf(sWorkItemId), output);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.salaboy.jbpm5.dev.guide.benchmark;
+
+import java.util.logging.Logger;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Produces;
+import javax.enterprise.inject.spi.InjectionPoint;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import org.jboss.solder.core.ExtensionManaged;
+
+/**
+ * Produces the resources needed by the Executor Service when it is started
+ * by the benchmark.
+ * @author salaboy
+ */
+public class ExecutorDatabaseProducer {
+
+    @PersistenceUnit(unitName = "org.jbpm.executor")
+    @ExtensionManaged
+    @ApplicationScoped
+    @Produces
+    private EntityManagerFactory emf;
+
+    @Produces
+    public Logger createLogger(InjectionPoint injectionPoint) {
+        return Logger.getLogger(injectionPoint.getMember()
+                .getDeclaringClass().getName());
+    }
+}
@@ -0,0 +1,348 @@
+package com.salaboy.jbpm5.dev.guide.benchmark;
+
+import com.salaboy.jbpm5.dev.guide.model.Patient;
+import com.salaboy.jbpm5.dev.guide.simulator.LatencyDistribution;
+import com.salaboy.jbpm5.dev.guide.simulator.OperationProfile;
+import com.salaboy.jbpm5.dev.guide.simulator.ServiceSimulator;
+import com.salaboy.jbpm5.dev.guide.simulator.SimulatorServer;
+import com.salaboy.jbpm5.dev.guide.workitems.AsyncGenericWorkItemHandler;
+import com.salaboy.jbpm5.dev.guide.workitems.CompanyGatewayWorkItemHandler;
+import com.salaboy.jbpm5.dev.guide.workitems.InsuranceServiceWorkItemHandler;
+import com.salaboy.jbpm5.dev.guide.workitems.InvoiceServiceWorkItemHandler;
+import com.salaboy.jbpm5.dev.guide.workitems.PatientDataServiceWorkItemHandler;
+import com.salaboy.jbpm5.dev.guide.workitems.RatesServiceWorkItemHandler;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.drools.KnowledgeBase;
+import org.drools.KnowledgeBaseFactory;
+import org.drools.builder.KnowledgeBuilder;
+import org.drools.builder.KnowledgeBuilderError;
+import org.drools.builder.KnowledgeBuilderFactory;
+import org.drools.builder.ResourceType;
+import org.drools.event.process.DefaultProcessEventListener;
+import org.drools.event.process.ProcessCompletedEvent;
+import org.drools.event.rule.DefaultAgendaEventListener;
+import org.drools.event.rule.RuleFlowGroupActivatedEvent;
+import org.drools.io.impl.ClassPathResource;
+import org.drools.process.instance.impl.WorkItemImpl;
+import org.drools.runtime.StatefulKnowledgeSession;
+import org.drools.runtime.process.ProcessInstance;
+import org.drools.runtime.process.WorkItem;
+import org.drools.runtime.process.WorkItemHandler;
+import org.drools.runtime.process.WorkItemManager;
+import org.jbpm.executor.ExecutorModule;
+import org.jbpm.executor.ExecutorServiceEntryPoint;
+
+/**
+ * Runs the same number of "Hospital Insurance Check-In" process instances
+ * with each handler strategy introduced in Chapter 6 and prints, for every
+ * run, the instances completed per second and the p50/p99 completion latency:
+ * <ul>
+ *  <li>SYNC: InsuranceProcessV1 with one synchronous handler per task.</li>
+ *  <li>ASYNC_WAIT: InsuranceProcessV2 with {@link AsyncGenericWorkItemHandler};
+ *  the work items are completed by the executor callbacks.</li>
+ *  <li>ASYNC_NO_WAIT: InsuranceProcessV2 with the work items completed as
+ *  soon as the commands are scheduled, except for the insurance check whose
+ *  result is needed by the gateway: it waits for its callback. The run lasts
+ *  until every instance completed and the executor drained all the
+ *  requests.</li>
+ * </ul>
+ * The asynchronous strategies are repeated for each executor thread pool
+ * size. The web services are replaced by a {@link SimulatorServer}, so runs
+ * with the same seed see the same latencies.
+ * <p>
+ * Parameters are passed as key=value arguments, for example:
+ * <pre>
+ *   mvn exec:java -Dexec.args="instances=50 threads=1,4 latencyMillis=20"
+ * </pre>
+ * @author salaboy
+ */
+public class InsuranceProcessBenchmark {
+
+    public static final String SYNC = "SYNC";
+    public static final String ASYNC_WAIT = "ASYNC_WAIT";
+    public static final String ASYNC_NO_WAIT = "ASYNC_NO_WAIT";
+
+    private static final String[] TASK_NAMES = {"Gather Patient Data", "Insurance Service",
+        "External Insurance Company Service", "Rates Service", "Invoice Service"};
+
+    private int instances = 20;
+    private String[] strategies = {SYNC, ASYNC_WAIT, ASYNC_NO_WAIT};
+    private int[] threadPoolSizes = {1, 2, 4};
+    private long latencyMillis = 10;
+    private int interval = 1;
+    private long seed = 42;
+    private long timeoutMillis = 300000;
+
+    private SimulatorServer server;
+    private List<String> patientIds = new ArrayList<String>();
+
+    /**
+     * Always exits the JVM: the published endpoints and the executor leave
+     * non daemon threads behind.
+     */
+    public static void main(String[] args) {
+        int status = 0;
+        try {
+            InsuranceProcessBenchmark benchmark = new InsuranceProcessBenchmark();
+            benchmark.configure(args);
+            List<BenchmarkResult> results = benchmark.run();
+
+            System.out.println();
+            System.out.println(BenchmarkResult.header());
+            for (BenchmarkResult result : results) {
+                System.out.println(result.toRow());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            status = 1;
+        }
+        System.exit(status);
+    }
+
+    public void configure(String[] args) {
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Expected key=value but got '" + arg + "'");
+            }
+            String key = pair[0].trim();
+            String value = pair[1].trim();
+            if ("instances".equals(key)) {
+                instances = Integer.parseInt(value);
+            } else if ("strategies".equals(key)) {
+                strategies = value.split(",");
+            } else if ("threads".equals(key)) {
+                String[] sizes = value.split(",");
+                threadPoolSizes = new int[sizes.length];
+                for (int i = 0; i < sizes.length; i++) {
+                    threadPoolSizes[i] = Integer.parseInt(sizes[i].trim());
+                }
+            } else if ("latencyMillis".equals(key)) {
+                latencyMillis = Long.parseLong(value);
+            } else if ("interval".equals(key)) {
+                interval = Integer.parseInt(value);
+            } else if ("seed".equals(key)) {
+                seed = Long.parseLong(value);
+            } else if ("timeoutMillis".equals(key)) {
+                timeoutMillis = Long.parseLong(value);
+            } else {
+                throw new IllegalArgumentException("Unknown parameter '" + key + "'");
+            }
+        }
+    }
+
+    public List<BenchmarkResult> run() throws InterruptedException {
+        ServiceSimulator simulator = new ServiceSimulator(seed);
+        simulator.setDefaultProfile(new OperationProfile(LatencyDistribution.logNormal(latencyMillis, 0.5)));
+        server = new SimulatorServer(simulator);
+        server.start();
+        List<BenchmarkResult> results = new ArrayList<BenchmarkResult>();
+        try {
+            loadPatients();
+            for (String strategy : strategies) {
+                strategy = strategy.trim();
+                if (SYNC.equals(strategy)) {
+                    simulator.reset();
+                    results.add(runSync());
+                } else if (ASYNC_WAIT.equals(strategy) || ASYNC_NO_WAIT.equals(strategy)) {
+                    for (int threadPoolSize : threadPoolSizes) {
+                        simulator.reset();
+                        results.add(runAsync(strategy, threadPoolSize));
+                    }
+                } else {
+                    throw new IllegalArgumentException("Unknown strategy '" + strategy + "'");
+                }
+            }
+        } finally {
+            server.stop();
+        }
+        return results;
+    }
+
+    /**
+     * Even patients are insured, odd patients aren't, so both paths of the
+     * process are exercised.
+     */
+    private void loadPatients() {
+        for (int i = 0; i < instances; i++) {
+            String id = "patient-" + i;
+            Patient patient = new Patient(id, "Name" + i, "LastName" + i, "patient" + i + "@hospital.com", "555-" + i, 20 + i % 60);
+            server.getInsuranceService().getPatients().put(id, patient);
+            server.getInsuranceService().getInsuredPatients().put(id, i % 2 == 0);
+            patientIds.add(id);
+        }
+    }
+
+    /**
+     * Each startProcess() call runs the whole process instance, so the
+     * latency of an instance is the time spent in the call.
+     */
+    private BenchmarkResult runSync() {
+        StatefulKnowledgeSession session = createSession("InsuranceProcessV1.bpmn");
+        try {
+            session.getWorkItemManager().registerWorkItemHandler("Gather Patient Data", new PatientDataServiceWorkItemHandler());
+            session.getWorkItemManager().registerWorkItemHandler("Insurance Service", new InsuranceServiceWorkItemHandler());
+            session.getWorkItemManager().registerWorkItemHandler("External Insurance Company Service", new CompanyGatewayWorkItemHandler());
+            session.getWorkItemManager().registerWorkItemHandler("Rates Service", new RatesServiceWorkItemHandler());
+            session.getWorkItemManager().registerWorkItemHandler("Invoice Service", new InvoiceServiceWorkItemHandler());
+
+            long[] latencies = new long[instances];
+            int completed = 0;
+            long start = System.currentTimeMillis();
+            for (String patientId : patientIds) {
+                long started = System.currentTimeMillis();
+                ProcessInstance pI = session.startProcess("NewPatientInsuranceCheck", createInput(patientId));
+                if (pI.getState() == ProcessInstance.STATE_COMPLETED) {
+                    latencies[completed++] = System.currentTimeMillis() - started;
+                }
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            return new BenchmarkResult(SYNC, 0, instances, elapsed, copyOf(latencies, completed));
+        } finally {
+            session.dispose();
+        }
+    }
+
+    private BenchmarkResult runAsync(String strategy, int threadPoolSize) throws InterruptedException {
+        boolean waitTillComplete = ASYNC_WAIT.equals(strategy);
+        ExecutorServiceEntryPoint executor = ExecutorModule.getInstance().getExecutorServiceEntryPoint();
+        executor.setThreadPoolSize(threadPoolSize);
+        executor.setInterval(interval);
+        executor.init();
+
+        final StatefulKnowledgeSession session = createSession("InsuranceProcessV2.bpmn");
+        BenchmarkSessions.register(session);
+        final Map<Long, Long> completionTimes = new ConcurrentHashMap<Long, Long>();
+        session.addEventListener(new DefaultProcessEventListener() {
+
+            @Override
+            public void afterProcessCompleted(ProcessCompletedEvent event) {
+                completionTimes.put(event.getProcessInstance().getId(), System.currentTimeMillis());
+            }
+        });
+        try {
+            WorkItemHandler handler = new AsyncGenericWorkItemHandler(executor, session.getId());
+            WorkItemHandler noWaitHandler = new NoWaitWorkItemHandler(handler);
+            for (String taskName : TASK_NAMES) {
+                //The gateway reads the insurance check result, that one is
+                //always completed by its callback
+                boolean noWait = !waitTillComplete && !"Insurance Service".equals(taskName);
+                session.getWorkItemManager().registerWorkItemHandler(taskName, noWait ? noWaitHandler : handler);
+            }
+
+            Map<Long, Long> startTimes = new HashMap<Long, Long>();
+            long start = System.currentTimeMillis();
+            for (String patientId : patientIds) {
+                Map<String, Object> input = createInput(patientId);
+                long started = System.currentTimeMillis();
+                synchronized (session) {
+                    startTimes.put(session.startProcess("NewPatientInsuranceCheck", input).getId(), started);
+                }
+            }
+
+            long deadline = start + timeoutMillis;
+            while (completionTimes.size() < instances && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            if (!waitTillComplete) {
+                while (!executor.getQueuedRequests().isEmpty() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(50);
+                }
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            if (!waitTillComplete) {
+                System.out.println(" >>> " + strategy + " (" + threadPoolSize + " threads): "
+                        + executor.getExecutedRequests().size() + " requests executed, "
+                        + executor.getInErrorRequests().size() + " in error, "
+                        + executor.getQueuedRequests().size() + " still queued");
+            }
+
+            long[] latencies = new long[completionTimes.size()];
+            int completed = 0;
+            for (Map.Entry<Long, Long> entry : completionTimes.entrySet()) {
+                Long started = startTimes.get(entry.getKey());
+                if (started != null) {
+                    latencies[completed++] = entry.getValue() - started;
+                }
+            }
+            return new BenchmarkResult(strategy, threadPoolSize, instances, elapsed, copyOf(latencies, completed));
+        } finally {
+            executor.clearAllRequests();
+            executor.clearAllErrors();
+            executor.destroy();
+            BenchmarkSessions.unregister(session);
+            session.dispose();
+        }
+    }
+
+    private Map<String, Object> createInput(String patientId) {
+        Map<String, Object> input = new HashMap<String, Object>();
+        input.put("patientName", patientId);
+        return input;
+    }
+
+    private StatefulKnowledgeSession createSession(String processResource) {
+        KnowledgeBuilder kbuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+        kbuilder.add(new ClassPathResource(processResource), ResourceType.BPMN2);
+        if (kbuilder.hasErrors()) {
+            for (KnowledgeBuilderError error : kbuilder.getErrors()) {
+                System.out.println(">>> Error:" + error.getMessage());
+            }
+            throw new IllegalStateException(">>> Knowledge couldn't be parsed! ");
+        }
+        KnowledgeBase kbase = KnowledgeBaseFactory.newKnowledgeBase();
+        kbase.addKnowledgePackages(kbuilder.getKnowledgePackages());
+
+        final StatefulKnowledgeSession session = kbase.newStatefulKnowledgeSession();
+        session.addEventListener(new DefaultAgendaEventListener() {
+
+            @Override
+            public void afterRuleFlowGroupActivated(RuleFlowGroupActivatedEvent event) {
+                session.fireAllRules();
+            }
+        });
+        return session;
+    }
+
+    private static long[] copyOf(long[] values, int length) {
+        long[] copy = new long[length];
+        System.arraycopy(values, 0, copy, 0, length);
+        return copy;
+    }
+
+    /**
+     * Forces the "fire and forget" mode of {@link AsyncGenericWorkItemHandler}:
+     * the work item is completed right after the command is scheduled and no
+     * callback is registered to complete it again. The delegate gets a copy of
+     * the work item, the parameters of the engine's work item are untouched.
+     */
+    private static class NoWaitWorkItemHandler implements WorkItemHandler {
+
+        private final WorkItemHandler delegate;
+
+        NoWaitWorkItemHandler(WorkItemHandler delegate) {
+            this.delegate = delegate;
+        }
+
+        public void executeWorkItem(WorkItem workItem, WorkItemManager manager) {
+            WorkItemImpl noWait = new WorkItemImpl();
+            noWait.setId(workItem.getId());
+            noWait.setName(workItem.getName());
+            noWait.setState(workItem.getState());
+            noWait.setProcessInstanceId(workItem.getProcessInstanceId());
+            Map<String, Object> parameters = new HashMap<String, Object>(workItem.getParameters());
+            parameters.put("waitTillComplete", "false");
+            parameters.remove("callbacks");
+            noWait.setParameters(parameters);
+            delegate.executeWorkItem(noWait, manager);
+        }
+
+        public void abortWorkItem(WorkItem workItem, WorkItemManager manager) {
+            delegate.abortWorkItem(workItem, manager);
+        }
+    }
+}
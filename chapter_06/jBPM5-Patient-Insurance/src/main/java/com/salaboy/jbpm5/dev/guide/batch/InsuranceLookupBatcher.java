@@ -0,0 +1,218 @@
+package com.salaboy.jbpm5.dev.guide.batch;
+
+import com.salaboy.jbpm5.dev.guide.model.Patient;
+import com.salaboy.jbpm5.dev.guide.webservice.InsuranceService;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces concurrent {@link InsuranceService#isPatientInsured(String)} and
+ * {@link InsuranceService#getPatientData(String)} lookups into bulk calls.
+ * Lookups are collected until the batching window expires or until lookups
+ * for <code>maxBatchSize</code> distinct patients are waiting, whatever
+ * happens first. Then
+ * a single {@link InsuranceService#arePatientsInsured(List)} or
+ * {@link InsuranceService#getPatientsData(List)} call is issued and its
+ * results are fanned out to the registered {@link LookupCallback}s.
+ * Lookups for the same patient inside a batch are sent only once.
+ * @author salaboy
+ */
+public class InsuranceLookupBatcher {
+
+    private static final Logger logger = Logger.getLogger(InsuranceLookupBatcher.class.getName());
+
+    private final InsuranceService client;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong bulkCalls = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+
+    private final LookupQueue<Boolean> insuredQueue = new LookupQueue<Boolean>("arePatientsInsured") {
+        @Override
+        protected List<Boolean> bulkCall(List<String> patientIds) {
+            return client.arePatientsInsured(patientIds);
+        }
+    };
+
+    private final LookupQueue<Patient> patientDataQueue = new LookupQueue<Patient>("getPatientsData") {
+        @Override
+        protected List<Patient> bulkCall(List<String> patientIds) {
+            return client.getPatientsData(patientIds);
+        }
+    };
+
+    public InsuranceLookupBatcher(InsuranceService client, long windowMillis, int maxBatchSize) {
+        this(client, windowMillis, maxBatchSize, 2);
+    }
+
+    public InsuranceLookupBatcher(InsuranceService client, long windowMillis, int maxBatchSize, int threadPoolSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be greater than 0");
+        }
+        this.client = client;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = Executors.newScheduledThreadPool(threadPoolSize);
+    }
+
+    public void isPatientInsured(String patientId, LookupCallback<Boolean> callback) {
+        insuredQueue.add(patientId, callback);
+    }
+
+    public void getPatientData(String patientId, LookupCallback<Patient> callback) {
+        patientDataQueue.add(patientId, callback);
+    }
+
+    /**
+     * Sends every pending lookup right away, without waiting for the
+     * batching window to expire.
+     */
+    public void flush() {
+        insuredQueue.flush();
+        patientDataQueue.flush();
+    }
+
+    /**
+     * Flushes the pending lookups and stops the batcher threads once the
+     * in-flight bulk calls are done.
+     */
+    public void shutdown() {
+        flush();
+        scheduler.shutdown();
+    }
+
+    public long getBulkCalls() {
+        return bulkCalls.get();
+    }
+
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Pending lookups of one kind. A batch is just the list of callbacks
+     * waiting for each patient id, in arrival order.
+     */
+    private abstract class LookupQueue<T> {
+
+        private final String operation;
+        private Map<String, List<LookupCallback<T>>> batch = new LinkedHashMap<String, List<LookupCallback<T>>>();
+        private ScheduledFuture<?> windowTimer;
+
+        LookupQueue(String operation) {
+            this.operation = operation;
+        }
+
+        protected abstract List<T> bulkCall(List<String> patientIds);
+
+        void add(String patientId, LookupCallback<T> callback) {
+            lookups.incrementAndGet();
+            Map<String, List<LookupCallback<T>>> full = null;
+            synchronized (this) {
+                List<LookupCallback<T>> waiting = batch.get(patientId);
+                if (waiting == null) {
+                    waiting = new ArrayList<LookupCallback<T>>(1);
+                    batch.put(patientId, waiting);
+                }
+                waiting.add(callback);
+                if (batch.size() >= maxBatchSize) {
+                    full = takeBatch();
+                } else if (windowTimer == null) {
+                    windowTimer = scheduler.schedule(new Runnable() {
+                        public void run() {
+                            flush();
+                        }
+                    }, windowMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+            if (full != null) {
+                dispatch(full);
+            }
+        }
+
+        void flush() {
+            Map<String, List<LookupCallback<T>>> pending;
+            synchronized (this) {
+                if (batch.isEmpty()) {
+                    return;
+                }
+                pending = takeBatch();
+            }
+            dispatch(pending);
+        }
+
+        private Map<String, List<LookupCallback<T>>> takeBatch() {
+            Map<String, List<LookupCallback<T>>> taken = batch;
+            batch = new LinkedHashMap<String, List<LookupCallback<T>>>();
+            if (windowTimer != null) {
+                windowTimer.cancel(false);
+                windowTimer = null;
+            }
+            return taken;
+        }
+
+        private void dispatch(final Map<String, List<LookupCallback<T>>> pending) {
+            try {
+                scheduler.execute(new Runnable() {
+                    public void run() {
+                        execute(pending);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The batcher is shutting down, do not leave anybody waiting
+                execute(pending);
+            }
+        }
+
+        private void execute(Map<String, List<LookupCallback<T>>> pending) {
+            List<String> patientIds = new ArrayList<String>(pending.keySet());
+            List<T> results;
+            try {
+                bulkCalls.incrementAndGet();
+                results = bulkCall(patientIds);
+                if (results == null || results.size() != patientIds.size()) {
+                    throw new IllegalStateException(operation + " returned "
+                            + (results == null ? "null" : results.size() + " results")
+                            + " for " + patientIds.size() + " patients");
+                }
+            } catch (Throwable t) {
+                logger.log(Level.SEVERE, " >>> Bulk call " + operation + " failed for " + patientIds.size() + " patients", t);
+                for (List<LookupCallback<T>> callbacks : pending.values()) {
+                    for (LookupCallback<T> callback : callbacks) {
+                        callback.onFailure(t);
+                    }
+                }
+                return;
+            }
+            for (int i = 0; i < patientIds.size(); i++) {
+                for (LookupCallback<T> callback : pending.get(patientIds.get(i))) {
+                    try {
+                        callback.onResult(results.get(i));
+                    } catch (Throwable t) {
+                        logger.log(Level.SEVERE, " >>> Callback failed for patient " + patientIds.get(i), t);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.salaboy.jbpm5.dev.guide.batch;
+
+/**
+ * Receives the result of a single lookup scheduled in an
+ * {@link InsuranceLookupBatcher}. Callbacks are invoked from the batcher's
+ * own thread once the bulk call containing the lookup comes back.
+ * @author salaboy
+ */
+public interface LookupCallback<T> {
+
+    void onResult(T result);
+
+    void onFailure(Throwable cause);
+}
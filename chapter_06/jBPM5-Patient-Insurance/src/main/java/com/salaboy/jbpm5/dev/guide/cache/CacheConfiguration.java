@@ -0,0 +1,72 @@
+package com.salaboy.jbpm5.dev.guide.cache;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Configuration of an {@link InsuranceResponseCache}: how long a response is
+ * considered valid, how many responses are kept per operation and which
+ * operations are cached at all.
+ * @author salaboy
+ */
+public class CacheConfiguration {
+
+    public static final String GET_PATIENT_DATA = "getPatientData";
+    public static final String IS_PATIENT_INSURED = "isPatientInsured";
+
+    private long ttlMillis = 60 * 60 * 1000;
+    private int maxSize = 10000;
+    private volatile Set<String> enabledOperations = new CopyOnWriteArraySet<String>();
+
+    public CacheConfiguration() {
+        enabledOperations.add(GET_PATIENT_DATA);
+        enabledOperations.add(IS_PATIENT_INSURED);
+    }
+
+    public CacheConfiguration(long ttlMillis, int maxSize) {
+        this();
+        this.ttlMillis = ttlMillis;
+        this.maxSize = maxSize;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public boolean isEnabled(String operation) {
+        return enabledOperations.contains(operation);
+    }
+
+    public void setEnabled(String operation, boolean enabled) {
+        if (enabled) {
+            enabledOperations.add(operation);
+        } else {
+            enabledOperations.remove(operation);
+        }
+    }
+
+    public Set<String> getEnabledOperations() {
+        return enabledOperations;
+    }
+
+    public void setEnabledOperations(Set<String> enabledOperations) {
+        this.enabledOperations = new CopyOnWriteArraySet<String>(enabledOperations);
+    }
+
+    @Override
+    public String toString() {
+        return "CacheConfiguration{" + "ttlMillis=" + ttlMillis + ", maxSize=" + maxSize + ", enabledOperations=" + enabledOperations + '}';
+    }
+}
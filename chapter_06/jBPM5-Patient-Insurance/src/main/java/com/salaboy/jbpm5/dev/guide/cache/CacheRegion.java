@@ -0,0 +1,82 @@
+package com.salaboy.jbpm5.dev.guide.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Responses of a single operation keyed by patient id. Entries expire after
+ * the configured time to live and the least recently used entry is evicted
+ * when the region grows over the configured maximum size.
+ * @author salaboy
+ */
+class CacheRegion<V> {
+
+    private final CacheConfiguration configuration;
+    private final CacheStatistics statistics;
+    private final Map<String, CachedValue<V>> entries;
+
+    CacheRegion(CacheConfiguration configuration, CacheStatistics statistics) {
+        this.configuration = configuration;
+        this.statistics = statistics;
+        this.entries = new LinkedHashMap<String, CachedValue<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedValue<V>> eldest) {
+                if (size() > CacheRegion.this.configuration.getMaxSize()) {
+                    CacheRegion.this.statistics.evicted();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the cached response or null if there is no valid response for
+     * the given patient. Hits and misses are recorded.
+     */
+    synchronized CachedValue<V> get(String patientId) {
+        CachedValue<V> cached = entries.get(patientId);
+        if (cached != null && cached.expiresAt <= System.currentTimeMillis()) {
+            entries.remove(patientId);
+            statistics.expired();
+            cached = null;
+        }
+        if (cached == null) {
+            statistics.miss();
+        } else {
+            statistics.hit();
+        }
+        return cached;
+    }
+
+    synchronized void put(String patientId, V value) {
+        entries.put(patientId, new CachedValue<V>(value, System.currentTimeMillis() + configuration.getTtlMillis()));
+    }
+
+    synchronized void remove(String patientId) {
+        entries.remove(patientId);
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    CacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    static class CachedValue<V> {
+
+        final V value;
+        final long expiresAt;
+
+        CachedValue(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.salaboy.jbpm5.dev.guide.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hit / miss counters of a single cached operation.
+ * @author salaboy
+ */
+public class CacheStatistics {
+
+    private final String operation;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public CacheStatistics(String operation) {
+        this.operation = operation;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of entries found in the cache but discarded because
+     * their time to live was over. Each of them is also counted as a miss.
+     */
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    /**
+     * @return the number of entries discarded to keep the cache under its
+     * maximum size.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public double getHitRatio() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    void hit() {
+        hits.incrementAndGet();
+    }
+
+    void miss() {
+        misses.incrementAndGet();
+    }
+
+    void expired() {
+        expirations.incrementAndGet();
+    }
+
+    void evicted() {
+        evictions.incrementAndGet();
+    }
+
+    void reset() {
+        hits.set(0);
+        misses.set(0);
+        expirations.set(0);
+        evictions.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStatistics{" + "operation=" + operation + ", hits=" + hits + ", misses=" + misses + ", expirations=" + expirations + ", evictions=" + evictions + '}';
+    }
+}
@@ -0,0 +1,147 @@
+package com.salaboy.jbpm5.dev.guide.cache;
+
+import com.salaboy.jbpm5.dev.guide.cache.CacheRegion.CachedValue;
+import com.salaboy.jbpm5.dev.guide.model.ConceptCode;
+import com.salaboy.jbpm5.dev.guide.model.Patient;
+import com.salaboy.jbpm5.dev.guide.webservice.InsuranceService;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-through cache in front of an {@link InsuranceService} client.
+ * Only the idempotent lookups (patient data and insurance status) enabled in
+ * the {@link CacheConfiguration} are served from the
+ * {@link InsuranceResponseCache}; every other operation goes straight to the
+ * wrapped client.
+ * @author salaboy
+ */
+public class CachingInsuranceService implements InsuranceService {
+
+    private final InsuranceService delegate;
+    private final InsuranceResponseCache cache;
+
+    public CachingInsuranceService(InsuranceService delegate, InsuranceResponseCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    public Patient getPatientData(String patientId) {
+        if (!cache.getConfiguration().isEnabled(CacheConfiguration.GET_PATIENT_DATA)) {
+            return delegate.getPatientData(patientId);
+        }
+        CacheRegion<Patient> region = cache.getPatientDataRegion();
+        CachedValue<Patient> cached = region.get(patientId);
+        if (cached != null) {
+            return cached.value;
+        }
+        Patient patient = delegate.getPatientData(patientId);
+        region.put(patientId, patient);
+        return patient;
+    }
+
+    public boolean isPatientInsured(String patientId) {
+        if (!cache.getConfiguration().isEnabled(CacheConfiguration.IS_PATIENT_INSURED)) {
+            return delegate.isPatientInsured(patientId);
+        }
+        CacheRegion<Boolean> region = cache.getInsuredPatientsRegion();
+        CachedValue<Boolean> cached = region.get(patientId);
+        if (cached != null) {
+            return cached.value;
+        }
+        boolean insured = delegate.isPatientInsured(patientId);
+        region.put(patientId, insured);
+        return insured;
+    }
+
+    public List<Patient> getPatientsData(List<String> patientIds) {
+        if (!cache.getConfiguration().isEnabled(CacheConfiguration.GET_PATIENT_DATA)) {
+            return delegate.getPatientsData(patientIds);
+        }
+        return readThrough(cache.getPatientDataRegion(), patientIds, new BulkCall<Patient>() {
+            public List<Patient> call(List<String> missing) {
+                return delegate.getPatientsData(missing);
+            }
+        });
+    }
+
+    public List<Boolean> arePatientsInsured(List<String> patientIds) {
+        if (!cache.getConfiguration().isEnabled(CacheConfiguration.IS_PATIENT_INSURED)) {
+            return delegate.arePatientsInsured(patientIds);
+        }
+        return readThrough(cache.getInsuredPatientsRegion(), patientIds, new BulkCall<Boolean>() {
+            public List<Boolean> call(List<String> missing) {
+                return delegate.arePatientsInsured(missing);
+            }
+        });
+    }
+
+    public BigDecimal notifyInsuranceCompany(String company, String patientId, BigDecimal amount) {
+        return delegate.notifyInsuranceCompany(company, patientId, amount);
+    }
+
+    public BigDecimal calculateHospitalRates(String patientId, List<ConceptCode> concepts) {
+        return delegate.calculateHospitalRates(patientId, concepts);
+    }
+
+    public boolean notifyAndChargePatient(Patient patient, BigDecimal amount, List<ConceptCode> concepts) {
+        return delegate.notifyAndChargePatient(patient, amount, concepts);
+    }
+
+    public Map<String, Boolean> getInsuredPatients() {
+        return delegate.getInsuredPatients();
+    }
+
+    public Map<String, Patient> getPatients() {
+        return delegate.getPatients();
+    }
+
+    public InsuranceService getDelegate() {
+        return delegate;
+    }
+
+    public InsuranceResponseCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Serves the cached ids from the region and asks the delegate only for
+     * the missing ones, using a single bulk call. The delegate must answer
+     * with one result per requested id, in the same order.
+     */
+    private <V> List<V> readThrough(CacheRegion<V> region, List<String> patientIds, BulkCall<V> bulkCall) {
+        List<V> results = new ArrayList<V>(patientIds.size());
+        List<Integer> missingPositions = new ArrayList<Integer>();
+        List<String> missingIds = new ArrayList<String>();
+        for (int i = 0; i < patientIds.size(); i++) {
+            CachedValue<V> cached = region.get(patientIds.get(i));
+            if (cached != null) {
+                results.add(cached.value);
+            } else {
+                results.add(null);
+                missingPositions.add(i);
+                missingIds.add(patientIds.get(i));
+            }
+        }
+        if (!missingIds.isEmpty()) {
+            List<V> fetched = bulkCall.call(missingIds);
+            if (fetched == null || fetched.size() != missingIds.size()) {
+                throw new IllegalStateException("Bulk call returned "
+                        + (fetched == null ? "null" : fetched.size() + " results")
+                        + " for " + missingIds.size() + " patients");
+            }
+            for (int i = 0; i < missingIds.size(); i++) {
+                V value = fetched.get(i);
+                region.put(missingIds.get(i), value);
+                results.set(missingPositions.get(i), value);
+            }
+        }
+        return results;
+    }
+
+    private interface BulkCall<V> {
+
+        List<V> call(List<String> patientIds);
+    }
+}
@@ -0,0 +1,77 @@
+package com.salaboy.jbpm5.dev.guide.cache;
+
+import com.salaboy.jbpm5.dev.guide.model.Patient;
+
+/**
+ * Shared storage for the responses of the idempotent operations of
+ * {@link com.salaboy.jbpm5.dev.guide.webservice.InsuranceService}. A single
+ * instance is meant to be shared by every {@link CachingInsuranceService}
+ * created by work item handlers and executor commands.
+ * @author salaboy
+ */
+public class InsuranceResponseCache {
+
+    private final CacheConfiguration configuration;
+    private final CacheRegion<Patient> patientData;
+    private final CacheRegion<Boolean> insuredPatients;
+
+    public InsuranceResponseCache() {
+        this(new CacheConfiguration());
+    }
+
+    public InsuranceResponseCache(CacheConfiguration configuration) {
+        this.configuration = configuration;
+        this.patientData = new CacheRegion<Patient>(configuration, new CacheStatistics(CacheConfiguration.GET_PATIENT_DATA));
+        this.insuredPatients = new CacheRegion<Boolean>(configuration, new CacheStatistics(CacheConfiguration.IS_PATIENT_INSURED));
+    }
+
+    public CacheConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * @param operation {@link CacheConfiguration#GET_PATIENT_DATA} or
+     * {@link CacheConfiguration#IS_PATIENT_INSURED}
+     */
+    public CacheStatistics getStatistics(String operation) {
+        if (CacheConfiguration.GET_PATIENT_DATA.equals(operation)) {
+            return patientData.getStatistics();
+        }
+        if (CacheConfiguration.IS_PATIENT_INSURED.equals(operation)) {
+            return insuredPatients.getStatistics();
+        }
+        throw new IllegalArgumentException("Unknown cached operation '" + operation + "'");
+    }
+
+    public int size() {
+        return patientData.size() + insuredPatients.size();
+    }
+
+    /**
+     * Discards every cached response for the given patient.
+     */
+    public void invalidate(String patientId) {
+        patientData.remove(patientId);
+        insuredPatients.remove(patientId);
+    }
+
+    public void clear() {
+        patientData.clear();
+        insuredPatients.clear();
+        patientData.getStatistics().reset();
+        insuredPatients.getStatistics().reset();
+    }
+
+    CacheRegion<Patient> getPatientDataRegion() {
+        return patientData;
+    }
+
+    CacheRegion<Boolean> getInsuredPatientsRegion() {
+        return insuredPatients;
+    }
+
+    @Override
+    public String toString() {
+        return "InsuranceResponseCache{" + "configuration=" + configuration + ", " + patientData.getStatistics() + ", " + insuredPatients.getStatistics() + '}';
+    }
+}
@@ -6,11 +6,9 @@ package com.salaboy.jbpm5.dev.guide.commands;
 
 import com.salaboy.jbpm5.dev.guide.model.Patient;
 import com.salaboy.jbpm5.dev.guide.webservice.InsuranceService;
+import com.salaboy.jbpm5.dev.guide.webservice.InsuranceServiceClientFactory;
 import java.net.MalformedURLException;
-import java.net.URL;
 import javax.inject.Named;
-import javax.xml.namespace.QName;
-import javax.xml.ws.Service;
 import org.jbpm.executor.api.Command;
 import org.jbpm.executor.api.CommandContext;
 import org.jbpm.executor.api.ExecutionResults;
@@ -32,13 +30,6 @@ public class GetPatientDataCommand implements Command {
     }
 
     private InsuranceService getClient() throws MalformedURLException {
-        URL wsdlURL = new URL(
-                "http://127.0.0.1:19999/InsuranceServiceImpl/insurance?WSDL");
-        QName SERVICE_QNAME = new QName(
-                "http://webservice.guide.dev.jbpm5.salaboy.com/",
-                "InsuranceServiceImplService");
-        Service service = Service.create(wsdlURL, SERVICE_QNAME);
-        InsuranceService client = service.getPort(InsuranceService.class);
-        return client;
+        return InsuranceServiceClientFactory.getClient();
     }
 }
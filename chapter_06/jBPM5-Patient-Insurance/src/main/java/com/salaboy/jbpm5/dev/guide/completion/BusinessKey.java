@@ -0,0 +1,107 @@
+package com.salaboy.jbpm5.dev.guide.completion;
+
+/**
+ * Structured form of the business key used by
+ * {@link com.salaboy.jbpm5.dev.guide.workitems.AsyncGenericWorkItemHandler}
+ * to schedule requests:
+ * <pre>
+ *   &lt;work item name&gt;_&lt;process instance id&gt;_&lt;work item id&gt;@sessionId=&lt;session id&gt;
+ * </pre>
+ * The key is parsed from the right, so work item names containing '_' or
+ * '@' are supported.
+ * @author salaboy
+ */
+public class BusinessKey {
+
+    public static final String SESSION_PREFIX = "sessionId=";
+
+    private final String workItemName;
+    private final long processInstanceId;
+    private final long workItemId;
+    private final int sessionId;
+
+    public BusinessKey(String workItemName, long processInstanceId, long workItemId, int sessionId) {
+        this.workItemName = workItemName;
+        this.processInstanceId = processInstanceId;
+        this.workItemId = workItemId;
+        this.sessionId = sessionId;
+    }
+
+    public static String format(String workItemName, long processInstanceId, long workItemId, int sessionId) {
+        return workItemName + "_" + processInstanceId + "_" + workItemId + "@" + SESSION_PREFIX + sessionId;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the key doesn't follow the format
+     * of {@link #format(String, long, long, int)}
+     */
+    public static BusinessKey parse(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("The business key is null");
+        }
+        int at = key.lastIndexOf('@');
+        if (at < 0 || !key.startsWith(SESSION_PREFIX, at + 1)) {
+            throw new IllegalArgumentException("No session id in business key '" + key + "'");
+        }
+        int workItemSeparator = key.lastIndexOf('_', at - 1);
+        int processSeparator = workItemSeparator > 0 ? key.lastIndexOf('_', workItemSeparator - 1) : -1;
+        if (processSeparator < 0) {
+            throw new IllegalArgumentException("Malformed business key '" + key + "'");
+        }
+        try {
+            return new BusinessKey(key.substring(0, processSeparator),
+                    Long.parseLong(key.substring(processSeparator + 1, workItemSeparator)),
+                    Long.parseLong(key.substring(workItemSeparator + 1, at)),
+                    Integer.parseInt(key.substring(at + 1 + SESSION_PREFIX.length())));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed business key '" + key + "'", e);
+        }
+    }
+
+    public String getWorkItemName() {
+        return workItemName;
+    }
+
+    public long getProcessInstanceId() {
+        return processInstanceId;
+    }
+
+    public long getWorkItemId() {
+        return workItemId;
+    }
+
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * The key used to store the session in maps like SessionStoreUtil's
+     * ("sessionId=&lt;id&gt;").
+     */
+    public String getSessionKey() {
+        return SESSION_PREFIX + sessionId;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof BusinessKey)) {
+            return false;
+        }
+        BusinessKey other = (BusinessKey) obj;
+        return workItemName.equals(other.workItemName) && processInstanceId == other.processInstanceId
+                && workItemId == other.workItemId && sessionId == other.sessionId;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = workItemName.hashCode();
+        hash = 31 * hash + (int) (processInstanceId ^ (processInstanceId >>> 32));
+        hash = 31 * hash + (int) (workItemId ^ (workItemId >>> 32));
+        return 31 * hash + sessionId;
+    }
+
+    @Override
+    public String toString() {
+        return format(workItemName, processInstanceId, workItemId, sessionId);
+    }
+}
@@ -0,0 +1,28 @@
+package com.salaboy.jbpm5.dev.guide.completion;
+
+import java.util.Map;
+import org.drools.runtime.StatefulKnowledgeSession;
+
+/**
+ * Resolves in memory sessions stored in a map using the "sessionId=&lt;id&gt;"
+ * key, like the one in the tests' SessionStoreUtil.
+ * @author salaboy
+ */
+public class MapSessionResolver implements SessionResolver {
+
+    private final Map<String, StatefulKnowledgeSession> sessions;
+
+    public MapSessionResolver(Map<String, StatefulKnowledgeSession> sessions) {
+        this.sessions = sessions;
+    }
+
+    public StatefulKnowledgeSession acquire(int sessionId) {
+        synchronized (sessions) {
+            return sessions.get(BusinessKey.SESSION_PREFIX + sessionId);
+        }
+    }
+
+    public boolean release(int sessionId, StatefulKnowledgeSession session, boolean success) {
+        return true;
+    }
+}
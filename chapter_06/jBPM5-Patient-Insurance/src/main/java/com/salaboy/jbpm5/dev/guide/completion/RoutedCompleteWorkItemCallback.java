@@ -0,0 +1,30 @@
+package com.salaboy.jbpm5.dev.guide.completion;
+
+import java.util.HashMap;
+import java.util.Map;
+import javax.inject.Named;
+import org.jbpm.executor.api.CommandCallback;
+import org.jbpm.executor.api.CommandContext;
+import org.jbpm.executor.api.ExecutionResults;
+
+/**
+ * Instead of completing the work item right away, hands it to the default
+ * {@link WorkItemCompletionRouter}, which completes it together with the
+ * other finished work items of the same session.
+ * @author salaboy
+ */
+@Named("routedCompleteWorkItemCallback")
+public class RoutedCompleteWorkItemCallback implements CommandCallback {
+
+    public void onCommandDone(CommandContext ctx, ExecutionResults results) {
+        WorkItemCompletionRouter router = WorkItemCompletionRouter.getDefault();
+        if (router == null) {
+            throw new IllegalStateException("No WorkItemCompletionRouter was set as default");
+        }
+        Map<String, Object> output = new HashMap<String, Object>();
+        if (results != null) {
+            output.putAll(results.getData());
+        }
+        router.submit((String) ctx.getData("businessKey"), output);
+    }
+}
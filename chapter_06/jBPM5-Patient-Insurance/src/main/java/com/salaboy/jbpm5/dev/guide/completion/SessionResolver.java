@@ -0,0 +1,27 @@
+package com.salaboy.jbpm5.dev.guide.completion;
+
+import org.drools.runtime.StatefulKnowledgeSession;
+
+/**
+ * Gives {@link WorkItemCompletionRouter} access to the session of a group of
+ * completions. {@link #acquire(int)} and {@link #release(int, StatefulKnowledgeSession, boolean)}
+ * are called once per session and flush, around all the work items being
+ * completed for it: implementations using persistent sessions can load the
+ * session and begin a transaction in acquire() and commit or roll it back in
+ * release().
+ * @author salaboy
+ */
+public interface SessionResolver {
+
+    /**
+     * @return the session, or null if it's unknown
+     */
+    StatefulKnowledgeSession acquire(int sessionId);
+
+    /**
+     * @param success false if completing any of the work items failed
+     * @return true if the completions done on the session were kept, false if
+     * they were rolled back and must be done again
+     */
+    boolean release(int sessionId, StatefulKnowledgeSession session, boolean success);
+}
@@ -0,0 +1,213 @@
+package com.salaboy.jbpm5.dev.guide.completion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.drools.runtime.StatefulKnowledgeSession;
+
+/**
+ * Collects the work items to be completed after the executor has run their
+ * commands and completes them grouped by session. On each flush the session
+ * of every group is resolved (loaded, locked) only once and all its pending
+ * work items are completed together, instead of resolving the session once
+ * per finished request.
+ * Completions are only counted once the resolver kept them. When the session
+ * can't be resolved, or its release rolls the completions back, they are put
+ * back in the queue for the next flush; a completion that failed is reported
+ * and dropped.
+ * The router can flush periodically after {@link #start()} or be flushed
+ * explicitly. {@link #setDefault(WorkItemCompletionRouter)} makes a router
+ * available to {@link RoutedCompleteWorkItemCallback}.
+ * @author salaboy
+ */
+public class WorkItemCompletionRouter {
+
+    private static final Logger logger = Logger.getLogger(WorkItemCompletionRouter.class.getName());
+
+    private static volatile WorkItemCompletionRouter defaultRouter;
+
+    private final SessionResolver resolver;
+    private final long flushIntervalMillis;
+    private final Map<Integer, Queue<PendingCompletion>> pending = new ConcurrentHashMap<Integer, Queue<PendingCompletion>>();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong sessionAcquisitions = new AtomicLong();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param flushIntervalMillis time between flushes once the router is
+     * started
+     */
+    public WorkItemCompletionRouter(SessionResolver resolver, long flushIntervalMillis) {
+        this.resolver = resolver;
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public static void setDefault(WorkItemCompletionRouter router) {
+        defaultRouter = router;
+    }
+
+    public static WorkItemCompletionRouter getDefault() {
+        return defaultRouter;
+    }
+
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                try {
+                    flush();
+                } catch (Throwable t) {
+                    logger.log(Level.SEVERE, " >>> Error flushing work item completions", t);
+                }
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic flush and completes what is still pending.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdown();
+                scheduler = null;
+            }
+        }
+        flush();
+    }
+
+    public void submit(String businessKey, Map<String, Object> results) {
+        submit(BusinessKey.parse(businessKey), results);
+    }
+
+    public void submit(BusinessKey key, Map<String, Object> results) {
+        Queue<PendingCompletion> queue = pending.get(key.getSessionId());
+        if (queue == null) {
+            synchronized (pending) {
+                queue = pending.get(key.getSessionId());
+                if (queue == null) {
+                    queue = new ConcurrentLinkedQueue<PendingCompletion>();
+                    pending.put(key.getSessionId(), queue);
+                }
+            }
+        }
+        queue.add(new PendingCompletion(key, results));
+    }
+
+    /**
+     * Completes all the pending work items, one session at a time.
+     * @return the number of work items completed
+     */
+    public synchronized int flush() {
+        int count = 0;
+        for (Map.Entry<Integer, Queue<PendingCompletion>> entry : pending.entrySet()) {
+            List<PendingCompletion> batch = new ArrayList<PendingCompletion>();
+            PendingCompletion completion;
+            while ((completion = entry.getValue().poll()) != null) {
+                batch.add(completion);
+            }
+            if (!batch.isEmpty()) {
+                count += complete(entry.getKey(), batch);
+            }
+        }
+        return count;
+    }
+
+    private int complete(int sessionId, List<PendingCompletion> batch) {
+        StatefulKnowledgeSession session = resolver.acquire(sessionId);
+        sessionAcquisitions.incrementAndGet();
+        if (session == null) {
+            logger.log(Level.WARNING, " >>> Session {0} not found, {1} work items will be completed later",
+                    new Object[]{String.valueOf(sessionId), batch.size()});
+            requeue(sessionId, batch);
+            return 0;
+        }
+        List<PendingCompletion> done = new ArrayList<PendingCompletion>(batch.size());
+        int errors = 0;
+        boolean kept = false;
+        try {
+            synchronized (session) {
+                for (PendingCompletion completion : batch) {
+                    try {
+                        session.getWorkItemManager().completeWorkItem(completion.key.getWorkItemId(), completion.results);
+                        done.add(completion);
+                    } catch (RuntimeException e) {
+                        errors++;
+                        logger.log(Level.SEVERE, " >>> Error completing work item " + completion.key, e);
+                    }
+                }
+            }
+        } finally {
+            try {
+                kept = resolver.release(sessionId, session, errors == 0);
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, " >>> Error releasing session " + sessionId, e);
+            }
+            failed.addAndGet(errors);
+            if (!kept) {
+                logger.log(Level.WARNING, " >>> Session {0} rolled back, {1} work items will be completed later",
+                        new Object[]{String.valueOf(sessionId), done.size()});
+                requeue(sessionId, done);
+            }
+        }
+        if (!kept) {
+            return 0;
+        }
+        completed.addAndGet(done.size());
+        return done.size();
+    }
+
+    private void requeue(int sessionId, List<PendingCompletion> completions) {
+        if (!completions.isEmpty()) {
+            pending.get(sessionId).addAll(completions);
+        }
+    }
+
+    public int getPendingCount() {
+        int count = 0;
+        for (Queue<PendingCompletion> queue : pending.values()) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Number of times a session was acquired from the resolver.
+     */
+    public long getSessionAcquisitions() {
+        return sessionAcquisitions.get();
+    }
+
+    private static class PendingCompletion {
+
+        private final BusinessKey key;
+        private final Map<String, Object> results;
+
+        PendingCompletion(BusinessKey key, Map<String, Object> results) {
+            this.key = key;
+            this.results = results;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.salaboy.jbpm5.dev.guide.simulator;
+
+import java.util.Random;
+
+/**
+ * How long a simulated operation takes. Every sample is drawn from the
+ * {@link Random} passed by the {@link ServiceSimulator}, so a simulator
+ * created with the same seed produces the same sequence of latencies.
+ * @author salaboy
+ */
+public abstract class LatencyDistribution {
+
+    public abstract long nextMillis(Random random);
+
+    /**
+     * Always the same latency, like the original SlowServiceImpl.
+     */
+    public static LatencyDistribution constant(final long millis) {
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                return millis;
+            }
+
+            @Override
+            public String toString() {
+                return "constant(" + millis + ")";
+            }
+        };
+    }
+
+    /**
+     * Any latency between min and max (both included) with the same
+     * probability.
+     */
+    public static LatencyDistribution uniform(final long minMillis, final long maxMillis) {
+        if (maxMillis < minMillis) {
+            throw new IllegalArgumentException("maxMillis must be greater or equal than minMillis");
+        }
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis + 1));
+            }
+
+            @Override
+            public String toString() {
+                return "uniform(" + minMillis + ", " + maxMillis + ")";
+            }
+        };
+    }
+
+    /**
+     * Log-normal latency, the usual shape of a real service response time:
+     * most calls close to the median and a long tail of slow ones. The bigger
+     * sigma is, the longer the tail.
+     */
+    public static LatencyDistribution logNormal(final long medianMillis, final double sigma) {
+        if (medianMillis <= 0 || sigma < 0) {
+            throw new IllegalArgumentException("medianMillis must be greater than 0 and sigma can't be negative");
+        }
+        final double mu = Math.log(medianMillis);
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                return Math.round(Math.exp(mu + sigma * random.nextGaussian()));
+            }
+
+            @Override
+            public String toString() {
+                return "logNormal(" + medianMillis + ", " + sigma + ")";
+            }
+        };
+    }
+
+    /**
+     * Mostly follows the base distribution, but with the given probability a
+     * call takes the spike latency instead (a garbage collection, a lock, a
+     * cold cache in the partner system...).
+     */
+    public static LatencyDistribution withTailSpikes(final LatencyDistribution base, final double spikeProbability, final LatencyDistribution spike) {
+        if (spikeProbability < 0 || spikeProbability > 1) {
+            throw new IllegalArgumentException("spikeProbability must be between 0 and 1");
+        }
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                if (random.nextDouble() < spikeProbability) {
+                    return spike.nextMillis(random);
+                }
+                return base.nextMillis(random);
+            }
+
+            @Override
+            public String toString() {
+                return "withTailSpikes(" + base + ", " + spikeProbability + ", " + spike + ")";
+            }
+        };
+    }
+}
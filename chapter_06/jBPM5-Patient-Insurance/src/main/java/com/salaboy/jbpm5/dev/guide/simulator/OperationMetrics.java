@@ -0,0 +1,121 @@
+package com.salaboy.jbpm5.dev.guide.simulator;
+
+import java.util.Arrays;
+
+/**
+ * Server side metrics of a simulated operation. Latencies include the time
+ * spent waiting for a free slot when the simulator has a concurrency limit,
+ * which is what a client of a saturated service experiences.
+ * @author salaboy
+ */
+public class OperationMetrics {
+
+    private static final int MAX_SAMPLES = 1000000;
+
+    private final String operation;
+    private long calls;
+    private long errors;
+    private long rejected;
+    private int inFlight;
+    private int maxInFlight;
+    private long[] latencies = new long[1024];
+    private int samples;
+
+    public OperationMetrics(String operation) {
+        this.operation = operation;
+    }
+
+    synchronized void started() {
+        inFlight++;
+        if (inFlight > maxInFlight) {
+            maxInFlight = inFlight;
+        }
+    }
+
+    synchronized void finished(long latencyMillis, boolean failed) {
+        inFlight--;
+        calls++;
+        if (failed) {
+            errors++;
+        }
+        if (samples < MAX_SAMPLES) {
+            if (samples == latencies.length) {
+                latencies = Arrays.copyOf(latencies, Math.min(MAX_SAMPLES, samples * 2));
+            }
+            latencies[samples++] = latencyMillis;
+        }
+    }
+
+    synchronized void rejected() {
+        rejected++;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public synchronized long getCalls() {
+        return calls;
+    }
+
+    public synchronized long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return calls refused because no slot got free in time
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency in milliseconds below which the given percentage
+     * of the calls finished, 0 if there were no calls
+     */
+    public long getLatencyPercentile(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            if (samples == 0) {
+                return 0;
+            }
+            sorted = Arrays.copyOf(latencies, samples);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    public synchronized double getMeanLatency() {
+        if (samples == 0) {
+            return 0;
+        }
+        long total = 0;
+        for (int i = 0; i < samples; i++) {
+            total += latencies[i];
+        }
+        return (double) total / samples;
+    }
+
+    synchronized void reset() {
+        calls = 0;
+        errors = 0;
+        rejected = 0;
+        maxInFlight = inFlight;
+        samples = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "OperationMetrics{" + "operation=" + operation + ", calls=" + getCalls() + ", errors=" + getErrors() + ", rejected=" + getRejected() + ", maxInFlight=" + getMaxInFlight() + ", p50=" + getLatencyPercentile(50) + ", p99=" + getLatencyPercentile(99) + '}';
+    }
+}
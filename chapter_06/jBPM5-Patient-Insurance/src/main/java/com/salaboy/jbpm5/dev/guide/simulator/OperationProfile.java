@@ -0,0 +1,40 @@
+package com.salaboy.jbpm5.dev.guide.simulator;
+
+/**
+ * Behaviour of a simulated operation: its latency and how often it fails.
+ * @author salaboy
+ */
+public class OperationProfile {
+
+    private final LatencyDistribution latency;
+    private final double errorRate;
+
+    public OperationProfile(LatencyDistribution latency) {
+        this(latency, 0);
+    }
+
+    /**
+     * @param errorRate probability (between 0 and 1) of a call failing after
+     * its latency
+     */
+    public OperationProfile(LatencyDistribution latency, double errorRate) {
+        if (errorRate < 0 || errorRate > 1) {
+            throw new IllegalArgumentException("errorRate must be between 0 and 1");
+        }
+        this.latency = latency;
+        this.errorRate = errorRate;
+    }
+
+    public LatencyDistribution getLatency() {
+        return latency;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    @Override
+    public String toString() {
+        return "OperationProfile{" + "latency=" + latency + ", errorRate=" + errorRate + '}';
+    }
+}
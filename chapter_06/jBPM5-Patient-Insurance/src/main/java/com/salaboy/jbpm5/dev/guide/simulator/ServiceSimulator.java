@@ -0,0 +1,162 @@
+package com.salaboy.jbpm5.dev.guide.simulator;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how long each call to a simulated service takes and whether it
+ * fails, and keeps the server side metrics of every operation.
+ * Each operation draws its samples from its own {@link Random}, seeded from
+ * the simulator seed and the operation name, so the sequence of latencies
+ * and failures of an operation is the same in every run.
+ * A concurrency limit can be set: calls over it wait for a free slot, and
+ * are rejected if no slot gets free before the maximum queue time.
+ * @author salaboy
+ */
+public class ServiceSimulator {
+
+    private final long seed;
+    private final Semaphore slots;
+    private final long maxQueueMillis;
+    private final Map<String, OperationProfile> profiles = new ConcurrentHashMap<String, OperationProfile>();
+    private final Map<String, Random> randoms = new ConcurrentHashMap<String, Random>();
+    private final Map<String, OperationMetrics> metrics = new ConcurrentHashMap<String, OperationMetrics>();
+    private volatile OperationProfile defaultProfile = new OperationProfile(LatencyDistribution.constant(0));
+
+    /**
+     * Simulator without concurrency limit.
+     */
+    public ServiceSimulator(long seed) {
+        this(seed, 0, 0);
+    }
+
+    /**
+     * @param maxConcurrentCalls calls served at the same time, 0 for no limit
+     * @param maxQueueMillis how long a call waits for a free slot before
+     * being rejected
+     */
+    public ServiceSimulator(long seed, int maxConcurrentCalls, long maxQueueMillis) {
+        this.seed = seed;
+        this.slots = maxConcurrentCalls > 0 ? new Semaphore(maxConcurrentCalls, true) : null;
+        this.maxQueueMillis = maxQueueMillis;
+    }
+
+    public void setProfile(String operation, OperationProfile profile) {
+        profiles.put(operation, profile);
+    }
+
+    /**
+     * Profile of the operations without their own profile.
+     */
+    public void setDefaultProfile(OperationProfile profile) {
+        this.defaultProfile = profile;
+    }
+
+    /**
+     * Simulates the server side of a call: waits for a free slot, sleeps the
+     * drawn latency and fails if the drawn outcome is an error.
+     * @throws SimulatedServiceException if the call is rejected or fails
+     */
+    public void simulate(String operation) {
+        OperationMetrics operationMetrics = getMetrics(operation);
+        long start = System.currentTimeMillis();
+        if (slots != null && !acquireSlot()) {
+            operationMetrics.rejected();
+            throw new SimulatedServiceException(operation + " rejected, the service is busy");
+        }
+        operationMetrics.started();
+        boolean failed = false;
+        try {
+            OperationProfile profile = getProfile(operation);
+            long latency;
+            Random random = getRandom(operation);
+            synchronized (random) {
+                latency = profile.getLatency().nextMillis(random);
+                failed = random.nextDouble() < profile.getErrorRate();
+            }
+            if (latency > 0) {
+                try {
+                    Thread.sleep(latency);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failed) {
+                throw new SimulatedServiceException(operation + " failed (simulated error)");
+            }
+        } finally {
+            operationMetrics.finished(System.currentTimeMillis() - start, failed);
+            if (slots != null) {
+                slots.release();
+            }
+        }
+    }
+
+    public boolean hasProfile(String operation) {
+        return profiles.containsKey(operation);
+    }
+
+    public OperationProfile getProfile(String operation) {
+        OperationProfile profile = profiles.get(operation);
+        return profile != null ? profile : defaultProfile;
+    }
+
+    public OperationMetrics getMetrics(String operation) {
+        OperationMetrics operationMetrics = metrics.get(operation);
+        if (operationMetrics == null) {
+            synchronized (metrics) {
+                operationMetrics = metrics.get(operation);
+                if (operationMetrics == null) {
+                    operationMetrics = new OperationMetrics(operation);
+                    metrics.put(operation, operationMetrics);
+                }
+            }
+        }
+        return operationMetrics;
+    }
+
+    public Map<String, OperationMetrics> getAllMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Clears the metrics and restarts the random sequences, so the next run
+     * sees the same latencies and failures than the first one.
+     */
+    public void reset() {
+        randoms.clear();
+        for (OperationMetrics operationMetrics : metrics.values()) {
+            operationMetrics.reset();
+        }
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    private boolean acquireSlot() {
+        try {
+            return slots.tryAcquire(maxQueueMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private Random getRandom(String operation) {
+        Random random = randoms.get(operation);
+        if (random == null) {
+            synchronized (randoms) {
+                random = randoms.get(operation);
+                if (random == null) {
+                    random = new Random(seed * 31 + operation.hashCode());
+                    randoms.put(operation, random);
+                }
+            }
+        }
+        return random;
+    }
+}
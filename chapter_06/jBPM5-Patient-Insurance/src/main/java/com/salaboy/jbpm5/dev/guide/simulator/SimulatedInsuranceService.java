@@ -0,0 +1,77 @@
+package com.salaboy.jbpm5.dev.guide.simulator;
+
+import com.salaboy.jbpm5.dev.guide.model.ConceptCode;
+import com.salaboy.jbpm5.dev.guide.model.Patient;
+import com.salaboy.jbpm5.dev.guide.webservice.InsuranceServiceImpl;
+import java.math.BigDecimal;
+import java.util.List;
+import javax.jws.WebService;
+
+/**
+ * {@link InsuranceServiceImpl} whose operations take as long and fail as
+ * often as configured in a {@link ServiceSimulator}. It is published with the
+ * same service name and namespace than InsuranceServiceImpl, so the existing
+ * clients can use it without any change.
+ * @author salaboy
+ */
+@WebService(endpointInterface = "com.salaboy.jbpm5.dev.guide.webservice.InsuranceService",
+        serviceName = "InsuranceServiceImplService",
+        portName = "InsuranceServiceImplPort",
+        targetNamespace = "http://webservice.guide.dev.jbpm5.salaboy.com/")
+public class SimulatedInsuranceService extends InsuranceServiceImpl {
+
+    private final ServiceSimulator simulator;
+
+    public SimulatedInsuranceService(ServiceSimulator simulator) {
+        this.simulator = simulator;
+    }
+
+    @Override
+    public Patient getPatientData(String patientId) {
+        simulator.simulate("getPatientData");
+        return super.getPatientData(patientId);
+    }
+
+    @Override
+    public boolean isPatientInsured(String patientId) {
+        simulator.simulate("isPatientInsured");
+        return super.isPatientInsured(patientId);
+    }
+
+    @Override
+    public List<Patient> getPatientsData(List<String> patientIds) {
+        simulator.simulate("getPatientsData");
+        return super.getPatientsData(patientIds);
+    }
+
+    @Override
+    public List<Boolean> arePatientsInsured(List<String> patientIds) {
+        simulator.simulate("arePatientsInsured");
+        return super.arePatientsInsured(patientIds);
+    }
+
+    @Override
+    public BigDecimal notifyInsuranceCompany(String company, String patientId, BigDecimal amount) {
+        simulator.simulate("notifyInsuranceCompany");
+        return amount.divide(new BigDecimal(2));
+    }
+
+    @Override
+    public BigDecimal calculateHospitalRates(String patientId, List<ConceptCode> concepts) {
+        simulator.simulate("calculateHospitalRates");
+        return super.calculateHospitalRates(patientId, concepts);
+    }
+
+    /**
+     * Doesn't print the invoice, load tests would flood the console.
+     */
+    @Override
+    public boolean notifyAndChargePatient(Patient patient, BigDecimal amount, List<ConceptCode> concepts) {
+        simulator.simulate("notifyAndChargePatient");
+        return true;
+    }
+
+    public ServiceSimulator getSimulator() {
+        return simulator;
+    }
+}
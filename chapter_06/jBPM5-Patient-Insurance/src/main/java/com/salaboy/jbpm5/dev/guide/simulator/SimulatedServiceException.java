@@ -0,0 +1,13 @@
+package com.salaboy.jbpm5.dev.guide.simulator;
+
+/**
+ * Failure injected by a {@link ServiceSimulator}. Published endpoints return
+ * it to the client as a SOAP fault.
+ * @author salaboy
+ */
+public class SimulatedServiceException extends RuntimeException {
+
+    public SimulatedServiceException(String message) {
+        super(message);
+    }
+}
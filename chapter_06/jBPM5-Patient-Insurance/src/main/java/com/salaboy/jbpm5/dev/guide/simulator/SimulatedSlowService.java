@@ -0,0 +1,59 @@
+package com.salaboy.jbpm5.dev.guide.simulator;
+
+import com.salaboy.jbpm5.dev.guide.webservice.SlowService;
+import javax.jws.WebService;
+
+/**
+ * Stand-in for {@link com.salaboy.jbpm5.dev.guide.webservice.SlowServiceImpl}
+ * with configurable latencies instead of fixed sleeps. By default the three
+ * methods keep the latencies of the original implementation (10, 1 and 3
+ * seconds).
+ * @author salaboy
+ */
+@WebService(endpointInterface = "com.salaboy.jbpm5.dev.guide.webservice.SlowService",
+        serviceName = "SlowServiceImplService",
+        portName = "SlowServiceImplPort",
+        targetNamespace = "http://webservice.guide.dev.jbpm5.salaboy.com/")
+public class SimulatedSlowService implements SlowService {
+
+    public static final String SLOW_METHOD_1 = "slowMethod1";
+    public static final String SLOW_METHOD_2 = "slowMethod2";
+    public static final String SLOW_METHOD_3 = "slowMethod3";
+
+    private final ServiceSimulator simulator;
+
+    public SimulatedSlowService(ServiceSimulator simulator) {
+        this.simulator = simulator;
+        setDefaultProfile(SLOW_METHOD_1, 10000);
+        setDefaultProfile(SLOW_METHOD_2, 1000);
+        setDefaultProfile(SLOW_METHOD_3, 3000);
+    }
+
+    public String slowMethod1(String name) {
+        simulator.simulate(SLOW_METHOD_1);
+        return "Success 1";
+    }
+
+    public String slowMethod2(String name) {
+        simulator.simulate(SLOW_METHOD_2);
+        return "Success 2";
+    }
+
+    public String slowMethod3(String name) {
+        simulator.simulate(SLOW_METHOD_3);
+        return "Success 3";
+    }
+
+    public ServiceSimulator getSimulator() {
+        return simulator;
+    }
+
+    /**
+     * Profiles set in the simulator before creating the service are kept.
+     */
+    private void setDefaultProfile(String operation, long millis) {
+        if (!simulator.hasProfile(operation)) {
+            simulator.setProfile(operation, new OperationProfile(LatencyDistribution.constant(millis)));
+        }
+    }
+}
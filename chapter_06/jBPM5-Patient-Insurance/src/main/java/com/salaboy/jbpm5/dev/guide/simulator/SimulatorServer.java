@@ -0,0 +1,90 @@
+package com.salaboy.jbpm5.dev.guide.simulator;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.ws.Endpoint;
+
+/**
+ * Publishes a {@link SimulatedInsuranceService} and a
+ * {@link SimulatedSlowService} in the current JVM, at the same paths used by
+ * the tests for the real implementations:
+ * <pre>
+ *   http://127.0.0.1:&lt;port&gt;/InsuranceServiceImpl/insurance
+ *   http://127.0.0.1:&lt;port&gt;/SlowServiceImpl/slow
+ * </pre>
+ * Both services share the same {@link ServiceSimulator}, so a single object
+ * holds the configuration and the metrics of the whole backend.
+ * @author salaboy
+ */
+public class SimulatorServer {
+
+    public static final int DEFAULT_PORT = 19999;
+
+    private static final Logger logger = Logger.getLogger(SimulatorServer.class.getName());
+
+    private final int port;
+    private final ServiceSimulator simulator;
+    private final SimulatedInsuranceService insuranceService;
+    private final SimulatedSlowService slowService;
+    private Endpoint insuranceEndpoint;
+    private Endpoint slowEndpoint;
+
+    public SimulatorServer(ServiceSimulator simulator) {
+        this(DEFAULT_PORT, simulator);
+    }
+
+    public SimulatorServer(int port, ServiceSimulator simulator) {
+        this.port = port;
+        this.simulator = simulator;
+        this.insuranceService = new SimulatedInsuranceService(simulator);
+        this.slowService = new SimulatedSlowService(simulator);
+    }
+
+    public synchronized void start() {
+        if (insuranceEndpoint != null) {
+            throw new IllegalStateException("The simulator is already started on port " + port);
+        }
+        insuranceEndpoint = Endpoint.publish(getInsuranceServiceAddress(), insuranceService);
+        slowEndpoint = Endpoint.publish(getSlowServiceAddress(), slowService);
+        logger.log(Level.INFO, " >>> Simulated services published on port {0}", port);
+    }
+
+    public synchronized void stop() {
+        if (insuranceEndpoint != null) {
+            insuranceEndpoint.stop();
+            insuranceEndpoint = null;
+        }
+        if (slowEndpoint != null) {
+            slowEndpoint.stop();
+            slowEndpoint = null;
+        }
+    }
+
+    public String getInsuranceServiceAddress() {
+        return "http://127.0.0.1:" + port + "/InsuranceServiceImpl/insurance";
+    }
+
+    public String getSlowServiceAddress() {
+        return "http://127.0.0.1:" + port + "/SlowServiceImpl/slow";
+    }
+
+    /**
+     * The insurance service being published. Use its patients and insured
+     * patients maps to load the data used by the load test.
+     */
+    public SimulatedInsuranceService getInsuranceService() {
+        return insuranceService;
+    }
+
+    public SimulatedSlowService getSlowService() {
+        return slowService;
+    }
+
+    public ServiceSimulator getSimulator() {
+        return simulator;
+    }
+
+    public int getPort() {
+        return port;
+    }
+}
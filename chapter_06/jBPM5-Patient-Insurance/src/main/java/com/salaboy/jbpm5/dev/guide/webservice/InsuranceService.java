@@ -31,6 +31,20 @@ public interface InsuranceService {
                                               @WebParam(name = "amount")BigDecimal amount, 
                                               @WebParam(name = "concepts")List<ConceptCode> concepts);
         
+        /**
+         * Bulk version of {@link #getPatientData(String)}. The returned list
+         * keeps the same order than the requested ids.
+         */
+        @WebMethod(operationName = "getPatientsData")
+        public List<Patient> getPatientsData(@WebParam(name = "patientIds")List<String> patientIds);
+        
+        /**
+         * Bulk version of {@link #isPatientInsured(String)}. The returned list
+         * keeps the same order than the requested ids.
+         */
+        @WebMethod(operationName = "arePatientsInsured")
+        public List<Boolean> arePatientsInsured(@WebParam(name = "patientIds")List<String> patientIds);
+        
         public Map<String, Boolean> getInsuredPatients();
         
         public Map<String, Patient> getPatients();
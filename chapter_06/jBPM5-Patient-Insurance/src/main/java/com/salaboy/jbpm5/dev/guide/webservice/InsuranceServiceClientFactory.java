@@ -0,0 +1,60 @@
+package com.salaboy.jbpm5.dev.guide.webservice;
+
+import com.salaboy.jbpm5.dev.guide.cache.CachingInsuranceService;
+import com.salaboy.jbpm5.dev.guide.cache.InsuranceResponseCache;
+import java.net.MalformedURLException;
+import java.net.URL;
+import javax.xml.namespace.QName;
+import javax.xml.ws.Service;
+
+/**
+ * Creates the {@link InsuranceService} clients used by the work item handlers
+ * and the executor commands. When a response cache is configured every
+ * client created by this factory reads through the same
+ * {@link InsuranceResponseCache}.
+ * @author salaboy
+ */
+public class InsuranceServiceClientFactory {
+
+    public static final String DEFAULT_WSDL_URL = "http://127.0.0.1:19999/InsuranceServiceImpl/insurance?WSDL";
+    private static final QName SERVICE_QNAME = new QName(
+            "http://webservice.guide.dev.jbpm5.salaboy.com/",
+            "InsuranceServiceImplService");
+
+    private static volatile String wsdlUrl = DEFAULT_WSDL_URL;
+    private static volatile InsuranceResponseCache responseCache;
+
+    public static InsuranceService getClient() throws MalformedURLException {
+        InsuranceService client = newRemoteClient();
+        InsuranceResponseCache cache = responseCache;
+        if (cache != null) {
+            return new CachingInsuranceService(client, cache);
+        }
+        return client;
+    }
+
+    public static InsuranceService newRemoteClient() throws MalformedURLException {
+        Service service = Service.create(new URL(wsdlUrl), SERVICE_QNAME);
+        return service.getPort(InsuranceService.class);
+    }
+
+    /**
+     * @param cache the cache shared by all the clients created from now on,
+     * or null to stop caching responses.
+     */
+    public static void setResponseCache(InsuranceResponseCache cache) {
+        responseCache = cache;
+    }
+
+    public static InsuranceResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    public static String getWsdlUrl() {
+        return wsdlUrl;
+    }
+
+    public static void setWsdlUrl(String url) {
+        wsdlUrl = url;
+    }
+}
@@ -5,6 +5,7 @@ import com.salaboy.jbpm5.dev.guide.model.Patient;
 import java.math.BigDecimal;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -33,6 +34,22 @@ public class InsuranceServiceImpl implements InsuranceService {
         return insuredPatients.get(patientId);
     }
 
+    public List<Patient> getPatientsData(List<String> patientIds) {
+        List<Patient> result = new ArrayList<Patient>(patientIds.size());
+        for (String patientId : patientIds) {
+            result.add(patients.get(patientId));
+        }
+        return result;
+    }
+
+    public List<Boolean> arePatientsInsured(List<String> patientIds) {
+        List<Boolean> result = new ArrayList<Boolean>(patientIds.size());
+        for (String patientId : patientIds) {
+            result.add(insuredPatients.get(patientId));
+        }
+        return result;
+    }
+
     public BigDecimal notifyInsuranceCompany(String company, String patientId, BigDecimal amount) {
         System.out.println("Notifying company:" + company + " - Patient Id: " + patientId + " - Amount: " + amount);
         BigDecimal finalAmount = amount.divide(new BigDecimal(2));
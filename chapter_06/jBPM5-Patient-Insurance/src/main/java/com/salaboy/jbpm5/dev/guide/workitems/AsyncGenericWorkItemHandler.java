@@ -1,5 +1,6 @@
 package com.salaboy.jbpm5.dev.guide.workitems;
 
+import com.salaboy.jbpm5.dev.guide.completion.BusinessKey;
 import java.util.Map;
 import org.drools.runtime.process.WorkItem;
 import org.drools.runtime.process.WorkItemHandler;
@@ -39,7 +40,7 @@ public class AsyncGenericWorkItemHandler implements WorkItemHandler {
 		long workItemId = workItem.getId();
 		String command = (String) workItem.getParameter("command");
                 String callbacks = (String) workItem.getParameter("callbacks");
-		this.execKey = workItem.getName() + "_" + workItem.getProcessInstanceId() + "_" + workItemId + "@sessionId="+this.sessionId;
+		this.execKey = BusinessKey.format(workItem.getName(), workItem.getProcessInstanceId(), workItemId, this.sessionId);
 		CommandContext ctx = new CommandContext();
 		for (Map.Entry<String, Object> entry : workItem.getParameters().entrySet()) {
 			if (entry.getValue() instanceof Object) {
@@ -0,0 +1,47 @@
+package com.salaboy.jbpm5.dev.guide.workitems;
+
+import com.salaboy.jbpm5.dev.guide.batch.InsuranceLookupBatcher;
+import com.salaboy.jbpm5.dev.guide.batch.LookupCallback;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.drools.runtime.process.WorkItem;
+import org.drools.runtime.process.WorkItemHandler;
+import org.drools.runtime.process.WorkItemManager;
+
+/**
+ * Asynchronous version of {@link InsuranceServiceWorkItemHandler}. The lookup
+ * is queued in an {@link InsuranceLookupBatcher} shared with other handlers
+ * and the work item is completed when the bulk call containing it comes back.
+ * @author salaboy
+ */
+public class BatchedInsuranceServiceWorkItemHandler implements WorkItemHandler {
+
+    private final InsuranceLookupBatcher batcher;
+
+    public BatchedInsuranceServiceWorkItemHandler(InsuranceLookupBatcher batcher) {
+        this.batcher = batcher;
+    }
+
+    public void executeWorkItem(final WorkItem wi, final WorkItemManager wim) {
+        String patientId = (String) wi.getParameter("insured_patientName");
+        batcher.isPatientInsured(patientId, new LookupCallback<Boolean>() {
+
+            public void onResult(Boolean isPatientInsured) {
+                Map<String, Object> result = new HashMap<String, Object>();
+                result.put("insured_isPatientInsured", isPatientInsured);
+                wim.completeWorkItem(wi.getId(), result);
+            }
+
+            public void onFailure(Throwable cause) {
+                Logger.getLogger(BatchedInsuranceServiceWorkItemHandler.class.getName()).log(Level.SEVERE, null, cause);
+                wim.abortWorkItem(wi.getId());
+            }
+        });
+    }
+
+    public void abortWorkItem(WorkItem workItem, WorkItemManager manager) {
+        //Do nothing, cannot be aborted
+    }
+}
@@ -0,0 +1,48 @@
+package com.salaboy.jbpm5.dev.guide.workitems;
+
+import com.salaboy.jbpm5.dev.guide.batch.InsuranceLookupBatcher;
+import com.salaboy.jbpm5.dev.guide.batch.LookupCallback;
+import com.salaboy.jbpm5.dev.guide.model.Patient;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.drools.runtime.process.WorkItem;
+import org.drools.runtime.process.WorkItemHandler;
+import org.drools.runtime.process.WorkItemManager;
+
+/**
+ * Asynchronous version of {@link PatientDataServiceWorkItemHandler}. The lookup
+ * is queued in an {@link InsuranceLookupBatcher} shared with other handlers
+ * and the work item is completed when the bulk call containing it comes back.
+ * @author salaboy
+ */
+public class BatchedPatientDataServiceWorkItemHandler implements WorkItemHandler {
+
+    private final InsuranceLookupBatcher batcher;
+
+    public BatchedPatientDataServiceWorkItemHandler(InsuranceLookupBatcher batcher) {
+        this.batcher = batcher;
+    }
+
+    public void executeWorkItem(final WorkItem wi, final WorkItemManager wim) {
+        String patientId = (String) wi.getParameter("gatherdata_patientName");
+        batcher.getPatientData(patientId, new LookupCallback<Patient>() {
+
+            public void onResult(Patient patientData) {
+                Map<String, Object> result = new HashMap<String, Object>();
+                result.put("gatherdata_patient", patientData);
+                wim.completeWorkItem(wi.getId(), result);
+            }
+
+            public void onFailure(Throwable cause) {
+                Logger.getLogger(BatchedPatientDataServiceWorkItemHandler.class.getName()).log(Level.SEVERE, null, cause);
+                wim.abortWorkItem(wi.getId());
+            }
+        });
+    }
+
+    public void abortWorkItem(WorkItem wi, WorkItemManager wim) {
+        //Do nothing, cannot be aborted
+    }
+}
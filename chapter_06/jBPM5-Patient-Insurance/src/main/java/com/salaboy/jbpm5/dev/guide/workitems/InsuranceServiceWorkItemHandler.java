@@ -2,18 +2,15 @@ package com.salaboy.jbpm5.dev.guide.workitems;
 
 import com.salaboy.jbpm5.dev.guide.model.Patient;
 import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
 
-import javax.xml.namespace.QName;
-import javax.xml.ws.Service;
-
 import org.drools.runtime.process.WorkItem;
 import org.drools.runtime.process.WorkItemHandler;
 import org.drools.runtime.process.WorkItemManager;
 
 import com.salaboy.jbpm5.dev.guide.webservice.InsuranceService;
+import com.salaboy.jbpm5.dev.guide.webservice.InsuranceServiceClientFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,13 +34,7 @@ public class InsuranceServiceWorkItemHandler implements WorkItemHandler {
    private InsuranceService getClient() {
         InsuranceService client = null;
         try {
-            URL wsdlURL = new URL(
-                "http://127.0.0.1:19999/InsuranceServiceImpl/insurance?WSDL");
-            QName SERVICE_QNAME = new QName(
-                "http://webservice.guide.dev.jbpm5.salaboy.com/",
-                "InsuranceServiceImplService");
-            Service service = Service.create(wsdlURL, SERVICE_QNAME);
-            client = service.getPort(InsuranceService.class);
+            client = InsuranceServiceClientFactory.getClient();
         } catch (MalformedURLException ex) {
             Logger.getLogger(CompanyGatewayWorkItemHandler.class.getName()).log(Level.SEVERE, null, ex);
         }
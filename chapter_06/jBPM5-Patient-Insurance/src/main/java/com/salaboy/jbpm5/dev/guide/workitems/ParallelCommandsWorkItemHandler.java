@@ -0,0 +1,227 @@
+package com.salaboy.jbpm5.dev.guide.workitems;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.drools.runtime.process.WorkItem;
+import org.drools.runtime.process.WorkItemHandler;
+import org.drools.runtime.process.WorkItemManager;
+import org.jbpm.executor.api.Command;
+import org.jbpm.executor.api.CommandContext;
+import org.jbpm.executor.api.ExecutionResults;
+
+/**
+ * Work Item Handler that executes several independent commands at the same
+ * time and completes the work item once all of them are done, so the time
+ * spent in the task is the one of the slowest command instead of the sum of
+ * all of them.
+ * The handler expects a <code>branches</code> parameter with the comma
+ * separated names of the branches to execute. Parameters named
+ * <code>&lt;branch&gt;.&lt;name&gt;</code> are only visible to that branch (as
+ * <code>&lt;name&gt;</code>), the rest of the parameters are shared by all of
+ * them. Each branch needs a <code>command</code> parameter with the name of
+ * a command registered in this handler and can define its own
+ * <code>timeout</code> in milliseconds.
+ * The results of every successful branch are merged into the work item
+ * results. Failed and timed out branches are reported in the
+ * <code>failedBranches</code> and <code>timedOutBranches</code> results and
+ * the cause of each failure in <code>&lt;branch&gt;.error</code>. The work item
+ * is always completed, it is up to the process to decide what to do with a
+ * partial result.
+ * @author salaboy
+ */
+public class ParallelCommandsWorkItemHandler implements WorkItemHandler {
+
+    public static final String BRANCHES = "branches";
+    public static final String COMMAND = "command";
+    public static final String TIMEOUT = "timeout";
+    public static final String FAILED_BRANCHES = "failedBranches";
+    public static final String TIMED_OUT_BRANCHES = "timedOutBranches";
+    public static final String ERROR_SUFFIX = ".error";
+
+    private static final Logger logger = Logger.getLogger(ParallelCommandsWorkItemHandler.class.getName());
+
+    private final Map<String, Command> commands = new ConcurrentHashMap<String, Command>();
+    private final Map<Long, List<Future<ExecutionResults>>> running = new ConcurrentHashMap<Long, List<Future<ExecutionResults>>>();
+    private final ExecutorService branchExecutor;
+    private final ExecutorService joinExecutor;
+    private final long defaultTimeoutMillis;
+
+    public ParallelCommandsWorkItemHandler(int threadPoolSize, long defaultTimeoutMillis) {
+        this.branchExecutor = Executors.newFixedThreadPool(threadPoolSize);
+        this.joinExecutor = Executors.newCachedThreadPool();
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+    }
+
+    public void registerCommand(String name, Command command) {
+        commands.put(name, command);
+    }
+
+    public void executeWorkItem(final WorkItem workItem, final WorkItemManager manager) {
+        String branchesParameter = (String) workItem.getParameter(BRANCHES);
+        if (branchesParameter == null || branchesParameter.trim().length() == 0) {
+            throw new IllegalArgumentException("Work item " + workItem.getId() + " doesn't define any " + BRANCHES);
+        }
+        // Validate every branch before starting any of them
+        final Map<String, Long> timeouts = new HashMap<String, Long>();
+        Map<String, Callable<ExecutionResults>> calls = new LinkedHashMap<String, Callable<ExecutionResults>>();
+        for (String branch : branchesParameter.split(",")) {
+            branch = branch.trim();
+            final CommandContext ctx = createBranchContext(workItem, branch);
+            final Command command = findCommand(branch, (String) ctx.getData(COMMAND));
+            timeouts.put(branch, getTimeout(ctx));
+            calls.put(branch, new Callable<ExecutionResults>() {
+                public ExecutionResults call() throws Exception {
+                    return command.execute(ctx);
+                }
+            });
+        }
+        final long start = System.currentTimeMillis();
+        final Map<String, Future<ExecutionResults>> futures = new LinkedHashMap<String, Future<ExecutionResults>>();
+        for (Map.Entry<String, Callable<ExecutionResults>> call : calls.entrySet()) {
+            futures.put(call.getKey(), branchExecutor.submit(call.getValue()));
+        }
+        running.put(workItem.getId(), new ArrayList<Future<ExecutionResults>>(futures.values()));
+        joinExecutor.execute(new Runnable() {
+            public void run() {
+                Map<String, Object> results = join(futures, timeouts, start);
+                if (running.remove(workItem.getId()) != null) {
+                    manager.completeWorkItem(workItem.getId(), results);
+                }
+            }
+        });
+    }
+
+    public void abortWorkItem(WorkItem workItem, WorkItemManager manager) {
+        List<Future<ExecutionResults>> futures = running.remove(workItem.getId());
+        if (futures != null) {
+            for (Future<ExecutionResults> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Stops the handler threads, interrupting the branches still running.
+     */
+    public void dispose() {
+        branchExecutor.shutdownNow();
+        joinExecutor.shutdownNow();
+    }
+
+    private Map<String, Object> join(Map<String, Future<ExecutionResults>> futures, Map<String, Long> timeouts, long start) {
+        Map<String, Object> results = new HashMap<String, Object>();
+        List<String> failed = new ArrayList<String>();
+        List<String> timedOut = new ArrayList<String>();
+        for (Map.Entry<String, Future<ExecutionResults>> entry : futures.entrySet()) {
+            String branch = entry.getKey();
+            Future<ExecutionResults> future = entry.getValue();
+            long remaining = start + timeouts.get(branch) - System.currentTimeMillis();
+            try {
+                ExecutionResults branchResults = future.get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+                Throwable reported = findReportedError(branchResults);
+                if (reported != null) {
+                    failed.add(branch);
+                    results.put(branch + ERROR_SUFFIX, String.valueOf(reported.getMessage()));
+                }
+                if (branchResults != null) {
+                    results.putAll(branchResults.getData());
+                }
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                timedOut.add(branch);
+                results.put(branch + ERROR_SUFFIX, "Timed out after " + timeouts.get(branch) + " ms");
+                logger.log(Level.WARNING, " >>> Branch {0} timed out after {1} ms", new Object[]{branch, timeouts.get(branch)});
+            } catch (ExecutionException e) {
+                failed.add(branch);
+                results.put(branch + ERROR_SUFFIX, String.valueOf(e.getCause().getMessage()));
+                logger.log(Level.SEVERE, " >>> Branch " + branch + " failed", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                failed.add(branch);
+                results.put(branch + ERROR_SUFFIX, "Interrupted");
+            }
+        }
+        results.put(FAILED_BRANCHES, join(failed));
+        results.put(TIMED_OUT_BRANCHES, join(timedOut));
+        return results;
+    }
+
+    /**
+     * Shared parameters first, then the ones of the branch without their
+     * prefix, so a branch can override any shared value.
+     */
+    private CommandContext createBranchContext(WorkItem workItem, String branch) {
+        String prefix = branch + ".";
+        CommandContext ctx = new CommandContext();
+        Map<String, Object> branchParameters = new HashMap<String, Object>();
+        for (Map.Entry<String, Object> entry : workItem.getParameters().entrySet()) {
+            String name = entry.getKey();
+            if (name.startsWith(prefix)) {
+                branchParameters.put(name.substring(prefix.length()), entry.getValue());
+            } else if (name.indexOf('.') < 0 && entry.getValue() != null) {
+                ctx.setData(name, entry.getValue());
+            }
+        }
+        ctx.getData().putAll(branchParameters);
+        ctx.setData("_workItemId", String.valueOf(workItem.getId()));
+        ctx.setData("branch", branch);
+        return ctx;
+    }
+
+    private Command findCommand(String branch, String name) {
+        Command command = name == null ? null : commands.get(name);
+        if (command == null) {
+            throw new IllegalArgumentException("Unknown command '" + name + "' for branch '" + branch + "'");
+        }
+        return command;
+    }
+
+    private long getTimeout(CommandContext ctx) {
+        Object timeout = ctx.getData(TIMEOUT);
+        if (timeout == null) {
+            return defaultTimeoutMillis;
+        }
+        return Long.parseLong(timeout.toString().trim());
+    }
+
+    /**
+     * Some commands, like CXFWebServiceCommand, don't throw but return the
+     * exception as a result.
+     */
+    private Throwable findReportedError(ExecutionResults branchResults) {
+        if (branchResults == null) {
+            return null;
+        }
+        for (Object value : branchResults.getData().values()) {
+            if (value instanceof Throwable) {
+                return (Throwable) value;
+            }
+        }
+        return null;
+    }
+
+    private static String join(List<String> branches) {
+        StringBuilder joined = new StringBuilder();
+        for (String branch : branches) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(branch);
+        }
+        return joined.toString();
+    }
+}
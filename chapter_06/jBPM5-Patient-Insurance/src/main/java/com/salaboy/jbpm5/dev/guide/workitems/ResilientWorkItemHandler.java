@@ -0,0 +1,105 @@
+package com.salaboy.jbpm5.dev.guide.workitems;
+
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.drools.runtime.process.WorkItem;
+import org.drools.runtime.process.WorkItemHandler;
+import org.drools.runtime.process.WorkItemManager;
+import org.jbpm.executor.resilience.CallNotPermittedException;
+import org.jbpm.executor.resilience.ResiliencePolicy;
+
+/**
+ * Guards a synchronous {@link WorkItemHandler} calling an external service
+ * (like {@link InsuranceServiceWorkItemHandler}) with a
+ * {@link ResiliencePolicy}. When the policy rejects the call the work item is
+ * aborted right away instead of blocking the engine thread on a service that
+ * is down or saturated. Failures of the wrapped handler are recorded in the
+ * policy and re-thrown.
+ * @author salaboy
+ */
+public class ResilientWorkItemHandler implements WorkItemHandler {
+
+    private static final Logger logger = Logger.getLogger(ResilientWorkItemHandler.class.getName());
+
+    private final ResiliencePolicy policy;
+    private final WorkItemHandler delegate;
+
+    public ResilientWorkItemHandler(ResiliencePolicy policy, WorkItemHandler delegate) {
+        this.policy = policy;
+        this.delegate = delegate;
+    }
+
+    public void executeWorkItem(WorkItem wi, WorkItemManager wim) {
+        try {
+            policy.acquirePermission();
+        } catch (CallNotPermittedException e) {
+            logger.log(Level.WARNING, " >>> Work item {0} aborted: {1}", new Object[]{wi.getId(), e.getMessage()});
+            wim.abortWorkItem(wi.getId());
+            return;
+        }
+        GuardedWorkItemManager guarded = new GuardedWorkItemManager(wim);
+        try {
+            delegate.executeWorkItem(wi, guarded);
+        } catch (RuntimeException e) {
+            guarded.recordFailure(e);
+            throw e;
+        } catch (Error e) {
+            guarded.recordFailure(e);
+            throw e;
+        }
+        // The handler returned without reporting a result (it completes the
+        // work item later), the call itself went through
+        guarded.recordSuccess();
+    }
+
+    public void abortWorkItem(WorkItem workItem, WorkItemManager manager) {
+        delegate.abortWorkItem(workItem, manager);
+    }
+
+    public ResiliencePolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Records the outcome of the guarded call, once, when the wrapped handler
+     * reports it to the engine.
+     */
+    private class GuardedWorkItemManager implements WorkItemManager {
+
+        private final WorkItemManager manager;
+        private boolean recorded;
+
+        GuardedWorkItemManager(WorkItemManager manager) {
+            this.manager = manager;
+        }
+
+        public void completeWorkItem(long id, Map<String, Object> results) {
+            recordSuccess();
+            manager.completeWorkItem(id, results);
+        }
+
+        public void abortWorkItem(long id) {
+            recordFailure(new IllegalStateException("Work item " + id + " aborted by its handler"));
+            manager.abortWorkItem(id);
+        }
+
+        public void registerWorkItemHandler(String workItemName, WorkItemHandler handler) {
+            manager.registerWorkItemHandler(workItemName, handler);
+        }
+
+        void recordSuccess() {
+            if (!recorded) {
+                recorded = true;
+                policy.onSuccess();
+            }
+        }
+
+        void recordFailure(Throwable cause) {
+            if (!recorded) {
+                recorded = true;
+                policy.onFailure(cause);
+            }
+        }
+    }
+}
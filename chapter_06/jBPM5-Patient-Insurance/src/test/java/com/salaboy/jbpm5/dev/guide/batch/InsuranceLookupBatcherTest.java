@@ -0,0 +1,164 @@
+package com.salaboy.jbpm5.dev.guide.batch;
+
+import com.salaboy.jbpm5.dev.guide.model.Patient;
+import com.salaboy.jbpm5.dev.guide.util.CountingInsuranceService;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link InsuranceLookupBatcher}, counting the bulk calls that
+ * reach a {@link CountingInsuranceService}.
+ * @author salaboy
+ */
+public class InsuranceLookupBatcherTest {
+
+    private CountingInsuranceService service;
+    private InsuranceLookupBatcher batcher;
+
+    @Before
+    public void setUp() {
+        service = CountingInsuranceService.withPatients(10);
+    }
+
+    @After
+    public void tearDown() {
+        if (batcher != null) {
+            batcher.shutdown();
+        }
+    }
+
+    /**
+     * Lookups are sent as soon as the batch is full, without waiting for the
+     * window to expire.
+     */
+    @Test
+    public void testFullBatchesAreSentRightAway() throws InterruptedException {
+        batcher = new InsuranceLookupBatcher(service, 60000, 5);
+        ResultsCollector<Boolean> collector = new ResultsCollector<Boolean>(10);
+        for (int i = 0; i < 10; i++) {
+            batcher.isPatientInsured("patient-" + i, collector.callbackFor("patient-" + i));
+        }
+        assertTrue(collector.await());
+        assertEquals(2, service.bulkInsuredCalls.get());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i % 2 == 0, collector.results.get("patient-" + i));
+        }
+    }
+
+    /**
+     * A batch that never gets full is sent when the window expires.
+     */
+    @Test
+    public void testWindowExpirationSendsPartialBatch() throws InterruptedException {
+        batcher = new InsuranceLookupBatcher(service, 100, 50);
+        ResultsCollector<Patient> collector = new ResultsCollector<Patient>(3);
+        for (int i = 0; i < 3; i++) {
+            batcher.getPatientData("patient-" + i, collector.callbackFor("patient-" + i));
+        }
+        assertTrue(collector.await());
+        assertEquals(1, service.bulkPatientDataCalls.get());
+        assertEquals("Name1", collector.results.get("patient-1").getFirstName());
+    }
+
+    /**
+     * Concurrent lookups for the same patient are coalesced into a single
+     * entry of the bulk call. The window never expires, the batch is flushed
+     * once every thread registered its lookup.
+     */
+    @Test
+    public void testDuplicatedLookupsAreCoalesced() throws InterruptedException {
+        batcher = new InsuranceLookupBatcher(service, 60000, 50);
+        final ResultsCollector<Boolean> collector = new ResultsCollector<Boolean>(20);
+        final CountDownLatch registered = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            final String key = "caller-" + i;
+            new Thread() {
+                @Override
+                public void run() {
+                    batcher.isPatientInsured("patient-2", collector.callbackFor(key));
+                    registered.countDown();
+                }
+            }.start();
+        }
+        assertTrue(registered.await(5, TimeUnit.SECONDS));
+        assertEquals(0, service.bulkInsuredCalls.get());
+        batcher.flush();
+        assertTrue(collector.await());
+        assertEquals(1, service.bulkInsuredCalls.get());
+        assertEquals(Arrays.asList("patient-2"), service.lastBulkRequest);
+        assertEquals(20, collector.results.size());
+    }
+
+    /**
+     * The size of a batch is the number of distinct patients, repeated
+     * lookups don't make it smaller.
+     */
+    @Test
+    public void testBatchSizeCountsDistinctPatients() throws InterruptedException {
+        batcher = new InsuranceLookupBatcher(service, 60000, 3);
+        ResultsCollector<Boolean> collector = new ResultsCollector<Boolean>(7);
+        for (int i = 0; i < 5; i++) {
+            batcher.isPatientInsured("patient-0", collector.callbackFor("caller-" + i));
+        }
+        batcher.isPatientInsured("patient-1", collector.callbackFor("patient-1"));
+        assertEquals(0, service.bulkInsuredCalls.get());
+        batcher.isPatientInsured("patient-2", collector.callbackFor("patient-2"));
+        assertTrue(collector.await());
+        assertEquals(1, service.bulkInsuredCalls.get());
+        assertEquals(Arrays.asList("patient-0", "patient-1", "patient-2"), service.lastBulkRequest);
+    }
+
+    /**
+     * A failed bulk call is reported to every waiting callback.
+     */
+    @Test
+    public void testFailuresAreFannedOut() throws InterruptedException {
+        service.failing = true;
+        batcher = new InsuranceLookupBatcher(service, 50, 50);
+        ResultsCollector<Boolean> collector = new ResultsCollector<Boolean>(3);
+        for (int i = 0; i < 3; i++) {
+            batcher.isPatientInsured("patient-" + i, collector.callbackFor("patient-" + i));
+        }
+        assertTrue(collector.await());
+        assertEquals(3, collector.failures.get());
+        assertTrue(collector.results.isEmpty());
+    }
+
+    private static class ResultsCollector<T> {
+
+        private final Map<String, T> results = new ConcurrentHashMap<String, T>();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final CountDownLatch latch;
+
+        ResultsCollector(int expected) {
+            latch = new CountDownLatch(expected);
+        }
+
+        LookupCallback<T> callbackFor(final String key) {
+            return new LookupCallback<T>() {
+
+                public void onResult(T result) {
+                    results.put(key, result);
+                    latch.countDown();
+                }
+
+                public void onFailure(Throwable cause) {
+                    failures.incrementAndGet();
+                    latch.countDown();
+                }
+            };
+        }
+
+        boolean await() throws InterruptedException {
+            return latch.await(5, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.salaboy.jbpm5.dev.guide.cache;
+
+import com.salaboy.jbpm5.dev.guide.util.CountingInsuranceService;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CachingInsuranceService}, counting the calls that reach a
+ * {@link CountingInsuranceService}.
+ * @author salaboy
+ */
+public class CachingInsuranceServiceTest {
+
+    private CountingInsuranceService service;
+
+    @Before
+    public void setUp() {
+        service = CountingInsuranceService.withPatients(10);
+    }
+
+    @Test
+    public void testRepeatedLookupsAreServedFromCache() {
+        InsuranceResponseCache cache = new InsuranceResponseCache();
+        CachingInsuranceService client = new CachingInsuranceService(service, cache);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(client.isPatientInsured("patient-2"));
+            assertEquals("Name3", client.getPatientData("patient-3").getFirstName());
+        }
+        assertEquals(1, service.insuredCalls.get());
+        assertEquals(1, service.patientDataCalls.get());
+
+        CacheStatistics insured = cache.getStatistics(CacheConfiguration.IS_PATIENT_INSURED);
+        assertEquals(4, insured.getHits());
+        assertEquals(1, insured.getMisses());
+        assertEquals(0.8, insured.getHitRatio(), 0.001);
+        assertEquals(4, cache.getStatistics(CacheConfiguration.GET_PATIENT_DATA).getHits());
+    }
+
+    @Test
+    public void testExpiredEntriesAreFetchedAgain() throws InterruptedException {
+        InsuranceResponseCache cache = new InsuranceResponseCache(new CacheConfiguration(50, 100));
+        CachingInsuranceService client = new CachingInsuranceService(service, cache);
+        client.isPatientInsured("patient-1");
+        client.isPatientInsured("patient-1");
+        assertEquals(1, service.insuredCalls.get());
+
+        Thread.sleep(100);
+        client.isPatientInsured("patient-1");
+        assertEquals(2, service.insuredCalls.get());
+        assertEquals(1, cache.getStatistics(CacheConfiguration.IS_PATIENT_INSURED).getExpirations());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() {
+        InsuranceResponseCache cache = new InsuranceResponseCache(new CacheConfiguration(60000, 3));
+        CachingInsuranceService client = new CachingInsuranceService(service, cache);
+        client.getPatientData("patient-0");
+        client.getPatientData("patient-1");
+        client.getPatientData("patient-2");
+        // patient-0 becomes the most recently used entry
+        client.getPatientData("patient-0");
+        client.getPatientData("patient-3");
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getStatistics(CacheConfiguration.GET_PATIENT_DATA).getEvictions());
+
+        service.patientDataCalls.set(0);
+        client.getPatientData("patient-0");
+        assertEquals(0, service.patientDataCalls.get());
+        client.getPatientData("patient-1");
+        assertEquals(1, service.patientDataCalls.get());
+    }
+
+    @Test
+    public void testDisabledOperationsAreNotCached() {
+        CacheConfiguration configuration = new CacheConfiguration();
+        configuration.setEnabled(CacheConfiguration.IS_PATIENT_INSURED, false);
+        InsuranceResponseCache cache = new InsuranceResponseCache(configuration);
+        CachingInsuranceService client = new CachingInsuranceService(service, cache);
+        for (int i = 0; i < 3; i++) {
+            client.isPatientInsured("patient-4");
+            client.getPatientData("patient-4");
+        }
+        assertEquals(3, service.insuredCalls.get());
+        assertEquals(1, service.patientDataCalls.get());
+        assertEquals(0, cache.getStatistics(CacheConfiguration.IS_PATIENT_INSURED).getMisses());
+    }
+
+    @Test
+    public void testBulkLookupsOnlyFetchMissingPatients() {
+        InsuranceResponseCache cache = new InsuranceResponseCache();
+        CachingInsuranceService client = new CachingInsuranceService(service, cache);
+        client.isPatientInsured("patient-1");
+        client.isPatientInsured("patient-3");
+
+        List<Boolean> insured = client.arePatientsInsured(Arrays.asList("patient-0", "patient-1", "patient-2", "patient-3"));
+        assertEquals(Arrays.asList(true, false, true, false), insured);
+        assertEquals(1, service.bulkInsuredCalls.get());
+        assertEquals(Arrays.asList("patient-0", "patient-2"), service.lastBulkRequest);
+
+        // Everything is cached now, the service is not called again
+        client.arePatientsInsured(Arrays.asList("patient-2", "patient-0"));
+        assertEquals(1, service.bulkInsuredCalls.get());
+
+        cache.invalidate("patient-2");
+        client.arePatientsInsured(Arrays.asList("patient-2", "patient-0"));
+        assertEquals(2, service.bulkInsuredCalls.get());
+        assertEquals(Arrays.asList("patient-2"), service.lastBulkRequest);
+    }
+
+    @Test
+    public void testIncompleteBulkResponsesAreNotCached() {
+        InsuranceResponseCache cache = new InsuranceResponseCache();
+        CachingInsuranceService client = new CachingInsuranceService(new CountingInsuranceService() {
+            @Override
+            public List<Boolean> arePatientsInsured(List<String> patientIds) {
+                return Arrays.asList(true);
+            }
+        }, cache);
+        try {
+            client.arePatientsInsured(Arrays.asList("patient-0", "patient-1"));
+            fail("A response with fewer results than patients must be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(0, cache.size());
+    }
+}
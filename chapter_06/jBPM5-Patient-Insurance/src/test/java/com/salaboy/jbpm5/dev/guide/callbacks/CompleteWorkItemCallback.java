@@ -4,6 +4,7 @@
  */
 package com.salaboy.jbpm5.dev.guide.callbacks;
 
+import com.salaboy.jbpm5.dev.guide.completion.BusinessKey;
 import com.salaboy.jbpm5.dev.guide.util.SessionStoreUtil;
 import java.util.HashMap;
 import java.util.Map;
@@ -31,12 +32,11 @@ public class CompleteWorkItemCallback implements CommandCallback {
             }
         }
         String sWorkItemId = (String) ctx.getData("_workItemId");
-        String businessKey = (String) ctx.getData("businessKey");
-        String[] key = businessKey.split("@");
+        BusinessKey key = BusinessKey.parse((String) ctx.getData("businessKey"));
 
         StatefulKnowledgeSession session = null;
         synchronized(SessionStoreUtil.sessionCache){
-           session = SessionStoreUtil.sessionCache.get(key[1]);
+           session = SessionStoreUtil.sessionCache.get(key.getSessionKey());
         }
         
         session.getWorkItemManager().completeWorkItem(Long.valueOf(sWorkItemId), output);
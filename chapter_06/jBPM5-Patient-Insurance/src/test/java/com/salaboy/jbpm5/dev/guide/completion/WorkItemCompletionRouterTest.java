@@ -0,0 +1,223 @@
+package com.salaboy.jbpm5.dev.guide.completion;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.drools.KnowledgeBase;
+import org.drools.KnowledgeBaseFactory;
+import org.drools.builder.KnowledgeBuilder;
+import org.drools.builder.KnowledgeBuilderFactory;
+import org.drools.builder.ResourceType;
+import org.drools.io.impl.ClassPathResource;
+import org.drools.runtime.StatefulKnowledgeSession;
+import org.drools.runtime.process.ProcessInstance;
+import org.drools.runtime.process.WorkItem;
+import org.drools.runtime.process.WorkItemHandler;
+import org.drools.runtime.process.WorkItemManager;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link BusinessKey} and {@link WorkItemCompletionRouter}. The work
+ * items of "async-work-item-wait.bpmn" are left active by a handler that
+ * only builds their business keys, and the router completes them.
+ * @author salaboy
+ */
+public class WorkItemCompletionRouterTest {
+
+    private KnowledgeBase kbase;
+    private Map<String, StatefulKnowledgeSession> sessions;
+    private CountingResolver resolver;
+    private List<String> businessKeys;
+
+    @Before
+    public void setUp() {
+        KnowledgeBuilder kbuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
+        kbuilder.add(new ClassPathResource("async-work-item-wait.bpmn"), ResourceType.BPMN2);
+        assertFalse(kbuilder.getErrors().toString(), kbuilder.hasErrors());
+        kbase = KnowledgeBaseFactory.newKnowledgeBase();
+        kbase.addKnowledgePackages(kbuilder.getKnowledgePackages());
+
+        sessions = new HashMap<String, StatefulKnowledgeSession>();
+        resolver = new CountingResolver(sessions);
+        businessKeys = new ArrayList<String>();
+    }
+
+    @Test
+    public void testParseBusinessKey() {
+        String formatted = BusinessKey.format("Check_In @ Desk", 12, 345, 6);
+        assertEquals("Check_In @ Desk_12_345@sessionId=6", formatted);
+
+        BusinessKey key = BusinessKey.parse(formatted);
+        assertEquals("Check_In @ Desk", key.getWorkItemName());
+        assertEquals(12, key.getProcessInstanceId());
+        assertEquals(345, key.getWorkItemId());
+        assertEquals(6, key.getSessionId());
+        assertEquals("sessionId=6", key.getSessionKey());
+        assertEquals(formatted, key.toString());
+
+        for (String malformed : new String[]{"Task_1_2", "Task_1_2@session=3", "Task_2@sessionId=3", "Task_a_2@sessionId=3"}) {
+            try {
+                BusinessKey.parse(malformed);
+                fail("Parsed " + malformed);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Completions of two sessions are completed acquiring each session once.
+     */
+    @Test
+    public void testCompletionsAreGroupedBySession() {
+        StatefulKnowledgeSession first = createSession();
+        StatefulKnowledgeSession second = createSession();
+        List<ProcessInstance> instances = new ArrayList<ProcessInstance>();
+        for (int i = 0; i < 3; i++) {
+            instances.add(first.startProcess("PatientCheckIn", createInput()));
+            instances.add(second.startProcess("PatientCheckIn", createInput()));
+        }
+        assertEquals(6, businessKeys.size());
+
+        WorkItemCompletionRouter router = new WorkItemCompletionRouter(resolver, 1000);
+        for (String businessKey : businessKeys) {
+            router.submit(businessKey, new HashMap<String, Object>());
+        }
+        assertEquals(6, router.getPendingCount());
+
+        assertEquals(6, router.flush());
+        assertEquals(0, router.getPendingCount());
+        assertEquals(2, router.getSessionAcquisitions());
+        assertEquals(2, resolver.releases);
+        for (ProcessInstance instance : instances) {
+            assertEquals(ProcessInstance.STATE_COMPLETED, instance.getState());
+        }
+
+        // Nothing pending, no session is acquired
+        assertEquals(0, router.flush());
+        assertEquals(2, router.getSessionAcquisitions());
+    }
+
+    /**
+     * Completions for an unknown session are kept for a later flush without
+     * stopping the completions of the other sessions.
+     */
+    @Test
+    public void testUnknownSessionIsRetried() {
+        StatefulKnowledgeSession session = createSession();
+        ProcessInstance instance = session.startProcess("PatientCheckIn", createInput());
+        sessions.remove(BusinessKey.SESSION_PREFIX + session.getId());
+
+        StatefulKnowledgeSession other = createSession();
+        ProcessInstance otherInstance = other.startProcess("PatientCheckIn", createInput());
+
+        WorkItemCompletionRouter router = new WorkItemCompletionRouter(resolver, 1000);
+        router.submit(businessKeys.get(0), new HashMap<String, Object>());
+        router.submit(businessKeys.get(1), new HashMap<String, Object>());
+
+        assertEquals(1, router.flush());
+        assertEquals(ProcessInstance.STATE_COMPLETED, otherInstance.getState());
+        assertEquals(ProcessInstance.STATE_ACTIVE, instance.getState());
+        assertEquals(1, router.getPendingCount());
+        assertEquals(1, router.getCompletedCount());
+        assertEquals(0, router.getFailedCount());
+
+        // The session shows up again
+        sessions.put(BusinessKey.SESSION_PREFIX + session.getId(), session);
+        assertEquals(1, router.flush());
+        assertEquals(ProcessInstance.STATE_COMPLETED, instance.getState());
+        assertEquals(0, router.getPendingCount());
+        assertEquals(2, router.getCompletedCount());
+    }
+
+    /**
+     * Completions rolled back by the resolver are neither counted nor lost,
+     * they are completed again on the next flush.
+     */
+    @Test
+    public void testRolledBackCompletionsAreRequeued() {
+        StatefulKnowledgeSession session = createSession();
+        for (int i = 0; i < 3; i++) {
+            session.startProcess("PatientCheckIn", createInput());
+        }
+        WorkItemCompletionRouter router = new WorkItemCompletionRouter(resolver, 1000);
+        for (String businessKey : businessKeys) {
+            router.submit(businessKey, new HashMap<String, Object>());
+        }
+
+        resolver.rollback = true;
+        assertEquals(0, router.flush());
+        assertEquals(3, router.getPendingCount());
+        assertEquals(0, router.getCompletedCount());
+        assertEquals(0, router.getFailedCount());
+
+        resolver.rollback = false;
+        assertEquals(3, router.flush());
+        assertEquals(0, router.getPendingCount());
+        assertEquals(3, router.getCompletedCount());
+        assertEquals(2, resolver.releases);
+        assertTrue(resolver.lastSuccess);
+    }
+
+    @Test
+    public void testPeriodicFlush() throws InterruptedException {
+        StatefulKnowledgeSession session = createSession();
+        ProcessInstance instance = session.startProcess("PatientCheckIn", createInput());
+
+        WorkItemCompletionRouter router = new WorkItemCompletionRouter(resolver, 50);
+        router.start();
+        try {
+            router.submit(businessKeys.get(0), new HashMap<String, Object>());
+            long deadline = System.currentTimeMillis() + 5000;
+            while (router.getCompletedCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+        } finally {
+            router.stop();
+        }
+        assertEquals(ProcessInstance.STATE_COMPLETED, instance.getState());
+    }
+
+    private StatefulKnowledgeSession createSession() {
+        StatefulKnowledgeSession session = kbase.newStatefulKnowledgeSession();
+        final int sessionId = session.getId();
+        session.getWorkItemManager().registerWorkItemHandler("Async Work", new WorkItemHandler() {
+
+            public void executeWorkItem(WorkItem workItem, WorkItemManager manager) {
+                businessKeys.add(BusinessKey.format(workItem.getName(), workItem.getProcessInstanceId(), workItem.getId(), sessionId));
+            }
+
+            public void abortWorkItem(WorkItem workItem, WorkItemManager manager) {
+            }
+        });
+        sessions.put(BusinessKey.SESSION_PREFIX + sessionId, session);
+        return session;
+    }
+
+    private Map<String, Object> createInput() {
+        Map<String, Object> input = new HashMap<String, Object>();
+        input.put("bedrequest_patientname", "John Doe");
+        return input;
+    }
+
+    private static class CountingResolver extends MapSessionResolver {
+
+        private int releases;
+        private boolean lastSuccess;
+        private boolean rollback;
+
+        CountingResolver(Map<String, StatefulKnowledgeSession> sessions) {
+            super(sessions);
+        }
+
+        @Override
+        public boolean release(int sessionId, StatefulKnowledgeSession session, boolean success) {
+            releases++;
+            lastSuccess = success;
+            return success && !rollback;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.salaboy.jbpm5.dev.guide.simulator;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ServiceSimulator} and {@link LatencyDistribution}. The
+ * simulated services are called directly, without publishing them.
+ * @author salaboy
+ */
+public class ServiceSimulatorTest {
+
+    @Test
+    public void testSameSeedSameLatencies() {
+        LatencyDistribution distribution = LatencyDistribution.withTailSpikes(
+                LatencyDistribution.logNormal(20, 0.5), 0.05, LatencyDistribution.uniform(500, 1000));
+        Random first = new Random(42);
+        Random second = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(distribution.nextMillis(first), distribution.nextMillis(second));
+        }
+    }
+
+    @Test
+    public void testDistributionShapes() {
+        Random random = new Random(7);
+        LatencyDistribution uniform = LatencyDistribution.uniform(10, 20);
+        LatencyDistribution logNormal = LatencyDistribution.logNormal(100, 0.8);
+        LatencyDistribution spiky = LatencyDistribution.withTailSpikes(
+                LatencyDistribution.constant(5), 0.1, LatencyDistribution.constant(1000));
+        int belowMedian = 0;
+        int spikes = 0;
+        for (int i = 0; i < 10000; i++) {
+            long sample = uniform.nextMillis(random);
+            assertTrue(sample >= 10 && sample <= 20);
+            if (logNormal.nextMillis(random) < 100) {
+                belowMedian++;
+            }
+            if (spiky.nextMillis(random) == 1000) {
+                spikes++;
+            }
+        }
+        assertEquals(5000, belowMedian, 300);
+        assertEquals(1000, spikes, 150);
+    }
+
+    @Test
+    public void testErrorRateAndMetrics() {
+        ServiceSimulator simulator = new ServiceSimulator(1);
+        simulator.setProfile("isPatientInsured", new OperationProfile(LatencyDistribution.constant(0), 0.2));
+        SimulatedInsuranceService service = new SimulatedInsuranceService(simulator);
+        service.getInsuredPatients().put("patient-1", true);
+
+        int failures = runCalls(service, 1000);
+        OperationMetrics metrics = simulator.getMetrics("isPatientInsured");
+        assertEquals(1000, metrics.getCalls());
+        assertEquals(failures, metrics.getErrors());
+        assertEquals(200, failures, 50);
+
+        // After a reset the same failures happen again
+        simulator.reset();
+        assertEquals(failures, runCalls(service, 1000));
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws InterruptedException {
+        final ServiceSimulator simulator = new ServiceSimulator(1, 2, 50);
+        simulator.setDefaultProfile(new OperationProfile(LatencyDistribution.constant(200)));
+        final SimulatedSlowService service = new SimulatedSlowService(simulator);
+        simulator.setProfile(SimulatedSlowService.SLOW_METHOD_2, new OperationProfile(LatencyDistribution.constant(200)));
+
+        final AtomicInteger rejected = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        service.slowMethod2("John Doe");
+                    } catch (SimulatedServiceException e) {
+                        rejected.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        OperationMetrics metrics = simulator.getMetrics(SimulatedSlowService.SLOW_METHOD_2);
+        assertEquals(2, metrics.getMaxInFlight());
+        assertEquals(3, rejected.get());
+        assertEquals(3, metrics.getRejected());
+        assertEquals(2, metrics.getCalls());
+        assertTrue(metrics.getLatencyPercentile(50) >= 200);
+    }
+
+    private int runCalls(SimulatedInsuranceService service, int calls) {
+        int failures = 0;
+        for (int i = 0; i < calls; i++) {
+            try {
+                service.isPatientInsured("patient-1");
+            } catch (SimulatedServiceException e) {
+                failures++;
+            }
+        }
+        return failures;
+    }
+}
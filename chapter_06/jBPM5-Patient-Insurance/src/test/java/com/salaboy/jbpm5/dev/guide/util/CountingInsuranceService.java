@@ -0,0 +1,68 @@
+package com.salaboy.jbpm5.dev.guide.util;
+
+import com.salaboy.jbpm5.dev.guide.model.Patient;
+import com.salaboy.jbpm5.dev.guide.webservice.InsuranceServiceImpl;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The web service implementation, used directly without publishing it,
+ * counting how many calls of each operation reach it. It can be switched to
+ * fail the bulk calls.
+ * @author salaboy
+ */
+public class CountingInsuranceService extends InsuranceServiceImpl {
+
+    public final AtomicInteger insuredCalls = new AtomicInteger();
+    public final AtomicInteger patientDataCalls = new AtomicInteger();
+    public final AtomicInteger bulkInsuredCalls = new AtomicInteger();
+    public final AtomicInteger bulkPatientDataCalls = new AtomicInteger();
+    public volatile List<String> lastBulkRequest;
+    public volatile boolean failing;
+
+    /**
+     * Creates the service with the patients patient-0 ... patient-(count-1);
+     * the even ones are insured.
+     */
+    public static CountingInsuranceService withPatients(int count) {
+        CountingInsuranceService service = new CountingInsuranceService();
+        for (int i = 0; i < count; i++) {
+            String id = "patient-" + i;
+            service.getPatients().put(id, new Patient(id, "Name" + i, "LastName" + i, "patient" + i + "@gmail.com", "555-" + i, 20 + i));
+            service.getInsuredPatients().put(id, i % 2 == 0);
+        }
+        return service;
+    }
+
+    @Override
+    public boolean isPatientInsured(String patientId) {
+        insuredCalls.incrementAndGet();
+        return super.isPatientInsured(patientId);
+    }
+
+    @Override
+    public Patient getPatientData(String patientId) {
+        patientDataCalls.incrementAndGet();
+        return super.getPatientData(patientId);
+    }
+
+    @Override
+    public List<Boolean> arePatientsInsured(List<String> patientIds) {
+        bulkInsuredCalls.incrementAndGet();
+        lastBulkRequest = patientIds;
+        if (failing) {
+            throw new IllegalStateException("Insurance service is down");
+        }
+        return super.arePatientsInsured(patientIds);
+    }
+
+    @Override
+    public List<Patient> getPatientsData(List<String> patientIds) {
+        bulkPatientDataCalls.incrementAndGet();
+        lastBulkRequest = patientIds;
+        if (failing) {
+            throw new IllegalStateException("Insurance service is down");
+        }
+        return super.getPatientsData(patientIds);
+    }
+}
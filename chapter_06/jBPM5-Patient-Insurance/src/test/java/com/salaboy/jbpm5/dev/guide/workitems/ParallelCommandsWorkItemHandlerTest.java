@@ -0,0 +1,143 @@
+package com.salaboy.jbpm5.dev.guide.workitems;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.drools.process.instance.impl.WorkItemImpl;
+import org.drools.runtime.process.WorkItemHandler;
+import org.drools.runtime.process.WorkItemManager;
+import org.jbpm.executor.api.Command;
+import org.jbpm.executor.api.CommandContext;
+import org.jbpm.executor.api.ExecutionResults;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ParallelCommandsWorkItemHandler}. The commands are simple
+ * sleeps so no web service needs to be published.
+ * @author salaboy
+ */
+public class ParallelCommandsWorkItemHandlerTest {
+
+    private ParallelCommandsWorkItemHandler handler;
+    private RecordingWorkItemManager manager;
+
+    @Before
+    public void setUp() {
+        handler = new ParallelCommandsWorkItemHandler(3, 5000);
+        handler.registerCommand("sleepCommand", new SleepCommand());
+        handler.registerCommand("failingCommand", new Command() {
+            public ExecutionResults execute(CommandContext ctx) {
+                throw new IllegalStateException("Service unavailable");
+            }
+        });
+        manager = new RecordingWorkItemManager();
+    }
+
+    @After
+    public void tearDown() {
+        handler.dispose();
+    }
+
+    /**
+     * Three branches of 500 ms each take around 500 ms, not 1500 ms.
+     */
+    @Test
+    public void testBranchesAreExecutedConcurrently() throws InterruptedException {
+        WorkItemImpl workItem = createWorkItem("one,two,three");
+        for (String branch : new String[]{"one", "two", "three"}) {
+            workItem.setParameter(branch + ".command", "sleepCommand");
+            workItem.setParameter(branch + ".sleep", "500");
+            workItem.setParameter(branch + ".outputName", "result_" + branch);
+        }
+        long start = System.currentTimeMillis();
+        handler.executeWorkItem(workItem, manager);
+        assertTrue(manager.await());
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Took " + elapsed + " ms", elapsed < 1200);
+
+        assertEquals("John Doe 500", manager.results.get("result_one"));
+        assertEquals("John Doe 500", manager.results.get("result_three"));
+        assertEquals("", manager.results.get(ParallelCommandsWorkItemHandler.FAILED_BRANCHES));
+        assertEquals("", manager.results.get(ParallelCommandsWorkItemHandler.TIMED_OUT_BRANCHES));
+    }
+
+    /**
+     * A slow branch is cut at its own timeout and a failing one is reported,
+     * while the results of the others are still returned.
+     */
+    @Test
+    public void testPartialFailuresAreReported() throws InterruptedException {
+        WorkItemImpl workItem = createWorkItem("fast,slow,broken");
+        workItem.setParameter("fast.command", "sleepCommand");
+        workItem.setParameter("fast.sleep", "10");
+        workItem.setParameter("fast.outputName", "result_fast");
+        workItem.setParameter("slow.command", "sleepCommand");
+        workItem.setParameter("slow.sleep", "5000");
+        workItem.setParameter("slow.timeout", "200");
+        workItem.setParameter("slow.outputName", "result_slow");
+        workItem.setParameter("broken.command", "failingCommand");
+
+        long start = System.currentTimeMillis();
+        handler.executeWorkItem(workItem, manager);
+        assertTrue(manager.await());
+        assertTrue(System.currentTimeMillis() - start < 2000);
+
+        assertEquals("John Doe 10", manager.results.get("result_fast"));
+        assertFalse(manager.results.containsKey("result_slow"));
+        assertEquals("broken", manager.results.get(ParallelCommandsWorkItemHandler.FAILED_BRANCHES));
+        assertEquals("slow", manager.results.get(ParallelCommandsWorkItemHandler.TIMED_OUT_BRANCHES));
+        assertEquals("Service unavailable", manager.results.get("broken.error"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownCommandsAreRejected() {
+        WorkItemImpl workItem = createWorkItem("one");
+        workItem.setParameter("one.command", "unknownCommand");
+        handler.executeWorkItem(workItem, manager);
+    }
+
+    private WorkItemImpl createWorkItem(String branches) {
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setId(1);
+        workItem.setName("Parallel Web Services");
+        workItem.setParameter("branches", branches);
+        workItem.setParameter("patientName", "John Doe");
+        return workItem;
+    }
+
+    private static class SleepCommand implements Command {
+
+        public ExecutionResults execute(CommandContext ctx) throws Exception {
+            long sleep = Long.parseLong((String) ctx.getData("sleep"));
+            Thread.sleep(sleep);
+            ExecutionResults results = new ExecutionResults();
+            results.setData((String) ctx.getData("outputName"), ctx.getData("patientName") + " " + sleep);
+            return results;
+        }
+    }
+
+    private static class RecordingWorkItemManager implements WorkItemManager {
+
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile Map<String, Object> results;
+
+        public void completeWorkItem(long id, Map<String, Object> results) {
+            this.results = results;
+            completed.countDown();
+        }
+
+        public void abortWorkItem(long id) {
+            completed.countDown();
+        }
+
+        public void registerWorkItemHandler(String workItemName, WorkItemHandler handler) {
+        }
+
+        boolean await() throws InterruptedException {
+            return completed.await(5, TimeUnit.SECONDS);
+        }
+    }
+}
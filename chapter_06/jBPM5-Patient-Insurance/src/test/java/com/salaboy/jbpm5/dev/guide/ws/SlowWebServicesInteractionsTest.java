@@ -5,6 +5,7 @@ import com.salaboy.jbpm5.dev.guide.util.SessionStoreUtil;
 import com.salaboy.jbpm5.dev.guide.webservice.SlowService;
 import com.salaboy.jbpm5.dev.guide.webservice.SlowServiceImpl;
 import com.salaboy.jbpm5.dev.guide.workitems.AsyncGenericWorkItemHandler;
+import com.salaboy.jbpm5.dev.guide.workitems.ParallelCommandsWorkItemHandler;
 import java.util.HashMap;
 import java.util.List;
 import javax.xml.ws.Endpoint;
@@ -22,6 +23,7 @@ import org.jbpm.executor.ExecutorServiceEntryPoint;
 import org.jbpm.executor.entities.RequestInfo;
 import org.junit.After;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -152,7 +154,47 @@ public class SlowWebServicesInteractionsTest {
         assertEquals(ProcessInstance.STATE_COMPLETED, pI.getState());
         session.dispose();
     }
-    
+
+    /**
+     * Invokes the same 3 web services but all of them at the same time, using
+     * {@link ParallelCommandsWorkItemHandler} with {@link CXFWebServiceCommand}.
+     * The task is completed once the slowest web service returns, so the
+     * whole process takes around 10 seconds instead of 14.
+     * @throws InterruptedException 
+     */
+    @Test
+    public void testSlowWebServicesParallel() throws InterruptedException {
+
+        initializeSession("three-systems-interactions-parallel.bpmn");
+
+        HashMap<String, Object> input = new HashMap<String, Object>();
+
+        String patientName = "John Doe";
+        input.put("bedrequest_patientname", patientName);
+
+        ParallelCommandsWorkItemHandler webServiceHandler = new ParallelCommandsWorkItemHandler(3, 20000);
+        webServiceHandler.registerCommand("cxfwebServiceCommand", new CXFWebServiceCommand());
+        session.getWorkItemManager().registerWorkItemHandler("Parallel Web Services", webServiceHandler);
+
+        long start = System.currentTimeMillis();
+        WorkflowProcessInstance pI = (WorkflowProcessInstance) session.startProcess("ThreeSystemsInteractionsParallel", input);
+        assertEquals(ProcessInstance.STATE_ACTIVE, pI.getState());
+
+        while (pI.getState() == ProcessInstance.STATE_ACTIVE && System.currentTimeMillis() - start < 20000) {
+            Thread.sleep(500);
+        }
+
+        //The process is completed once the slowest web service returns
+        assertEquals(ProcessInstance.STATE_COMPLETED, pI.getState());
+        assertTrue(System.currentTimeMillis() - start < 14000);
+        assertEquals("Success 2", pI.getVariable("slowservice_resultTwo"));
+        assertEquals("Success 3", pI.getVariable("slowservice_resultThree"));
+        assertEquals("", pI.getVariable("failedBranches"));
+        assertEquals("", pI.getVariable("timedOutBranches"));
+
+        webServiceHandler.dispose();
+        session.dispose();
+    }
     
     private void initializeSession(String processName) {
         KnowledgeBuilder kbuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();